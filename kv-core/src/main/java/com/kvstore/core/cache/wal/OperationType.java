@@ -0,0 +1,29 @@
+package com.kvstore.core.cache.wal;
+
+public enum OperationType {
+    PUT((byte) 0),
+    DELETE((byte) 1),
+    /**
+     * Put whose value is the pointer to a value stored in the value log of the tree.
+     */
+    PUT_VALUE_POINTER((byte) 2);
+
+    private final byte code;
+
+    OperationType(byte code) {
+        this.code = code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static OperationType fromCode(byte code) {
+        return switch(code) {
+            case 0 -> PUT;
+            case 1 -> DELETE;
+            case 2 -> PUT_VALUE_POINTER;
+            default -> throw new IllegalArgumentException("Unknown operation type: " + code);
+        };
+    }
+}
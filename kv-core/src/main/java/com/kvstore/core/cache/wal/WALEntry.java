@@ -1,6 +1,37 @@
 package com.kvstore.core.cache.wal;
 
+/**
+ * A single logged write, replayed in sequence number order on recovery.
+ */
 public class WALEntry {
-    private long sequenceNumber;
-    private OperationType type;
+    private final long sequenceNumber;
+    private final OperationType type;
+    private final byte[] key;
+    private final byte[] value;
+
+    public WALEntry(long sequenceNumber, OperationType type, byte[] key, byte[] value) {
+        this.sequenceNumber = sequenceNumber;
+        this.type = type;
+        this.key = key;
+        this.value = value;
+    }
+
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public byte[] getKey() {
+        return key;
+    }
+
+    /**
+     * @return the written value, empty for deletes.
+     */
+    public byte[] getValue() {
+        return value;
+    }
 }
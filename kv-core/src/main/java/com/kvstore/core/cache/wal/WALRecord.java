@@ -0,0 +1,107 @@
+package com.kvstore.core.cache.wal;
+
+import com.kvstore.core.storage.LSMTree.io.VByte;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Binary layout of a log record, holding one or more entries with consecutive sequence numbers:
+ * <pre>
+ *     checksum (4) | length (4) | segment number (8) | first sequence number (8) | entry count (vbyte) | entries
+ *     entry: type (1) | key length (vbyte) | key | value length (vbyte) | value
+ * </pre>
+ * The CRC32C checksum covers the {@code length} bytes following the length field. The segment
+ * number tells the records of a recycled segment file apart from the stale ones of its previous
+ * life: reading stops at the first record that is torn, corrupt or belongs to another segment.
+ */
+final class WALRecord {
+
+    static final int HEADER_SIZE = Integer.BYTES * 2;
+    private static final int FIXED_PAYLOAD_SIZE = Long.BYTES * 2;
+
+    private WALRecord() {
+    }
+
+    static int encodedSize(List<WALEntry> entries) {
+        int size = HEADER_SIZE + FIXED_PAYLOAD_SIZE + VByte.size(entries.size());
+        for(WALEntry entry : entries) {
+            size += 1 + VByte.size(entry.getKey().length) + entry.getKey().length
+                    + VByte.size(entry.getValue().length) + entry.getValue().length;
+        }
+        return size;
+    }
+
+    /**
+     * Append the record of entries to the buffer, which must have room for {@link #encodedSize(List)} bytes.
+     */
+    static void encode(long segment, List<WALEntry> entries, ByteBuffer dst) {
+        int start = dst.position();
+        dst.position(start + HEADER_SIZE);
+        dst.putLong(segment);
+        dst.putLong(entries.get(0).getSequenceNumber());
+
+        byte[] scratch = new byte[10];
+        putVByte(dst, scratch, entries.size());
+        for(WALEntry entry : entries) {
+            dst.put(entry.getType().code());
+            putVByte(dst, scratch, entry.getKey().length);
+            dst.put(entry.getKey());
+            putVByte(dst, scratch, entry.getValue().length);
+            dst.put(entry.getValue());
+        }
+
+        int length = dst.position() - start - HEADER_SIZE;
+        CRC32C crc = new CRC32C();
+        crc.update(dst.duplicate().position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length));
+        dst.putInt(start, (int) crc.getValue());
+        dst.putInt(start + Integer.BYTES, length);
+    }
+
+    /**
+     * Decode the record at the buffer position, advancing it.
+     *
+     * @return the entries of the record, or null at the end of the valid records of the segment.
+     */
+    static ObjectArrayList<WALEntry> decode(long segment, ByteBuffer src) {
+        if(src.remaining() < HEADER_SIZE) {
+            return null;
+        }
+
+        int checksum = src.getInt(src.position());
+        int length = src.getInt(src.position() + Integer.BYTES);
+        if(length < FIXED_PAYLOAD_SIZE || length > src.remaining() - HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer payload = src.duplicate().position(src.position() + HEADER_SIZE);
+        payload.limit(payload.position() + length);
+
+        CRC32C crc = new CRC32C();
+        crc.update(payload.duplicate());
+        if((int) crc.getValue() != checksum || payload.getLong() != segment) {
+            return null;
+        }
+
+        long sequence = payload.getLong();
+        int count = (int) VByte.read(payload);
+        ObjectArrayList<WALEntry> entries = new ObjectArrayList<>(count);
+        for(int i = 0; i < count; i++) {
+            OperationType type = OperationType.fromCode(payload.get());
+            byte[] key = new byte[(int) VByte.read(payload)];
+            payload.get(key);
+            byte[] value = new byte[(int) VByte.read(payload)];
+            payload.get(value);
+            entries.add(new WALEntry(sequence + i, type, key, value));
+        }
+
+        src.position(payload.limit());
+        return entries;
+    }
+
+    private static void putVByte(ByteBuffer dst, byte[] scratch, long n) {
+        dst.put(scratch, 0, VByte.write(n, scratch, 0));
+    }
+}
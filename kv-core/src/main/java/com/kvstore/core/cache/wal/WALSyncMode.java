@@ -0,0 +1,21 @@
+package com.kvstore.core.cache.wal;
+
+/**
+ * When the log forces its writes to stable storage.
+ */
+public enum WALSyncMode {
+    /**
+     * Hand writes to the operating system without syncing: survives a process crash, not a machine crash.
+     */
+    NONE,
+
+    /**
+     * Sync each group commit before acknowledging its writes.
+     */
+    SYNC,
+
+    /**
+     * Sync in the background at a fixed interval, bounding the writes lost by a machine crash to that interval.
+     */
+    PERIODIC
+}
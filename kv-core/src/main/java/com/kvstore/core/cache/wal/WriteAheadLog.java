@@ -0,0 +1,454 @@
+package com.kvstore.core.cache.wal;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead log made of numbered segment files, see {@link WALRecord} for the record format.
+ * <p>
+ * Appends use group commit: the first writer to find the log idle becomes the leader, takes every
+ * record queued so far, writes them with a single write and, in {@link WALSyncMode#SYNC} mode, a
+ * single sync, then wakes up the writers it committed for. Writers arriving in the meantime queue
+ * their records for the next leader, so the cost of a sync is shared by all of them.
+ * <p>
+ * The owner rolls to a new segment whenever the data logged so far is safe elsewhere, e.g. once per
+ * memtable, and releases the old segment when it is no longer needed. Released segments are kept
+ * for reuse up to a limit, which saves creating and growing a file per segment.
+ * <p>
+ * Segments found in the directory when the log is opened are not written to, they are listed by
+ * {@link #recoveredSegments()} to be replayed and released by the owner.
+ */
+public class WriteAheadLog implements Closeable {
+
+    public static final String SEGMENT_PREFIX = "wal_";
+    public static final String SEGMENT_EXTENSION = ".log";
+    public static final String RECYCLED_EXTENSION = ".recycle";
+
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile(SEGMENT_PREFIX + "(\\d+)" + Pattern.quote(SEGMENT_EXTENSION));
+
+    private final Path directory;
+    private final WALSyncMode syncMode;
+    private final int maxRecycledSegments;
+    private final LongArrayList recoveredSegments;
+    private final ArrayDeque<Path> recycled;
+    private final ScheduledExecutorService syncer;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition committed = lock.newCondition();
+
+    private FileChannel channel;
+    private long segment;
+    private long nextSequence;
+
+    private ObjectArrayList<List<WALEntry>> queued = new ObjectArrayList<>();
+    private long queuedRecords;
+    private long committedRecords;
+    private boolean writing;
+    private RuntimeException failure;
+
+    private long groupCommits;
+    private final LongAdder syncs = new LongAdder();
+
+    /**
+     * Open the log of a directory, starting a new segment after the existing ones.
+     *
+     * @param directory           directory holding the segments.
+     * @param syncMode            when writes are synced.
+     * @param syncIntervalMillis  interval of the background syncs in {@link WALSyncMode#PERIODIC} mode.
+     * @param maxRecycledSegments number of released segment files kept for reuse.
+     */
+    public WriteAheadLog(String directory, WALSyncMode syncMode, long syncIntervalMillis, int maxRecycledSegments) {
+        this.directory = Path.of(directory);
+        this.syncMode = syncMode;
+        this.maxRecycledSegments = maxRecycledSegments;
+        this.recoveredSegments = new LongArrayList();
+        this.recycled = new ArrayDeque<>();
+
+        try(Stream<Path> files = Files.list(this.directory)) {
+            for(Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                Matcher matcher = SEGMENT_PATTERN.matcher(name);
+                if(matcher.matches()) {
+                    recoveredSegments.add(Long.parseLong(matcher.group(1)));
+                } else if(name.startsWith(SEGMENT_PREFIX) && name.endsWith(RECYCLED_EXTENSION)) {
+                    recycle(file);
+                }
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not list the log directory", e);
+        }
+        recoveredSegments.sort(null);
+
+        openSegment(recoveredSegments.isEmpty() ? 0 : recoveredSegments.getLong(recoveredSegments.size() - 1) + 1);
+
+        if(syncMode == WALSyncMode.PERIODIC) {
+            syncer = Executors.newSingleThreadScheduledExecutor();
+            syncer.scheduleAtFixedRate(this::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            syncer = null;
+        }
+    }
+
+    /**
+     * @return the segments left by a previous instance, oldest first.
+     */
+    public LongArrayList recoveredSegments() {
+        return recoveredSegments;
+    }
+
+    /**
+     * Read back the valid records of a segment, stopping at the first torn or corrupt one.
+     * Sequence numbers of later appends continue after the replayed ones.
+     *
+     * @return the number of replayed entries.
+     */
+    public long replay(long segment, Consumer<WALEntry> consumer) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(segment)));
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read log segment " + segment, e);
+        }
+
+        long count = 0;
+        ObjectArrayList<WALEntry> entries;
+        while((entries = WALRecord.decode(segment, buffer)) != null) {
+            for(WALEntry entry : entries) {
+                consumer.accept(entry);
+                count++;
+            }
+
+            long last = entries.get(entries.size() - 1).getSequenceNumber();
+            lock.lock();
+            try {
+                nextSequence = Math.max(nextSequence, last + 1);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Make later appends get sequence numbers of at least {@code sequence}, e.g. to continue after
+     * writes whose segments were already released.
+     */
+    public void advanceSequence(long sequence) {
+        lock.lock();
+        try {
+            nextSequence = Math.max(nextSequence, sequence);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Log a write, returning once it is committed according to the sync mode.
+     *
+     * @param type  kind of write.
+     * @param key   written key.
+     * @param value written value, empty for deletes.
+     * @return the sequence number assigned to the write.
+     */
+    public long append(OperationType type, byte[] key, byte[] value) {
+        lock.lock();
+        try {
+            long sequence = nextSequence++;
+            queued.add(ObjectArrayList.of(new WALEntry(sequence, type, key, value)));
+            awaitCommit(++queuedRecords);
+            return sequence;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Log several writes as a single record, so that they are replayed all together or not at all,
+     * returning once it is committed according to the sync mode.
+     *
+     * @param writes writes to log, their sequence numbers are ignored.
+     * @return the sequence number assigned to the first write, the next ones following it.
+     */
+    public long append(List<WALEntry> writes) {
+        lock.lock();
+        try {
+            long first = nextSequence;
+            ObjectArrayList<WALEntry> record = new ObjectArrayList<>(writes.size());
+            for(WALEntry write : writes) {
+                record.add(new WALEntry(nextSequence++, write.getType(), write.getKey(), write.getValue()));
+            }
+            queued.add(record);
+            awaitCommit(++queuedRecords);
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close the current segment and start a new one.
+     *
+     * @return the number of the closed segment.
+     */
+    public long roll() {
+        lock.lock();
+        try {
+            while(writing) {
+                committed.awaitUninterruptibly();
+            }
+
+            long closed = segment;
+            FileChannel previous = channel;
+            openSegment(segment + 1);
+            closeChannel(previous);
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop a closed segment whose data is no longer needed, keeping its file for reuse if there is room.
+     */
+    public void release(long segment) {
+        lock.lock();
+        try {
+            recycle(segmentPath(segment));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Force the writes of the current segment to stable storage.
+     */
+    public void sync() {
+        FileChannel target;
+        lock.lock();
+        try {
+            target = channel;
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            target.force(false);
+        } catch(ClosedChannelException ignored) {
+            // rolled or closed meanwhile, both sync the segment they close
+            return;
+        } catch(IOException e) {
+            throw new RuntimeException("Could not sync the log", e);
+        }
+        syncs.increment();
+    }
+
+    public long currentSegment() {
+        lock.lock();
+        try {
+            return segment;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the sequence number of the last logged write, -1 if none.
+     */
+    public long lastSequence() {
+        lock.lock();
+        try {
+            return nextSequence - 1;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of writes performed for the records appended so far, lower when more writers share a commit.
+     */
+    public long groupCommits() {
+        lock.lock();
+        try {
+            return groupCommits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long appendedRecords() {
+        lock.lock();
+        try {
+            return committedRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long syncs() {
+        return syncs.sum();
+    }
+
+    @Override
+    public void close() {
+        if(syncer != null) {
+            syncer.shutdownNow();
+        }
+
+        lock.lock();
+        try {
+            while(writing) {
+                committed.awaitUninterruptibly();
+            }
+            closeChannel(channel);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("WriteAheadLog { segment: %d, records: %d, group commits: %d, syncs: %d }",
+                currentSegment(), appendedRecords(), groupCommits(), syncs());
+    }
+
+    /**
+     * Called holding the lock: wait for the record to be committed by another writer, or lead the next
+     * group commit if the log is idle.
+     */
+    private void awaitCommit(long ticket) {
+        while(committedRecords < ticket) {
+            if(failure != null) {
+                throw failure;
+            }
+
+            if(writing) {
+                committed.awaitUninterruptibly();
+                continue;
+            }
+
+            writing = true;
+            ObjectArrayList<List<WALEntry>> batch = queued;
+            queued = new ObjectArrayList<>();
+            long last = queuedRecords;
+            FileChannel target = channel;
+            long targetSegment = segment;
+
+            lock.unlock();
+            RuntimeException error = null;
+            try {
+                write(target, targetSegment, batch);
+            } catch(RuntimeException e) {
+                error = e;
+            } finally {
+                lock.lock();
+            }
+
+            if(error != null) {
+                failure = error;
+            }
+            writing = false;
+            committedRecords = last;
+            groupCommits++;
+            committed.signalAll();
+        }
+
+        if(failure != null) {
+            throw failure;
+        }
+    }
+
+    private void write(FileChannel target, long targetSegment, ObjectArrayList<List<WALEntry>> batch) {
+        int size = 0;
+        for(List<WALEntry> record : batch) {
+            size += WALRecord.encodedSize(record);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for(List<WALEntry> record : batch) {
+            WALRecord.encode(targetSegment, record, buffer);
+        }
+        buffer.flip();
+
+        try {
+            while(buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            if(syncMode == WALSyncMode.SYNC) {
+                target.force(false);
+                syncs.increment();
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write to the log", e);
+        }
+    }
+
+    private void openSegment(long number) {
+        Path path = segmentPath(number);
+        try {
+            Path reused = recycled.poll();
+            if(reused != null) {
+                // stale records left in the file are told apart by their segment number
+                Files.move(reused, path);
+                channel = FileChannel.open(path, StandardOpenOption.WRITE);
+            } else {
+                channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            }
+            segment = number;
+        } catch(IOException e) {
+            throw new RuntimeException("Could not open log segment " + number, e);
+        }
+    }
+
+    private void closeChannel(FileChannel target) {
+        try {
+            if(syncMode != WALSyncMode.NONE) {
+                target.force(false);
+            }
+            target.close();
+        } catch(IOException e) {
+            throw new RuntimeException("Could not close the log", e);
+        }
+    }
+
+    private void recycle(Path file) {
+        try {
+            if(recycled.size() < maxRecycledSegments) {
+                String name = file.getFileName().toString();
+                Path target = file.resolveSibling(name.substring(0, name.lastIndexOf('.')) + RECYCLED_EXTENSION);
+                if(!file.equals(target)) {
+                    Files.move(file, target);
+                }
+                recycled.add(target);
+            } else {
+                Files.deleteIfExists(file);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not release log file " + file, e);
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(SEGMENT_PREFIX + number + SEGMENT_EXTENSION);
+    }
+}
@@ -0,0 +1,1230 @@
+package com.kvstore.core.storage.LSMTree;
+
+import com.kvstore.core.cache.wal.WALSyncMode;
+import com.kvstore.core.iterator.CloseableIterator;
+import com.kvstore.core.model.KVEntry;
+import com.kvstore.core.storage.LSMTree.bloom.BlockedBloomFilter;
+import com.kvstore.core.storage.LSMTree.bloom.BloomFilter;
+import com.kvstore.core.storage.LSMTree.bloom.KeyFilter;
+import com.kvstore.core.storage.LSMTree.bloom.KeyHash;
+import com.kvstore.core.storage.LSMTree.bloom.PrefixExtractor;
+import com.kvstore.core.storage.LSMTree.bloom.XorFilter;
+import com.kvstore.core.storage.LSMTree.compaction.FifoCompactionStrategy;
+import com.kvstore.core.storage.LSMTree.compaction.LeveledCompactionStrategy;
+import com.kvstore.core.storage.LSMTree.compaction.TieredCompactionStrategy;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodec;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodecs;
+import com.kvstore.core.storage.LSMTree.io.RateLimiter;
+import com.kvstore.core.storage.LSMTree.memtable.ArenaSkipList;
+import com.kvstore.core.storage.LSMTree.memtable.ConcurrentSkipList;
+import com.kvstore.core.storage.LSMTree.memtable.Memtable;
+import com.kvstore.core.storage.LSMTree.memtable.MemtableRep;
+import com.kvstore.core.storage.LSMTree.memtable.SkipList;
+import com.kvstore.core.storage.LSMTree.sstable.BlockCache;
+import com.kvstore.core.storage.LSMTree.sstable.ReadMode;
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.sstable.TableFormat;
+import com.kvstore.core.storage.LSMTree.sstable.TableOptions;
+import com.kvstore.core.storage.LSMTree.sstable.TableStats;
+import com.kvstore.core.storage.LSMTree.tree.LSMTree;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeIterator;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import com.kvstore.core.storage.LSMTree.tree.ScanOptions;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.vlog.ValueLog;
+import com.kvstore.core.storage.bitcask.BitcaskOptions;
+import com.kvstore.core.storage.Storage;
+import com.kvstore.core.storage.StorageEngine;
+import com.kvstore.core.storage.StorageOptions;
+import com.kvstore.core.storage.WriteBatch;
+import com.kvstore.core.storage.bitcask.BitcaskStorage;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Micro benchmarks for the LSM-Tree, run with:
+ * <pre>
+ *     java ... LSMTreeBenchmark [benchmark] [max threads] [ops per thread]
+ * </pre>
+ * Benchmarks:
+ *   - memtable : multi-threaded puts on the old monitor-guarded SkipList vs the concurrent Memtable;
+ *   - put      : multi-threaded puts through LSMTree.add (flushes and compactions included);
+ *   - get      : multi-threaded point reads served by SSTables, for every {@link ReadMode};
+ *   - format   : on-disk size and point read throughput of one SSTable, for every {@link TableFormat};
+ *   - cache    : multi-threaded skewed point reads without block cache, with an on-heap and an off-heap one;
+ *   - compaction : random overwrites, then write amplification, space and point reads, for every compaction strategy;
+ *   - subcompaction : merge throughput of overlapping tables split in 1 to max threads parallel key ranges;
+ *   - wal      : multi-threaded puts without write-ahead log and for every {@link WALSyncMode};
+ *   - reopen   : time to reopen a tree from its manifest as its data grows;
+ *   - scan     : multi-threaded pages of 100 keys read forward and in reverse from random positions;
+ *   - batch    : multi-threaded puts one by one vs in write batches of growing size, without and with synced log;
+ *   - largebatch : write batches many times larger than the memtable, then the keys missing after their flush and after a reopen, which must be none;
+ *   - filter   : size, false positive rate and negative lookup throughput of the table filters;
+ *   - prefix   : entity-scoped prefix scans of tenant/entity/field keys without and with prefix filters;
+ *   - compression : size, compression ratio, point read and scan throughput of a table of JSON values, for every codec;
+ *   - vloggc   : overwrites of separated values on a small logged memtable, collecting files of thousands of live values, then the values wrong after the collections and after a reopen, which must be none;
+ *   - valuelog : random overwrites of 16 and 64 kb values without and with key-value separation, then write amplification and point reads;
+ *   - bitcask  : random overwrites then multi-threaded point reads, LSMTree vs BitcaskStorage, and the Bitcask reopen time;
+ *   - stall    : a write burst with memtables piling up, without write stall limits and with them: heap, latencies, stalls;
+ *   - scheduler : a write burst with 1 to 4 background compactions: throughput, flush latency and queue depth, compactions;
+ *   - ratelimit : point reads during a write burst without compaction rate limit, with a fixed one and an auto-tuned one: read latencies, throttling;
+ *   - arena    : sustained ingest of small entries on the skip list memtable vs an on-heap and an off-heap arena one: throughput, gc, memtable memory;
+ *   - lookup   : heap allocated per point read of one SSTable and point read throughput, for every format, read mode and with a block cache;
+ *   - comparator : key comparisons on arrays and off-heap buffers, and memtable puts, for every built-in {@link KeyComparator} and key length;
+ *   - engines  : the same workload of puts, batches, point reads and scans on every {@link StorageEngine}, then their stats.
+ */
+public class LSMTreeBenchmark {
+
+    static final String DIRECTORY = "LSM-bench";
+
+    public static void main(String[] args) throws InterruptedException {
+        String benchmark = args.length > 0 ? args[0] : "memtable";
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int opsPerThread = args.length > 2 ? Integer.parseInt(args[2]) : 200_000;
+
+        switch(benchmark) {
+            case "memtable" -> memtablePuts(maxThreads, opsPerThread);
+            case "put" -> treePuts(maxThreads, opsPerThread);
+            case "get" -> treeGets(maxThreads, opsPerThread);
+            case "format" -> tableFormats(opsPerThread);
+            case "cache" -> blockCache(maxThreads, opsPerThread);
+            case "compaction" -> compaction(opsPerThread);
+            case "subcompaction" -> subcompactions(maxThreads, opsPerThread);
+            case "wal" -> walPuts(maxThreads, opsPerThread);
+            case "reopen" -> reopen(opsPerThread);
+            case "scan" -> scans(maxThreads, opsPerThread);
+            case "batch" -> batches(maxThreads, opsPerThread);
+            case "largebatch" -> largeBatches();
+            case "filter" -> filters(opsPerThread);
+            case "prefix" -> prefixScans(opsPerThread);
+            case "compression" -> compression(opsPerThread);
+            case "valuelog" -> valueSeparation(opsPerThread);
+            case "vloggc" -> valueLogCollection();
+            case "bitcask" -> bitcask(maxThreads, opsPerThread);
+            case "stall" -> writeStalls(opsPerThread);
+            case "scheduler" -> backgroundScheduling(opsPerThread);
+            case "ratelimit" -> rateLimits(opsPerThread);
+            case "arena" -> arenaMemtables(opsPerThread);
+            case "comparator" -> comparators(opsPerThread);
+            case "lookup" -> lookupAllocations(opsPerThread);
+            case "engines" -> engines(maxThreads, opsPerThread);
+            default -> System.out.println("Unknown benchmark: " + benchmark);
+        }
+    }
+
+    static void memtablePuts(int maxThreads, int opsPerThread) throws InterruptedException {
+        System.out.println("threads | synchronized SkipList (ops/s) | concurrent Memtable (ops/s)");
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            SkipList list = new SkipList();
+            Object lock = new Object();
+            double before = run(threads, opsPerThread, pair -> {
+                synchronized(lock) {
+                    list.put(pair);
+                }
+            });
+
+            Memtable memtable = new Memtable();
+            AtomicLong sequence = new AtomicLong();
+            double after = run(threads, opsPerThread, pair -> memtable.put(pair, sequence.getAndIncrement()));
+
+            System.out.printf("%7d | %29.0f | %27.0f%n", threads, before, after);
+        }
+    }
+
+    static void treePuts(int maxThreads, int opsPerThread) throws InterruptedException {
+        System.out.println("threads | LSMTree.add (ops/s)");
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            deleteDir();
+            LSMTree tree = new LSMTree(1024 * 1024 * 8, 4, DIRECTORY);
+            double throughput = run(threads, opsPerThread, tree::add);
+            tree.stop();
+
+            System.out.printf("%7d | %19.0f%n", threads, throughput);
+        }
+        deleteDir();
+    }
+
+    static void walPuts(int maxThreads, int opsPerThread) throws InterruptedException {
+        System.out.println("threads | no wal (ops/s) | none (ops/s) | sync (ops/s) | periodic (ops/s)");
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("%7d", threads);
+            System.out.printf(" | %14.0f", walPuts(threads, opsPerThread, LSMTreeOptions.defaults().walEnabled(false)));
+            for(WALSyncMode mode : WALSyncMode.values()) {
+                // syncing every write group is much slower, keep its run short
+                int ops = mode == WALSyncMode.SYNC ? Math.max(opsPerThread / 100, 1) : opsPerThread;
+                System.out.printf(" | %12.0f", walPuts(threads, ops, LSMTreeOptions.defaults().walSyncMode(mode)));
+            }
+            System.out.println();
+        }
+        deleteDir();
+    }
+
+    static double walPuts(int threads, int opsPerThread, LSMTreeOptions options) throws InterruptedException {
+        deleteDir();
+        LSMTree tree = new LSMTree(options.memtableMaxByteSize(1024 * 1024 * 8).maxLevelZeroSstNumber(4).dataDir(DIRECTORY));
+        double throughput = run(threads, opsPerThread, tree::add);
+        tree.stop();
+        return throughput;
+    }
+
+    static void batches(int maxThreads, int opsPerThread) throws InterruptedException {
+        System.out.println("threads | batch size | add (ops/s) | write (ops/s) | add, sync (ops/s) | write, sync (ops/s)");
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            for(int batchSize : new int[]{10, 100, 1000}) {
+                System.out.printf("%7d | %10d", threads, batchSize);
+                for(WALSyncMode mode : new WALSyncMode[]{WALSyncMode.NONE, WALSyncMode.SYNC}) {
+                    // syncing every write group is much slower, keep its run short
+                    int ops = mode == WALSyncMode.SYNC ? Math.max(opsPerThread / 100, batchSize) : opsPerThread;
+                    LSMTreeOptions options = LSMTreeOptions.defaults().walSyncMode(mode);
+                    boolean sync = mode == WALSyncMode.SYNC;
+                    System.out.printf(sync ? " | %17.0f" : " | %11.0f", batchPuts(threads, ops, 1, options));
+                    System.out.printf(sync ? " | %19.0f" : " | %13.0f", batchPuts(threads, ops, batchSize, options));
+                }
+                System.out.println();
+            }
+        }
+        deleteDir();
+    }
+
+    /**
+     * @param batchSize writes per batch, 1 to put through LSMTree.add.
+     */
+    static double batchPuts(int threads, int opsPerThread, int batchSize, LSMTreeOptions options) throws InterruptedException {
+        deleteDir();
+        LSMTree tree = new LSMTree(options.memtableMaxByteSize(1024 * 1024 * 8).maxLevelZeroSstNumber(4).dataDir(DIRECTORY));
+        double throughput;
+        if(batchSize == 1) {
+            throughput = run(threads, opsPerThread, tree::add);
+        } else {
+            ThreadLocal<WriteBatch> batches = ThreadLocal.withInitial(WriteBatch::new);
+            throughput = run(threads, opsPerThread, pair -> {
+                WriteBatch batch = batches.get().put(pair.key(), pair.value());
+                if(batch.size() == batchSize) {
+                    tree.write(batch);
+                    batch.clear();
+                }
+            });
+        }
+        tree.stop();
+        return throughput;
+    }
+
+    static void largeBatches() throws InterruptedException {
+        System.out.println("log | batch size | memtable (kb) | missing after flush | missing after reopen");
+
+        for(boolean walEnabled : new boolean[]{false, true}) {
+            for(int batchSize : new int[]{2_000, 20_000}) {
+                deleteDir();
+                LSMTreeOptions options = LSMTreeOptions.defaults().memtableMaxByteSize(16 * 1024).dataDir(DIRECTORY).walEnabled(walEnabled);
+                LSMTree tree = new LSMTree(options);
+                WriteBatch batch = new WriteBatch();
+                for(int i = 0; i < batchSize; i++) {
+                    batch.put(key(i), new byte[100]);
+                }
+                tree.write(batch);
+                // let the background threads flush the memtable
+                Thread.sleep(2000);
+
+                int missingAfterFlush = missingKeys(tree, batchSize);
+                tree.stop();
+                tree = new LSMTree(options);
+                int missingAfterReopen = missingKeys(tree, batchSize);
+                tree.stop();
+
+                System.out.printf("%3s | %10d | %13d | %19d | %20d%n", walEnabled ? "on" : "off", batchSize, 16,
+                        missingAfterFlush, missingAfterReopen);
+            }
+        }
+        deleteDir();
+    }
+
+    /**
+     * @return the number of keys among key(0) to key(keys - 1) the tree does not hold.
+     */
+    static int missingKeys(LSMTree tree, int keys) {
+        int missing = 0;
+        for(int i = 0; i < keys; i++) {
+            if(tree.get(key(i)) == null) {
+                missing++;
+            }
+        }
+        return missing;
+    }
+
+    static void filters(int keys) {
+        System.out.println("filter                   | size (kb) | false positives (%) | negative lookups (ops/s)");
+
+        BloomFilter fixed = new BloomFilter();
+        BloomFilter sized = new BloomFilter(keys, 0.01);
+        LongArrayList hashes = new LongArrayList();
+        for(int i = 0; i < keys; i++) {
+            fixed.add(key(i));
+            sized.add(key(i));
+            hashes.add(KeyHash.hash64(key(i)));
+        }
+        filter("bloom, 1M keys (before)", fixed, keys);
+        filter("bloom, 1%", sized, keys);
+        for(int bitsPerKey : new int[]{10, 13, 16}) {
+            filter("blocked, " + bitsPerKey + " bits per key", BlockedBloomFilter.build(hashes, bitsPerKey), keys);
+        }
+        filter("xor8", XorFilter.build(hashes, 8), keys);
+        filter("xor16", XorFilter.build(hashes, 16), keys);
+    }
+
+    /**
+     * Look up keys never added, which are the ones following the added keys.
+     */
+    static void filter(String name, KeyFilter filter, int keys) {
+        byte[][] absent = new byte[keys][];
+        for(int i = 0; i < keys; i++) {
+            absent[i] = key(keys + i);
+        }
+
+        int positives = 0;
+        long begin = System.nanoTime();
+        for(int round = 0; round < 5; round++) {
+            for(byte[] key : absent) {
+                if(filter.mightContain(key)) {
+                    positives++;
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        System.out.printf("%-24s | %9d | %19.2f | %24.0f%n", name, filter.serializedSize() / 1024,
+                100.0 * positives / (5L * keys), 5L * keys / (elapsed / 1e9));
+    }
+
+    static void reopen(int ops) throws InterruptedException {
+        System.out.println("entries | tables | data (mb) | reopen (ms)");
+        deleteDir();
+
+        LSMTreeOptions options = LSMTreeOptions.defaults().memtableMaxByteSize(1024 * 1024).maxLevelZeroSstNumber(4).dataDir(DIRECTORY);
+        int entries = 0;
+        for(int round = 0; round < 4; round++) {
+            LSMTree tree = new LSMTree(options);
+            for(int i = 0; i < ops; i++) {
+                tree.add(key(entries++), new byte[100]);
+            }
+            Thread.sleep(2000);
+            tree.stop();
+
+            long begin = System.nanoTime();
+            LSMTree reopened = new LSMTree(options);
+            long elapsed = System.nanoTime() - begin;
+            reopened.stop();
+
+            long tables;
+            try(Stream<Path> f = Files.list(Path.of(DIRECTORY))) {
+                tables = f.filter(p -> p.toString().endsWith(SSTable.DATA_FILE_EXTENSION)).count();
+            } catch(Exception e) {
+                tables = -1;
+            }
+            System.out.printf("%7d | %6d | %9.1f | %11.1f%n", entries, tables, dataSize() / 1024.0 / 1024.0, elapsed / 1e6);
+        }
+        deleteDir();
+    }
+
+    static void treeGets(int maxThreads, int opsPerThread) throws InterruptedException {
+        int keys = 500_000;
+
+        for(ReadMode mode : ReadMode.values()) {
+            deleteDir();
+            LSMTree tree = new LSMTree(1024 * 1024 * 4, 4, DIRECTORY, TableOptions.defaults().readMode(mode));
+            for(int i = 0; i < keys; i++) {
+                tree.add(key(i), new byte[100]);
+            }
+            // let the background threads flush every memtable
+            Thread.sleep(2000);
+
+            System.out.printf("%s%nthreads | LSMTree.get (ops/s)%n", mode);
+            for(int threads = 1; threads <= maxThreads; threads *= 2) {
+                double throughput = runThreads(threads, opsPerThread, () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for(int i = 0; i < opsPerThread; i++) {
+                        tree.get(key(random.nextInt(keys)));
+                    }
+                });
+                System.out.printf("%7d | %19.0f%n", threads, throughput);
+            }
+            tree.stop();
+        }
+        deleteDir();
+    }
+
+    static void scans(int maxThreads, int opsPerThread) throws InterruptedException {
+        int keys = 500_000;
+        int pageSize = 100;
+
+        deleteDir();
+        LSMTree tree = new LSMTree(1024 * 1024 * 4, 4, DIRECTORY);
+        for(int i = 0; i < keys; i++) {
+            tree.add(key(i), new byte[100]);
+        }
+        Thread.sleep(2000);
+        // leave part of the keys in the memtable, shadowing older versions in the tables
+        for(int i = 0; i < keys; i += 10) {
+            tree.add(key(i), new byte[100]);
+        }
+
+        System.out.println("threads | forward (pages/s) | reverse (pages/s)");
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("%7d", threads);
+            for(boolean reverse : new boolean[]{false, true}) {
+                double throughput = runThreads(threads, opsPerThread, () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for(int i = 0; i < opsPerThread; i++) {
+                        try(LSMTreeIterator it = tree.scan(ScanOptions.defaults().reverse(reverse))) {
+                            it.seek(key(random.nextInt(keys)));
+                            for(int n = 0; n < pageSize && it.hasNext(); n++) {
+                                it.next();
+                            }
+                        }
+                    }
+                });
+                System.out.printf(" | %17.0f", throughput);
+            }
+            System.out.println();
+        }
+        tree.stop();
+        deleteDir();
+    }
+
+    static void prefixScans(int ops) throws InterruptedException {
+        int entities = 100_000;
+        System.out.println("prefix filter | scans (ops/s) | tables read per scan");
+
+        for(boolean prefixFilter : new boolean[]{false, true}) {
+            deleteDir();
+            TableOptions tableOptions = TableOptions.defaults();
+            if(prefixFilter) {
+                tableOptions.prefixExtractor(PrefixExtractor.upToDelimiter((byte) '/', 2));
+            }
+            LSMTree tree = new LSMTree(LSMTreeOptions.defaults().memtableMaxByteSize(1024 * 1024).maxLevelZeroSstNumber(4)
+                    .dataDir(DIRECTORY).tableOptions(tableOptions));
+
+            // the fields of an entity are written together, entities in random order
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for(int i = 0; i < entities; i++) {
+                int entity = random.nextInt(entities);
+                for(int field = 0; field < 5; field++) {
+                    tree.add(entityKey(entity, field), new byte[100]);
+                }
+            }
+            Thread.sleep(3000);
+
+            long tablesRead = 0;
+            long begin = System.nanoTime();
+            for(int i = 0; i < ops; i++) {
+                byte[] prefix = entityPrefix(random.nextInt(entities));
+                try(LSMTreeIterator it = tree.scan(ScanOptions.defaults().prefix(prefix))) {
+                    while(it.hasNext()) {
+                        it.next();
+                    }
+                    tablesRead += it.tablesRead();
+                }
+            }
+            long elapsed = System.nanoTime() - begin;
+            tree.stop();
+
+            System.out.printf("%-13s | %13.0f | %20.2f%n", prefixFilter, ops / (elapsed / 1e9), (double) tablesRead / ops);
+        }
+        deleteDir();
+    }
+
+    static byte[] entityPrefix(int entity) {
+        return String.format("tenant-%03d/entity-%06d/", entity % 100, entity).getBytes();
+    }
+
+    static byte[] entityKey(int entity, int field) {
+        return String.format("tenant-%03d/entity-%06d/field-%d", entity % 100, entity, field).getBytes();
+    }
+
+    static void compression(int ops) {
+        int keys = 200_000;
+        ByteArrayPair[] pairs = new ByteArrayPair[keys];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int i = 0; i < keys; i++) {
+            String json = String.format("{\"id\":%d,\"user\":\"user-%05d\",\"status\":\"%s\",\"amount\":%d.%02d," +
+                            "\"currency\":\"EUR\",\"tags\":[\"priority\",\"web\"],\"created\":\"2024-03-%02dT10:%02d:00Z\"}",
+                    i, random.nextInt(20_000), random.nextBoolean() ? "shipped" : "pending", random.nextInt(1000),
+                    random.nextInt(100), 1 + random.nextInt(28), random.nextInt(60));
+            pairs[i] = new ByteArrayPair(key(i), json.getBytes());
+        }
+
+        deleteDir();
+        new File(DIRECTORY).mkdirs();
+        System.out.println("codec     | data file (bytes) | ratio | get (ops/s) | scan (mb/s) | decompress (us/block)");
+
+        for(CompressionCodec codec : new CompressionCodec[]{CompressionCodecs.NONE, CompressionCodecs.LZ4, CompressionCodecs.DEFLATE}) {
+            String filename = DIRECTORY + "/" + codec.name();
+            SSTable table = new SSTable(filename, Arrays.asList(pairs).iterator(), 1000, Long.MAX_VALUE,
+                    TableOptions.defaults().compression(codec));
+
+            long begin = System.nanoTime();
+            for(int i = 0; i < ops; i++) {
+                table.get(pairs[random.nextInt(keys)].key());
+            }
+            long getElapsed = System.nanoTime() - begin;
+
+            long bytes = 0;
+            begin = System.nanoTime();
+            for(int round = 0; round < 5; round++) {
+                var it = table.iterator();
+                while(it.hasNext()) {
+                    ByteArrayPair pair = it.next();
+                    bytes += pair.size();
+                }
+            }
+            long scanElapsed = System.nanoTime() - begin;
+
+            TableStats stats = table.stats();
+            System.out.printf("%-9s | %17d | %5.2f | %11.0f | %11.0f | %21.1f%n", codec.name(),
+                    new File(filename + SSTable.DATA_FILE_EXTENSION).length(), stats.compressionRatio(),
+                    ops / (getElapsed / 1e9), bytes / 1024.0 / 1024.0 / (scanElapsed / 1e9), stats.decompressMicrosPerBlock());
+            table.close();
+        }
+        deleteDir();
+    }
+
+    static void valueSeparation(int ops) throws InterruptedException {
+        System.out.println("value (kb) | separation | puts/s | w-amp | tables (mb) | value log (mb) | get (ops/s)");
+
+        for(int valueSize : new int[]{16 * 1024, 64 * 1024}) {
+            int puts = Math.max(ops / (valueSize / 1024), 1000);
+            byte[] value = new byte[valueSize];
+            ThreadLocalRandom.current().nextBytes(value);
+
+            for(int threshold : new int[]{0, 4096}) {
+                deleteDir();
+                LSMTree tree = new LSMTree(LSMTreeOptions.defaults()
+                        .memtableMaxByteSize(1024 * 1024 * 4)
+                        .maxLevelZeroSstNumber(4)
+                        .dataDir(DIRECTORY)
+                        .walEnabled(false)
+                        .valueSeparationThreshold(threshold));
+
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long begin = System.nanoTime();
+                for(int i = 0; i < puts; i++) {
+                    tree.add(key(random.nextInt(puts / 4)), value);
+                }
+                long elapsed = System.nanoTime() - begin;
+                // let the background threads catch up
+                Thread.sleep(5000);
+
+                double readThroughput = runThreads(1, puts / 4, () -> {
+                    for(int i = 0; i < puts / 4; i++) {
+                        tree.get(key(random.nextInt(puts / 4)));
+                    }
+                });
+
+                long valueLogSize = valueLogSize();
+                System.out.printf("%10d | %10s | %6.0f | %5.2f | %11.1f | %14.1f | %11.0f%n", valueSize / 1024,
+                        threshold > 0 ? "on" : "off", puts / (elapsed / 1e9), tree.compactionStats().writeAmplification(),
+                        dataSize() / 1024.0 / 1024.0, valueLogSize / 1024.0 / 1024.0, readThroughput);
+                tree.stop();
+            }
+        }
+        deleteDir();
+    }
+
+    static void valueLogCollection() throws InterruptedException {
+        System.out.println("relocated (mb) | wrong after collections | wrong after reopen");
+        int keys = 20_000;
+
+        deleteDir();
+        // a value log file holds thousands of values, the pointers relocated at once many memtables;
+        // with the log, as the memtable left unflushed at each stop is only recovered from it
+        LSMTreeOptions options = LSMTreeOptions.defaults()
+                .memtableMaxByteSize(16 * 1024)
+                .maxLevelZeroSstNumber(2)
+                .dataDir(DIRECTORY)
+                .walEnabled(true)
+                .valueSeparationThreshold(150)
+                .valueLogFileSize(1024 * 1024)
+                .valueLogGcRatio(0.3);
+        byte[][] values = new byte[keys][];
+        LSMTree tree = new LSMTree(options);
+        for(int i = 0; i < keys; i++) {
+            values[i] = new byte[200];
+            ThreadLocalRandom.current().nextBytes(values[i]);
+            tree.add(key(i), values[i]);
+        }
+        // let the background threads catch up
+        Thread.sleep(2000);
+        tree.stop();
+
+        // overwrite a third of the keys, leaving two thirds of the values of the first files live
+        tree = new LSMTree(options);
+        for(int round = 0; round < 3; round++) {
+            for(int i = 0; i < keys; i += 3) {
+                values[i] = new byte[200];
+                ThreadLocalRandom.current().nextBytes(values[i]);
+                tree.add(key(i), values[i]);
+            }
+        }
+        Thread.sleep(5000);
+
+        long relocated = tree.compactionStats().relocatedBytes();
+        int wrongAfterCollections = wrongValues(tree, values);
+        tree.stop();
+        tree = new LSMTree(options);
+        int wrongAfterReopen = wrongValues(tree, values);
+        tree.stop();
+
+        System.out.printf("%14.1f | %23d | %18d%n", relocated / 1024.0 / 1024.0, wrongAfterCollections, wrongAfterReopen);
+        deleteDir();
+    }
+
+    /**
+     * @return the number of keys key(i) whose value is not values[i], including those whose value was lost.
+     */
+    static int wrongValues(LSMTree tree, byte[][] values) {
+        int wrong = 0;
+        for(int i = 0; i < values.length; i++) {
+            try {
+                if(!Arrays.equals(tree.get(key(i)), values[i])) {
+                    wrong++;
+                }
+            } catch(IllegalStateException e) {
+                wrong++;
+            }
+        }
+        return wrong;
+    }
+
+    static void bitcask(int maxThreads, int opsPerThread) throws InterruptedException {
+        int keys = 500_000;
+
+        deleteDir();
+        LSMTree tree = new LSMTree(1024 * 1024 * 4, 4, DIRECTORY);
+        long begin = System.nanoTime();
+        for(int i = 0; i < keys * 2; i++) {
+            tree.add(key(ThreadLocalRandom.current().nextInt(keys)), new byte[100]);
+        }
+        double treePuts = keys * 2 / ((System.nanoTime() - begin) / 1e9);
+        // let the background threads flush every memtable
+        Thread.sleep(5000);
+
+        BitcaskStorage bitcask = new BitcaskStorage(BitcaskOptions.defaults().dataDir(DIRECTORY + "/bitcask").expectedKeys(keys));
+        begin = System.nanoTime();
+        for(int i = 0; i < keys * 2; i++) {
+            bitcask.put(key(ThreadLocalRandom.current().nextInt(keys)), new byte[100]);
+        }
+        double bitcaskPuts = keys * 2 / ((System.nanoTime() - begin) / 1e9);
+        bitcask.merge();
+
+        System.out.printf("puts/s: LSMTree %.0f, Bitcask %.0f%n", treePuts, bitcaskPuts);
+        System.out.println("threads | LSMTree.get (ops/s) | Bitcask.get (ops/s)");
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            double treeThroughput = runThreads(threads, opsPerThread, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < opsPerThread; i++) {
+                    tree.get(key(random.nextInt(keys)));
+                }
+            });
+            double bitcaskThroughput = runThreads(threads, opsPerThread, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < opsPerThread; i++) {
+                    bitcask.get(key(random.nextInt(keys)));
+                }
+            });
+            System.out.printf("%7d | %19.0f | %19.0f%n", threads, treeThroughput, bitcaskThroughput);
+        }
+        System.out.println(bitcask);
+        tree.stop();
+        bitcask.close();
+
+        begin = System.nanoTime();
+        BitcaskStorage reopened = new BitcaskStorage(BitcaskOptions.defaults().dataDir(DIRECTORY + "/bitcask").expectedKeys(keys));
+        System.out.printf("Bitcask reopened from hint files in %.0f ms, %d keys%n", (System.nanoTime() - begin) / 1e6, reopened.size());
+        reopened.close();
+        deleteDir();
+    }
+
+    static void writeStalls(int ops) throws InterruptedException {
+        System.out.println("limits | puts/s | peak heap (mb) | p50 (us) | p99 (us) | max (ms) | writes");
+        writeStalls("none", ops, LSMTreeOptions.defaults()
+                .maxImmutableMemtables(0).levelZeroSlowdownTrigger(0).levelZeroStopTrigger(0)
+                .softPendingCompactionBytesLimit(0).hardPendingCompactionBytesLimit(0));
+        writeStalls("stall", ops, LSMTreeOptions.defaults()
+                .maxImmutableMemtables(3).levelZeroSlowdownTrigger(8).levelZeroStopTrigger(12));
+        deleteDir();
+    }
+
+    static void writeStalls(String name, int ops, LSMTreeOptions options) throws InterruptedException {
+        deleteDir();
+        System.gc();
+        LSMTree tree = new LSMTree(options.memtableMaxByteSize(1024 * 1024).maxLevelZeroSstNumber(4).walEnabled(false).dataDir(DIRECTORY));
+
+        AtomicLong peakHeap = new AtomicLong();
+        Thread sampler = new Thread(() -> {
+            Runtime runtime = Runtime.getRuntime();
+            while(!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                try {
+                    Thread.sleep(10);
+                } catch(InterruptedException e) {
+                    return;
+                }
+            }
+        });
+        sampler.start();
+
+        long[] latencies = new long[ops];
+        byte[] value = new byte[1000];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long begin = System.nanoTime();
+        for(int i = 0; i < ops; i++) {
+            long start = System.nanoTime();
+            tree.add(key(random.nextInt(ops)), value);
+            latencies[i] = System.nanoTime() - start;
+        }
+        double throughput = ops / ((System.nanoTime() - begin) / 1e9);
+        sampler.interrupt();
+        sampler.join();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-6s | %6.0f | %14.0f | %8.1f | %8.1f | %8.1f | %s%n", name, throughput,
+                peakHeap.get() / 1024.0 / 1024.0, latencies[ops / 2] / 1e3, latencies[(int) (ops * 0.99)] / 1e3,
+                latencies[ops - 1] / 1e6, tree.writeController());
+        tree.stop();
+    }
+
+    static void backgroundScheduling(int ops) throws InterruptedException {
+        System.out.println("compactions | puts/s | flush latency mean / max (ms) | max flush queue | compactions | mean compaction (ms)");
+        byte[] value = new byte[1000];
+        for(int compactions = 1; compactions <= 4; compactions *= 2) {
+            deleteDir();
+            LSMTree tree = new LSMTree(LSMTreeOptions.defaults()
+                    .memtableMaxByteSize(1024 * 1024).maxLevelZeroSstNumber(4).maxBackgroundCompactions(compactions)
+                    .walEnabled(false).dataDir(DIRECTORY));
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long begin = System.nanoTime();
+            for(int i = 0; i < ops; i++) {
+                tree.add(key(random.nextInt(ops)), value);
+            }
+            double throughput = ops / ((System.nanoTime() - begin) / 1e9);
+
+            var scheduler = tree.scheduler();
+            System.out.printf("%11d | %6.0f | %13.1f / %13.1f | %15d | %11d | %20.1f%n", compactions, throughput,
+                    scheduler.meanFlushLatencyMillis(), scheduler.maxFlushLatencyMillis(), scheduler.maxFlushQueueDepth(),
+                    scheduler.compactions(), scheduler.meanCompactionMillis());
+            tree.stop();
+        }
+        deleteDir();
+    }
+
+    static void rateLimits(int ops) throws InterruptedException {
+        System.out.println("limit      | puts/s | gets/s | get p50 (us) | get p99 (us) | compaction rate limit");
+        rateLimits("none", ops, null);
+        rateLimits("4 mb/s", ops, new RateLimiter(4 * 1024 * 1024));
+        rateLimits("auto-tuned", ops, RateLimiter.autoTuned(1024 * 1024, 64 * 1024 * 1024, 50));
+        deleteDir();
+    }
+
+    static void rateLimits(String name, int ops, RateLimiter limiter) throws InterruptedException {
+        deleteDir();
+        LSMTree tree = new LSMTree(LSMTreeOptions.defaults()
+                .memtableMaxByteSize(1024 * 1024).maxLevelZeroSstNumber(4).compactionRateLimiter(limiter)
+                .walEnabled(false).dataDir(DIRECTORY));
+        byte[] value = new byte[1000];
+        for(int i = 0; i < ops; i++) {
+            tree.add(key(i), value);
+        }
+
+        LongArrayList latencies = new LongArrayList();
+        AtomicLong done = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            while(done.get() == 0) {
+                long start = System.nanoTime();
+                tree.get(key(random.nextInt(ops)));
+                latencies.add(System.nanoTime() - start);
+            }
+        });
+        reader.start();
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long begin = System.nanoTime();
+        for(int i = 0; i < ops; i++) {
+            tree.add(key(random.nextInt(ops)), value);
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        done.set(1);
+        reader.join();
+
+        long[] sorted = latencies.toLongArray();
+        Arrays.sort(sorted);
+        System.out.printf("%-10s | %6.0f | %6.0f | %12.1f | %12.1f | %s%n", name, ops / seconds, sorted.length / seconds,
+                sorted[sorted.length / 2] / 1e3, sorted[(int) (sorted.length * 0.99)] / 1e3, limiter == null ? "none" : limiter);
+        tree.stop();
+    }
+
+    static void arenaMemtables(int ops) throws InterruptedException {
+        System.out.println("memtable   | puts/s | gc count | gc time (ms) | peak memtable memory (mb)");
+        arenaMemtables("skip list", ops, ConcurrentSkipList::new);
+        arenaMemtables("heap arena", ops, ArenaSkipList.factory(ArenaSkipList.DEFAULT_SEGMENT_SIZE, false));
+        arenaMemtables("off-heap", ops, ArenaSkipList.factory(ArenaSkipList.DEFAULT_SEGMENT_SIZE, true));
+        deleteDir();
+    }
+
+    static void arenaMemtables(String name, int ops, MemtableRep.Factory memtableRep) throws InterruptedException {
+        deleteDir();
+        System.gc();
+        LSMTree tree = new LSMTree(LSMTreeOptions.defaults()
+                .memtableMaxByteSize(16 * 1024 * 1024).maxImmutableMemtables(4).memtableRep(memtableRep)
+                .walEnabled(false).dataDir(DIRECTORY));
+        var collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long gcCount = collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+        long gcMillis = collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+
+        long peakMemory = 0;
+        byte[] value = new byte[64];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long begin = System.nanoTime();
+        for(int i = 0; i < ops; i++) {
+            tree.add(key(random.nextInt(ops)), value);
+            if((i & 0xFFFF) == 0) {
+                peakMemory = Math.max(peakMemory, tree.stats().memoryBytes());
+            }
+        }
+        double throughput = ops / ((System.nanoTime() - begin) / 1e9);
+
+        System.out.printf("%-10s | %6.0f | %8d | %12d | %25.1f%n", name, throughput,
+                collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum() - gcCount,
+                collectors.stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum() - gcMillis,
+                peakMemory / 1024.0 / 1024.0);
+        tree.stop();
+    }
+
+    static void comparators(int ops) {
+        System.out.println("key length | comparator    | arrays (ns/compare) | off-heap buffer (ns/compare) | memtable puts/s");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(int length : new int[]{16, 64, 256}) {
+            // keys of the same length sharing all but their last 8 bytes, the worst case of both orders
+            byte[] prefix = new byte[length - 8];
+            random.nextBytes(prefix);
+            byte[][] keys = new byte[1024][];
+            ByteBuffer buffer = ByteBuffer.allocateDirect(keys.length * length);
+            for(int i = 0; i < keys.length; i++) {
+                keys[i] = Arrays.copyOf(prefix, length);
+                random.nextBytes(keys[i]);
+                System.arraycopy(prefix, 0, keys[i], 0, prefix.length);
+                buffer.put(i * length, keys[i]);
+            }
+
+            for(KeyComparator comparator : new KeyComparator[]{KeyComparators.LEXICOGRAPHIC, KeyComparators.LENGTH_FIRST}) {
+                long sink = 0;
+                double arrayNanos = 0;
+                double bufferNanos = 0;
+                // the first round warms up
+                for(int round = 0; round < 2; round++) {
+                    long begin = System.nanoTime();
+                    for(int i = 0; i < ops; i++) {
+                        sink += comparator.compare(keys[i & 1023], keys[(i * 7 + 1) & 1023]);
+                    }
+                    arrayNanos = (double) (System.nanoTime() - begin) / ops;
+
+                    begin = System.nanoTime();
+                    for(int i = 0; i < ops; i++) {
+                        sink += comparator.compare(buffer, (i & 1023) * length, length, keys[(i * 7 + 1) & 1023]);
+                    }
+                    bufferNanos = (double) (System.nanoTime() - begin) / ops;
+                }
+
+                Memtable memtable = new Memtable(new ConcurrentSkipList(comparator));
+                int puts = Math.min(ops, 200_000);
+                byte[] value = new byte[8];
+                long begin = System.nanoTime();
+                for(int i = 0; i < puts; i++) {
+                    byte[] key = keys[i & 1023].clone();
+                    key[length - 5] = (byte) (i >>> 10);
+                    key[length - 6] = (byte) (i >>> 18);
+                    memtable.put(new ByteArrayPair(key, value), i);
+                }
+                double putsPerSecond = puts / ((System.nanoTime() - begin) / 1e9);
+
+                System.out.printf("%10d | %-13s | %19.1f | %28.1f | %15.0f%s%n", length, comparator.name(), arrayNanos,
+                        bufferNanos, putsPerSecond, sink == 42 ? " " : "");
+            }
+        }
+    }
+
+    static void lookupAllocations(int ops) {
+        int keys = 500_000;
+        ByteArrayPair[] pairs = new ByteArrayPair[keys];
+        for(int i = 0; i < keys; i++) {
+            pairs[i] = new ByteArrayPair(String.format("tenant-0042/orders/%012d/status", i).getBytes(), new byte[32]);
+        }
+        Arrays.sort(pairs);
+
+        Map<String, TableOptions> configurations = new LinkedHashMap<>();
+        configurations.put("legacy, stream", TableOptions.defaults().format(TableFormat.LEGACY).readMode(ReadMode.STREAM));
+        configurations.put("legacy, mmap", TableOptions.defaults().format(TableFormat.LEGACY).readMode(ReadMode.MMAP));
+        configurations.put("block, stream", TableOptions.defaults().format(TableFormat.BLOCK_BASED).readMode(ReadMode.STREAM));
+        configurations.put("block, mmap", TableOptions.defaults().format(TableFormat.BLOCK_BASED).readMode(ReadMode.MMAP));
+        configurations.put("block, mmap, cache", TableOptions.defaults().format(TableFormat.BLOCK_BASED).readMode(ReadMode.MMAP)
+                .blockCache(new BlockCache(256 * 1024 * 1024)));
+
+        deleteDir();
+        new File(DIRECTORY).mkdirs();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().threadId();
+        System.out.println("table              | bytes per get | get (ops/s)");
+
+        for(Map.Entry<String, TableOptions> configuration : configurations.entrySet()) {
+            String filename = DIRECTORY + "/" + configuration.getKey().replace(", ", "-");
+            SSTable table = new SSTable(filename, Arrays.asList(pairs).iterator(), 1000, Long.MAX_VALUE, configuration.getValue());
+
+            double bytesPerGet = 0;
+            double getsPerSecond = 0;
+            // the first round warms up
+            for(int round = 0; round < 2; round++) {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                long allocated = threads.getThreadAllocatedBytes(thread);
+                long begin = System.nanoTime();
+                for(int i = 0; i < ops; i++) {
+                    table.get(pairs[random.nextInt(keys)].key());
+                }
+                long elapsed = System.nanoTime() - begin;
+                bytesPerGet = (double) (threads.getThreadAllocatedBytes(thread) - allocated) / ops;
+                getsPerSecond = ops / (elapsed / 1e9);
+            }
+
+            System.out.printf("%-18s | %13.1f | %11.0f%n", configuration.getKey(), bytesPerGet, getsPerSecond);
+            table.close();
+        }
+        deleteDir();
+    }
+
+    static void engines(int maxThreads, int opsPerThread) throws InterruptedException {
+        int keys = 500_000;
+
+        deleteDir();
+        System.out.println("engine  | puts (ops/s) | batched puts (ops/s) | gets (ops/s) | scans of 100 (ops/s)");
+        for(StorageEngine engine : StorageEngine.values()) {
+            Storage storage = Storage.open(StorageOptions.defaults()
+                    .engine(engine)
+                    .dataDir(DIRECTORY + "/" + engine)
+                    .lsmTreeOptions(LSMTreeOptions.defaults().memtableMaxByteSize(1024 * 1024 * 4).maxLevelZeroSstNumber(4))
+                    .bitcaskOptions(BitcaskOptions.defaults().expectedKeys(keys)));
+
+            double puts = runThreads(maxThreads, keys / maxThreads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < keys / maxThreads; i++) {
+                    io(() -> storage.put(key(random.nextInt(keys)), new byte[100]));
+                }
+            });
+            double batchedPuts = runThreads(maxThreads, keys / maxThreads, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                WriteBatch batch = new WriteBatch();
+                for(int i = 0; i < keys / maxThreads; i++) {
+                    batch.put(key(random.nextInt(keys)), new byte[100]);
+                    if(batch.size() == 100) {
+                        io(() -> storage.write(batch));
+                        batch.clear();
+                    }
+                }
+                io(() -> storage.write(batch));
+            });
+            double gets = runThreads(maxThreads, opsPerThread, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < opsPerThread; i++) {
+                    io(() -> storage.get(key(random.nextInt(keys))));
+                }
+            });
+            int scansPerThread = Math.max(opsPerThread / 100, 1);
+            double scans = runThreads(maxThreads, scansPerThread, () -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                for(int i = 0; i < scansPerThread; i++) {
+                    io(() -> {
+                        try(CloseableIterator<KVEntry> it = storage.scan(key(random.nextInt(keys)), null)) {
+                            for(int n = 0; n < 100 && it.hasNext(); n++) {
+                                it.next();
+                            }
+                        }
+                    });
+                }
+            });
+
+            System.out.printf("%-7s | %12.0f | %20.0f | %12.0f | %20.0f%n", engine, puts, batchedPuts, gets, scans);
+            System.out.println("        " + storage.stats());
+            io(storage::close);
+        }
+        deleteDir();
+    }
+
+    interface IOTask {
+        void run() throws IOException;
+    }
+
+    static void io(IOTask task) {
+        try {
+            task.run();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void tableFormats(int ops) {
+        int keys = 500_000;
+        ByteArrayPair[] pairs = new ByteArrayPair[keys];
+        for(int i = 0; i < keys; i++) {
+            pairs[i] = new ByteArrayPair(String.format("tenant-0042/orders/%012d/status", i).getBytes(), new byte[32]);
+        }
+        Arrays.sort(pairs);
+
+        deleteDir();
+        new File(DIRECTORY).mkdirs();
+        System.out.println("format      | data file (bytes) | get (ops/s)");
+
+        for(TableFormat format : TableFormat.values()) {
+            String filename = DIRECTORY + "/" + format;
+            SSTable table = new SSTable(filename, Arrays.asList(pairs).iterator(), 1000, Long.MAX_VALUE,
+                    TableOptions.defaults().format(format));
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long begin = System.nanoTime();
+            for(int i = 0; i < ops; i++) {
+                table.get(pairs[random.nextInt(keys)].key());
+            }
+            long elapsed = System.nanoTime() - begin;
+
+            System.out.printf("%-11s | %17d | %11.0f%n", format, new File(filename + SSTable.DATA_FILE_EXTENSION).length(), ops / (elapsed / 1e9));
+            table.close();
+        }
+        deleteDir();
+    }
+
+    static void blockCache(int maxThreads, int opsPerThread) throws InterruptedException {
+        int keys = 500_000;
+        BlockCache[] caches = {null, new BlockCache(1024 * 1024 * 16), new BlockCache(1024 * 1024 * 16, true)};
+
+        for(BlockCache cache : caches) {
+            deleteDir();
+            LSMTree tree = new LSMTree(1024 * 1024 * 4, 4, DIRECTORY, TableOptions.defaults().blockCache(cache));
+            for(int i = 0; i < keys; i++) {
+                tree.add(key(i), new byte[100]);
+            }
+            Thread.sleep(2000);
+
+            System.out.printf("%s%nthreads | LSMTree.get (ops/s)%n", cache == null ? "no cache" : cache.isOffHeap() ? "off-heap cache" : "on-heap cache");
+            for(int threads = 1; threads <= maxThreads; threads *= 2) {
+                double throughput = runThreads(threads, opsPerThread, () -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for(int i = 0; i < opsPerThread; i++) {
+                        // 90% of the reads on 10% of the keys
+                        int k = random.nextInt(10) == 0 ? random.nextInt(keys) : random.nextInt(keys / 10);
+                        tree.get(key(k));
+                    }
+                });
+                System.out.printf("%7d | %19.0f%n", threads, throughput);
+            }
+            if(cache != null) {
+                System.out.println(cache);
+            }
+            tree.stop();
+        }
+        deleteDir();
+    }
+
+    static void compaction(int ops) throws InterruptedException {
+        Map<String, LSMTreeOptions> strategies = new LinkedHashMap<>();
+        strategies.put("leveled", LSMTreeOptions.defaults().compactionStrategy(LeveledCompactionStrategy::new));
+        strategies.put("tiered", LSMTreeOptions.defaults().compactionStrategy(TieredCompactionStrategy::new));
+        strategies.put("fifo", LSMTreeOptions.defaults().compactionStrategy(FifoCompactionStrategy::new)
+                .fifoMaxTableFilesSize(1024 * 1024 * 8));
+        // the tables written before the catch-up pause expire during it
+        strategies.put("fifo ttl", LSMTreeOptions.defaults().compactionStrategy(FifoCompactionStrategy::new)
+                .fifoTtlMillis(2000));
+
+        for(var strategy : strategies.entrySet()) {
+            deleteDir();
+            LSMTree tree = new LSMTree(strategy.getValue()
+                    .memtableMaxByteSize(1024 * 256)
+                    .maxLevelZeroSstNumber(4)
+                    .dataDir(DIRECTORY));
+
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            long begin = System.nanoTime();
+            for(int i = 0; i < ops; i++) {
+                tree.add(key(random.nextInt(ops / 4)), new byte[100]);
+            }
+            // let the background threads catch up
+            Thread.sleep(5000);
+            long elapsed = System.nanoTime() - begin;
+
+            int[] found = {0};
+            double readThroughput = runThreads(1, ops / 4, () -> {
+                for(int i = 0; i < ops / 4; i++) {
+                    if(tree.get(key(i)) != null) {
+                        found[0]++;
+                    }
+                }
+            });
+
+            System.out.printf("%s: %d random overwrites in %.1f s, %.1f mb of table data, %.0f reads/s, %d / %d keys found%n",
+                    strategy.getKey(), ops, elapsed / 1e9, dataSize() / 1024.0 / 1024.0, readThroughput, found[0], ops / 4);
+            System.out.println(tree.compactionStats());
+            tree.stop();
+        }
+        deleteDir();
+    }
+
+    static void subcompactions(int maxThreads, int ops) {
+        deleteDir();
+        new File(DIRECTORY).mkdirs();
+
+        // overlapping tables, as found in level 0
+        SSTable[] tables = new SSTable[4];
+        for(int t = 0; t < tables.length; t++) {
+            TreeSet<ByteArrayPair> pairs = new TreeSet<>();
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for(int i = 0; i < ops; i++) {
+                pairs.add(new ByteArrayPair(key(random.nextInt(ops * tables.length)), new byte[100]));
+            }
+            tables[t] = new SSTable(DIRECTORY, pairs.iterator(), Long.MAX_VALUE, TableOptions.defaults());
+        }
+        long inputBytes = Arrays.stream(tables).mapToLong(t -> t.byteSize).sum();
+
+        for(int threads = 1; threads <= maxThreads; threads *= 2) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long begin = System.nanoTime();
+            ObjectArrayList<SSTable> output = SSTable.sortedRun(DIRECTORY, 1024 * 1024 * 4, TableOptions.defaults(), pool, threads, false, tables);
+            long elapsed = System.nanoTime() - begin;
+            pool.shutdown();
+
+            System.out.printf("%d subcompactions: %.1f mb/s, %d output tables%n",
+                    threads, inputBytes / 1024.0 / 1024.0 / (elapsed / 1e9), output.size());
+            output.forEach(SSTable::closeAndDelete);
+        }
+        deleteDir();
+    }
+
+    /**
+     * @return the size of the value log files.
+     */
+    static long valueLogSize() {
+        try(Stream<Path> f = Files.walk(Path.of(DIRECTORY))) {
+            return f.map(Path::toFile).filter(file -> file.getName().endsWith(ValueLog.FILE_EXTENSION)).mapToLong(File::length).sum();
+        } catch(Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the size of the table data files, filters and indexes excluded.
+     */
+    static long dataSize() {
+        try(Stream<Path> f = Files.walk(Path.of(DIRECTORY))) {
+            return f.map(Path::toFile).filter(file -> file.getName().endsWith(SSTable.DATA_FILE_EXTENSION)).mapToLong(File::length).sum();
+        } catch(Exception e) {
+            return 0;
+        }
+    }
+
+    static byte[] key(int i) {
+        return String.format("key-%010d", i).getBytes();
+    }
+
+    /**
+     * Run opsPerThread random 16 bytes key / 100 bytes value puts on each thread.
+     *
+     * @return the aggregated throughput in operations per second.
+     */
+    static double run(int threads, int opsPerThread, Consumer<ByteArrayPair> put) throws InterruptedException {
+        ByteArrayPair[][] pairs = new ByteArrayPair[threads][opsPerThread];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for(ByteArrayPair[] threadPairs : pairs) {
+            for(int i = 0; i < opsPerThread; i++) {
+                byte[] key = new byte[16];
+                byte[] value = new byte[100];
+                random.nextBytes(key);
+                random.nextBytes(value);
+                threadPairs[i] = new ByteArrayPair(key, value);
+            }
+        }
+
+        int[] next = {0};
+        return runThreads(threads, opsPerThread, () -> {
+            ByteArrayPair[] threadPairs;
+            synchronized(next) {
+                threadPairs = pairs[next[0]++];
+            }
+            for(ByteArrayPair pair : threadPairs) {
+                put.accept(pair);
+            }
+        });
+    }
+
+    /**
+     * Run the task on each thread, all threads starting at the same time.
+     *
+     * @return the aggregated throughput in operations per second.
+     */
+    static double runThreads(int threads, int opsPerThread, Runnable task) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+
+        for(int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                task.run();
+            });
+            workers[t].start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for(Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - begin;
+
+        return (double) threads * opsPerThread / (elapsed / 1e9);
+    }
+
+    static void deleteDir() {
+        if(!new File(DIRECTORY).exists()) {
+            return;
+        }
+        try(Stream<Path> f = Files.walk(Path.of(DIRECTORY))) {
+            f.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        } catch(Exception ignored) {
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package com.kvstore.core.storage.LSMTree;
 
 import com.google.common.primitives.Bytes;
+import com.kvstore.core.model.KVEntry;
 import com.kvstore.core.storage.LSMTree.tree.LSMTree;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeIterator;
 import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
 
 import java.io.File;
@@ -38,6 +40,7 @@ public class LSMTreeTest {
                   - s/set  <key> <value> : insert a key-value pair;
                   - r/range  <start> <end> : insert this range of numeric keys with random values;
                   - g/get  <key>         : get a key value;
+                  - l/list  <start> <end>  : print the pairs in this key range;
                   - d/delete  <key>         : delete a key;
                   - p/print                : print current tree status;
                   - e/exit               : stop the console;
@@ -83,6 +86,15 @@ public class LSMTreeTest {
                         System.out.printf((value == null || value.length == 0) ? "Value Not Found.\n" : new String(value) + "\n");
                     }
 
+                    case "l", "list" -> {
+                        try(LSMTreeIterator it = tree.scan(parts[1].getBytes(), parts[2].getBytes())) {
+                            while(it.hasNext()) {
+                                KVEntry entry = it.next();
+                                System.out.printf("{%s : %s}\n", new String(entry.getKey()), new String(entry.getValue()));
+                            }
+                        }
+                    }
+
                     case "p", "print" -> {
                         System.out.println(tree);
                     }
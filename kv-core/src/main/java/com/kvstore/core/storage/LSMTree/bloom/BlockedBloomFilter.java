@@ -0,0 +1,120 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter split in blocks of 512 bits, the size of a cache line: the high half of the hash of
+ * a key picks its block, and all of its probes are taken within that block from the low half, so a
+ * lookup touches a single cache line and needs neither a division nor a second hash.
+ * <p>
+ * Keeping the probes together costs a slightly higher false positive rate than a plain bloom filter
+ * of the same size, about 1% instead of 0.8% at 10 bits per key.
+ * <p>
+ * Encoding: {@code hash count (1) | block count (4) | blocks (64 each)}.
+ */
+public class BlockedBloomFilter implements KeyFilter {
+
+    static final int BLOCK_BITS = 512;
+    static final int WORDS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+    static final int MAX_HASH_COUNT = 16;
+
+    /**
+     * Odd multiplier deriving the next 32-bit probe from the previous one.
+     */
+    private static final int PROBE_MULTIPLIER = 0x9E3779B9;
+
+    final int hashCount;
+    final int blockCount;
+    final long[] bits;
+
+    BlockedBloomFilter(int hashCount, int blockCount, long[] bits) {
+        this.hashCount = hashCount;
+        this.blockCount = blockCount;
+        this.bits = bits;
+    }
+
+    /**
+     * Build a filter over the {@link KeyHash} of keys.
+     *
+     * @param bitsPerKey memory given to each key, the false positive rate roughly halves with every extra 1.44 bits.
+     */
+    public static BlockedBloomFilter build(LongArrayList hashes, int bitsPerKey) {
+        long totalBits = Math.max((long) hashes.size() * bitsPerKey, 1);
+        int blockCount = (int) Math.min((totalBits + BLOCK_BITS - 1) / BLOCK_BITS, Integer.MAX_VALUE / WORDS_PER_BLOCK);
+        int hashCount = (int) Math.max(1, Math.min(MAX_HASH_COUNT, Math.round(bitsPerKey * Math.log(2))));
+
+        BlockedBloomFilter filter = new BlockedBloomFilter(hashCount, blockCount, new long[blockCount * WORDS_PER_BLOCK]);
+        for(int i = 0; i < hashes.size(); i++) {
+            filter.add(hashes.getLong(i));
+        }
+        return filter;
+    }
+
+    void add(long hash) {
+        int block = block(hash);
+        int probe = (int) hash;
+        for(int i = 0; i < hashCount; i++) {
+            // the top 9 bits of the probe pick a bit of the block, the shift keeps the low 6 of them
+            int bit = probe >>> 23;
+            bits[block + (bit >>> 6)] |= 1L << bit;
+            probe *= PROBE_MULTIPLIER;
+        }
+    }
+
+    @Override
+    public boolean mightContain(byte[] key) {
+        return mightContainHash(KeyHash.hash64(key));
+    }
+
+    @Override
+    public boolean mightContainHash(long hash) {
+        int block = block(hash);
+        int probe = (int) hash;
+        for(int i = 0; i < hashCount; i++) {
+            int bit = probe >>> 23;
+            if((bits[block + (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+            probe *= PROBE_MULTIPLIER;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the first word of the block of the hash, mapping the high half of the
+     * hash on the block count with a multiplication instead of a modulo.
+     */
+    private int block(long hash) {
+        return (int) (((hash >>> 32) * blockCount) >>> 32) * WORDS_PER_BLOCK;
+    }
+
+    @Override
+    public FilterType type() {
+        return FilterType.BLOCKED_BLOOM;
+    }
+
+    @Override
+    public int serializedSize() {
+        return 1 + Integer.BYTES + bits.length * Long.BYTES;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.put((byte) hashCount);
+        dst.putInt(blockCount);
+        for(long word : bits) {
+            dst.putLong(word);
+        }
+    }
+
+    static BlockedBloomFilter readFrom(ByteBuffer src) {
+        int hashCount = src.get();
+        int blockCount = src.getInt();
+        long[] bits = new long[blockCount * WORDS_PER_BLOCK];
+        src.asLongBuffer().get(bits);
+        src.position(src.position() + bits.length * Long.BYTES);
+        return new BlockedBloomFilter(hashCount, blockCount, bits);
+    }
+}
@@ -2,11 +2,15 @@ package com.kvstore.core.storage.LSMTree.bloom;
 
 import com.kvstore.core.storage.LSMTree.io.ExtendedInputStream;
 import com.kvstore.core.storage.LSMTree.io.ExtendedOutputStream;
-import it.unimi.dsi.fastutil.longs.LongLongMutablePair;
-import it.unimi.dsi.fastutil.longs.LongLongPair;
 import org.apache.commons.codec.digest.MurmurHash3;
 
-public class BloomFilter {
+import java.nio.ByteBuffer;
+
+/**
+ * Bloom filter of the tables written before {@link BlockedBloomFilter}, kept to read their
+ * {@code .bloom} files: each probe of a key may land on a different cache line.
+ */
+public class BloomFilter implements KeyFilter {
 
     static final int DEFAULT_SIZE = 1 << 20;
 
@@ -55,9 +59,9 @@ public class BloomFilter {
     }
 
     public void add(byte[] key) {
-        LongLongPair hash = getHash(key);
-        long h1 = hash.leftLong();
-        long h2 = hash.rightLong();
+        long[] hash = MurmurHash3.hash128x64(key, 0, key.length, 0);
+        long h1 = hash[0];
+        long h2 = hash[1];
 
         for(int i = 0; i < hashCount; i++) {
             int bit = (int) Math.abs((h1 + i * h2) % size);
@@ -65,10 +69,11 @@ public class BloomFilter {
         }
     }
 
+    @Override
     public boolean mightContain(byte[] key) {
-        LongLongPair hash = getHash(key);
-        long h1 = hash.leftLong();
-        long h2 = hash.rightLong();
+        long[] hash = MurmurHash3.hash128x64(key, 0, key.length, 0);
+        long h1 = hash[0];
+        long h2 = hash[1];
 
         for(int i = 0; i < hashCount; i++) {
             int bit = (int) Math.abs((h1 + i * h2) % size);
@@ -80,9 +85,41 @@ public class BloomFilter {
         return true;
     }
 
-    private LongLongPair getHash(byte[] key) {
-        long[] hashes = MurmurHash3.hash128x64(key, 0, key.length, 0);
-        return LongLongMutablePair.of(hashes[0], hashes[1]);
+    /**
+     * Not supported, this filter hashes keys with another function.
+     */
+    @Override
+    public boolean mightContainHash(long hash) {
+        throw new UnsupportedOperationException("Legacy bloom filters only look up whole keys");
+    }
+
+    @Override
+    public FilterType type() {
+        return FilterType.BLOOM;
+    }
+
+    @Override
+    public int serializedSize() {
+        return Integer.BYTES * 3 + bits.length * Long.BYTES;
+    }
+
+    @Override
+    public void writeTo(ByteBuffer dst) {
+        dst.putInt(size);
+        dst.putInt(hashCount);
+        dst.putInt(bits.length);
+        for(long word : bits) {
+            dst.putLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(ByteBuffer src) {
+        int size = src.getInt();
+        int hashCount = src.getInt();
+        long[] bits = new long[src.getInt()];
+        src.asLongBuffer().get(bits);
+        src.position(src.position() + bits.length * Long.BYTES);
+        return new BloomFilter(size, hashCount, bits);
     }
 
     public void writeToFile(String filename) {
@@ -0,0 +1,49 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Collects the hashes of the keys of a table while it is written, then builds its filter sized by
+ * the actual number of keys, which is only known once the table is complete.
+ */
+public class FilterBuilder {
+
+    private final FilterType type;
+    private final int bitsPerKey;
+    private final LongArrayList hashes = new LongArrayList();
+
+    /**
+     * @param bitsPerKey size of a blocked bloom filter per key, xor filters have a fixed size per key.
+     */
+    public FilterBuilder(FilterType type, int bitsPerKey) {
+        if(type == FilterType.BLOOM) {
+            throw new IllegalArgumentException("Legacy bloom filters are only read, not built");
+        }
+        this.type = type;
+        this.bitsPerKey = bitsPerKey;
+    }
+
+    public void add(byte[] key) {
+        hashes.add(KeyHash.hash64(key));
+    }
+
+    /**
+     * Add the first {@code length} bytes of the key, e.g. its prefix.
+     */
+    public void add(byte[] key, int length) {
+        long hash = KeyHash.hash64(key, length);
+        // keys sharing a prefix often follow each other, a filter needs each prefix once
+        if(hashes.isEmpty() || hashes.getLong(hashes.size() - 1) != hash) {
+            hashes.add(hash);
+        }
+    }
+
+    public KeyFilter build() {
+        return switch(type) {
+            case BLOCKED_BLOOM -> BlockedBloomFilter.build(hashes, bitsPerKey);
+            case XOR8 -> XorFilter.build(hashes, 8);
+            case XOR16 -> XorFilter.build(hashes, 16);
+            case BLOOM -> throw new IllegalStateException();
+        };
+    }
+}
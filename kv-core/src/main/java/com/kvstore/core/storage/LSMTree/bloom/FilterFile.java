@@ -0,0 +1,63 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Filters of a table, stored in their own file:
+ * <pre>
+ *     filter type (1) | filter
+ *     [prefix extractor name length (4) | prefix extractor name | prefix filter type (1) | prefix filter]
+ * </pre>
+ * The prefix section is only there for tables written with a {@link PrefixExtractor}.
+ *
+ * @param keyFilter       filter of the whole keys.
+ * @param prefixExtractor name of the extractor of the prefixes, null without prefix filter.
+ * @param prefixFilter    filter of the prefixes of the keys, null if none.
+ */
+public record FilterFile(KeyFilter keyFilter, String prefixExtractor, KeyFilter prefixFilter) {
+
+    public void write(String filename) {
+        byte[] name = prefixFilter != null ? prefixExtractor.getBytes(StandardCharsets.UTF_8) : null;
+        int size = 1 + keyFilter.serializedSize();
+        if(prefixFilter != null) {
+            size += Integer.BYTES + name.length + 1 + prefixFilter.serializedSize();
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(keyFilter.type().code());
+        keyFilter.writeTo(buffer);
+        if(prefixFilter != null) {
+            buffer.putInt(name.length).put(name);
+            buffer.put(prefixFilter.type().code());
+            prefixFilter.writeTo(buffer);
+        }
+
+        try {
+            Files.write(Path.of(filename), buffer.array());
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write filter " + filename, e);
+        }
+    }
+
+    public static FilterFile read(String filename) {
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(Path.of(filename)));
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read filter " + filename, e);
+        }
+
+        KeyFilter keyFilter = FilterType.fromCode(buffer.get()).read(buffer);
+        if(!buffer.hasRemaining()) {
+            return new FilterFile(keyFilter, null, null);
+        }
+        byte[] name = new byte[buffer.getInt()];
+        buffer.get(name);
+        KeyFilter prefixFilter = FilterType.fromCode(buffer.get()).read(buffer);
+        return new FilterFile(keyFilter, new String(name, StandardCharsets.UTF_8), prefixFilter);
+    }
+}
@@ -0,0 +1,55 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Kinds of {@link KeyFilter}, identified on disk by their code.
+ */
+public enum FilterType {
+    /**
+     * Plain bloom filter spreading the probes of a key over the whole bit array, written by older tables.
+     */
+    BLOOM(0),
+    /**
+     * Bloom filter keeping all the probes of a key within one cache line, see {@link BlockedBloomFilter}.
+     */
+    BLOCKED_BLOOM(1),
+    /**
+     * Xor filter with 8-bit fingerprints, see {@link XorFilter}: 0.39% of false positives with 9.9 bits per key.
+     */
+    XOR8(2),
+    /**
+     * Xor filter with 16-bit fingerprints: 0.0015% of false positives with 19.7 bits per key.
+     */
+    XOR16(3);
+
+    private final byte code;
+
+    FilterType(int code) {
+        this.code = (byte) code;
+    }
+
+    public byte code() {
+        return code;
+    }
+
+    public static FilterType fromCode(byte code) {
+        for(FilterType type : values()) {
+            if(type.code == code) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown filter type: " + code);
+    }
+
+    /**
+     * Read a filter of this type at the buffer position.
+     */
+    KeyFilter read(ByteBuffer src) {
+        return switch(this) {
+            case BLOOM -> BloomFilter.readFrom(src);
+            case BLOCKED_BLOOM -> BlockedBloomFilter.readFrom(src);
+            case XOR8, XOR16 -> XorFilter.readFrom(src);
+        };
+    }
+}
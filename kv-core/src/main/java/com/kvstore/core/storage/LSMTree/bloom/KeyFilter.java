@@ -0,0 +1,32 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Approximate membership test over the keys of a table, consulted before reading it: a negative
+ * answer is exact, a positive one may be a false positive.
+ * <p>
+ * Filters are immutable once built by a {@link FilterBuilder}, and stored in their own file by
+ * {@link FilterFile}.
+ */
+public interface KeyFilter {
+
+    /**
+     * @return false if the key was definitely not added, true if it probably was.
+     */
+    boolean mightContain(byte[] key);
+
+    /**
+     * @return false if no key of this {@link KeyHash} was added, true if one probably was.
+     */
+    boolean mightContainHash(long hash);
+
+    FilterType type();
+
+    /**
+     * @return the size of the filter once written by {@link #writeTo(ByteBuffer)}.
+     */
+    int serializedSize();
+
+    void writeTo(ByteBuffer dst);
+}
@@ -0,0 +1,56 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * 64-bit MurmurHash64A of keys, computed without allocating: key bytes are read eight at a time
+ * straight from the array.
+ */
+public final class KeyHash {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long SEED = 0x5bd1e9955bd1e995L;
+    private static final long M = 0xc6a4a7935bd1e995L;
+    private static final int R = 47;
+
+    private KeyHash() {
+    }
+
+    public static long hash64(byte[] key) {
+        return hash64(key, key.length);
+    }
+
+    /**
+     * @return the hash of the first {@code length} bytes of the key.
+     */
+    public static long hash64(byte[] key, int length) {
+        long h = SEED ^ (length * M);
+
+        int end = length & ~7;
+        for(int i = 0; i < end; i += 8) {
+            long k = (long) LONGS.get(key, i);
+            k *= M;
+            k ^= k >>> R;
+            k *= M;
+            h ^= k;
+            h *= M;
+        }
+
+        if(end < length) {
+            long k = 0;
+            for(int i = length - 1; i >= end; i--) {
+                k = k << 8 | (key[i] & 0xFF);
+            }
+            h ^= k;
+            h *= M;
+        }
+
+        h ^= h >>> R;
+        h *= M;
+        h ^= h >>> R;
+        return h;
+    }
+}
@@ -0,0 +1,65 @@
+package com.kvstore.core.storage.LSMTree.bloom;
+
+/**
+ * Extracts the prefix of keys that tables index in their prefix filter, so that prefix scans
+ * skip the tables holding no key with their prefix.
+ * <p>
+ * A scan prefix may only be looked up if the extractor gives every key starting with it the same
+ * prefix: implementations must ensure that when {@link #prefixLength(byte[])} of a byte string is
+ * {@code n >= 0}, every key starting with that string also has a prefix of length {@code n}.
+ */
+public interface PrefixExtractor {
+
+    /**
+     * @return the length of the prefix of the key, -1 if it has none and is left out of the prefix filter.
+     */
+    int prefixLength(byte[] key);
+
+    /**
+     * Name recorded with the prefix filters, tables written with an extractor of another name are
+     * never skipped.
+     */
+    String name();
+
+    /**
+     * @return an extractor of the first {@code length} bytes of keys, keys shorter have no prefix.
+     */
+    static PrefixExtractor fixedLength(int length) {
+        return new PrefixExtractor() {
+            @Override
+            public int prefixLength(byte[] key) {
+                return key.length >= length ? length : -1;
+            }
+
+            @Override
+            public String name() {
+                return "fixed:" + length;
+            }
+        };
+    }
+
+    /**
+     * @return an extractor of the bytes up to and including the {@code count}-th delimiter, e.g. with
+     * '/' and 2 the {@code tenant/entity/} part of {@code tenant/entity/field} keys. Keys with fewer
+     * delimiters have no prefix.
+     */
+    static PrefixExtractor upToDelimiter(byte delimiter, int count) {
+        return new PrefixExtractor() {
+            @Override
+            public int prefixLength(byte[] key) {
+                int found = 0;
+                for(int i = 0; i < key.length; i++) {
+                    if(key[i] == delimiter && ++found == count) {
+                        return i + 1;
+                    }
+                }
+                return -1;
+            }
+
+            @Override
+            public String name() {
+                return "delimiter:" + (delimiter & 0xFF) + ":" + count;
+            }
+        };
+    }
+}
@@ -0,0 +1,89 @@
+package com.kvstore.core.storage.LSMTree.compaction;
+
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Set;
+
+/**
+ * Decides which tables of an LSMTree get compacted, and where the result goes.
+ * <p>
+ * The tree asks its strategy for a task when a table is flushed and when a task ends, until it has
+ * nothing left to do; work due at a later time is announced by {@link #millisToNextCompaction}.
+ * Level 0 holds flushed tables, newest first, whose key ranges may overlap; how deeper levels are
+ * organized is up to the strategy, as long as each of them holds non-overlapping tables and a
+ * level is always newer than the levels below it. A strategy instance belongs to a single tree.
+ */
+public interface CompactionStrategy {
+
+    /**
+     * Called holding the table lock, the levels must not be modified.
+     *
+     * @param levels the current tables of the tree, by level.
+     * @return the next task to run, or null if nothing needs to be compacted.
+     */
+    CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels);
+
+    /**
+     * Pick a task leaving alone the tables being compacted by the running tasks, for strategies
+     * that {@link #supportsConcurrentCompactions() support concurrent compactions}. Called holding
+     * the table lock.
+     * <p>
+     * By default, the task picked by {@link #pick(ObjectArrayList)} if it takes none of the busy tables.
+     *
+     * @param busy the inputs and overlapping tables of the running tasks.
+     */
+    default CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels, Set<SSTable> busy) {
+        CompactionTask task = pick(levels);
+        if(task == null || task.inputs().stream().anyMatch(busy::contains) || task.overlapping().stream().anyMatch(busy::contains)) {
+            return null;
+        }
+        return task;
+    }
+
+    /**
+     * Tell whether the tree may run several tasks of the strategy at the same time, which requires
+     * their tables and the key ranges of their outputs in each level to be disjoint, and no task to
+     * insert levels. A strategy that does not is only asked for a task once the previous one is done.
+     */
+    default boolean supportsConcurrentCompactions() {
+        return false;
+    }
+
+    /**
+     * Estimate the bytes compactions have to rewrite to bring the levels back in shape, which the
+     * tree slows its writes down and stops them on. Called holding the table lock.
+     *
+     * @return the estimated bytes, 0 for strategies that do not estimate them.
+     */
+    default long pendingCompactionBytes(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        return 0;
+    }
+
+    /**
+     * Tell when the strategy will have a task to run without any table being flushed meanwhile, like
+     * tables expiring. Called holding the table lock, when {@link #pick(ObjectArrayList)} returned null.
+     *
+     * @return the milliseconds after which the tree should ask for a task again, -1 if not needed.
+     */
+    default long millisToNextCompaction(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        return -1;
+    }
+
+    /**
+     * Creates the strategy of a tree from its options, e.g. {@code LeveledCompactionStrategy::new}.
+     */
+    @FunctionalInterface
+    interface Factory {
+        CompactionStrategy create(LSMTreeOptions options);
+    }
+
+    static long totalByteSize(ObjectArrayList<SSTable> tables) {
+        long total = 0;
+        for(SSTable table : tables) {
+            total += table.byteSize;
+        }
+        return total;
+    }
+}
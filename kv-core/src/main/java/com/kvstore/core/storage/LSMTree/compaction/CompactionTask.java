@@ -0,0 +1,53 @@
+package com.kvstore.core.storage.LSMTree.compaction;
+
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * A unit of compaction work returned by a {@link CompactionStrategy}.
+ *
+ * @param kind            what to do with the input tables.
+ * @param inputs          the tables driving the compaction, newest first.
+ * @param overlapping     tables of the output level merged together with the inputs.
+ * @param outputLevel     level receiving the merged or moved tables.
+ * @param newOutputLevel  insert an empty level at outputLevel before installing the result,
+ *                        shifting the deeper levels down by one.
+ * @param targetFileSize  maximum size of each table produced by a merge.
+ */
+public record CompactionTask(Kind kind, ObjectArrayList<SSTable> inputs, ObjectArrayList<SSTable> overlapping,
+                             int outputLevel, boolean newOutputLevel, long targetFileSize) {
+
+    public enum Kind {
+        /**
+         * Rewrite inputs and overlapping tables into new tables of the output level.
+         */
+        MERGE,
+
+        /**
+         * Move the inputs to the output level without rewriting them.
+         */
+        MOVE,
+
+        /**
+         * Drop the inputs and their data.
+         */
+        DELETE
+    }
+
+    public static CompactionTask merge(ObjectArrayList<SSTable> inputs, ObjectArrayList<SSTable> overlapping,
+                                       int outputLevel, long targetFileSize) {
+        return new CompactionTask(Kind.MERGE, inputs, overlapping, outputLevel, false, targetFileSize);
+    }
+
+    public static CompactionTask mergeIntoNewLevel(ObjectArrayList<SSTable> inputs, int outputLevel, long targetFileSize) {
+        return new CompactionTask(Kind.MERGE, inputs, new ObjectArrayList<>(), outputLevel, true, targetFileSize);
+    }
+
+    public static CompactionTask move(ObjectArrayList<SSTable> inputs, int outputLevel) {
+        return new CompactionTask(Kind.MOVE, inputs, new ObjectArrayList<>(), outputLevel, false, 0L);
+    }
+
+    public static CompactionTask delete(ObjectArrayList<SSTable> inputs) {
+        return new CompactionTask(Kind.DELETE, inputs, new ObjectArrayList<>(), 0, false, 0L);
+    }
+}
@@ -0,0 +1,69 @@
+package com.kvstore.core.storage.LSMTree.compaction;
+
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * FIFO compaction: flushed tables are never merged, the oldest ones are dropped once the tree grows
+ * over its size budget or once their data outlives the time to live.
+ * <p>
+ * Data is lost on purpose, so this only fits data that expires anyway, like logs or metrics. Every
+ * table stays in level 0, which makes writes as cheap as they get but lets reads check each table.
+ */
+public class FifoCompactionStrategy implements CompactionStrategy {
+
+    public static final long DEFAULT_MAX_TABLE_FILES_SIZE = 1024L * 1024 * 1024;
+
+    final long maxTableFilesSize;
+    final long ttlMillis;
+
+    /**
+     * Strategy with the size budget and time to live of the options, see {@link LSMTreeOptions#fifoTtlMillis(long)}.
+     */
+    public FifoCompactionStrategy(LSMTreeOptions options) {
+        this(options.fifoMaxTableFilesSize(), options.fifoTtlMillis());
+    }
+
+    /**
+     * @param maxTableFilesSize total size of the tables above which the oldest ones are dropped.
+     * @param ttlMillis         age after which a table is dropped, 0 to keep tables regardless of age.
+     */
+    public FifoCompactionStrategy(long maxTableFilesSize, long ttlMillis) {
+        this.maxTableFilesSize = maxTableFilesSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        ObjectArrayList<SSTable> tables = levels.get(0);
+        long totalSize = CompactionStrategy.totalByteSize(tables);
+        long expiredBefore = ttlMillis > 0 ? System.currentTimeMillis() - ttlMillis : Long.MIN_VALUE;
+
+        // level 0 is ordered from the newest table to the oldest
+        ObjectArrayList<SSTable> dropped = new ObjectArrayList<>();
+        for(int i = tables.size() - 1; i >= 0; i--) {
+            SSTable table = tables.get(i);
+            if(totalSize <= maxTableFilesSize && table.creationTime() >= expiredBefore) {
+                break;
+            }
+            dropped.add(table);
+            totalSize -= table.byteSize;
+        }
+
+        return dropped.isEmpty() ? null : CompactionTask.delete(dropped);
+    }
+
+    /**
+     * @return the time left before the oldest table expires.
+     */
+    @Override
+    public long millisToNextCompaction(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        ObjectArrayList<SSTable> tables = levels.get(0);
+        if(ttlMillis <= 0 || tables.isEmpty()) {
+            return -1;
+        }
+        SSTable oldest = tables.get(tables.size() - 1);
+        return Math.max(oldest.creationTime() + ttlMillis - System.currentTimeMillis(), 0);
+    }
+}
@@ -0,0 +1,234 @@
+package com.kvstore.core.storage.LSMTree.compaction;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Set;
+
+/**
+ * Leveled compaction: every level below 0 is a single sorted run, each one larger than the previous.
+ * <p>
+ * Each compaction takes a single table from the most overloaded level (all tables for level 0,
+ * whose tables overlap each other) and merges it only with the tables of the next level whose key
+ * range overlaps it; every other table stays in place. Tables of the same level are picked
+ * round-robin through the key space so the whole level gets rewritten evenly. Low write
+ * amplification on reads, best suited to read-heavy workloads.
+ * <p>
+ * Tombstones are small and barely count in the size of their level, so once no level is over its
+ * size the tables made mostly of tombstones are pushed down one level at a time until the last
+ * one, where they are rewritten without their tombstones.
+ */
+public class LeveledCompactionStrategy implements CompactionStrategy {
+
+    public static final double DEFAULT_LEVEL_INCR_FACTOR = 1.75;
+    /**
+     * Share of tombstones from which a table is compacted whatever the size of its level.
+     */
+    public static final double TOMBSTONE_COMPACTION_RATIO = 0.5;
+
+    final int maxLevelZeroSstNumber;
+    final long baseFileSize;
+    final double levelIncrFactor;
+    final ObjectArrayList<byte[]> compactPointers;
+
+    public LeveledCompactionStrategy(LSMTreeOptions options) {
+        this(options.maxLevelZeroSstNumber(), options.memtableMaxByteSize() * 2, DEFAULT_LEVEL_INCR_FACTOR);
+    }
+
+    /**
+     * @param maxLevelZeroSstNumber level 0 is compacted once it holds more tables.
+     * @param baseFileSize          size of the tables of level 0, deeper levels get larger tables.
+     * @param levelIncrFactor       growth of the table size and table count from a level to the next.
+     */
+    public LeveledCompactionStrategy(int maxLevelZeroSstNumber, long baseFileSize, double levelIncrFactor) {
+        this.maxLevelZeroSstNumber = maxLevelZeroSstNumber;
+        this.baseFileSize = baseFileSize;
+        this.levelIncrFactor = levelIncrFactor;
+        this.compactPointers = new ObjectArrayList<>();
+    }
+
+    @Override
+    public CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        return pick(levels, Set.of());
+    }
+
+    /**
+     * Levels are tried from the highest score, the size of a level over its maximum size (the number
+     * of tables over the trigger for level 0), down to 1: the first one holding a table that can be
+     * compacted without touching a busy table gets compacted.
+     */
+    @Override
+    public CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels, Set<SSTable> busy) {
+        double[] scores = new double[levels.size()];
+        IntArrayList candidates = new IntArrayList();
+        for(int i = 0; i < levels.size(); i++) {
+            scores[i] = score(levels, i);
+            if(scores[i] >= 1.0) {
+                candidates.add(i);
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(scores[b], scores[a]));
+
+        if(candidates.isEmpty()) {
+            return pickTombstoneCompaction(levels, busy);
+        }
+        for(int level : candidates) {
+            CompactionTask task = pick(levels, level, busy);
+            if(task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private double score(ObjectArrayList<ObjectArrayList<SSTable>> levels, int level) {
+        return level == 0
+                ? (double) levels.get(0).size() / (maxLevelZeroSstNumber + 1)
+                : (double) CompactionStrategy.totalByteSize(levels.get(level)) / maxBytesForLevel(level);
+    }
+
+    /**
+     * @return the task compacting the level into the next one, null if every candidate table of the level is busy.
+     */
+    private CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels, int level, Set<SSTable> busy) {
+        int outputLevel = level + 1;
+        ObjectArrayList<SSTable> next = outputLevel < levels.size() ? levels.get(outputLevel) : new ObjectArrayList<>();
+
+        if(level == 0) {
+            ObjectArrayList<SSTable> inputs = new ObjectArrayList<>(levels.get(0));
+            KeyComparator comparator = inputs.get(0).comparator();
+            byte[] min = inputs.get(0).minKey();
+            byte[] max = inputs.get(0).maxKey();
+            for(SSTable table : inputs) {
+                min = comparator.compare(table.minKey(), min) < 0 ? table.minKey() : min;
+                max = comparator.compare(table.maxKey(), max) > 0 ? table.maxKey() : max;
+            }
+            ObjectArrayList<SSTable> overlapping = overlapping(next, min, max);
+            if(inputs.stream().anyMatch(busy::contains) || overlapping.stream().anyMatch(busy::contains)) {
+                return null;
+            }
+            return CompactionTask.merge(inputs, overlapping, outputLevel, targetFileSize(outputLevel));
+        }
+
+        ObjectArrayList<SSTable> tables = levels.get(level);
+        int first = nextTableToCompact(level, tables);
+        for(int i = 0; i < tables.size(); i++) {
+            SSTable table = tables.get((first + i) % tables.size());
+            if(busy.contains(table)) {
+                continue;
+            }
+            ObjectArrayList<SSTable> overlapping = overlapping(next, table.minKey(), table.maxKey());
+            if(overlapping.stream().anyMatch(busy::contains)) {
+                continue;
+            }
+
+            compactPointers.set(level, table.maxKey());
+            ObjectArrayList<SSTable> inputs = ObjectArrayList.of(table);
+            // a table of a sorted level with nothing to merge with is moved down without being rewritten
+            if(overlapping.isEmpty()) {
+                return CompactionTask.move(inputs, outputLevel);
+            }
+            return CompactionTask.merge(inputs, overlapping, outputLevel, targetFileSize(outputLevel));
+        }
+        return null;
+    }
+
+    /**
+     * Tasks of disjoint tables have disjoint output ranges: the output of a task spans its input and
+     * the tables of the next level overlapping it, any table of either level within that span would
+     * overlap one of them.
+     */
+    @Override
+    public boolean supportsConcurrentCompactions() {
+        return true;
+    }
+
+    /**
+     * Level 0 counts in full once over its trigger, every deeper level with the bytes it holds over
+     * its maximum size and the bytes of the next level they overlap, about the growth factor times more.
+     */
+    @Override
+    public long pendingCompactionBytes(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        long pending = 0;
+        if(levels.get(0).size() > maxLevelZeroSstNumber) {
+            pending += CompactionStrategy.totalByteSize(levels.get(0));
+        }
+        for(int i = 1; i < levels.size(); i++) {
+            long excess = CompactionStrategy.totalByteSize(levels.get(i)) - maxBytesForLevel(i);
+            if(excess > 0) {
+                pending += (long) (excess * (1 + levelIncrFactor));
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * Merge the first table of level 1 or deeper holding mostly tombstones into the next level, or
+     * rewrite it in place if its level is the last one: never move it, that would keep its tombstones.
+     */
+    private CompactionTask pickTombstoneCompaction(ObjectArrayList<ObjectArrayList<SSTable>> levels, Set<SSTable> busy) {
+        int last = levels.size() - 1;
+        while(last > 0 && levels.get(last).isEmpty()) {
+            last--;
+        }
+
+        for(int level = 1; level <= last; level++) {
+            for(SSTable table : levels.get(level)) {
+                if(table.tombstones == 0 || table.tombstones < table.size * TOMBSTONE_COMPACTION_RATIO || busy.contains(table)) {
+                    continue;
+                }
+
+                ObjectArrayList<SSTable> inputs = ObjectArrayList.of(table);
+                if(level == last) {
+                    return CompactionTask.merge(inputs, new ObjectArrayList<>(), level, targetFileSize(level));
+                }
+                ObjectArrayList<SSTable> overlapping = overlapping(levels.get(level + 1), table.minKey(), table.maxKey());
+                if(overlapping.stream().anyMatch(busy::contains)) {
+                    continue;
+                }
+                return CompactionTask.merge(inputs, overlapping, level + 1, targetFileSize(level + 1));
+            }
+        }
+        return null;
+    }
+
+    private static ObjectArrayList<SSTable> overlapping(ObjectArrayList<SSTable> level, byte[] min, byte[] max) {
+        ObjectArrayList<SSTable> overlapping = new ObjectArrayList<>();
+        for(SSTable table : level) {
+            if(table.overlaps(min, max)) {
+                overlapping.add(table);
+            }
+        }
+        return overlapping;
+    }
+
+    /**
+     * Round-robin cursor: the index of the first table starting after the last key compacted out of the level.
+     */
+    private int nextTableToCompact(int level, ObjectArrayList<SSTable> tables) {
+        while(compactPointers.size() <= level) {
+            compactPointers.add(null);
+        }
+
+        byte[] pointer = compactPointers.get(level);
+        if(pointer != null) {
+            for(int i = 0; i < tables.size(); i++) {
+                if(tables.get(i).comparator().compare(tables.get(i).minKey(), pointer) > 0) {
+                    return i;
+                }
+            }
+        }
+        return 0;
+    }
+
+    long targetFileSize(int level) {
+        return (long) (baseFileSize * Math.pow(levelIncrFactor, level));
+    }
+
+    long maxBytesForLevel(int level) {
+        return (long) (maxLevelZeroSstNumber * Math.pow(levelIncrFactor, level)) * targetFileSize(level);
+    }
+}
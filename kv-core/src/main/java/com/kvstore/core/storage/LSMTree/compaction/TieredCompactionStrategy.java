@@ -0,0 +1,133 @@
+package com.kvstore.core.storage.LSMTree.compaction;
+
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+/**
+ * Tiered (universal) compaction: the tree is a list of sorted runs of similar size that are merged
+ * together as a whole, trading space and read amplification for a much lower write amplification.
+ * Best suited to write-heavy workloads.
+ * <p>
+ * Every table of level 0 is a sorted run, and every non-empty deeper level is one sorted run made of
+ * a single table, newer runs living in shallower levels. Nothing happens until the tree holds
+ * {@code maxSortedRuns} runs; then, in order of priority:
+ * <ol>
+ *     <li>if the newer runs together exceed {@code maxSizeAmplificationPercent} of the oldest one,
+ *     everything is merged into the last level;</li>
+ *     <li>starting from the newest run, the longest window of runs where each run is not larger than
+ *     the runs before it (give or take {@code sizeRatioPercent}) is merged, if it holds at least
+ *     {@code minMergeWidth} runs;</li>
+ *     <li>otherwise the newest runs are merged, just enough of them to get back under the limit.</li>
+ * </ol>
+ * Merged runs are always the newest ones, so the result goes to the deepest level that is still
+ * newer than the first run left untouched.
+ */
+public class TieredCompactionStrategy implements CompactionStrategy {
+
+    public static final int DEFAULT_SIZE_RATIO_PERCENT = 1;
+    public static final int DEFAULT_MIN_MERGE_WIDTH = 2;
+    public static final int DEFAULT_MAX_SIZE_AMPLIFICATION_PERCENT = 200;
+
+    final int maxSortedRuns;
+    final int sizeRatioPercent;
+    final int minMergeWidth;
+    final int maxSizeAmplificationPercent;
+
+    public TieredCompactionStrategy(LSMTreeOptions options) {
+        this(options.maxLevelZeroSstNumber() + 2, DEFAULT_SIZE_RATIO_PERCENT, DEFAULT_MIN_MERGE_WIDTH,
+                DEFAULT_MAX_SIZE_AMPLIFICATION_PERCENT);
+    }
+
+    /**
+     * @param maxSortedRuns               number of sorted runs that triggers a compaction.
+     * @param sizeRatioPercent            how much larger than the window a run may be and still join it.
+     * @param minMergeWidth               smallest window merged on size ratio.
+     * @param maxSizeAmplificationPercent size of the newer runs, relative to the oldest one, that triggers a full merge.
+     */
+    public TieredCompactionStrategy(int maxSortedRuns, int sizeRatioPercent, int minMergeWidth, int maxSizeAmplificationPercent) {
+        this.maxSortedRuns = Math.max(maxSortedRuns, 2);
+        this.sizeRatioPercent = sizeRatioPercent;
+        this.minMergeWidth = Math.max(minMergeWidth, 2);
+        this.maxSizeAmplificationPercent = maxSizeAmplificationPercent;
+    }
+
+    @Override
+    public CompactionTask pick(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        // sorted runs from the newest to the oldest, with the level each one lives in
+        ObjectArrayList<ObjectArrayList<SSTable>> runs = new ObjectArrayList<>();
+        IntArrayList runLevels = new IntArrayList();
+        LongArrayList runSizes = new LongArrayList();
+
+        for(SSTable table : levels.get(0)) {
+            runs.add(ObjectArrayList.of(table));
+            runLevels.add(0);
+            runSizes.add(table.byteSize);
+        }
+        for(int i = 1; i < levels.size(); i++) {
+            if(!levels.get(i).isEmpty()) {
+                runs.add(levels.get(i));
+                runLevels.add(i);
+                runSizes.add(CompactionStrategy.totalByteSize(levels.get(i)));
+            }
+        }
+
+        if(runs.size() < maxSortedRuns) {
+            return null;
+        }
+
+        int width = sizeAmplificationWidth(runSizes);
+        if(width == 0) {
+            width = sizeRatioWidth(runSizes);
+        }
+        if(width == 0) {
+            width = runs.size() - maxSortedRuns + 2;
+        }
+
+        ObjectArrayList<SSTable> inputs = new ObjectArrayList<>();
+        for(int i = 0; i < width; i++) {
+            inputs.addAll(runs.get(i));
+        }
+
+        if(width == runs.size()) {
+            return CompactionTask.merge(inputs, new ObjectArrayList<>(), Math.max(levels.size() - 1, 1), Long.MAX_VALUE);
+        }
+
+        int nextLevel = runLevels.getInt(width);
+        if(nextLevel == 0) {
+            return CompactionTask.merge(inputs, new ObjectArrayList<>(), 0, Long.MAX_VALUE);
+        }
+        if(nextLevel == 1) {
+            return CompactionTask.mergeIntoNewLevel(inputs, 1, Long.MAX_VALUE);
+        }
+        // levels between the window and the next run are either empty or part of the window
+        return CompactionTask.merge(inputs, new ObjectArrayList<>(), nextLevel - 1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the number of runs to merge to bring the size amplification back down, 0 if it is within bounds.
+     */
+    private int sizeAmplificationWidth(LongArrayList runSizes) {
+        long oldest = runSizes.getLong(runSizes.size() - 1);
+        long newer = 0;
+        for(int i = 0; i < runSizes.size() - 1; i++) {
+            newer += runSizes.getLong(i);
+        }
+        return newer * 100 > oldest * maxSizeAmplificationPercent ? runSizes.size() : 0;
+    }
+
+    /**
+     * @return the number of runs in the window starting at the newest run, 0 if it is too narrow.
+     */
+    private int sizeRatioWidth(LongArrayList runSizes) {
+        long windowSize = runSizes.getLong(0);
+        int width = 1;
+        while(width < runSizes.size() && runSizes.getLong(width) * 100 <= windowSize * (100 + sizeRatioPercent)) {
+            windowSize += runSizes.getLong(width);
+            width++;
+        }
+        return width >= minMergeWidth ? width : 0;
+    }
+}
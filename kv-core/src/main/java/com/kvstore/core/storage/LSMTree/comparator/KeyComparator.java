@@ -0,0 +1,49 @@
+package com.kvstore.core.storage.LSMTree.comparator;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Order of the keys of a tree, used by its memtables, tables, compactions and scans.
+ * <p>
+ * The name of the order is recorded in the manifest of the tree and in the properties of its
+ * block-based tables, so data is always read in the order it was written with: a tree opened with
+ * another comparator keeps its own, which must be either the configured one or a built-in one of
+ * {@link KeyComparators}. Comparators are shared by every reader and writer, they must be thread-safe.
+ * Two keys must only be equal if their bytes are, point lookups match keys byte for byte.
+ */
+public interface KeyComparator extends Comparator<byte[]> {
+
+    /**
+     * Name recorded with the data, two comparators of the same name must order keys the same way.
+     */
+    String name();
+
+    @Override
+    int compare(byte[] a, byte[] b);
+
+    /**
+     * Compare the {@code length} bytes of a buffer from an absolute offset to a key, in the same
+     * order as {@link #compare(byte[], byte[])}. The default implementation copies the bytes.
+     */
+    default int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return compare(bytes, key);
+    }
+
+    /**
+     * @return the smallest key greater than the given one.
+     */
+    byte[] successor(byte[] key);
+
+    /**
+     * @param maxKeyLength length of the longest key that may be read, for orders that need it.
+     * @return the disjoint ranges {from, to} holding every key starting with the prefix, in
+     * increasing order, a null bound standing for no bound. An order keeping the keys of a prefix
+     * together returns a single range.
+     */
+    ObjectArrayList<byte[][]> prefixRanges(byte[] prefix, int maxKeyLength);
+}
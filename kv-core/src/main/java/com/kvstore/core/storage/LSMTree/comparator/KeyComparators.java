@@ -0,0 +1,39 @@
+package com.kvstore.core.storage.LSMTree.comparator;
+
+/**
+ * The built-in {@link KeyComparator}s, which data recorded with their name can always be read with.
+ */
+public final class KeyComparators {
+
+    /**
+     * Unsigned lexicographic order, the default order of new trees and tables.
+     */
+    public static final KeyComparator LEXICOGRAPHIC = new LexicographicComparator();
+
+    /**
+     * Length then signed bytes, the order of the data written before the order was recorded.
+     */
+    public static final KeyComparator LENGTH_FIRST = new LengthFirstComparator();
+
+    private KeyComparators() {
+    }
+
+    /**
+     * @param name       name recorded with the data.
+     * @param configured comparator of the options the data is opened with.
+     * @return the configured comparator if it has the name, the built-in one of that name otherwise.
+     */
+    public static KeyComparator resolve(String name, KeyComparator configured) {
+        if(configured != null && configured.name().equals(name)) {
+            return configured;
+        }
+        if(LEXICOGRAPHIC.name().equals(name)) {
+            return LEXICOGRAPHIC;
+        }
+        if(LENGTH_FIRST.name().equals(name)) {
+            return LENGTH_FIRST;
+        }
+        throw new IllegalStateException("Data ordered by the unknown key comparator " + name
+                + ", open it with that comparator in the options");
+    }
+}
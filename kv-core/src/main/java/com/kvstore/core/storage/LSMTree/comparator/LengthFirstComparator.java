@@ -0,0 +1,98 @@
+package com.kvstore.core.storage.LSMTree.comparator;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Legacy order of the trees and tables written before the order was recorded: shorter keys first,
+ * then keys of the same length by signed bytes. The keys starting with a prefix are not contiguous,
+ * prefix scans read one range per key length.
+ */
+final class LengthFirstComparator implements KeyComparator {
+
+    @Override
+    public String name() {
+        return "length-first";
+    }
+
+    @Override
+    public int compare(byte[] a, byte[] b) {
+        if(a == null) {
+            return b == null ? 0 : -1;
+        }
+        int alen = a.length;
+        int blen = b.length;
+
+        if(alen != blen) {
+            return alen - blen;
+        }
+
+        for(int i = 0; i < alen; i++) {
+            byte abyte = a[i];
+            byte bbyte = b[i];
+            if(abyte != bbyte) {
+                return abyte - bbyte;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        if(length != key.length) {
+            return length - key.length;
+        }
+
+        for(int i = 0; i < length; i++) {
+            byte abyte = buffer.get(offset + i);
+            byte bbyte = key[i];
+            if(abyte != bbyte) {
+                return abyte - bbyte;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the key with its last bytes incremented, or the smallest key one byte longer when
+     * every byte is already at its maximum.
+     */
+    @Override
+    public byte[] successor(byte[] key) {
+        byte[] result = key.clone();
+        for(int i = result.length - 1; i >= 0; i--) {
+            if(result[i] != Byte.MAX_VALUE) {
+                result[i]++;
+                return result;
+            }
+            result[i] = Byte.MIN_VALUE;
+        }
+
+        result = new byte[key.length + 1];
+        Arrays.fill(result, Byte.MIN_VALUE);
+        return result;
+    }
+
+    /**
+     * @return the range of the keys of each length starting with the prefix, up to the longest key.
+     */
+    @Override
+    public ObjectArrayList<byte[][]> prefixRanges(byte[] prefix, int maxKeyLength) {
+        ObjectArrayList<byte[][]> ranges = new ObjectArrayList<>();
+        for(int length = prefix.length; length <= maxKeyLength; length++) {
+            byte[] from = Arrays.copyOf(prefix, length);
+            Arrays.fill(from, prefix.length, length, Byte.MIN_VALUE);
+            byte[] to = Arrays.copyOf(prefix, length);
+            Arrays.fill(to, prefix.length, length, Byte.MAX_VALUE);
+            ranges.add(new byte[][]{from, successor(to)});
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
@@ -0,0 +1,94 @@
+package com.kvstore.core.storage.LSMTree.comparator;
+
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Unsigned lexicographic order, the order of {@code memcmp}: keys are compared byte by byte as
+ * unsigned values, a key being before the longer keys it is a prefix of. The keys starting with a
+ * prefix are contiguous, so prefix scans read a single range.
+ * <p>
+ * Arrays are compared by {@link Arrays#compareUnsigned(byte[], byte[])}, which finds the first
+ * mismatch several bytes at a time; buffers without an accessible array 8 bytes at a time, read as
+ * big-endian longs so that their unsigned order is the order of their bytes.
+ */
+final class LexicographicComparator implements KeyComparator {
+
+    private static final VarHandle BUFFER_LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle ARRAY_LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    @Override
+    public String name() {
+        return "lexicographic";
+    }
+
+    @Override
+    public int compare(byte[] a, byte[] b) {
+        return Arrays.compareUnsigned(a, b);
+    }
+
+    @Override
+    public int compare(ByteBuffer buffer, int offset, int length, byte[] key) {
+        if(buffer.hasArray()) {
+            int start = buffer.arrayOffset() + offset;
+            return Arrays.compareUnsigned(buffer.array(), start, start + length, key, 0, key.length);
+        }
+
+        int common = Math.min(length, key.length);
+        int i = 0;
+        for(; i + Long.BYTES <= common; i += Long.BYTES) {
+            long a = (long) BUFFER_LONGS.get(buffer, offset + i);
+            long b = (long) ARRAY_LONGS.get(key, i);
+            if(a != b) {
+                return Long.compareUnsigned(a, b);
+            }
+        }
+        for(; i < common; i++) {
+            int cmp = Byte.compareUnsigned(buffer.get(offset + i), key[i]);
+            if(cmp != 0) {
+                return cmp;
+            }
+        }
+        return length - key.length;
+    }
+
+    /**
+     * @return the key followed by a zero byte.
+     */
+    @Override
+    public byte[] successor(byte[] key) {
+        return Arrays.copyOf(key, key.length + 1);
+    }
+
+    @Override
+    public ObjectArrayList<byte[][]> prefixRanges(byte[] prefix, int maxKeyLength) {
+        ObjectArrayList<byte[][]> ranges = new ObjectArrayList<>();
+        ranges.add(new byte[][]{prefix, prefixEnd(prefix)});
+        return ranges;
+    }
+
+    /**
+     * @return the smallest key greater than every key starting with the prefix: the prefix without
+     * its trailing 0xFF bytes and its last byte incremented, null if it only has 0xFF bytes.
+     */
+    private static byte[] prefixEnd(byte[] prefix) {
+        for(int i = prefix.length - 1; i >= 0; i--) {
+            if(prefix[i] != (byte) 0xFF) {
+                byte[] end = Arrays.copyOf(prefix, i + 1);
+                end[i]++;
+                return end;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return name();
+    }
+}
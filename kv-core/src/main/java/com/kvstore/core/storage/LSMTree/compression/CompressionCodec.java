@@ -0,0 +1,29 @@
+package com.kvstore.core.storage.LSMTree.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Compresses the data blocks of block-based tables. The id of the codec is stored with every
+ * block, so a table may be read whatever codec the current options name, as long as the codec is
+ * registered in {@link CompressionCodecs}.
+ * <p>
+ * Codecs are shared by every writer and reader, they must be thread-safe.
+ */
+public interface CompressionCodec {
+
+    /**
+     * Identifier stored with the blocks, unique among the registered codecs.
+     */
+    byte id();
+
+    String name();
+
+    byte[] compress(byte[] raw);
+
+    /**
+     * Decompress the remaining bytes of the source, filling the whole destination.
+     *
+     * @param dst array of exactly the uncompressed size.
+     */
+    void decompress(ByteBuffer src, byte[] dst);
+}
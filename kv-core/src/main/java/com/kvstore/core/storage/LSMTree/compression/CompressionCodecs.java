@@ -0,0 +1,74 @@
+package com.kvstore.core.storage.LSMTree.compression;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Registry of the {@link CompressionCodec}s tables may be read with, holding the built-in ones.
+ */
+public final class CompressionCodecs {
+
+    /**
+     * Stores blocks as they are.
+     */
+    public static final CompressionCodec NONE = new CompressionCodec() {
+        @Override
+        public byte id() {
+            return 0;
+        }
+
+        @Override
+        public String name() {
+            return "none";
+        }
+
+        @Override
+        public byte[] compress(byte[] raw) {
+            return raw;
+        }
+
+        @Override
+        public void decompress(ByteBuffer src, byte[] dst) {
+            src.get(dst);
+        }
+    };
+
+    /**
+     * JDK deflate at its default level, slow to write but compact, suits the bottom levels.
+     */
+    public static final CompressionCodec DEFLATE = new DeflateCodec(1, 6);
+
+    /**
+     * Pure Java LZ4, cheap to decode, suits the levels read the most.
+     */
+    public static final CompressionCodec LZ4 = new Lz4Codec(2);
+
+    private static final CompressionCodec[] CODECS = new CompressionCodec[256];
+
+    static {
+        register(NONE);
+        register(DEFLATE);
+        register(LZ4);
+    }
+
+    private CompressionCodecs() {
+    }
+
+    /**
+     * Make a codec available to the readers of tables, before opening any table written with it.
+     */
+    public static synchronized void register(CompressionCodec codec) {
+        CompressionCodec registered = CODECS[codec.id() & 0xFF];
+        if(registered != null && registered != codec) {
+            throw new IllegalArgumentException("Compression codec id " + codec.id() + " already used by " + registered.name());
+        }
+        CODECS[codec.id() & 0xFF] = codec;
+    }
+
+    public static CompressionCodec byId(byte id) {
+        CompressionCodec codec = CODECS[id & 0xFF];
+        if(codec == null) {
+            throw new IllegalStateException("Unknown compression codec id " + id);
+        }
+        return codec;
+    }
+}
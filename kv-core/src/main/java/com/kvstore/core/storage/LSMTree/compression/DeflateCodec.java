@@ -0,0 +1,75 @@
+package com.kvstore.core.storage.LSMTree.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec backed by the JDK zlib {@link Deflater}, each thread reusing its own deflater and inflater.
+ * The level only matters when compressing, blocks are read back by any instance with the same id.
+ */
+public class DeflateCodec implements CompressionCodec {
+
+    private final byte id;
+    private final int level;
+    private final ThreadLocal<Deflater> deflaters;
+    private final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+
+    /**
+     * @param level from {@link Deflater#BEST_SPEED} to {@link Deflater#BEST_COMPRESSION}.
+     */
+    public DeflateCodec(int id, int level) {
+        this.id = (byte) id;
+        this.level = level;
+        this.deflaters = ThreadLocal.withInitial(() -> new Deflater(level));
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return "deflate-" + level;
+    }
+
+    @Override
+    public byte[] compress(byte[] raw) {
+        Deflater deflater = deflaters.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+
+        byte[] out = new byte[raw.length + raw.length / 1000 + 64];
+        int length = 0;
+        while(!deflater.finished()) {
+            if(length == out.length) {
+                out = Arrays.copyOf(out, out.length * 2);
+            }
+            length += deflater.deflate(out, length, out.length - length);
+        }
+        return Arrays.copyOf(out, length);
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, byte[] dst) {
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(src);
+        try {
+            int length = 0;
+            while(length < dst.length) {
+                int n = inflater.inflate(dst, length, dst.length - length);
+                if(n == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IllegalStateException("Truncated deflate block");
+                }
+                length += n;
+            }
+        } catch(DataFormatException e) {
+            throw new IllegalStateException("Corrupt deflate block", e);
+        }
+    }
+}
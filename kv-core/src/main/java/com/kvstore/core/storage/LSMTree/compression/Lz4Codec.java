@@ -0,0 +1,184 @@
+package com.kvstore.core.storage.LSMTree.compression;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Pure Java codec writing the LZ4 block format: a sequence of tokens, each one giving a run of
+ * literals copied as is followed by a match copied from up to 64 KB back:
+ * <pre>
+ *     token (1) | [literal length (255...)] | literals | match offset (2) | [match length (255...)]
+ * </pre>
+ * The high half of the token is the literal length and the low half the match length minus 4,
+ * 15 meaning that the length goes on in the next bytes. The last sequence only has literals, and
+ * as the format requires, the last 5 bytes are always literals and no match starts in the last 12.
+ * <p>
+ * Compression is greedy, finding matches through a hash table of 4-byte sequences, and skips ahead
+ * faster and faster on data that does not compress.
+ */
+public class Lz4Codec implements CompressionCodec {
+
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 12;
+    private static final int SKIP_STRENGTH = 6;
+
+    private final byte id;
+
+    public Lz4Codec(int id) {
+        this.id = (byte) id;
+    }
+
+    @Override
+    public byte id() {
+        return id;
+    }
+
+    @Override
+    public String name() {
+        return "lz4";
+    }
+
+    @Override
+    public byte[] compress(byte[] src) {
+        int length = src.length;
+        byte[] dst = new byte[length + length / 255 + 16];
+        int op = 0;
+        int anchor = 0;
+
+        if(length >= MATCH_FIND_LIMIT + 1) {
+            // positions + 1 of the last sequence of each hash, 0 for none
+            int[] table = new int[1 << HASH_BITS];
+            int matchLimit = length - LAST_LITERALS;
+            int ip = 0;
+
+            while(ip < length - MATCH_FIND_LIMIT) {
+                int sequence = (int) INTS.get(src, ip);
+                int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+                int ref = table[hash] - 1;
+                table[hash] = ip + 1;
+
+                if(ref < 0 || ip - ref > MAX_OFFSET || (int) INTS.get(src, ref) != sequence) {
+                    ip += 1 + ((ip - anchor) >>> SKIP_STRENGTH);
+                    continue;
+                }
+
+                while(ip > anchor && ref > 0 && src[ip - 1] == src[ref - 1]) {
+                    ip--;
+                    ref--;
+                }
+                int matchLength = MIN_MATCH;
+                while(ip + matchLength < matchLimit && src[ip + matchLength] == src[ref + matchLength]) {
+                    matchLength++;
+                }
+
+                op = writeLiterals(dst, op, src, anchor, ip - anchor, matchLength - MIN_MATCH);
+                dst[op++] = (byte) (ip - ref);
+                dst[op++] = (byte) ((ip - ref) >>> 8);
+                if(matchLength - MIN_MATCH >= 15) {
+                    op = writeLength(dst, op, matchLength - MIN_MATCH - 15);
+                }
+
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+
+        op = writeLiterals(dst, op, src, anchor, length - anchor, 0);
+        return Arrays.copyOf(dst, op);
+    }
+
+    /**
+     * Write a token and its literals, the match length of the token being capped at 15.
+     */
+    private static int writeLiterals(byte[] dst, int op, byte[] src, int start, int count, int matchLength) {
+        dst[op++] = (byte) (Math.min(count, 15) << 4 | Math.min(matchLength, 15));
+        if(count >= 15) {
+            op = writeLength(dst, op, count - 15);
+        }
+        System.arraycopy(src, start, dst, op, count);
+        return op + count;
+    }
+
+    private static int writeLength(byte[] dst, int op, int length) {
+        while(length >= 255) {
+            dst[op++] = (byte) 255;
+            length -= 255;
+        }
+        dst[op++] = (byte) length;
+        return op;
+    }
+
+    @Override
+    public void decompress(ByteBuffer src, byte[] dst) {
+        byte[] in;
+        int ip;
+        int end;
+        if(src.hasArray()) {
+            in = src.array();
+            ip = src.arrayOffset() + src.position();
+            end = src.arrayOffset() + src.limit();
+        } else {
+            in = new byte[src.remaining()];
+            src.duplicate().get(in);
+            ip = 0;
+            end = in.length;
+        }
+
+        int op = 0;
+        while(ip < end) {
+            int token = in[ip++] & 0xFF;
+
+            int literals = token >>> 4;
+            if(literals == 15) {
+                int b;
+                do {
+                    b = in[ip++] & 0xFF;
+                    literals += b;
+                } while(b == 255);
+            }
+            System.arraycopy(in, ip, dst, op, literals);
+            ip += literals;
+            op += literals;
+            if(ip >= end) {
+                break;
+            }
+
+            int offset = (in[ip++] & 0xFF) | (in[ip++] & 0xFF) << 8;
+            int matchLength = token & 0x0F;
+            if(matchLength == 15) {
+                int b;
+                do {
+                    b = in[ip++] & 0xFF;
+                    matchLength += b;
+                } while(b == 255);
+            }
+            matchLength += MIN_MATCH;
+
+            int ref = op - offset;
+            if(offset == 0 || ref < 0) {
+                throw new IllegalStateException("Corrupt lz4 block");
+            }
+            if(offset >= matchLength) {
+                System.arraycopy(dst, ref, dst, op, matchLength);
+                op += matchLength;
+            } else {
+                // overlapping match, repeating the last offset bytes
+                for(int i = 0; i < matchLength; i++) {
+                    dst[op++] = dst[ref++];
+                }
+            }
+        }
+
+        if(op != dst.length) {
+            throw new IllegalStateException("Corrupt lz4 block");
+        }
+    }
+}
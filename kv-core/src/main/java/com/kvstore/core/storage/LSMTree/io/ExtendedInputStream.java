@@ -8,7 +8,7 @@ import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
 import it.unimi.dsi.fastutil.io.FastBufferedInputStream;
 import it.unimi.dsi.fastutil.io.FastBufferedOutputStream;
 
-public class ExtendedInputStream {
+public class ExtendedInputStream implements SeekableInput {
 
     private final FastBufferedInputStream fis;
 
@@ -31,6 +31,7 @@ public class ExtendedInputStream {
      *
      * @return the next V-Byte int.
      */
+    @Override
     public int readVByteInt() {
         return (int) readVByteLong();
     }
@@ -47,6 +48,7 @@ public class ExtendedInputStream {
      *
      * @return the next V-Byte long.
      */
+    @Override
     public long readVByteLong() {
         long result = 0;
         int b;
@@ -69,6 +71,7 @@ public class ExtendedInputStream {
      *
      * @return the next long in the stream.
      */
+    @Override
     public long readLong() {
         try {
             long result = 0;
@@ -87,6 +90,7 @@ public class ExtendedInputStream {
      *
      * @return the next 8-bits integer in the stream.
      */
+    @Override
     public int readByteInt() {
         try {
             return fis.read();
@@ -101,6 +105,7 @@ public class ExtendedInputStream {
      * @param n the wanted number of bytes.
      * @return an array with the next N bytes.
      */
+    @Override
     public byte[] readNBytes(int n) {
         try {
             return fis.readNBytes(n);
@@ -109,6 +114,23 @@ public class ExtendedInputStream {
         }
     }
 
+    /**
+     * Read N bytes into an array.
+     *
+     * @param dst    destination array.
+     * @param offset offset in the destination.
+     * @param n      the wanted number of bytes.
+     * @return the number of bytes read, less than N at the end of the stream.
+     */
+    @Override
+    public int readNBytes(byte[] dst, int offset, int n) {
+        try {
+            return fis.readNBytes(dst, offset, n);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     /**
      * Read a ByteArrayPair from the stream.
      * <p>
@@ -116,6 +138,7 @@ public class ExtendedInputStream {
      *
      * @return the next item in the stream.
      */
+    @Override
     public ByteArrayPair readBytePair() {
         try {
             int keyLength = readVByteInt();
@@ -136,6 +159,7 @@ public class ExtendedInputStream {
      * @param n the number of bytes to skip.
      * @return the number of bytes skipped.
      */
+    @Override
     public long skip(int n) {
         try {
             return fis.skip(n);
@@ -149,6 +173,7 @@ public class ExtendedInputStream {
      *
      * @param offset the offset to place the stream to.
      */
+    @Override
     public void seek(long offset) {
         try {
             fis.position(offset);
@@ -160,6 +185,7 @@ public class ExtendedInputStream {
     /**
      * Close resources.
      */
+    @Override
     public void close() {
         try {
             fis.close();
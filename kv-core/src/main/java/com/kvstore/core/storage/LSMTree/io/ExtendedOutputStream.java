@@ -7,8 +7,16 @@ import java.io.FileOutputStream;
 
 public class ExtendedOutputStream {
 
-    private static final byte[] VBYTE_BUFFER = new byte[10];
+    /**
+     * Per stream, tables are written concurrently by flushes and subcompactions.
+     */
+    private final byte[] vbyteBuffer = new byte[10];
     private final FastBufferedOutputStream fos;
+    private final RateLimiter rateLimiter;
+    /**
+     * Bytes written since the last request to the limiter.
+     */
+    private long unrequested;
 
     /**
      * Initialize an output stream on a file.
@@ -16,6 +24,17 @@ public class ExtendedOutputStream {
      * @param filename the file filename.
      */
     public ExtendedOutputStream(String filename) {
+        this(filename, null);
+    }
+
+    /**
+     * Initialize an output stream on a file whose writes draw from a rate limiter.
+     *
+     * @param filename    the file filename.
+     * @param rateLimiter limiter the written bytes are requested from, null for none.
+     */
+    public ExtendedOutputStream(String filename, RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
         try {
             fos = new FastBufferedOutputStream(new FileOutputStream(filename));
             fos.position(0);
@@ -33,10 +52,17 @@ public class ExtendedOutputStream {
     public int write(byte[] bytes) {
         try {
             fos.write(bytes);
-            return bytes.length;
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        if(rateLimiter != null) {
+            unrequested += bytes.length;
+            if(unrequested >= RateLimiter.REQUEST_CHUNK) {
+                rateLimiter.request(unrequested);
+                unrequested = 0;
+            }
+        }
+        return bytes.length;
     }
 
     /**
@@ -106,6 +132,10 @@ public class ExtendedOutputStream {
      * Close resources.
      */
     public void close() {
+        if(rateLimiter != null && unrequested > 0) {
+            rateLimiter.request(unrequested);
+            unrequested = 0;
+        }
         try {
             fos.close();
         } catch (Exception e) {
@@ -122,13 +152,13 @@ public class ExtendedOutputStream {
 
         int i = 0;
         while (n > 0) {
-            VBYTE_BUFFER[i++] = (byte) (n & 0x7F);
+            vbyteBuffer[i++] = (byte) (n & 0x7F);
             n >>>= 7;
         }
 
-        VBYTE_BUFFER[i - 1] |= 0x80;
+        vbyteBuffer[i - 1] |= 0x80;
         byte[] res = new byte[i];
-        System.arraycopy(VBYTE_BUFFER, 0, res, 0, i);
+        System.arraycopy(vbyteBuffer, 0, res, 0, i);
         return res;
     }
 
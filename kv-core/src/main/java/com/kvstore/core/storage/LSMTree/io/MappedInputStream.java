@@ -0,0 +1,134 @@
+package com.kvstore.core.storage.LSMTree.io;
+
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Input over a memory-mapped file.
+ * <p>
+ * The mapping is shared, each instance only owns a cursor on it, so creating one per lookup
+ * is cheap and lets any number of threads read the same file without locking. Reads go
+ * straight to the page cache, there is no intermediate buffer to refill.
+ */
+public class MappedInputStream implements SeekableInput {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Initialize an input on a mapped region.
+     *
+     * @param mapped the shared mapping, its position is left untouched.
+     */
+    public MappedInputStream(ByteBuffer mapped) {
+        this.buffer = mapped.duplicate();
+        this.buffer.position(0);
+    }
+
+    /**
+     * Map a whole file read-only.
+     *
+     * @param filename the file filename.
+     * @return the mapping, or null if the file is too large to be mapped in a single buffer.
+     */
+    public static MappedByteBuffer map(String filename) {
+        try(FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                return null;
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int readVByteInt() {
+        return (int) readVByteLong();
+    }
+
+    @Override
+    public long readVByteLong() {
+        long result = 0;
+        int b;
+        int shift = 0;
+        while(true) {
+            b = readByteInt();
+            result |= (((long) b & 0x7F) << shift);
+
+            if((b & 0x80) == 0x80) {
+                break;
+            }
+
+            shift += 7;
+        }
+        return result - 1;
+    }
+
+    @Override
+    public long readLong() {
+        return buffer.getLong();
+    }
+
+    @Override
+    public int readByteInt() {
+        if(!buffer.hasRemaining()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public byte[] readNBytes(int n) {
+        byte[] result = new byte[Math.min(n, buffer.remaining())];
+        buffer.get(result);
+        return result;
+    }
+
+    @Override
+    public int readNBytes(byte[] dst, int offset, int n) {
+        int read = Math.min(n, buffer.remaining());
+        buffer.get(dst, offset, read);
+        return read;
+    }
+
+    @Override
+    public ByteArrayPair readBytePair() {
+        try {
+            int keyLength = readVByteInt();
+            int valueLength = readVByteInt();
+
+            return new ByteArrayPair(
+                    readNBytes(keyLength),
+                    readNBytes(valueLength)
+            );
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public long skip(int n) {
+        int skipped = Math.min(n, buffer.remaining());
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public void seek(long offset) {
+        buffer.position((int) offset);
+    }
+
+    /**
+     * Nothing to release, the mapping is owned by the caller and unmapped once unreachable.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,175 @@
+package com.kvstore.core.storage.LSMTree.io;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Token bucket bounding the bytes per second background work reads and writes, so that flushes and
+ * compactions leave disk bandwidth to the foreground reads.
+ * <p>
+ * Tokens are refilled at the rate up to a tenth of a second worth of them. A request takes its bytes
+ * whether there are enough tokens or not, and waits for the debt it leaves to be refilled: requests
+ * go through in order, each one at most as early as the rate allows. The rate may be changed at any
+ * time, and auto-tuned: every {@link #TUNE_INTERVAL_MILLIS} of use, the rate is lowered by a third if
+ * the mean foreground latency recorded meanwhile is over the target, raised by a twentieth of the
+ * maximum rate otherwise. An instance may be shared by several trees.
+ */
+public class RateLimiter {
+
+    public static final long TUNE_INTERVAL_MILLIS = 1000;
+    /**
+     * Bytes read or written before the limiter is asked for them, so that small reads and writes do not each take its lock.
+     */
+    public static final int REQUEST_CHUNK = 32 * 1024;
+
+    private static final long REFILL_PERIOD_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long bytesPerSecond;
+    private double tokens;
+    private long lastRefillNanos = System.nanoTime();
+
+    private boolean autoTuned;
+    private long minBytesPerSecond;
+    private long maxBytesPerSecond;
+    private long targetLatencyNanos;
+    private long lastTuneNanos = System.nanoTime();
+    private final LongAdder foregroundOps = new LongAdder();
+    private final LongAdder foregroundNanos = new LongAdder();
+
+    private final LongAdder bytesRequested = new LongAdder();
+    private final LongAdder bytesThrottled = new LongAdder();
+    private final LongAdder waitNanos = new LongAdder();
+
+    /**
+     * @param bytesPerSecond the rate, 0 or less for no limit.
+     */
+    public RateLimiter(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * A limiter tuning its rate between the bounds to keep the mean foreground latency under the
+     * target, starting from the maximum rate. The foreground latencies are fed by the tree, see
+     * {@link #recordForegroundLatency(long)}.
+     */
+    public static RateLimiter autoTuned(long minBytesPerSecond, long maxBytesPerSecond, long targetLatencyMicros) {
+        RateLimiter limiter = new RateLimiter(maxBytesPerSecond);
+        limiter.autoTuned = true;
+        limiter.minBytesPerSecond = Math.max(minBytesPerSecond, 1);
+        limiter.maxBytesPerSecond = Math.max(maxBytesPerSecond, limiter.minBytesPerSecond);
+        limiter.targetLatencyNanos = TimeUnit.MICROSECONDS.toNanos(targetLatencyMicros);
+        return limiter;
+    }
+
+    /**
+     * Wait until the bytes may be read or written.
+     */
+    public void request(long bytes) {
+        bytesRequested.add(bytes);
+        long delay;
+        synchronized(this) {
+            if(bytesPerSecond <= 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            if(autoTuned && now - lastTuneNanos >= TimeUnit.MILLISECONDS.toNanos(TUNE_INTERVAL_MILLIS)) {
+                tune(now);
+            }
+            refill(now);
+            tokens -= bytes;
+            delay = tokens >= 0 ? 0 : (long) (-tokens * 1e9 / bytesPerSecond);
+        }
+        if(delay <= 0) {
+            return;
+        }
+
+        bytesThrottled.add(bytes);
+        long begin = System.nanoTime();
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        waitNanos.add(System.nanoTime() - begin);
+    }
+
+    /**
+     * Must be called holding the lock of the limiter.
+     */
+    private void refill(long now) {
+        double burst = bytesPerSecond * (REFILL_PERIOD_NANOS / 1e9);
+        tokens = Math.min(tokens + (now - lastRefillNanos) * (bytesPerSecond / 1e9), burst);
+        lastRefillNanos = now;
+    }
+
+    /**
+     * Lower or raise the rate from the foreground latency since the last tuning, must be called
+     * holding the lock of the limiter.
+     */
+    private void tune(long now) {
+        long ops = foregroundOps.sumThenReset();
+        long nanos = foregroundNanos.sumThenReset();
+        lastTuneNanos = now;
+        if(ops == 0) {
+            return;
+        }
+
+        refill(now);
+        if(nanos / ops > targetLatencyNanos) {
+            bytesPerSecond = Math.max(bytesPerSecond * 2 / 3, minBytesPerSecond);
+        } else {
+            bytesPerSecond = Math.min(bytesPerSecond + maxBytesPerSecond / 20, maxBytesPerSecond);
+        }
+    }
+
+    /**
+     * Account for a foreground operation, taken into account by auto-tuned limiters only.
+     */
+    public void recordForegroundLatency(long nanos) {
+        if(autoTuned) {
+            foregroundOps.increment();
+            foregroundNanos.add(nanos);
+        }
+    }
+
+    public boolean isAutoTuned() {
+        return autoTuned;
+    }
+
+    public synchronized long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Change the rate, taking effect for the next requests; an auto-tuned limiter keeps tuning from it.
+     *
+     * @param bytesPerSecond the rate, 0 or less for no limit.
+     */
+    public synchronized void bytesPerSecond(long bytesPerSecond) {
+        refill(System.nanoTime());
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long bytesRequested() {
+        return bytesRequested.sum();
+    }
+
+    /**
+     * @return the bytes of the requests that had to wait for tokens.
+     */
+    public long bytesThrottled() {
+        return bytesThrottled.sum();
+    }
+
+    public long waitNanos() {
+        return waitNanos.sum();
+    }
+
+    @Override
+    public String toString() {
+        long rate = bytesPerSecond();
+        return String.format("%s%s, %.1f mb requested, %.1f mb throttled for %.1f s",
+                rate > 0 ? String.format("%.1f mb/s", rate / 1024.0 / 1024.0) : "unlimited", autoTuned ? " (auto-tuned)" : "",
+                bytesRequested() / 1024.0 / 1024.0, bytesThrottled() / 1024.0 / 1024.0, waitNanos() / 1e9);
+    }
+}
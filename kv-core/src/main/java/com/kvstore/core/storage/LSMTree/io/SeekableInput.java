@@ -0,0 +1,82 @@
+package com.kvstore.core.storage.LSMTree.io;
+
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+/**
+ * Positioned reader over an SSTable file, see {@link ExtendedInputStream} and {@link MappedInputStream}.
+ */
+public interface SeekableInput {
+
+    /**
+     * Read a variable byte int from the input.
+     *
+     * @return the next V-Byte int.
+     */
+    int readVByteInt();
+
+    /**
+     * Read a variable byte long from the input.
+     *
+     * @return the next V-Byte long.
+     */
+    long readVByteLong();
+
+    /**
+     * Read 8 bytes representing a long.
+     *
+     * @return the next long in the input.
+     */
+    long readLong();
+
+    /**
+     * Read a single byte as an int.
+     *
+     * @return the next 8-bits integer in the input, -1 at the end of the input.
+     */
+    int readByteInt();
+
+    /**
+     * Read N bytes.
+     *
+     * @param n the wanted number of bytes.
+     * @return an array with the next N bytes.
+     */
+    byte[] readNBytes(int n);
+
+    /**
+     * Read N bytes into an array.
+     *
+     * @param dst    destination array.
+     * @param offset offset in the destination.
+     * @param n      the wanted number of bytes.
+     * @return the number of bytes read, less than N at the end of the input.
+     */
+    int readNBytes(byte[] dst, int offset, int n);
+
+    /**
+     * Read a ByteArrayPair from the input.
+     *
+     * @return the next item in the input.
+     */
+    ByteArrayPair readBytePair();
+
+    /**
+     * Skip N bytes from the input.
+     *
+     * @param n the number of bytes to skip.
+     * @return the number of bytes skipped.
+     */
+    long skip(int n);
+
+    /**
+     * Position the input at the wanted offset.
+     *
+     * @param offset the offset to place the input to.
+     */
+    void seek(long offset);
+
+    /**
+     * Close resources.
+     */
+    void close();
+}
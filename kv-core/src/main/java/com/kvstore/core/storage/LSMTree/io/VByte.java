@@ -0,0 +1,95 @@
+package com.kvstore.core.storage.LSMTree.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory variable byte coding, same representation as {@link ExtendedOutputStream#writeVByteLong(long)}.
+ */
+public final class VByte {
+
+    private VByte() {
+    }
+
+    /**
+     * Number of bytes needed to encode a long.
+     *
+     * @param n long to encode.
+     * @return encoded size in bytes.
+     */
+    public static int size(long n) {
+        n++;
+        int i = 1;
+        while((n >>>= 7) > 0) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Encode a long into an array.
+     *
+     * @param n   long to encode.
+     * @param dst destination array, must have room for {@link #size(long)} bytes.
+     * @param pos offset in the destination.
+     * @return the offset following the encoded bytes.
+     */
+    public static int write(long n, byte[] dst, int pos) {
+        n++;
+
+        if(n <= 0) {
+            throw new IllegalArgumentException("n must be greater than 0");
+        }
+
+        while(n > 0x7F) {
+            dst[pos++] = (byte) (n & 0x7F);
+            n >>>= 7;
+        }
+        dst[pos++] = (byte) (n | 0x80);
+        return pos;
+    }
+
+    /**
+     * Decode a long at the buffer position, advancing it.
+     *
+     * @param buffer source buffer.
+     * @return the decoded long.
+     */
+    public static long read(ByteBuffer buffer) {
+        long result = 0;
+        int shift = 0;
+        while(true) {
+            int b = buffer.get();
+            result |= (((long) b & 0x7F) << shift);
+
+            if((b & 0x80) == 0x80) {
+                break;
+            }
+
+            shift += 7;
+        }
+        return result - 1;
+    }
+
+    /**
+     * Decode a long at an absolute index of the buffer, leaving its position untouched.
+     *
+     * @param buffer source buffer.
+     * @param index  index of the first encoded byte.
+     * @return the decoded long, encoded on {@link #size(long)} bytes.
+     */
+    public static long read(ByteBuffer buffer, int index) {
+        long result = 0;
+        int shift = 0;
+        while(true) {
+            int b = buffer.get(index++);
+            result |= (((long) b & 0x7F) << shift);
+
+            if((b & 0x80) == 0x80) {
+                break;
+            }
+
+            shift += 7;
+        }
+        return result - 1;
+    }
+}
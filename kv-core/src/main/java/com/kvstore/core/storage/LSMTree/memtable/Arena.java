@@ -0,0 +1,122 @@
+package com.kvstore.core.storage.LSMTree.memtable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bump allocator handing out ranges of large segments, on the heap or off it, to any number of
+ * threads at once.
+ * <p>
+ * A range is addressed by a long holding the index of its segment in the high 32 bits and its
+ * offset in the low ones; address 0 is never handed out and stands for null. Ranges are never
+ * freed one by one: the segments are released together with the arena, a handful of large objects
+ * for the garbage collector instead of one per entry. Ranges larger than a quarter of a segment get
+ * a segment of their own, so that they do not waste the end of the current one.
+ */
+final class Arena {
+
+    static final long NULL = 0;
+    static final int ALIGNMENT = 8;
+
+    private final int segmentSize;
+    private final boolean offHeap;
+
+    /**
+     * Grown by copy holding the lock of the arena, a segment is published before any address in it.
+     */
+    private volatile ByteBuffer[] segments = new ByteBuffer[16];
+    private int segmentCount;
+    /**
+     * Address of the next free byte of the current segment.
+     */
+    private final AtomicLong cursor;
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    Arena(int segmentSize, boolean offHeap) {
+        this.segmentSize = segmentSize;
+        this.offHeap = offHeap;
+        int first = addSegment(segmentSize);
+        // the first bytes of the arena are reserved for the null address
+        cursor = new AtomicLong(address(first, ALIGNMENT));
+    }
+
+    /**
+     * @return the address of a range of at least {@code size} bytes, aligned on 8 bytes.
+     */
+    long allocate(int size) {
+        size = (size + ALIGNMENT - 1) & -ALIGNMENT;
+        usedBytes.addAndGet(size);
+        if(size > segmentSize / 4) {
+            synchronized(this) {
+                return address(addSegment(size), 0);
+            }
+        }
+
+        while(true) {
+            long current = cursor.get();
+            if(offset(current) + size <= segmentSize) {
+                if(cursor.compareAndSet(current, current + size)) {
+                    return current;
+                }
+                continue;
+            }
+            synchronized(this) {
+                // another thread may have moved to a new segment meanwhile
+                if(cursor.get() == current) {
+                    cursor.set(address(addSegment(segmentSize), 0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Must be called holding the lock of the arena.
+     *
+     * @return the index of the new segment.
+     */
+    private int addSegment(int size) {
+        ByteBuffer segment = (offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size)).order(ByteOrder.nativeOrder());
+        ByteBuffer[] current = segments;
+        if(segmentCount == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+        current[segmentCount] = segment;
+        segments = current;
+        allocatedBytes.addAndGet(size);
+        return segmentCount++;
+    }
+
+    ByteBuffer segment(long address) {
+        return segments[(int) (address >>> 32)];
+    }
+
+    static int offset(long address) {
+        return (int) address;
+    }
+
+    private static long address(int segment, int offset) {
+        return (long) segment << 32 | offset;
+    }
+
+    boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the bytes of the segments, the memory held by the arena.
+     */
+    long allocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return the bytes of the ranges handed out, padding included.
+     */
+    long usedBytes() {
+        return usedBytes.get();
+    }
+}
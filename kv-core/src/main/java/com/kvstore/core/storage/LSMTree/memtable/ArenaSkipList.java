@@ -0,0 +1,431 @@
+package com.kvstore.core.storage.LSMTree.memtable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Skip list laid out in an {@link Arena}: keys, values and links live in a few large segments, on
+ * the heap or off it, instead of four objects per entry the garbage collector has to trace and
+ * promote while the memtable waits for its flush.
+ * <p>
+ * Same algorithm as {@link ConcurrentSkipList}: nodes are linked with CAS on their forward links,
+ * first on level 0, and never unlinked. A node is laid out as
+ * {@code [sequence: 8][key length: 4][value length: 4][type: 1][height: 1][padding: 6][links: 8 * height][key][value]},
+ * a link being the address of the next node, 0 for none. A put of a version whose sequence number
+ * is already in the list is inserted before it and shadows it, nodes are never modified once linked.
+ * <p>
+ * The memory usage is the bytes of the segments, exactly. Keys are compared in place, reads copy
+ * the entries out of the arena.
+ */
+public class ArenaSkipList implements MemtableRep {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final VarHandle LINK = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private static final int SEQUENCE = 0;
+    private static final int KEY_LENGTH = 8;
+    private static final int VALUE_LENGTH = 12;
+    private static final int TYPE = 16;
+    private static final int HEIGHT = 17;
+    private static final int LINKS = 24;
+
+    private final KeyComparator comparator;
+    private final Arena arena;
+    private final long sentinel;
+    private final AtomicInteger size = new AtomicInteger();
+
+    public ArenaSkipList() {
+        this(KeyComparators.LEXICOGRAPHIC, DEFAULT_SEGMENT_SIZE, false);
+    }
+
+    /**
+     * @param comparator  order of the keys.
+     * @param segmentSize bytes allocated at a time, entries larger than a quarter of it get a segment of their own.
+     * @param offHeap     true to allocate the segments out of the heap, as direct buffers.
+     */
+    public ArenaSkipList(KeyComparator comparator, int segmentSize, boolean offHeap) {
+        this.comparator = comparator;
+        this.arena = new Arena(segmentSize, offHeap);
+        this.sentinel = newNode(new byte[0], new byte[0], ValueType.PUT, Long.MAX_VALUE, ConcurrentSkipList.MAX_LEVELS);
+    }
+
+    /**
+     * @return a factory of arena skip lists with these settings, see {@link #ArenaSkipList(KeyComparator, int, boolean)}.
+     */
+    public static MemtableRep.Factory factory(int segmentSize, boolean offHeap) {
+        return comparator -> new ArenaSkipList(comparator, segmentSize, offHeap);
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public ByteArrayPair get(byte[] key) {
+        long node = ceiling(key);
+        if(node != Arena.NULL && compareKey(node, key) == 0) {
+            return pair(node);
+        }
+        return null;
+    }
+
+    @Override
+    public boolean put(ByteArrayPair pair, long sequence) {
+        long[] preds = new long[ConcurrentSkipList.MAX_LEVELS];
+        long[] succs = new long[ConcurrentSkipList.MAX_LEVELS];
+        byte[] key = pair.key();
+
+        boolean shadows = findPosition(key, sequence, preds, succs);
+        int height = ConcurrentSkipList.randomLevel();
+        long node = newNode(key, pair.value(), pair.type(), sequence, height);
+        while(true) {
+            for(int i = 0; i < height; i++) {
+                setLink(node, i, succs[i]);
+            }
+            if(casLink(preds[0], 0, succs[0], node)) {
+                break;
+            }
+            shadows = findPosition(key, sequence, preds, succs);
+        }
+
+        for(int i = 1; i < height; i++) {
+            while(!casLink(preds[i], i, succs[i], node)) {
+                findPosition(key, sequence, preds, succs);
+                setLink(node, i, succs[i]);
+            }
+        }
+
+        size.incrementAndGet();
+        return !shadows;
+    }
+
+    /**
+     * Copy an entry into the arena, unlinked.
+     *
+     * @return the address of the node.
+     */
+    private long newNode(byte[] key, byte[] value, ValueType type, long sequence, int height) {
+        int keyOffset = LINKS + 8 * height;
+        long node = arena.allocate(keyOffset + key.length + value.length);
+        ByteBuffer segment = arena.segment(node);
+        int offset = Arena.offset(node);
+        segment.putLong(offset + SEQUENCE, sequence);
+        segment.putInt(offset + KEY_LENGTH, key.length);
+        segment.putInt(offset + VALUE_LENGTH, value.length);
+        segment.put(offset + TYPE, (byte) type.code());
+        segment.put(offset + HEIGHT, (byte) height);
+        segment.put(offset + keyOffset, key);
+        segment.put(offset + keyOffset + key.length, value);
+        return node;
+    }
+
+    /**
+     * Fill preds/succs with the nodes surrounding the version on every level.
+     *
+     * @return true if succs[0] holds a version of the key with the same sequence number.
+     */
+    private boolean findPosition(byte[] key, long sequence, long[] preds, long[] succs) {
+        long current = sentinel;
+        long next = Arena.NULL;
+        for(int i = ConcurrentSkipList.MAX_LEVELS - 1; i >= 0; i--) {
+            next = link(current, i);
+            while(next != Arena.NULL && compare(next, key, sequence) < 0) {
+                current = next;
+                next = link(current, i);
+            }
+            preds[i] = current;
+            succs[i] = next;
+        }
+        return next != Arena.NULL && compare(next, key, sequence) == 0;
+    }
+
+    /**
+     * @return the order of a node relative to a version, newer versions of a key come first.
+     */
+    private int compare(long node, byte[] key, long sequence) {
+        int cmp = compareKey(node, key);
+        return cmp != 0 ? cmp : Long.compare(sequence, sequence(node));
+    }
+
+    /**
+     * @return the newest version of the first key greater or equal to the given one, the first
+     * node if the key is null, {@link Arena#NULL} if there is none.
+     */
+    long ceiling(byte[] key) {
+        if(key == null) {
+            return link(sentinel, 0);
+        }
+
+        long current = sentinel;
+        long next = Arena.NULL;
+        for(int i = ConcurrentSkipList.MAX_LEVELS - 1; i >= 0; i--) {
+            next = link(current, i);
+            while(next != Arena.NULL && compareKey(next, key) < 0) {
+                current = next;
+                next = link(current, i);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the oldest version of the last key lower than the given one, the last node if the
+     * key is null, {@link Arena#NULL} if there is none.
+     */
+    long lower(byte[] key) {
+        long current = sentinel;
+        for(int i = ConcurrentSkipList.MAX_LEVELS - 1; i >= 0; i--) {
+            long next = link(current, i);
+            while(next != Arena.NULL && (key == null || compareKey(next, key) < 0)) {
+                current = next;
+                next = link(current, i);
+            }
+        }
+        return current == sentinel ? Arena.NULL : current;
+    }
+
+    @Override
+    public byte[] lastKey() {
+        long last = lower(null);
+        return last == Arena.NULL ? null : key(last);
+    }
+
+    /**
+     * Unlink every node, the memory of the arena is kept until the list is released.
+     */
+    @Override
+    public void clear() {
+        for(int i = 0; i < ConcurrentSkipList.MAX_LEVELS; i++) {
+            setLink(sentinel, i, Arena.NULL);
+        }
+        size.set(0);
+    }
+
+    /**
+     * @return the bytes of the segments of the arena.
+     */
+    @Override
+    public long memoryUsage() {
+        return arena.allocatedBytes();
+    }
+
+    /**
+     * @return the bytes of the nodes, the rest of the memory usage being the free end of the current segment.
+     */
+    public long usedBytes() {
+        return arena.usedBytes();
+    }
+
+    public boolean isOffHeap() {
+        return arena.isOffHeap();
+    }
+
+    private long link(long node, int level) {
+        return (long) LINK.getVolatile(arena.segment(node), Arena.offset(node) + LINKS + 8 * level);
+    }
+
+    private void setLink(long node, int level, long next) {
+        LINK.setVolatile(arena.segment(node), Arena.offset(node) + LINKS + 8 * level, next);
+    }
+
+    private boolean casLink(long node, int level, long expected, long update) {
+        return LINK.compareAndSet(arena.segment(node), Arena.offset(node) + LINKS + 8 * level, expected, update);
+    }
+
+    private long sequence(long node) {
+        return arena.segment(node).getLong(Arena.offset(node) + SEQUENCE);
+    }
+
+    private static int keyOffset(ByteBuffer segment, int offset) {
+        return offset + LINKS + 8 * segment.get(offset + HEIGHT);
+    }
+
+    private int compareKey(long node, byte[] key) {
+        ByteBuffer segment = arena.segment(node);
+        int offset = Arena.offset(node);
+        return comparator.compare(segment, keyOffset(segment, offset), segment.getInt(offset + KEY_LENGTH), key);
+    }
+
+    private byte[] key(long node) {
+        ByteBuffer segment = arena.segment(node);
+        int offset = Arena.offset(node);
+        byte[] key = new byte[segment.getInt(offset + KEY_LENGTH)];
+        segment.get(keyOffset(segment, offset), key);
+        return key;
+    }
+
+    private ByteArrayPair pair(long node) {
+        ByteBuffer segment = arena.segment(node);
+        int offset = Arena.offset(node);
+        int keyOffset = keyOffset(segment, offset);
+        byte[] key = new byte[segment.getInt(offset + KEY_LENGTH)];
+        byte[] value = new byte[segment.getInt(offset + VALUE_LENGTH)];
+        segment.get(keyOffset, key);
+        segment.get(keyOffset + key.length, value);
+        return new ByteArrayPair(key, value, ValueType.fromCode(segment.get(offset + TYPE)));
+    }
+
+    @Override
+    public Iterator<ByteArrayPair> iterator() {
+        return new ArenaSkipListIterator();
+    }
+
+    /**
+     * Reverse iteration steps from key to key with a search of the list, forward iteration follows
+     * the links of level 0.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator(byte[] from, byte[] to, long snapshot, boolean reverse) {
+        return reverse ? new ReverseSnapshotIterator(from, to, snapshot) : new SnapshotIterator(from, to, snapshot);
+    }
+
+    /**
+     * Weakly consistent iterator over every version: it never fails because of concurrent inserts
+     * and sees every key that was present when it was created.
+     */
+    private class ArenaSkipListIterator implements Iterator<ByteArrayPair> {
+
+        long node = sentinel;
+
+        @Override
+        public boolean hasNext() {
+            return link(node, 0) != Arena.NULL;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            long next = link(node, 0);
+            if(next == Arena.NULL) {
+                return null;
+            }
+            node = next;
+            return pair(next);
+        }
+    }
+
+    private class SnapshotIterator implements Iterator<ByteArrayPair> {
+
+        private final byte[] to;
+        private final long snapshot;
+        private long node;
+
+        SnapshotIterator(byte[] from, byte[] to, long snapshot) {
+            this.to = to;
+            this.snapshot = snapshot;
+            this.node = visible(ceiling(from));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != Arena.NULL;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(node == Arena.NULL) {
+                return null;
+            }
+            ByteArrayPair current = pair(node);
+
+            long next = link(node, 0);
+            while(next != Arena.NULL && compareKey(next, current.key()) == 0) {
+                next = link(next, 0);
+            }
+            node = visible(next);
+            return current;
+        }
+
+        /**
+         * @return the first version from the node on that is visible and in range, {@link Arena#NULL} if none.
+         */
+        private long visible(long candidate) {
+            while(candidate != Arena.NULL && sequence(candidate) > snapshot) {
+                candidate = link(candidate, 0);
+            }
+            if(candidate != Arena.NULL && to != null && compareKey(candidate, to) >= 0) {
+                return Arena.NULL;
+            }
+            return candidate;
+        }
+    }
+
+    private class ReverseSnapshotIterator implements Iterator<ByteArrayPair> {
+
+        private final byte[] from;
+        private final long snapshot;
+        private long node;
+
+        ReverseSnapshotIterator(byte[] from, byte[] to, long snapshot) {
+            this.from = from;
+            this.snapshot = snapshot;
+            this.node = visibleBefore(to);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != Arena.NULL;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(node == Arena.NULL) {
+                return null;
+            }
+            ByteArrayPair current = pair(node);
+            node = visibleBefore(current.key());
+            return current;
+        }
+
+        /**
+         * @return the newest visible version of the last key lower than the bound having one, {@link Arena#NULL} if none in range.
+         */
+        private long visibleBefore(byte[] bound) {
+            long last = lower(bound);
+            while(last != Arena.NULL) {
+                byte[] key = key(last);
+                if(from != null && comparator.compare(key, from) < 0) {
+                    return Arena.NULL;
+                }
+
+                long version = ceiling(key);
+                while(version != Arena.NULL && sequence(version) > snapshot && compareKey(version, key) == 0) {
+                    version = link(version, 0);
+                }
+                if(version != Arena.NULL && compareKey(version, key) == 0) {
+                    return version;
+                }
+                last = lower(key);
+            }
+            return Arena.NULL;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ArenaSkipList {\n");
+        sb.append("  Size: ").append(size()).append("\n");
+        sb.append(String.format("  Arena: %.1f mb, %.1f mb used%s%n  ", memoryUsage() / 1024.0 / 1024.0,
+                usedBytes() / 1024.0 / 1024.0, isOffHeap() ? ", off heap" : ""));
+
+        long current = link(sentinel, 0);
+        while(current != Arena.NULL) {
+            sb.append(pair(current)).append(" -> ");
+            current = link(current, 0);
+        }
+        sb.append("END\n}");
+
+        return sb.toString();
+    }
+}
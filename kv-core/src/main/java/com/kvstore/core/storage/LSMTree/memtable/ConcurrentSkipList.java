@@ -0,0 +1,392 @@
+package com.kvstore.core.storage.LSMTree.memtable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Insert-only skip list that supports any number of concurrent writers and readers.
+ * <p>
+ * Nodes are linked with CAS on their forward pointers, so no monitor is ever taken:
+ * a new node is first published on level 0 (which makes it visible to readers) and
+ * then linked into the upper levels one by one. Keys are never unlinked, a delete is
+ * a put of a tombstone, which keeps the algorithm simple and readers wait-free.
+ * <p>
+ * Every put is a new version of its key tagged with the sequence number of the write, nodes
+ * are ordered by key, in the order of the comparator of the list, then by decreasing sequence number. Lookups return the newest version
+ * whatever the order writers inserted them in, and iterators reading at a sequence number
+ * see the list as it was when that write was the last one.
+ */
+public class ConcurrentSkipList implements MemtableRep {
+
+    static final int MAX_LEVELS = 20;
+
+    private static final VarHandle NEXT = MethodHandles.arrayElementVarHandle(Node[].class);
+
+    final KeyComparator comparator;
+    final Node sentinel;
+    final AtomicInteger size;
+    final AtomicLong memoryUsage;
+
+    public ConcurrentSkipList() {
+        this(KeyComparators.LEXICOGRAPHIC);
+    }
+
+    public ConcurrentSkipList(KeyComparator comparator) {
+        this.comparator = comparator;
+        this.sentinel = new Node(null, Long.MAX_VALUE, MAX_LEVELS);
+        this.size = new AtomicInteger();
+        this.memoryUsage = new AtomicLong();
+    }
+
+    @Override
+    public int size() {
+        return size.get();
+    }
+
+    static int randomLevel() {
+        int level = 1;
+        long num = ThreadLocalRandom.current().nextLong();
+        while(level < MAX_LEVELS && (num & 1L << level) != 0) {
+            level++;
+        }
+        return level;
+    }
+
+    @Override
+    public ByteArrayPair get(byte[] key) {
+        Node node = ceiling(key);
+        if(node != null && comparator.compare(node.key(), key) == 0) {
+            return node.pair();
+        }
+        return null;
+    }
+
+    public void put(byte[] key, byte[] value, long sequence) {
+        put(new ByteArrayPair(key, value), sequence);
+    }
+
+    @Override
+    public boolean put(ByteArrayPair pair, long sequence) {
+        Node[] preds = new Node[MAX_LEVELS];
+        Node[] succs = new Node[MAX_LEVELS];
+
+        while(true) {
+            if(findPosition(pair.key(), sequence, preds, succs)) {
+                succs[0].val = pair;
+                return false;
+            }
+
+            int height = randomLevel();
+            Node node = new Node(pair, sequence, height);
+            for(int i = 0; i < height; i++) {
+                node.next[i] = succs[i];
+            }
+
+            if(!preds[0].casNext(0, succs[0], node)) {
+                continue;
+            }
+
+            for(int i = 1; i < height; i++) {
+                while(!preds[i].casNext(i, succs[i], node)) {
+                    findPosition(pair.key(), sequence, preds, succs);
+                    NEXT.setVolatile(node.next, i, succs[i]);
+                }
+            }
+
+            size.incrementAndGet();
+            memoryUsage.addAndGet(nodeSize(pair, height));
+            return true;
+        }
+    }
+
+    /**
+     * @return the heap bytes of a node, estimated from the layout of a 64-bit JVM with compressed
+     * references: the node, its links, the pair and its two arrays, each one padded to 8 bytes.
+     */
+    private static long nodeSize(ByteArrayPair pair, int height) {
+        return 24 + align(16 + 4L * height) + 24 + align(16L + pair.key().length) + align(16L + pair.value().length);
+    }
+
+    private static long align(long size) {
+        return (size + 7) & -8;
+    }
+
+    /**
+     * @return the estimated heap bytes of the nodes.
+     */
+    @Override
+    public long memoryUsage() {
+        return memoryUsage.get();
+    }
+
+    /**
+     * Fill preds/succs with the nodes surrounding the version on every level.
+     *
+     * @return true if succs[0] holds the version.
+     */
+    private boolean findPosition(byte[] key, long sequence, Node[] preds, Node[] succs) {
+        Node current = sentinel;
+        Node next = null;
+        for(int i = MAX_LEVELS - 1; i >= 0; i--) {
+            next = current.next(i);
+            while(next != null && compare(next, key, sequence) < 0) {
+                current = next;
+                next = current.next(i);
+            }
+            preds[i] = current;
+            succs[i] = next;
+        }
+        return next != null && compare(next, key, sequence) == 0;
+    }
+
+    /**
+     * @return the order of a node relative to a version, newer versions of a key come first.
+     */
+    private int compare(Node node, byte[] key, long sequence) {
+        int cmp = comparator.compare(node.key(), key);
+        return cmp != 0 ? cmp : Long.compare(sequence, node.sequence);
+    }
+
+    /**
+     * @return the newest version of the first key greater or equal to the given one, the first
+     * node if the key is null.
+     */
+    Node ceiling(byte[] key) {
+        if(key == null) {
+            return sentinel.next(0);
+        }
+
+        Node current = sentinel;
+        Node next = null;
+        for(int i = MAX_LEVELS - 1; i >= 0; i--) {
+            next = current.next(i);
+            while(next != null && comparator.compare(next.key(), key) < 0) {
+                current = next;
+                next = current.next(i);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * @return the oldest version of the last key lower than the given one, the last node if the
+     * key is null, null if there is none.
+     */
+    Node lower(byte[] key) {
+        Node current = sentinel;
+        for(int i = MAX_LEVELS - 1; i >= 0; i--) {
+            Node next = current.next(i);
+            while(next != null && (key == null || comparator.compare(next.key(), key) < 0)) {
+                current = next;
+                next = current.next(i);
+            }
+        }
+        return current == sentinel ? null : current;
+    }
+
+    @Override
+    public byte[] lastKey() {
+        Node last = lower(null);
+        return last == null ? null : last.key();
+    }
+
+    @Override
+    public void clear() {
+        for(int i = 0; i < MAX_LEVELS; i++) {
+            NEXT.setVolatile(sentinel.next, i, (Node) null);
+        }
+        size.set(0);
+        memoryUsage.set(0);
+    }
+
+    static final class Node {
+        volatile ByteArrayPair val;
+        final long sequence;
+        final Node[] next;
+
+        Node(ByteArrayPair val, long sequence, int numLevels) {
+            this.val = val;
+            this.sequence = sequence;
+            this.next = new Node[numLevels];
+        }
+
+        ByteArrayPair pair() {
+            return val;
+        }
+
+        byte[] key() {
+            return val.key();
+        }
+
+        Node next(int level) {
+            return (Node) NEXT.getVolatile(next, level);
+        }
+
+        boolean casNext(int level, Node expected, Node update) {
+            return NEXT.compareAndSet(next, level, expected, update);
+        }
+    }
+
+    @Override
+    public Iterator<ByteArrayPair> iterator() {
+        return new ConcurrentSkipListIterator(sentinel);
+    }
+
+    /**
+     * Reverse iteration steps from key to key with a search of the list, forward iteration follows
+     * the links of level 0.
+     */
+    @Override
+    public Iterator<ByteArrayPair> iterator(byte[] from, byte[] to, long snapshot, boolean reverse) {
+        return reverse ? new ReverseSnapshotIterator(from, to, snapshot) : new SnapshotIterator(from, to, snapshot);
+    }
+
+    /**
+     * Weakly consistent iterator over every version: it never fails because of concurrent inserts
+     * and sees every key that was present when it was created.
+     */
+    private static class ConcurrentSkipListIterator implements Iterator<ByteArrayPair> {
+
+        Node node;
+
+        ConcurrentSkipListIterator(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node.next(0) != null;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            Node next = node.next(0);
+            if(next == null) {
+                return null;
+            }
+            node = next;
+            return next.pair();
+        }
+    }
+
+    private class SnapshotIterator implements Iterator<ByteArrayPair> {
+
+        private final byte[] to;
+        private final long snapshot;
+        private Node node;
+
+        SnapshotIterator(byte[] from, byte[] to, long snapshot) {
+            this.to = to;
+            this.snapshot = snapshot;
+            this.node = visible(ceiling(from));
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != null;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(node == null) {
+                return null;
+            }
+            Node current = node;
+
+            Node next = current.next(0);
+            while(next != null && comparator.compare(next.key(), current.key()) == 0) {
+                next = next.next(0);
+            }
+            node = visible(next);
+            return current.pair();
+        }
+
+        /**
+         * @return the first version from the node on that is visible and in range, null if none.
+         */
+        private Node visible(Node candidate) {
+            while(candidate != null && candidate.sequence > snapshot) {
+                candidate = candidate.next(0);
+            }
+            if(candidate != null && to != null && comparator.compare(candidate.key(), to) >= 0) {
+                return null;
+            }
+            return candidate;
+        }
+    }
+
+    private class ReverseSnapshotIterator implements Iterator<ByteArrayPair> {
+
+        private final byte[] from;
+        private final long snapshot;
+        private Node node;
+
+        ReverseSnapshotIterator(byte[] from, byte[] to, long snapshot) {
+            this.from = from;
+            this.snapshot = snapshot;
+            this.node = visibleBefore(to);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return node != null;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(node == null) {
+                return null;
+            }
+            Node current = node;
+            node = visibleBefore(current.key());
+            return current.pair();
+        }
+
+        /**
+         * @return the newest visible version of the last key lower than the bound having one, null if none in range.
+         */
+        private Node visibleBefore(byte[] bound) {
+            Node last = lower(bound);
+            while(last != null) {
+                byte[] key = last.key();
+                if(from != null && comparator.compare(key, from) < 0) {
+                    return null;
+                }
+
+                Node version = ceiling(key);
+                while(version != null && version.sequence > snapshot && comparator.compare(version.key(), key) == 0) {
+                    version = version.next(0);
+                }
+                if(version != null && comparator.compare(version.key(), key) == 0) {
+                    return version;
+                }
+                last = lower(key);
+            }
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("ConcurrentSkipList {\n");
+        sb.append("  Size: ").append(size()).append("\n  ");
+
+        Node current = sentinel.next(0);
+        while(current != null) {
+            sb.append(current.pair()).append(" -> ");
+            current = current.next(0);
+        }
+        sb.append("END\n}");
+
+        return sb.toString();
+    }
+}
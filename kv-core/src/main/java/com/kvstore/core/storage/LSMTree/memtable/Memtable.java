@@ -4,39 +4,87 @@ import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
 import com.kvstore.core.storage.LSMTree.utils.UniqueSortedIterator;
 
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * In-memory write buffer of the tree.
+ * <p>
+ * Backed by a {@link MemtableRep}, a {@link ConcurrentSkipList} by default, so puts, deletes and
+ * gets may run from any number of threads at once; the byte size of the entries is tracked with an
+ * atomic counter, the memory held by the representation is reported by it.
+ * <p>
+ * Writes are tagged with their sequence number and kept side by side with the older versions
+ * of their key, so that iterators opened at a sequence number keep a consistent view while
+ * writers go on. Only the newest version of each key is flushed.
+ */
 public class Memtable implements Iterable<ByteArrayPair> {
 
-    SkipList list;
-    long byteSize;
+    final MemtableRep list;
+    final AtomicLong byteSize;
 
     public Memtable() {
-        list = new SkipList();
-        byteSize = 0L;
+        this(new ConcurrentSkipList());
     }
 
-    public void put(ByteArrayPair pair) {
-        list.put(pair);
-        byteSize += pair.size();
+    public Memtable(MemtableRep list) {
+        this.list = list;
+        byteSize = new AtomicLong();
     }
 
-    public byte[] get(byte[] key) {
+    public void put(ByteArrayPair pair, long sequence) {
+        list.put(pair, sequence);
+        byteSize.addAndGet(pair.size());
+    }
+
+    /**
+     * @return the newest entry of the key, a tombstone if it was deleted, null if absent.
+     */
+    public ByteArrayPair get(byte[] key) {
         return list.get(key);
     }
 
-    public void delete(byte[] key) {
-        list.put(key, new byte[]{});
+    public void delete(byte[] key, long sequence) {
+        put(ByteArrayPair.tombstone(key), sequence);
     }
 
+    /**
+     * @return the bytes of the keys and values written, which the tree rotates the memtable on.
+     */
     public long byteSize() {
-        return byteSize;
+        return byteSize.get();
+    }
+
+    /**
+     * @return the bytes of memory held by the memtable, see {@link MemtableRep#memoryUsage()}.
+     */
+    public long memoryUsage() {
+        return list.memoryUsage();
     }
 
+    /**
+     * @return the last key of the memtable, null if empty.
+     */
+    public byte[] lastKey() {
+        return list.lastKey();
+    }
+
+    /**
+     * Iterate over the newest version of every key.
+     */
     @Override
     public Iterator<ByteArrayPair> iterator() {
         return new UniqueSortedIterator<>(list.iterator());
     }
 
+    /**
+     * Iterate over the keys in [from, to) as they were after the write numbered {@code snapshot}.
+     *
+     * @see MemtableRep#iterator(byte[], byte[], long, boolean)
+     */
+    public Iterator<ByteArrayPair> iterator(byte[] from, byte[] to, long snapshot, boolean reverse) {
+        return list.iterator(from, to, snapshot, reverse);
+    }
+
     @Override
     public String toString() {
         return list.toString();
@@ -44,6 +92,6 @@ public class Memtable implements Iterable<ByteArrayPair> {
 
     public void clear() {
         list.clear();
-        byteSize = 0L;
+        byteSize.set(0L);
     }
 }
@@ -0,0 +1,77 @@
+package com.kvstore.core.storage.LSMTree.memtable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+import java.util.Iterator;
+
+/**
+ * Sorted structure holding the entries of a {@link Memtable}.
+ * <p>
+ * Representations support any number of concurrent writers and readers. Every put is a new version
+ * of its key tagged with the sequence number of the write, versions are ordered by key, in the order
+ * of the comparator the representation was created with, then by decreasing sequence number and
+ * never removed but by {@link #clear()}.
+ */
+public interface MemtableRep extends Iterable<ByteArrayPair> {
+
+    /**
+     * Insert a new version of a key.
+     *
+     * @param sequence sequence number of the write, versions of a key with a higher one take precedence.
+     * @return true if the version was inserted, false if it took the place of one with the same sequence number.
+     */
+    boolean put(ByteArrayPair pair, long sequence);
+
+    /**
+     * @return the newest version of the key, a tombstone if it was deleted, null if absent.
+     */
+    ByteArrayPair get(byte[] key);
+
+    /**
+     * @return the last key, null if empty.
+     */
+    byte[] lastKey();
+
+    /**
+     * Iterate over every version, in order.
+     */
+    @Override
+    Iterator<ByteArrayPair> iterator();
+
+    /**
+     * Iterate over the newest version of every key in [from, to) written at or before a sequence number.
+     *
+     * @param from     first key of the range, inclusive, null for no lower bound.
+     * @param to       last key of the range, exclusive, null for no upper bound.
+     * @param snapshot versions written after this sequence number are ignored.
+     * @param reverse  true to iterate in decreasing key order.
+     */
+    Iterator<ByteArrayPair> iterator(byte[] from, byte[] to, long snapshot, boolean reverse);
+
+    /**
+     * @return the number of versions.
+     */
+    int size();
+
+    /**
+     * @return the bytes of memory held by the representation, entries and links included.
+     */
+    long memoryUsage();
+
+    /**
+     * Not thread-safe with respect to concurrent writers, callers must guarantee exclusivity.
+     */
+    void clear();
+
+    /**
+     * Creates the representation of each memtable of a tree, e.g. {@code ConcurrentSkipList::new}.
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param comparator order of the keys of the tree.
+         */
+        MemtableRep create(KeyComparator comparator);
+    }
+}
@@ -1,6 +1,6 @@
 package com.kvstore.core.storage.LSMTree.memtable;
 
-import com.kvstore.core.storage.LSMTree.comparator.ByteArrayComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
 import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
 import com.kvstore.core.storage.Storage;
 
@@ -48,13 +48,13 @@ public class SkipList implements Iterable<ByteArrayPair> {
     public byte[] get(byte[] key) {
         Node current = this.sentinel;
         for(int i = levels - 1; i >= 0; i--) {
-            while(current.next[i] != null && ByteArrayComparator.compare(current.next[i].val.key(), key) < 0) {
+            while(current.next[i] != null && KeyComparators.LEXICOGRAPHIC.compare(current.next[i].val.key(), key) < 0) {
                 current = current.next[i];
             }
             buffer[i] = current;
         }
 
-        if(current.next[0] != null && ByteArrayComparator.compare(current.next[0].val.key(), key) == 0) {
+        if(current.next[0] != null && KeyComparators.LEXICOGRAPHIC.compare(current.next[0].val.key(), key) == 0) {
             return current.next[0].val.value();
         }
         return null;
@@ -63,13 +63,13 @@ public class SkipList implements Iterable<ByteArrayPair> {
     public void delete(byte[] key) {
         Node current = this.sentinel;
         for(int i = levels - 1; i >= 0; i--) {
-            while(current.next[i] != null && ByteArrayComparator.compare(current.next[i].val.key(), key) < 0) {
+            while(current.next[i] != null && KeyComparators.LEXICOGRAPHIC.compare(current.next[i].val.key(), key) < 0) {
                 current = current.next[i];
             }
             buffer[i] = current;
         }
 
-        if(current.next[0] != null && ByteArrayComparator.compare(current.next[0].val.key(), key) == 0) {
+        if(current.next[0] != null && KeyComparators.LEXICOGRAPHIC.compare(current.next[0].val.key(), key) == 0) {
             boolean last = current.next[0].next[0] == null;
             for(int i = 0; i < levels - 1; i++) {
                 if(buffer[i].next[i] != current.next[0]) {
@@ -0,0 +1,265 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.io.VByte;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+
+/**
+ * Read-only view of a block written by {@link BlockBuilder}.
+ * <p>
+ * The underlying buffer is never modified nor repositioned, so a block may be shared by threads.
+ * Lookups are given the order of the keys, blocks of tables of any order share the block cache.
+ */
+class Block implements Iterable<ByteArrayPair> {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final ByteBuffer data;
+    private final int restartsOffset;
+    private final int numRestarts;
+    /**
+     * Number of low bits of the value lengths holding the entry type: 0 for blocks of format
+     * version 1 tables, 1 (the tombstone bit) for versions 2 and 3, 2 from version 4.
+     */
+    private final int typeBits;
+
+    Block(ByteBuffer data, int typeBits) {
+        this.typeBits = typeBits;
+        // a buffer holding exactly the block is handed over, a view of a larger one is sliced
+        this.data = data.position() == 0 && data.limit() == data.capacity() ? data : data.slice();
+        this.numRestarts = this.data.getInt(this.data.limit() - Integer.BYTES);
+        this.restartsOffset = this.data.limit() - (numRestarts + 1) * Integer.BYTES;
+    }
+
+    int byteSize() {
+        return data.limit();
+    }
+
+    /**
+     * Get the entry of a key stored in this block.
+     * <p>
+     * Nothing is decoded but the entry found: the restart points are binary searched comparing
+     * their full keys in place, then the entries following the last restart point not after the key
+     * are matched byte by byte, tracking how much of the key the previous entry shares with it so
+     * that their prefix-compressed keys are never rebuilt.
+     *
+     * @param key        the key to look up.
+     * @param comparator order of the keys of the block.
+     * @return the entry, whose key is the given array, a tombstone if the key was deleted, or null
+     * if the key is not in the block.
+     */
+    ByteArrayPair get(byte[] key, KeyComparator comparator) {
+        int low = 0;
+        int high = numRestarts - 1;
+        while(low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if(compareRestartKey(mid, key, comparator) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int position = restartPoint(low);
+        int end = low + 1 < numRestarts ? restartPoint(low + 1) : restartsOffset;
+        // length of the prefix the previous key shares with the key
+        int matched = 0;
+        while(position < end) {
+            int entry = position;
+            int shared = (int) VByte.read(data, position);
+            position += VByte.size(shared);
+            int unshared = (int) VByte.read(data, position);
+            position += VByte.size(unshared);
+            long valueField = VByte.read(data, position);
+            position += VByte.size(valueField);
+
+            // a key sharing more than the matched prefix with the previous one differs from the key where it did
+            if(shared <= matched) {
+                int common = shared;
+                int limit = Math.min(shared + unshared, key.length);
+                while(common < limit && data.get(position + common - shared) == key[common]) {
+                    common++;
+                }
+                if(common == key.length && shared + unshared == key.length) {
+                    return entry(entry, key);
+                }
+                matched = common;
+            }
+            position += unshared + valueLength(valueField);
+        }
+        return null;
+    }
+
+    /**
+     * @return the index of the first restart point whose key is not before the key, the number of
+     * restart points if there is none. For blocks written with a restart interval of 1 such as index
+     * blocks, the index of the first entry not before the key.
+     */
+    int ceiling(byte[] key, KeyComparator comparator) {
+        int low = 0;
+        int high = numRestarts;
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(compareRestartKey(mid, key, comparator) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public BlockIterator iterator() {
+        return new BlockIterator();
+    }
+
+    /**
+     * @return the number of restart points, which is the number of entries of the blocks written
+     * with a restart interval of 1 such as index blocks.
+     */
+    int restartCount() {
+        return numRestarts;
+    }
+
+    /**
+     * @return the handle stored as value of the entry at a restart point of an index block.
+     */
+    BlockHandle restartHandle(int index) {
+        int position = restartPoint(index);
+        position += VByte.size(VByte.read(data, position));
+        int keyLength = (int) VByte.read(data, position);
+        position += VByte.size(keyLength);
+        position += VByte.size(VByte.read(data, position)) + keyLength;
+
+        long offset = VByte.read(data, position);
+        return new BlockHandle(offset, (int) VByte.read(data, position + VByte.size(offset)));
+    }
+
+    /**
+     * Compare the key of the entry at a restart point, stored in full, to a key without copying it.
+     */
+    private int compareRestartKey(int index, byte[] key, KeyComparator comparator) {
+        int position = restartPoint(index);
+        position += VByte.size(VByte.read(data, position));
+        int length = (int) VByte.read(data, position);
+        position += VByte.size(length);
+        position += VByte.size(VByte.read(data, position));
+        return comparator.compare(data, position, length, key);
+    }
+
+    /**
+     * @return the entry at an offset, with the given key and a copy of its value.
+     */
+    private ByteArrayPair entry(int position, byte[] key) {
+        position += VByte.size(VByte.read(data, position));
+        int unshared = (int) VByte.read(data, position);
+        position += VByte.size(unshared);
+        long valueField = VByte.read(data, position);
+        position += VByte.size(valueField);
+
+        byte[] value = new byte[valueLength(valueField)];
+        data.get(position + unshared, value);
+        return new ByteArrayPair(key, value, valueType(valueField));
+    }
+
+    private int valueLength(long valueField) {
+        return (int) (valueField >>> typeBits);
+    }
+
+    private ValueType valueType(long valueField) {
+        if(typeBits > 0) {
+            return ValueType.fromCode((int) (valueField & ((1 << typeBits) - 1)));
+        }
+        // version 1 tables wrote deletions as empty values
+        return valueField == 0 ? ValueType.DELETE : ValueType.PUT;
+    }
+
+    private int restartPoint(int index) {
+        return data.getInt(restartsOffset + index * Integer.BYTES);
+    }
+
+    class BlockIterator implements Iterator<ByteArrayPair> {
+
+        private final ByteBuffer buffer;
+        private byte[] key;
+        private ByteArrayPair pending;
+
+        BlockIterator() {
+            this.buffer = data.duplicate();
+            this.buffer.limit(restartsOffset);
+            this.key = EMPTY;
+        }
+
+        /**
+         * Position the iterator on the first entry whose key is greater or equal to the target.
+         *
+         * @param target     the key to seek.
+         * @param comparator order of the keys of the block.
+         */
+        void seek(byte[] target, KeyComparator comparator) {
+            int low = 0;
+            int high = numRestarts - 1;
+
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(compareRestartKey(mid, target, comparator) < 0) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+
+            buffer.position(restartPoint(low));
+            key = EMPTY;
+            pending = null;
+
+            while(buffer.hasRemaining()) {
+                ByteArrayPair pair = readEntry();
+                if(comparator.compare(pair.key(), target) >= 0) {
+                    pending = pair;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pending != null || buffer.hasRemaining();
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(pending != null) {
+                ByteArrayPair pair = pending;
+                pending = null;
+                return pair;
+            }
+            if(!buffer.hasRemaining()) {
+                return null;
+            }
+            return readEntry();
+        }
+
+        private ByteArrayPair readEntry() {
+            int shared = (int) VByte.read(buffer);
+            int unshared = (int) VByte.read(buffer);
+            long valueField = VByte.read(buffer);
+            int valueLength = valueLength(valueField);
+
+            byte[] entryKey = new byte[shared + unshared];
+            System.arraycopy(key, 0, entryKey, 0, shared);
+            buffer.get(entryKey, shared, unshared);
+
+            byte[] value = new byte[valueLength];
+            buffer.get(value);
+
+            key = entryKey;
+            return new ByteArrayPair(entryKey, value, valueType(valueField));
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.io.VByte;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Builds a block of sorted key-value entries with shared-prefix key compression.
+ * <p>
+ * Each entry is encoded as:
+ * <tt>|shared key length|unshared key length|value length &lt;&lt; 2 | type code|unshared key bytes|value bytes|</tt>
+ * <p>
+ * Blocks of format version 1 tables stored the plain value length, deletions being empty values,
+ * versions 2 and 3 the value length shifted by a single tombstone bit.
+ * <p>
+ * Every {@code restartInterval} entries the key is stored in full and its offset recorded as a
+ * restart point, so a reader can binary search the restart points and then scan at most
+ * {@code restartInterval} entries. The block ends with the restart offsets and their count,
+ * each as a 4 bytes big-endian int.
+ */
+class BlockBuilder {
+
+    /**
+     * Low bits of the value lengths holding the {@link ValueType} code.
+     */
+    static final int TYPE_BITS = 2;
+
+    private final int restartInterval;
+    private final IntArrayList restarts;
+
+    private byte[] buffer;
+    private int position;
+    private int counter;
+    private int entries;
+    private byte[] lastKey;
+
+    BlockBuilder(int restartInterval) {
+        this.restartInterval = restartInterval;
+        this.restarts = new IntArrayList();
+        this.buffer = new byte[4096];
+        reset();
+    }
+
+    void reset() {
+        restarts.clear();
+        restarts.add(0);
+        position = 0;
+        counter = 0;
+        entries = 0;
+        lastKey = null;
+    }
+
+    void add(byte[] key, byte[] value) {
+        add(key, value, ValueType.PUT);
+    }
+
+    void add(byte[] key, byte[] value, ValueType type) {
+        int shared = 0;
+        if(counter < restartInterval && lastKey != null) {
+            int max = Math.min(lastKey.length, key.length);
+            int mismatch = Arrays.mismatch(lastKey, 0, max, key, 0, max);
+            shared = mismatch < 0 ? max : mismatch;
+        } else if(lastKey != null) {
+            restarts.add(position);
+            counter = 0;
+        }
+
+        int unshared = key.length - shared;
+        long valueField = (long) value.length << TYPE_BITS | type.code();
+        ensureCapacity(VByte.size(shared) + VByte.size(unshared) + VByte.size(valueField) + unshared + value.length);
+
+        position = VByte.write(shared, buffer, position);
+        position = VByte.write(unshared, buffer, position);
+        position = VByte.write(valueField, buffer, position);
+        System.arraycopy(key, shared, buffer, position, unshared);
+        position += unshared;
+        System.arraycopy(value, 0, buffer, position, value.length);
+        position += value.length;
+
+        lastKey = key;
+        counter++;
+        entries++;
+    }
+
+    boolean isEmpty() {
+        return entries == 0;
+    }
+
+    byte[] lastKey() {
+        return lastKey;
+    }
+
+    /**
+     * @return the size of the block if it was finished now.
+     */
+    int estimatedSize() {
+        return position + (restarts.size() + 1) * Integer.BYTES;
+    }
+
+    /**
+     * Append the restart points and return the encoded block.
+     */
+    byte[] finish() {
+        ensureCapacity((restarts.size() + 1) * Integer.BYTES);
+        for(int i = 0; i < restarts.size(); i++) {
+            position = writeInt(restarts.getInt(i), buffer, position);
+        }
+        position = writeInt(restarts.size(), buffer, position);
+        return Arrays.copyOf(buffer, position);
+    }
+
+    private void ensureCapacity(int needed) {
+        if(position + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + needed));
+        }
+    }
+
+    private static int writeInt(int n, byte[] dst, int pos) {
+        dst[pos] = (byte) (n >>> 24);
+        dst[pos + 1] = (byte) (n >>> 16);
+        dst[pos + 2] = (byte) (n >>> 8);
+        dst[pos + 3] = (byte) n;
+        return pos + 4;
+    }
+}
@@ -0,0 +1,196 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Byte-sized LRU cache of decoded SSTable blocks, keyed by table id and block offset.
+ * <p>
+ * The cache is split in independently locked shards to keep contention low, and a single
+ * instance may be set in the {@link TableOptions} of any number of trees to share one memory
+ * budget across the process. Blocks can be copied off-heap so that a large cache does not
+ * weigh on the garbage collector.
+ */
+public class BlockCache {
+
+    private static final int DEFAULT_SHARD_COUNT = 16;
+
+    private final Shard[] shards;
+    private final long capacity;
+    private final boolean offHeap;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public BlockCache(long capacity) {
+        this(capacity, false);
+    }
+
+    public BlockCache(long capacity, boolean offHeap) {
+        this(capacity, offHeap, DEFAULT_SHARD_COUNT);
+    }
+
+    public BlockCache(long capacity, boolean offHeap, int shardCount) {
+        this.capacity = capacity;
+        this.offHeap = offHeap;
+        this.shards = new Shard[shardCount];
+        for(int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(capacity / shardCount);
+        }
+    }
+
+    Block get(long tableId, long offset) {
+        Block block = shardFor(tableId, offset).get(new Key(tableId, offset));
+        if(block == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return block;
+    }
+
+    /**
+     * Insert a block read from the table, copying it off-heap if configured.
+     *
+     * @return the block as stored in the cache.
+     */
+    Block put(long tableId, long offset, ByteBuffer contents, int typeBits) {
+        ByteBuffer stored;
+        if(offHeap) {
+            stored = ByteBuffer.allocateDirect(contents.remaining()).put(contents.duplicate()).flip();
+        } else if(contents.isDirect()) {
+            // blocks sliced from a file mapping are copied, the cache must not keep pointing at the page cache
+            stored = ByteBuffer.allocate(contents.remaining()).put(contents.duplicate()).flip();
+        } else {
+            stored = contents;
+        }
+
+        Block block = new Block(stored, typeBits);
+        shardFor(tableId, offset).put(new Key(tableId, offset), block);
+        return block;
+    }
+
+    public long capacity() {
+        return capacity;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the number of bytes currently held.
+     */
+    public long usage() {
+        long total = 0;
+        for(Shard shard : shards) {
+            total += shard.usage();
+        }
+        return total;
+    }
+
+    public long hits() {
+        return hits.sum();
+    }
+
+    public long misses() {
+        return misses.sum();
+    }
+
+    public long evictions() {
+        return evictions.sum();
+    }
+
+    public double hitRate() {
+        long h = hits(), m = misses();
+        return h + m == 0 ? 0.0 : (double) h / (h + m);
+    }
+
+    public void clear() {
+        for(Shard shard : shards) {
+            shard.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BlockCache { usage: %d / %d bytes, hits: %d, misses: %d, hit rate: %.3f, evictions: %d }",
+                usage(), capacity, hits(), misses(), hitRate(), evictions());
+    }
+
+    private Shard shardFor(long tableId, long offset) {
+        long h = tableId * 0x9E3779B97F4A7C15L + offset;
+        h ^= h >>> 31;
+        return shards[(int) ((h & Long.MAX_VALUE) % shards.length)];
+    }
+
+    private record Key(long tableId, long offset) {
+    }
+
+    private class Shard {
+        private final long capacity;
+        private final LinkedHashMap<Key, Block> blocks;
+        private final ReentrantLock lock;
+        private long usage;
+
+        Shard(long capacity) {
+            this.capacity = capacity;
+            this.blocks = new LinkedHashMap<>(16, 0.75f, true);
+            this.lock = new ReentrantLock();
+        }
+
+        Block get(Key key) {
+            lock.lock();
+            try {
+                return blocks.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(Key key, Block block) {
+            lock.lock();
+            try {
+                Block previous = blocks.put(key, block);
+                if(previous != null) {
+                    usage -= previous.byteSize();
+                }
+                usage += block.byteSize();
+
+                Iterator<Map.Entry<Key, Block>> lru = blocks.entrySet().iterator();
+                while(usage > capacity && lru.hasNext()) {
+                    Block evicted = lru.next().getValue();
+                    lru.remove();
+                    usage -= evicted.byteSize();
+                    evictions.increment();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        long usage() {
+            lock.lock();
+            try {
+                return usage;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void clear() {
+            lock.lock();
+            try {
+                blocks.clear();
+                usage = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
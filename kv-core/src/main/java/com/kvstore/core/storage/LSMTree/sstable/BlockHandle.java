@@ -0,0 +1,22 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.io.VByte;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Location of a block in a block-based data file.
+ */
+record BlockHandle(long offset, int size) {
+
+    byte[] encode() {
+        byte[] result = new byte[VByte.size(offset) + VByte.size(size)];
+        VByte.write(size, result, VByte.write(offset, result, 0));
+        return result;
+    }
+
+    static BlockHandle decode(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new BlockHandle(VByte.read(buffer), (int) VByte.read(buffer));
+    }
+}
@@ -0,0 +1,288 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodec;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodecs;
+import com.kvstore.core.storage.LSMTree.io.MappedInputStream;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reader of a {@link TableFormat#BLOCK_BASED} .data file, see {@link BlockTableWriter}.
+ * <p>
+ * Blocks are sliced out of the file mapping, or read with positional reads when the table is not
+ * mapped; either way lookups hold no state and run concurrently. When a {@link BlockCache} is
+ * configured, data and index blocks are looked up in it before touching the file, otherwise the
+ * index block stays in memory. Compressed blocks are decompressed on every read, the cache holds
+ * them decompressed.
+ */
+class BlockTableReader {
+
+    private final long tableId;
+    private final BlockCache cache;
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final BlockHandle indexHandle;
+    private final Block index;
+    private final TableProperties properties;
+    /**
+     * Order the table was written in, length-first for the tables written before it was recorded.
+     */
+    private final KeyComparator comparator;
+    /**
+     * Bits of the value lengths holding the {@link com.kvstore.core.storage.LSMTree.types.ValueType}
+     * of the entries, none before format version 2, see {@link Block}.
+     */
+    private final int typeBits;
+    /**
+     * True from format version 3, whose blocks are followed by the id of their compression codec.
+     */
+    private final boolean compressed;
+
+    private final LongAdder decompressedBlocks = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * @param comparator comparator of the options, used if the table was written in its order.
+     */
+    BlockTableReader(String filename, ReadMode readMode, long tableId, BlockCache cache, KeyComparator comparator) {
+        this.tableId = tableId;
+        this.cache = cache;
+        try {
+            this.channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+            this.mapped = readMode == ReadMode.MMAP ? MappedInputStream.map(filename) : null;
+
+            long fileSize = channel.size();
+            ByteBuffer footer = read(fileSize - BlockTableWriter.FOOTER_SIZE, BlockTableWriter.FOOTER_SIZE);
+            this.indexHandle = new BlockHandle(footer.getLong(), footer.getInt());
+            BlockHandle propertiesHandle = new BlockHandle(footer.getLong(), footer.getInt());
+            int version = footer.getInt();
+            long magic = footer.getLong();
+
+            if(magic != BlockTableWriter.MAGIC) {
+                throw new IllegalStateException("Not a block-based table: " + filename);
+            }
+            if(version > BlockTableWriter.FORMAT_VERSION) {
+                throw new IllegalStateException("Unsupported table format version " + version + ": " + filename);
+            }
+            this.typeBits = version >= 4 ? BlockBuilder.TYPE_BITS : version >= 2 ? 1 : 0;
+            this.compressed = version >= 3;
+
+            this.index = cache == null ? new Block(readBlock(indexHandle), typeBits) : null;
+            this.properties = TableProperties.decode(new Block(readBlock(propertiesHandle), typeBits));
+            this.comparator = KeyComparators.resolve(
+                    properties.getString(TableProperties.COMPARATOR, KeyComparators.LENGTH_FIRST.name()), comparator);
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    TableProperties properties() {
+        return properties;
+    }
+
+    KeyComparator comparator() {
+        return comparator;
+    }
+
+    long decompressedBlocks() {
+        return decompressedBlocks.sum();
+    }
+
+    long decompressNanos() {
+        return decompressNanos.sum();
+    }
+
+    /**
+     * @return the entry of the key, a tombstone if it was deleted, null if the table does not hold it.
+     */
+    ByteArrayPair get(byte[] key) {
+        // the first data block whose last key is not before the key is the only one that may hold it
+        Block index = indexBlock();
+        int block = index.ceiling(key, comparator);
+        if(block == index.restartCount()) {
+            return null;
+        }
+        return block(index.restartHandle(block)).get(key, comparator);
+    }
+
+    Iterator<ByteArrayPair> iterator() {
+        return new TableIterator(null, null);
+    }
+
+    /**
+     * @param from first key of the range, inclusive, null for no lower bound.
+     * @param to   last key of the range, exclusive, null for no upper bound.
+     */
+    Iterator<ByteArrayPair> iterator(byte[] from, byte[] to) {
+        return new TableIterator(from, to);
+    }
+
+    /**
+     * Iterate over the range in decreasing key order, one data block at a time.
+     *
+     * @param from first key of the range, inclusive, null for no lower bound.
+     * @param to   last key of the range, exclusive, null for no upper bound.
+     */
+    Iterator<ByteArrayPair> reverseIterator(byte[] from, byte[] to) {
+        // index blocks have a restart point per entry, so the handle of any data block is at hand
+        Block index = indexBlock();
+        int last = index.restartCount() - 1;
+        if(to != null) {
+            // the first block whose last key is not before the bound holds the last keys of the range
+            last = Math.min(index.ceiling(to, comparator), last);
+        }
+
+        return new ReverseTableIterator(last,
+                block -> new Block(readBlock(index.restartHandle(block)), typeBits).iterator(), comparator, from, to);
+    }
+
+    /**
+     * @return the last key of every data block, in order.
+     */
+    ObjectArrayList<byte[]> indexKeys() {
+        ObjectArrayList<byte[]> keys = new ObjectArrayList<>();
+        Iterator<ByteArrayPair> it = indexBlock().iterator();
+        while(it.hasNext()) {
+            keys.add(it.next().key());
+        }
+        return keys;
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Block indexBlock() {
+        return index != null ? index : block(indexHandle);
+    }
+
+    private Block block(BlockHandle handle) {
+        if(cache == null) {
+            return new Block(readBlock(handle), typeBits);
+        }
+
+        Block block = cache.get(tableId, handle.offset());
+        if(block == null) {
+            block = cache.put(tableId, handle.offset(), readBlock(handle), typeBits);
+        }
+        return block;
+    }
+
+    private ByteBuffer readBlock(BlockHandle handle) {
+        if(!compressed) {
+            return read(handle.offset(), handle.size());
+        }
+
+        ByteBuffer stored = read(handle.offset(), handle.size() + 1);
+        byte codecId = stored.get(stored.position() + handle.size());
+        ByteBuffer contents = stored.slice(stored.position(), handle.size());
+        if(codecId == CompressionCodecs.NONE.id()) {
+            return contents;
+        }
+
+        CompressionCodec codec = CompressionCodecs.byId(codecId);
+        long begin = System.nanoTime();
+        byte[] block = new byte[contents.getInt(0)];
+        codec.decompress(contents.position(Integer.BYTES), block);
+        decompressNanos.add(System.nanoTime() - begin);
+        decompressedBlocks.increment();
+        return ByteBuffer.wrap(block);
+    }
+
+    private ByteBuffer read(long offset, int size) {
+        if(mapped != null) {
+            return mapped.slice((int) offset, size);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        try {
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of table file");
+                }
+            }
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Walks the index, loading one data block at a time. Full scans bypass the block cache
+     * so that compactions do not evict the blocks serving point reads.
+     */
+    private class TableIterator implements Iterator<ByteArrayPair> {
+
+        private final byte[] from;
+        private final byte[] to;
+        private final Block.BlockIterator indexIterator;
+        private Block.BlockIterator blockIterator;
+        private ByteArrayPair next;
+        private boolean done;
+
+        TableIterator(byte[] from, byte[] to) {
+            this.from = from;
+            this.to = to;
+            this.indexIterator = indexBlock().iterator();
+            if(from != null) {
+                // the first block whose last key is not before the range
+                indexIterator.seek(from, comparator);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next != null) {
+                return true;
+            }
+            if(done) {
+                return false;
+            }
+
+            while(blockIterator == null || !blockIterator.hasNext()) {
+                if(!indexIterator.hasNext()) {
+                    done = true;
+                    return false;
+                }
+                boolean first = blockIterator == null;
+                blockIterator = new Block(readBlock(BlockHandle.decode(indexIterator.next().value())), typeBits).iterator();
+                if(first && from != null) {
+                    blockIterator.seek(from, comparator);
+                }
+            }
+
+            ByteArrayPair pair = blockIterator.next();
+            if(to != null && comparator.compare(pair.key(), to) >= 0) {
+                done = true;
+                return false;
+            }
+            next = pair;
+            return true;
+        }
+
+        @Override
+        public ByteArrayPair next() {
+            if(!hasNext()) {
+                return null;
+            }
+            ByteArrayPair result = next;
+            next = null;
+            return result;
+        }
+    }
+}
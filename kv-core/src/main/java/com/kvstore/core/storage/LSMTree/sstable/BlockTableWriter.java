@@ -0,0 +1,160 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodec;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodecs;
+import com.kvstore.core.storage.LSMTree.io.ExtendedOutputStream;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Writes the .data file of a {@link TableFormat#BLOCK_BASED} table:
+ * <pre>
+ * |data block 0|...|data block N|index block|properties block|footer|
+ * </pre>
+ * Data blocks are cut once they reach the configured block size. The index block holds, for every
+ * data block, its last key mapped to its {@link BlockHandle}. The footer has a fixed size:
+ * <pre>
+ * |index offset (8)|index size (4)|properties offset (8)|properties size (4)|format version (4)|magic (8)|
+ * </pre>
+ * From version 3, every block is followed by the id of its {@link CompressionCodec}, not counted in
+ * the size of its handle. Data blocks are compressed with the codec of the options, stored as
+ * {@code uncompressed size (4) | compressed bytes}, unless that saves less than an eighth of the
+ * block, which is then stored as is. Index and properties blocks are never compressed.
+ */
+class BlockTableWriter {
+
+    static final long MAGIC = 0x4B564C534D424C4BL;
+    static final int FOOTER_SIZE = 36;
+    /**
+     * Version 2 stores the type of every entry, see {@link BlockBuilder}, version 3 the compression
+     * codec of every block, version 4 widens the entry type to value pointers.
+     */
+    static final int FORMAT_VERSION = 4;
+
+    private final ExtendedOutputStream os;
+    private final int blockSize;
+    private final BlockBuilder dataBlock;
+    private final BlockBuilder indexBlock;
+    private final TableProperties properties;
+    private final CompressionCodec compression;
+
+    private long offset;
+    private long numEntries;
+    private long numDeletions;
+    private long numDataBlocks;
+    private long rawKeySize;
+    private long rawValueSize;
+    private long uncompressedDataSize;
+    private long numCompressedBlocks;
+    private byte[] minKey;
+
+    BlockTableWriter(String filename, TableOptions options) {
+        this.os = new ExtendedOutputStream(filename, options.rateLimiter());
+        this.blockSize = options.blockSize();
+        this.dataBlock = new BlockBuilder(options.blockRestartInterval());
+        this.indexBlock = new BlockBuilder(1);
+        this.properties = new TableProperties();
+        this.compression = options.compression();
+        properties.putString(TableProperties.FILTER_TYPE, options.filterType().name());
+        properties.putString(TableProperties.COMPARATOR, options.comparator().name());
+        if(options.prefixExtractor() != null) {
+            properties.putString(TableProperties.PREFIX_EXTRACTOR, options.prefixExtractor().name());
+        }
+    }
+
+    void add(ByteArrayPair pair) {
+        if(minKey == null) {
+            minKey = pair.key();
+        }
+
+        dataBlock.add(pair.key(), pair.value(), pair.type());
+        numEntries++;
+        if(pair.isTombstone()) {
+            numDeletions++;
+        }
+        rawKeySize += pair.key().length;
+        rawValueSize += pair.value().length;
+
+        if(dataBlock.estimatedSize() >= blockSize) {
+            flushDataBlock();
+        }
+    }
+
+    TableProperties properties() {
+        return properties;
+    }
+
+    /**
+     * Write the pending block, the index, the properties and the footer, then close the file.
+     *
+     * @return the size of the written file.
+     */
+    long finish() {
+        flushDataBlock();
+
+        long dataSize = offset;
+        BlockHandle index = writeBlock(indexBlock.finish(), CompressionCodecs.NONE);
+
+        properties.putLong(TableProperties.FORMAT_VERSION, FORMAT_VERSION);
+        properties.putLong(TableProperties.NUM_ENTRIES, numEntries);
+        properties.putLong(TableProperties.NUM_DELETIONS, numDeletions);
+        properties.putLong(TableProperties.NUM_DATA_BLOCKS, numDataBlocks);
+        properties.putLong(TableProperties.RAW_KEY_SIZE, rawKeySize);
+        properties.putLong(TableProperties.RAW_VALUE_SIZE, rawValueSize);
+        properties.putLong(TableProperties.DATA_SIZE, dataSize);
+        properties.putLong(TableProperties.UNCOMPRESSED_DATA_SIZE, uncompressedDataSize);
+        properties.putString(TableProperties.COMPRESSION, compression.name());
+        properties.putLong(TableProperties.NUM_COMPRESSED_BLOCKS, numCompressedBlocks);
+        properties.putLong(TableProperties.INDEX_SIZE, index.size());
+        properties.putLong(TableProperties.CREATION_TIME, System.currentTimeMillis());
+        if(minKey != null) {
+            properties.put(TableProperties.MIN_KEY, minKey);
+            properties.put(TableProperties.MAX_KEY, indexBlock.lastKey());
+        }
+        BlockHandle props = writeBlock(properties.encode(), CompressionCodecs.NONE);
+
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        footer.putLong(index.offset()).putInt(index.size());
+        footer.putLong(props.offset()).putInt(props.size());
+        footer.putInt(FORMAT_VERSION).putLong(MAGIC);
+        offset += os.write(footer.array());
+
+        os.close();
+        return offset;
+    }
+
+    private void flushDataBlock() {
+        if(dataBlock.isEmpty()) {
+            return;
+        }
+
+        byte[] lastKey = dataBlock.lastKey();
+        BlockHandle handle = writeDataBlock(dataBlock.finish());
+        indexBlock.add(lastKey, handle.encode());
+        dataBlock.reset();
+        numDataBlocks++;
+    }
+
+    private BlockHandle writeDataBlock(byte[] block) {
+        uncompressedDataSize += block.length;
+        if(compression == CompressionCodecs.NONE) {
+            return writeBlock(block, CompressionCodecs.NONE);
+        }
+
+        byte[] compressed = compression.compress(block);
+        if(Integer.BYTES + compressed.length > block.length - block.length / 8) {
+            return writeBlock(block, CompressionCodecs.NONE);
+        }
+        numCompressedBlocks++;
+        return writeBlock(ByteBuffer.allocate(Integer.BYTES + compressed.length)
+                .putInt(block.length).put(compressed).array(), compression);
+    }
+
+    private BlockHandle writeBlock(byte[] block, CompressionCodec codec) {
+        BlockHandle handle = new BlockHandle(offset, block.length);
+        offset += os.write(block);
+        offset += os.write(new byte[]{codec.id()});
+        return handle;
+    }
+}
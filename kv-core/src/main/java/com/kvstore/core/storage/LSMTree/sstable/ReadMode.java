@@ -0,0 +1,17 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+/**
+ * How an SSTable reads its data file.
+ */
+public enum ReadMode {
+    /**
+     * A single buffered stream per table, lookups are serialized on it.
+     */
+    STREAM,
+
+    /**
+     * The data file is memory-mapped, lookups are stateless and run in parallel.
+     * Files that cannot be mapped in one buffer fall back to {@link #STREAM}.
+     */
+    MMAP
+}
@@ -0,0 +1,73 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Iterator;
+import java.util.function.IntFunction;
+
+/**
+ * Iterates over the entries of a table in decreasing key order.
+ * <p>
+ * Entries have a variable size and are only linked forward, so the table is read back one chunk
+ * of consecutive entries at a time, a data block or a sparse index segment: the chunk is read
+ * forward into a buffer which is then emptied from its end, only one chunk is held in memory.
+ */
+class ReverseTableIterator implements Iterator<ByteArrayPair> {
+
+    private final IntFunction<Iterator<ByteArrayPair>> chunks;
+    private final KeyComparator comparator;
+    private final byte[] from;
+    private final byte[] to;
+    private final ObjectArrayList<ByteArrayPair> buffer;
+    private int chunk;
+
+    /**
+     * @param lastChunk index of the chunk holding the last entries of the range, -1 if the range is empty.
+     * @param chunks    reads the entries of a chunk, in increasing key order.
+     * @param from      first key of the range, inclusive, null for no lower bound.
+     * @param to        last key of the range, exclusive, null for no upper bound.
+     */
+    ReverseTableIterator(int lastChunk, IntFunction<Iterator<ByteArrayPair>> chunks, KeyComparator comparator,
+                         byte[] from, byte[] to) {
+        this.chunks = chunks;
+        this.comparator = comparator;
+        this.from = from;
+        this.to = to;
+        this.buffer = new ObjectArrayList<>();
+        this.chunk = lastChunk;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while(buffer.isEmpty() && chunk >= 0) {
+            load(chunk--);
+        }
+        return !buffer.isEmpty();
+    }
+
+    @Override
+    public ByteArrayPair next() {
+        if(!hasNext()) {
+            return null;
+        }
+        return buffer.pop();
+    }
+
+    private void load(int index) {
+        // chunks are read to their end so that their input gets closed
+        Iterator<ByteArrayPair> it = chunks.apply(index);
+        while(it.hasNext()) {
+            ByteArrayPair pair = it.next();
+            if(from != null && comparator.compare(pair.key(), from) < 0) {
+                // the range starts in this chunk, the previous ones are all before it
+                chunk = -1;
+                continue;
+            }
+            if(to == null || comparator.compare(pair.key(), to) < 0) {
+                buffer.add(pair);
+            }
+        }
+    }
+}
@@ -1,10 +1,21 @@
 package com.kvstore.core.storage.LSMTree.sstable;
 
+import com.google.common.collect.Iterators;
+import com.kvstore.core.iterator.CloseableIterator;
 import com.kvstore.core.storage.LSMTree.bloom.BloomFilter;
+import com.kvstore.core.storage.LSMTree.bloom.FilterFile;
+import com.kvstore.core.storage.LSMTree.bloom.KeyFilter;
+import com.kvstore.core.storage.LSMTree.bloom.KeyHash;
+import com.kvstore.core.storage.LSMTree.bloom.PrefixExtractor;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
 import com.kvstore.core.storage.LSMTree.io.ExtendedInputStream;
 import com.kvstore.core.storage.LSMTree.io.ExtendedOutputStream;
+import com.kvstore.core.storage.LSMTree.io.MappedInputStream;
+import com.kvstore.core.storage.LSMTree.io.RateLimiter;
+import com.kvstore.core.storage.LSMTree.io.SeekableInput;
+import com.kvstore.core.storage.LSMTree.io.VByte;
 import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
-import com.kvstore.core.storage.LSMTree.comparator.ByteArrayComparator;
 import com.kvstore.core.storage.LSMTree.utils.IteratorMerger;
 import com.kvstore.core.storage.LSMTree.utils.UniqueSortedIterator;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
@@ -12,32 +23,89 @@ import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 public class SSTable implements Iterable<ByteArrayPair> {
 
     public static final String DATA_FILE_EXTENSION = ".data";
+    /**
+     * Legacy bloom filter of the tables written before {@link #FILTER_FILE_EXTENSION} files.
+     */
     public static final String BLOOM_FILE_EXTENSION = ".bloom";
+    public static final String FILTER_FILE_EXTENSION = ".filter";
     public static final String INDEX_FILE_EXTENSION = ".index";
+    public static final String FILE_PREFIX = "sst_";
 
     private static final int DEFAULT_SAMPLE_SIZE = 1000;
 
     static final AtomicLong SST_COUNTER = new AtomicLong(0L);
+    static final AtomicLong TABLE_ID_COUNTER = new AtomicLong(0L);
 
     public String filename;
+    /**
+     * Process-wide unique id, file names are only unique within a data directory.
+     */
+    final long id = TABLE_ID_COUNTER.getAndIncrement();
+    final TableOptions options;
+    /**
+     * Order of the keys: the one of the options for new tables and tables opened lazily, the one
+     * the table recorded for tables opened from their files.
+     */
+    KeyComparator comparator;
+    TableFormat format;
     ExtendedInputStream is;
+    /**
+     * Key read by the lookups of {@link #is}, guarded by its lock.
+     */
+    private ByteBuffer readKey = ByteBuffer.allocate(64);
+    MappedByteBuffer mapped;
+    BlockTableReader blockReader;
     public int size;
+    public long byteSize;
+    /**
+     * Number of entries that are tombstones, unknown (0) for legacy tables opened without metadata.
+     */
+    public int tombstones;
 
     LongArrayList sparseOffsets;
     IntArrayList sparseSizeCount;
     ObjectArrayList<byte[]> sparseKeys;
-    BloomFilter bloomFilter;
+    KeyFilter filter;
+    /**
+     * Filter of the key prefixes and name of their extractor, null if the table has none.
+     */
+    KeyFilter prefixFilter;
+    String prefixExtractor;
 
     byte[] minKey;
     byte[] maxKey;
+    long creationTime;
+
+    /**
+     * False until the files of a table opened with {@link #lazy} are first read.
+     */
+    private volatile boolean opened = true;
+
+    /**
+     * References to the table: the one of its owner, plus one per reader that must be able to
+     * read it after the owner dropped it, e.g. an open scan of the tree.
+     */
+    private final AtomicInteger refs = new AtomicInteger(1);
 
     public SSTable(String directory, Iterator<ByteArrayPair> items, int sampleSize) {
         this(getNextSstFileName(directory), items, sampleSize, 1024 * 1024 * 256);
@@ -51,85 +119,445 @@ public class SSTable implements Iterable<ByteArrayPair> {
         this(getNextSstFileName(directory), items, DEFAULT_SAMPLE_SIZE, maxByteSize);
     }
 
+    public SSTable(String directory, Iterator<ByteArrayPair> items, long maxByteSize, TableOptions options) {
+        this(getNextSstFileName(directory), items, DEFAULT_SAMPLE_SIZE, maxByteSize, options);
+    }
+
     public SSTable(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize) {
+        this(filename, items, sampleSize, maxByteSize, TableOptions.defaults());
+    }
+
+    public SSTable(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize, TableOptions options) {
         this.filename = filename;
+        this.options = options;
+        this.comparator = options.comparator();
+        this.creationTime = System.currentTimeMillis();
         writeItems(filename, items, sampleSize, maxByteSize);
-        is = new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
+        openDataFile();
+        byteSize = new File(filename + DATA_FILE_EXTENSION).length();
     }
 
     public SSTable(String filename) {
+        this(filename, TableOptions.defaults());
+    }
+
+    public SSTable(String filename, TableOptions options) {
         this.filename = filename;
+        this.options = options;
         initializeFromDisk(filename);
+        byteSize = new File(filename + DATA_FILE_EXTENSION).length();
+    }
+
+    private SSTable(String filename, TableOptions options, int size, int tombstones, long byteSize,
+                    byte[] minKey, byte[] maxKey, long creationTime) {
+        this.filename = filename;
+        this.options = options;
+        this.comparator = options.comparator();
+        this.size = size;
+        this.tombstones = tombstones;
+        this.byteSize = byteSize;
+        this.minKey = minKey;
+        this.maxKey = maxKey;
+        this.creationTime = creationTime;
+        this.opened = false;
+    }
+
+    /**
+     * Reference an existing table from metadata kept elsewhere, without touching its files until it
+     * is first read, at which point it is opened as by {@link #SSTable(String, TableOptions)}. The
+     * table must be ordered by the comparator of the options, which the metadata is compared with.
+     */
+    public static SSTable lazy(String filename, TableOptions options, int size, int tombstones, long byteSize,
+                               byte[] minKey, byte[] maxKey, long creationTime) {
+        return new SSTable(filename, options, size, tombstones, byteSize, minKey, maxKey, creationTime);
+    }
+
+    /**
+     * @return the file name of the table numbered {@code fileNumber} in the directory.
+     */
+    public static String fileName(String directory, long fileNumber) {
+        return String.format("%s/%s%d", directory, FILE_PREFIX, fileNumber);
+    }
+
+    /**
+     * @return the number of a table file name, -1 if the name was not generated by {@link #fileName}.
+     */
+    public static long fileNumber(String filename) {
+        String name = new File(filename).getName();
+        if(!name.startsWith(FILE_PREFIX)) {
+            return -1;
+        }
+        int end = name.indexOf('.');
+        String number = name.substring(FILE_PREFIX.length(), end < 0 ? name.length() : end);
+        if(number.isEmpty() || !number.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Long.parseLong(number);
+    }
+
+    /**
+     * @return the number the next table file will get.
+     */
+    public static long nextFileNumber() {
+        return SST_COUNTER.get();
+    }
+
+    /**
+     * Make sure table files numbered below {@code fileNumber} are never generated again, e.g. after
+     * reopening a directory.
+     */
+    public static void advanceFileNumber(long fileNumber) {
+        SST_COUNTER.accumulateAndGet(fileNumber, Math::max);
+    }
+
+    private void ensureOpen() {
+        if(opened) {
+            return;
+        }
+        synchronized(this) {
+            if(!opened) {
+                initializeFromDisk(filename);
+                opened = true;
+            }
+        }
     }
 
 
     public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, SSTable... tables) {
-        SSTableIterator[] itArray = Arrays.stream(tables).map(SSTable::iterator).toArray(SSTableIterator[]::new);
+        return sortedRun(dataDir, sstMaxSize, TableOptions.defaults(), tables);
+    }
 
-        IteratorMerger<ByteArrayPair> merger = new IteratorMerger<>(itArray);
-        UniqueSortedIterator<ByteArrayPair> uniqueSortedIterator = new UniqueSortedIterator<>(merger);
+    public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, TableOptions options, SSTable... tables) {
+        return mergeRange(dataDir, sstMaxSize, options, false, null, null, null, tables);
+    }
+
+    public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, TableOptions options,
+                                                     ForkJoinPool pool, int maxSubcompactions, boolean dropTombstones,
+                                                     SSTable... tables) {
+        return sortedRun(dataDir, sstMaxSize, options, pool, maxSubcompactions, dropTombstones, null, tables);
+    }
+
+    /**
+     * Merge tables into a sorted run, split in up to {@code maxSubcompactions} disjoint key ranges
+     * merged in parallel on the pool. Each range produces its own tables, so no output table spans
+     * two ranges.
+     * <p>
+     * Range boundaries are picked evenly among the {@link #boundaryKeys()} of the tables, which
+     * split each table in chunks of similar size.
+     *
+     * @param dropTombstones true to leave out the tombstones, once no older table may hold the keys they delete.
+     * @param dropped        receives the entries shadowed by a newer entry of their key, null to ignore them.
+     * @param tables         tables to merge, the first ones win when keys are equal.
+     */
+    public static ObjectArrayList<SSTable> sortedRun(String dataDir, long sstMaxSize, TableOptions options,
+                                                     ForkJoinPool pool, int maxSubcompactions, boolean dropTombstones,
+                                                     Consumer<ByteArrayPair> dropped, SSTable... tables) {
+        ObjectArrayList<byte[]> boundaries = partitionBoundaries(maxSubcompactions, options.comparator(), tables);
+        if(boundaries.isEmpty()) {
+            return mergeRange(dataDir, sstMaxSize, options, dropTombstones, dropped, null, null, tables);
+        }
+
+        List<ForkJoinTask<ObjectArrayList<SSTable>>> subcompactions = new ObjectArrayList<>();
+        for(int i = 0; i <= boundaries.size(); i++) {
+            byte[] from = i == 0 ? null : boundaries.get(i - 1);
+            byte[] to = i == boundaries.size() ? null : boundaries.get(i);
+            subcompactions.add(pool.submit(() -> mergeRange(dataDir, sstMaxSize, options, dropTombstones, dropped, from, to, tables)));
+        }
+
+        // every subcompaction is waited for, the output of the others is deleted if one fails
+        ObjectArrayList<SSTable> res = new ObjectArrayList<>();
+        RuntimeException failure = null;
+        for(ForkJoinTask<ObjectArrayList<SSTable>> subcompaction : subcompactions) {
+            try {
+                res.addAll(subcompaction.join());
+            } catch(RuntimeException e) {
+                failure = failure == null ? e : failure;
+            }
+        }
+        if(failure != null) {
+            res.forEach(SSTable::closeAndDelete);
+            throw failure;
+        }
+        return res;
+    }
+
+    /**
+     * Merge the entries of the tables whose key is in [from, to).
+     */
+    private static ObjectArrayList<SSTable> mergeRange(String dataDir, long sstMaxSize, TableOptions options, boolean dropTombstones,
+                                                       Consumer<ByteArrayPair> dropped, byte[] from, byte[] to, SSTable... tables) {
+        @SuppressWarnings("unchecked")
+        Iterator<ByteArrayPair>[] itArray = Arrays.stream(tables).map(t -> t.iterator(from, to)).toArray(Iterator[]::new);
+
+        Iterator<ByteArrayPair> merger = new IteratorMerger<>(Comparator.comparing(ByteArrayPair::key, options.comparator()), itArray);
+        if(options.rateLimiter() != null) {
+            merger = rateLimited(merger, options.rateLimiter());
+        }
+        Iterator<ByteArrayPair> entries = new UniqueSortedIterator<>(merger, dropped);
+        if(dropTombstones) {
+            // the newest entry of each key is the only one left, a tombstone hides nothing anymore
+            entries = Iterators.filter(entries, pair -> !pair.isTombstone());
+        }
 
         ObjectArrayList<SSTable> res = new ObjectArrayList<>();
 
-        while(uniqueSortedIterator.hasNext()) {
-            res.add(new SSTable(getNextSstFileName(dataDir), uniqueSortedIterator, DEFAULT_SAMPLE_SIZE, sstMaxSize));
+        while(entries.hasNext()) {
+            String filename = getNextSstFileName(dataDir);
+            try {
+                res.add(new SSTable(filename, entries, DEFAULT_SAMPLE_SIZE, sstMaxSize, options));
+            } catch(RuntimeException e) {
+                // no manifest references the tables of a failed merge, nothing else would delete them before a restart
+                deleteFiles(filename);
+                res.forEach(SSTable::closeAndDelete);
+                throw e;
+            }
         }
 
         return res;
     }
 
+    /**
+     * @return the entries, requesting their bytes from the limiter as they are read.
+     */
+    private static Iterator<ByteArrayPair> rateLimited(Iterator<ByteArrayPair> entries, RateLimiter limiter) {
+        return new Iterator<>() {
+            long unrequested;
+
+            @Override
+            public boolean hasNext() {
+                boolean hasNext = entries.hasNext();
+                if(!hasNext && unrequested > 0) {
+                    limiter.request(unrequested);
+                    unrequested = 0;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public ByteArrayPair next() {
+                ByteArrayPair pair = entries.next();
+                if(pair == null) {
+                    return null;
+                }
+                unrequested += pair.size();
+                if(unrequested >= RateLimiter.REQUEST_CHUNK) {
+                    limiter.request(unrequested);
+                    unrequested = 0;
+                }
+                return pair;
+            }
+        };
+    }
 
-    public byte[] get(byte[] key) {
-        if(ByteArrayComparator.compare(key, minKey) < 0 || ByteArrayComparator.compare(key, maxKey) > 0 || !bloomFilter.mightContain(key)) {
+    /**
+     * @return up to maxSubcompactions - 1 sorted, distinct keys splitting the tables in ranges of similar size.
+     */
+    private static ObjectArrayList<byte[]> partitionBoundaries(int maxSubcompactions, KeyComparator comparator, SSTable... tables) {
+        ObjectArrayList<byte[]> boundaries = new ObjectArrayList<>();
+        if(maxSubcompactions <= 1) {
+            return boundaries;
+        }
+
+        ObjectArrayList<byte[]> keys = new ObjectArrayList<>();
+        for(SSTable table : tables) {
+            keys.addAll(table.boundaryKeys());
+        }
+        keys.sort(comparator);
+
+        int partitions = Math.min(maxSubcompactions, keys.size());
+        for(int i = 1; i < partitions; i++) {
+            byte[] key = keys.get(i * keys.size() / partitions);
+            if(boundaries.isEmpty() || comparator.compare(boundaries.top(), key) < 0) {
+                boundaries.add(key);
+            }
+        }
+        return boundaries;
+    }
+
+    /**
+     * @return false if the table holds no key starting with the prefix according to its prefix
+     * filter, true if it may or if the filter can not tell: the table has none, it was written with
+     * another extractor, or the prefix is too short to have a prefix of its own.
+     */
+    public boolean mightContainPrefix(byte[] prefix, PrefixExtractor extractor) {
+        ensureOpen();
+        if(prefixFilter == null || extractor == null || !extractor.name().equals(prefixExtractor)) {
+            return true;
+        }
+        int length = extractor.prefixLength(prefix);
+        return length < 0 || prefixFilter.mightContainHash(KeyHash.hash64(prefix, length));
+    }
+
+    /**
+     * @return the entry of the key, a tombstone if it was deleted, null if the table does not hold it.
+     */
+    public ByteArrayPair get(byte[] key) {
+        if(comparator.compare(key, minKey) < 0 || comparator.compare(key, maxKey) > 0) {
             return null;
         }
 
+        ensureOpen();
+        if(!filter.mightContain(key)) {
+            return null;
+        }
+
+        if(blockReader != null) {
+            return blockReader.get(key);
+        }
+
         int offsetIndex = getCandidateOffsetIndex(key);
+
+        MappedByteBuffer buffer = mapped;
+        if(buffer != null) {
+            return lookup(buffer, key, offsetIndex);
+        }
+
+        synchronized(is) {
+            return lookup(is, key, offsetIndex);
+        }
+    }
+
+    /**
+     * Look a key up in the shared mapping, only read at absolute indexes: the keys are compared
+     * where they are mapped, and the value copied once the key is found.
+     */
+    private ByteArrayPair lookup(MappedByteBuffer buffer, byte[] key, int offsetIndex) {
+        int position = (int) sparseOffsets.getLong(offsetIndex);
+        int remaining = size - sparseSizeCount.getInt(offsetIndex);
+
+        // in length-first order, the keys of another length are skipped without being compared
+        boolean lengthFirst = comparator == KeyComparators.LENGTH_FIRST;
+        int searchKeyLength = key.length;
+
+        while(remaining > 0) {
+            remaining--;
+            int readKeyLength = (int) VByte.read(buffer, position);
+            position += VByte.size(readKeyLength);
+
+            if(lengthFirst && readKeyLength > searchKeyLength) {
+                return null;
+            }
+
+            int readValueLength = (int) VByte.read(buffer, position);
+            position += VByte.size(readValueLength);
+
+            if(!lengthFirst || readKeyLength == searchKeyLength) {
+                int cmp = comparator.compare(buffer, position, readKeyLength, key);
+                if(cmp == 0) {
+                    byte[] value = new byte[readValueLength];
+                    buffer.get(position + readKeyLength, value);
+                    return legacyEntry(key, value);
+                }
+                if(cmp > 0) {
+                    return null;
+                }
+            }
+            position += readKeyLength + readValueLength;
+        }
+        return null;
+    }
+
+    /**
+     * Look a key up in the stream, the caller holding its lock: the keys are read in a buffer
+     * reused by every lookup, and the value copied once the key is found.
+     */
+    private ByteArrayPair lookup(SeekableInput is, byte[] key, int offsetIndex) {
         long offset =  sparseOffsets.getLong(offsetIndex);
         int remaining = size - sparseSizeCount.getInt(offsetIndex);
         is.seek(offset);
 
-        int cmp = 1;
+        // in length-first order, the keys of another length are skipped without being read
+        boolean lengthFirst = comparator == KeyComparators.LENGTH_FIRST;
         int searchKeyLength = key.length;
-        int readKeyLength = 0;
-        int readValueLength = 0;
-
-        byte[] readKey;
+        int readKeyLength;
+        int readValueLength;
 
-        while(cmp > 0 && remaining > 0) {
+        while(remaining > 0) {
             remaining--;
             readKeyLength = is.readVByteInt();
 
-            if(readKeyLength > searchKeyLength) {
+            if(lengthFirst && readKeyLength > searchKeyLength) {
                 return null;
             }
 
-            if(readKeyLength < searchKeyLength) {
-                readValueLength = is.readVByteInt();
+            readValueLength = is.readVByteInt();
+            if(lengthFirst && readKeyLength < searchKeyLength) {
                 is.skip(readKeyLength + readValueLength);
                 continue;
             }
 
-            readValueLength = is.readVByteInt();
-            readKey = is.readNBytes(readKeyLength);
-            cmp = ByteArrayComparator.compare(key, readKey);
+            if(readKey.capacity() < readKeyLength) {
+                readKey = ByteBuffer.allocate(readKeyLength);
+            }
+            is.readNBytes(readKey.array(), 0, readKeyLength);
+            int cmp = comparator.compare(readKey, 0, readKeyLength, key);
 
             if(cmp == 0) {
-                return is.readNBytes(readValueLength);
-            } else {
-                is.skip(readValueLength);
+                return legacyEntry(key, is.readNBytes(readValueLength));
             }
+            if(cmp > 0) {
+                return null;
+            }
+            is.skip(readValueLength);
         }
         return null;
     }
 
+    /**
+     * Legacy tables store no entry type, deletions were always written as empty values.
+     */
+    private static ByteArrayPair legacyEntry(byte[] key, byte[] value) {
+        return value.length == 0 ? ByteArrayPair.tombstone(key) : new ByteArrayPair(key, value);
+    }
+
+    public KeyComparator comparator() {
+        return comparator;
+    }
+
+    public byte[] minKey() {
+        return minKey;
+    }
+
+    public byte[] maxKey() {
+        return maxKey;
+    }
+
+    /**
+     * @return the compression figures of the table, legacy tables being uncompressed.
+     */
+    public TableStats stats() {
+        ensureOpen();
+        if(blockReader == null) {
+            return new TableStats("none", byteSize, byteSize, 0, 0);
+        }
+        TableProperties properties = blockReader.properties();
+        long dataSize = properties.getLong(TableProperties.DATA_SIZE, byteSize);
+        return new TableStats(properties.getString(TableProperties.COMPRESSION, "none"), dataSize,
+                properties.getLong(TableProperties.UNCOMPRESSED_DATA_SIZE, dataSize),
+                blockReader.decompressedBlocks(), blockReader.decompressNanos());
+    }
+
+    /**
+     * @return the time the table was written, in milliseconds since the epoch.
+     */
+    public long creationTime() {
+        return creationTime;
+    }
+
+    /**
+     * @return true if the key range of this table intersects [min, max].
+     */
+    public boolean overlaps(byte[] min, byte[] max) {
+        return comparator.compare(maxKey, min) >= 0 && comparator.compare(minKey, max) <= 0;
+    }
+
     private int getCandidateOffsetIndex(byte[] key) {
         int low = 0;
         int high = sparseOffsets.size() - 1;
 
         while(low < high - 1) {
             int mid = (high - low) / 2 + low;
-            int cmp = ByteArrayComparator.compare(key, sparseKeys.get(mid));
+            int cmp = comparator.compare(key, sparseKeys.get(mid));
 
             if(cmp < 0) {
                 high = mid - 1;
@@ -145,11 +573,61 @@ public class SSTable implements Iterable<ByteArrayPair> {
 
 
     private static String getNextSstFileName(String directory) {
-        return String.format("%s/sst_%d", directory, SST_COUNTER.getAndIncrement());
+        return fileName(directory, SST_COUNTER.getAndIncrement());
+    }
+
+    private void openDataFile() {
+        if(format == TableFormat.BLOCK_BASED) {
+            blockReader = new BlockTableReader(filename + DATA_FILE_EXTENSION, options.readMode(), id, options.blockCache(), options.comparator());
+            return;
+        }
+
+        if(options.readMode() == ReadMode.MMAP) {
+            mapped = MappedInputStream.map(filename + DATA_FILE_EXTENSION);
+        }
+
+        if(mapped == null) {
+            is = new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
+        }
+    }
+
+    /**
+     * Open a private cursor on the data file, independent of the one used by lookups.
+     */
+    private SeekableInput newInput() {
+        MappedByteBuffer buffer = mapped;
+        if(buffer != null) {
+            return new MappedInputStream(buffer);
+        }
+        return new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
     }
 
     private void initializeFromDisk(String filename) {
-        is = new ExtendedInputStream(filename + DATA_FILE_EXTENSION);
+        // tables written in the legacy format are the only ones with a separate sparse index file
+        format = new File(filename + INDEX_FILE_EXTENSION).exists() ? TableFormat.LEGACY : TableFormat.BLOCK_BASED;
+        openDataFile();
+        KeyComparator recorded = blockReader != null ? blockReader.comparator() : options.unrecordedComparator();
+        if(!opened && recorded != comparator) {
+            throw new IllegalStateException("Table " + filename + " is ordered by " + recorded.name() + ", not by " + comparator.name());
+        }
+        comparator = recorded;
+        if(new File(filename + FILTER_FILE_EXTENSION).exists()) {
+            setFilters(FilterFile.read(filename + FILTER_FILE_EXTENSION));
+        } else {
+            filter = BloomFilter.readFromFile(filename + BLOOM_FILE_EXTENSION);
+        }
+
+        if(format == TableFormat.BLOCK_BASED) {
+            TableProperties properties = blockReader.properties();
+            size = (int) properties.getLong(TableProperties.NUM_ENTRIES, 0);
+            tombstones = (int) properties.getLong(TableProperties.NUM_DELETIONS, tombstones);
+            minKey = properties.get(TableProperties.MIN_KEY);
+            maxKey = properties.get(TableProperties.MAX_KEY);
+            creationTime = properties.getLong(TableProperties.CREATION_TIME, new File(filename + DATA_FILE_EXTENSION).lastModified());
+            return;
+        }
+
+        creationTime = new File(filename + DATA_FILE_EXTENSION).lastModified();
 
         sparseOffsets = new LongArrayList();
         sparseSizeCount = new IntArrayList();
@@ -177,18 +655,37 @@ public class SSTable implements Iterable<ByteArrayPair> {
             sparseKeys.add(indexIs.readNBytes(indexIs.readVByteInt()));
         }
 
-        is.close();
+        indexIs.close();
+
+        // the legacy index does not store the key range, recover it from the first sample and the last segment
+        minKey = sparseKeys.get(0);
+        SeekableInput lastSegment = newInput();
+        lastSegment.seek(sparseOffsets.getLong(sparseSize - 1));
+        for(int i = sparseSizeCount.getInt(sparseSize - 1); i < size; i++) {
+            maxKey = lastSegment.readBytePair().key();
+        }
+        lastSegment.close();
+    }
 
-        bloomFilter = BloomFilter.readFromFile(filename + BLOOM_FILE_EXTENSION);
+    private void setFilters(FilterFile filters) {
+        filter = filters.keyFilter();
+        prefixFilter = filters.prefixFilter();
+        prefixExtractor = filters.prefixExtractor();
     }
 
     private void writeItems(String filename, Iterator<ByteArrayPair> items, int sampleSize, long maxByteSize) {
-        ExtendedOutputStream ios = new ExtendedOutputStream(filename + DATA_FILE_EXTENSION);
+        format = options.format();
+        if(format == TableFormat.BLOCK_BASED) {
+            writeBlockItems(filename, items, maxByteSize);
+            return;
+        }
+
+        ExtendedOutputStream ios = new ExtendedOutputStream(filename + DATA_FILE_EXTENSION, options.rateLimiter());
 
         sparseOffsets = new LongArrayList();
         sparseSizeCount = new IntArrayList();
         sparseKeys = new ObjectArrayList<>();
-        bloomFilter = new BloomFilter();
+        TableFilterBuilder filterBuilder = new TableFilterBuilder(options);
 
         int numElements = 0;
         long offset = 0L;
@@ -209,10 +706,13 @@ public class SSTable implements Iterable<ByteArrayPair> {
                 sparseKeys.add(item.key());
             }
 
-            bloomFilter.add(item.key());
+            filterBuilder.add(item.key());
 
             offset += ios.writeByteArrayPair(item);
             numElements++;
+            if(item.isTombstone()) {
+                tombstones++;
+            }
 
             byteSize += item.size();
         }
@@ -225,9 +725,9 @@ public class SSTable implements Iterable<ByteArrayPair> {
 
         this.size = numElements;
 
-        bloomFilter.writeToFile(filename + BLOOM_FILE_EXTENSION);
+        setFilters(filterBuilder.finish(filename + FILTER_FILE_EXTENSION));
 
-        ExtendedOutputStream indexOs = new ExtendedOutputStream(filename + INDEX_FILE_EXTENSION);
+        ExtendedOutputStream indexOs = new ExtendedOutputStream(filename + INDEX_FILE_EXTENSION, options.rateLimiter());
         indexOs.writeVByteInt(numElements);
 
         int sparseSize = sparseOffsets.size();
@@ -253,41 +753,218 @@ public class SSTable implements Iterable<ByteArrayPair> {
         indexOs.close();
     }
 
-    private static class SSTableIterator implements Iterator<ByteArrayPair> {
+    private void writeBlockItems(String filename, Iterator<ByteArrayPair> items, long maxByteSize) {
+        BlockTableWriter writer = new BlockTableWriter(filename + DATA_FILE_EXTENSION, options);
+        TableFilterBuilder filterBuilder = new TableFilterBuilder(options);
 
-        private final SSTable table;
-        int remaining;
+        int numElements = 0;
+        long byteSize = 0L;
+
+        while(items.hasNext() && byteSize < maxByteSize) {
+            ByteArrayPair item = items.next();
+
+            if(minKey == null) {
+                minKey = item.key();
+            }
 
-        public SSTableIterator(SSTable table) {
-            this.table = table;
-            this.remaining = table.size;
+            maxKey = item.key();
+
+            filterBuilder.add(item.key());
+            writer.add(item);
+            numElements++;
+            if(item.isTombstone()) {
+                tombstones++;
+            }
+
+            byteSize += item.size();
+        }
+
+        writer.finish();
+
+        if(numElements == 0) {
+            throw new IllegalArgumentException("Attempted to create an SSTable from an empty iterator");
+        }
+
+        this.size = numElements;
+
+        setFilters(filterBuilder.finish(filename + FILTER_FILE_EXTENSION));
+    }
+
+    private static class SSTableIterator implements CloseableIterator<ByteArrayPair> {
+
+        private final SeekableInput is;
+        private final KeyComparator comparator;
+        private final byte[] to;
+        int remaining;
+        ByteArrayPair next;
+
+        /**
+         * @param is        input positioned on an entry.
+         * @param remaining number of entries from the position to the end of the table.
+         * @param from      skip the entries before this key, null to start at the position.
+         * @param to        stop before this key, null to read to the end of the table.
+         */
+        SSTableIterator(SeekableInput is, int remaining, KeyComparator comparator, byte[] from, byte[] to) {
+            this.is = is;
+            this.comparator = comparator;
+            this.remaining = remaining;
+            this.to = to;
+
+            advance();
+            while(from != null && next != null && comparator.compare(next.key(), from) < 0) {
+                advance();
+            }
         }
 
         @Override
         public boolean hasNext() {
-            return remaining > 0;
+            return next != null;
         }
 
         @Override
         public ByteArrayPair next() {
+            ByteArrayPair pair = next;
+            advance();
+            return pair;
+        }
+
+        private void advance() {
+            next = null;
+            if(remaining == 0) {
+                return;
+            }
+
             remaining--;
+            next = is.readBytePair();
+            next = legacyEntry(next.key(), next.value());
+            if(to != null && comparator.compare(next.key(), to) >= 0) {
+                next = null;
+                remaining = 0;
+            }
+            if(remaining == 0) {
+                is.close();
+            }
+        }
 
-            return table.is.readBytePair();
+        /**
+         * Release the input of an iterator left before its end, it is closed at the end otherwise.
+         */
+        @Override
+        public void close() {
+            if(remaining > 0) {
+                remaining = 0;
+                next = null;
+                is.close();
+            }
         }
     }
 
     @Override
     public Iterator<ByteArrayPair> iterator() {
-        is.seek(0);
-        return new SSTableIterator(this);
+        ensureOpen();
+        if(blockReader != null) {
+            return blockReader.iterator();
+        }
+        return new SSTableIterator(newInput(), size, comparator, null, null);
+    }
+
+    /**
+     * Iterate over the entries whose key is in [from, to).
+     *
+     * @param from first key of the range, inclusive, null for no lower bound.
+     * @param to   last key of the range, exclusive, null for no upper bound.
+     * @return an iterator with its own cursor on the table, a {@link CloseableIterator} to close when
+     * left before its end if the table reads a file stream.
+     */
+    public Iterator<ByteArrayPair> iterator(byte[] from, byte[] to) {
+        ensureOpen();
+        if(blockReader != null) {
+            return blockReader.iterator(from, to);
+        }
+
+        if(from == null) {
+            return new SSTableIterator(newInput(), size, comparator, null, to);
+        }
+
+        int offsetIndex = getCandidateOffsetIndex(from);
+        SeekableInput input = newInput();
+        input.seek(sparseOffsets.getLong(offsetIndex));
+        return new SSTableIterator(input, size - sparseSizeCount.getInt(offsetIndex), comparator, from, to);
+    }
+
+    /**
+     * Iterate over the entries whose key is in [from, to) in decreasing key order.
+     * <p>
+     * The table is read backwards one data block at a time, one sparse index segment at a time
+     * for legacy tables.
+     *
+     * @param from first key of the range, inclusive, null for no lower bound.
+     * @param to   last key of the range, exclusive, null for no upper bound.
+     * @return an iterator with its own cursor on the table.
+     */
+    public Iterator<ByteArrayPair> reverseIterator(byte[] from, byte[] to) {
+        ensureOpen();
+        if(blockReader != null) {
+            return blockReader.reverseIterator(from, to);
+        }
+
+        // the last segment starting before the bound holds the last keys of the range
+        int last = sparseKeys.size() - 1;
+        if(to != null) {
+            int low = -1;
+            int high = sparseKeys.size() - 1;
+            while(low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if(comparator.compare(sparseKeys.get(mid), to) < 0) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            last = low;
+        }
+
+        return new ReverseTableIterator(last, segment -> {
+            SeekableInput input = newInput();
+            input.seek(sparseOffsets.getLong(segment));
+            int end = segment + 1 < sparseSizeCount.size() ? sparseSizeCount.getInt(segment + 1) : size;
+            return new SSTableIterator(input, end - sparseSizeCount.getInt(segment), comparator, null, null);
+        }, comparator, from, to);
+    }
+
+    /**
+     * Keys splitting the table in chunks of similar size: the sparse index samples of legacy tables,
+     * the last key of each data block of block-based tables.
+     *
+     * @return sorted keys of the table.
+     */
+    public ObjectArrayList<byte[]> boundaryKeys() {
+        ensureOpen();
+        if(blockReader != null) {
+            return blockReader.indexKeys();
+        }
+        return new ObjectArrayList<>(sparseKeys);
     }
 
     public void close() {
-        is.close();
+        if(!opened) {
+            return;
+        }
+        if(blockReader != null) {
+            blockReader.close();
+        }
+        if(is != null) {
+            is.close();
+        }
+        mapped = null;
     }
 
     public void deleteFiles() {
-        for(var extention : List.of(DATA_FILE_EXTENSION, BLOOM_FILE_EXTENSION, INDEX_FILE_EXTENSION)) {
+        deleteFiles(filename);
+    }
+
+    private static void deleteFiles(String filename) {
+        for(var extention : List.of(DATA_FILE_EXTENSION, FILTER_FILE_EXTENSION, BLOOM_FILE_EXTENSION, INDEX_FILE_EXTENSION)) {
             new File(filename + extention).delete();
         }
     }
@@ -297,5 +974,40 @@ public class SSTable implements Iterable<ByteArrayPair> {
         deleteFiles();
     }
 
+    /**
+     * Force the files of the table to stable storage. Writing a table leaves its bytes in the page
+     * cache, so this must be called before the table is the only copy of its entries, e.g. before
+     * the log segment it was flushed from is released.
+     */
+    public void sync() {
+        for(var extension : List.of(DATA_FILE_EXTENSION, FILTER_FILE_EXTENSION, INDEX_FILE_EXTENSION)) {
+            Path path = Path.of(filename + extension);
+            if(!Files.exists(path)) {
+                continue;
+            }
+            try(FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch(IOException e) {
+                throw new RuntimeException("Could not sync table " + filename, e);
+            }
+        }
+    }
+
+    /**
+     * Take a reference on the table, keeping its files until the matching {@link #unref()}.
+     */
+    public void ref() {
+        refs.incrementAndGet();
+    }
+
+    /**
+     * Drop a reference, the last one closes the table and deletes its files.
+     */
+    public void unref() {
+        if(refs.decrementAndGet() == 0) {
+            closeAndDelete();
+        }
+    }
+
 
 }
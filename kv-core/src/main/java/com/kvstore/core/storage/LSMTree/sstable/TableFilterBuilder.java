@@ -0,0 +1,43 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.bloom.FilterBuilder;
+import com.kvstore.core.storage.LSMTree.bloom.FilterFile;
+import com.kvstore.core.storage.LSMTree.bloom.PrefixExtractor;
+
+/**
+ * Builds the filters of a table being written: the filter of the whole keys, and the filter of
+ * their prefixes when the options have a {@link PrefixExtractor}.
+ */
+class TableFilterBuilder {
+
+    private final PrefixExtractor prefixExtractor;
+    private final FilterBuilder keys;
+    private final FilterBuilder prefixes;
+
+    TableFilterBuilder(TableOptions options) {
+        this.prefixExtractor = options.prefixExtractor();
+        this.keys = new FilterBuilder(options.filterType(), options.filterBitsPerKey());
+        this.prefixes = prefixExtractor != null ? new FilterBuilder(options.filterType(), options.filterBitsPerKey()) : null;
+    }
+
+    void add(byte[] key) {
+        keys.add(key);
+        if(prefixes != null) {
+            int length = prefixExtractor.prefixLength(key);
+            if(length >= 0) {
+                prefixes.add(key, length);
+            }
+        }
+    }
+
+    /**
+     * Build the filters and write them to their file.
+     */
+    FilterFile finish(String filename) {
+        FilterFile filters = prefixes != null
+                ? new FilterFile(keys.build(), prefixExtractor.name(), prefixes.build())
+                : new FilterFile(keys.build(), null, null);
+        filters.write(filename);
+        return filters;
+    }
+}
@@ -0,0 +1,20 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+/**
+ * On-disk layout of an SSTable.
+ */
+public enum TableFormat {
+    /**
+     * Flat stream of length-prefixed pairs in the .data file, with a sparse index in the .index file.
+     * Entries have no type, deletions are stored as empty values so a put of an empty value reads
+     * back as a deletion. Never compressed.
+     */
+    LEGACY,
+
+    /**
+     * Fixed-size data blocks with prefix-compressed keys and restart points, optionally compressed,
+     * followed by an index block, a properties block and a footer, all in the .data file. See
+     * {@link BlockTableWriter}.
+     */
+    BLOCK_BASED
+}
@@ -0,0 +1,226 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.bloom.FilterType;
+import com.kvstore.core.storage.LSMTree.bloom.PrefixExtractor;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodec;
+import com.kvstore.core.storage.LSMTree.compression.CompressionCodecs;
+import com.kvstore.core.storage.LSMTree.io.RateLimiter;
+
+/**
+ * Settings used to write and open SSTables.
+ */
+public class TableOptions {
+
+    ReadMode readMode = ReadMode.MMAP;
+    TableFormat format = TableFormat.BLOCK_BASED;
+    int blockSize = 4 * 1024;
+    int blockRestartInterval = 16;
+    FilterType filterType = FilterType.BLOCKED_BLOOM;
+    int filterBitsPerKey = 10;
+    PrefixExtractor prefixExtractor;
+    CompressionCodec[] compressionPerLevel = {CompressionCodecs.NONE};
+    BlockCache blockCache;
+    RateLimiter rateLimiter;
+    /**
+     * Null until set, see {@link #comparator()} and {@link #unrecordedComparator()}.
+     */
+    KeyComparator comparator;
+
+    public static TableOptions defaults() {
+        return new TableOptions();
+    }
+
+    public ReadMode readMode() {
+        return readMode;
+    }
+
+    public TableOptions readMode(ReadMode readMode) {
+        this.readMode = readMode;
+        return this;
+    }
+
+    public TableFormat format() {
+        return format;
+    }
+
+    public TableOptions format(TableFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    public int blockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Target size of the uncompressed data blocks of block-based tables.
+     */
+    public TableOptions blockSize(int blockSize) {
+        this.blockSize = blockSize;
+        return this;
+    }
+
+    public int blockRestartInterval() {
+        return blockRestartInterval;
+    }
+
+    /**
+     * Number of keys between restart points of block-based tables, bounds the scan of a lookup within a block.
+     */
+    public TableOptions blockRestartInterval(int blockRestartInterval) {
+        this.blockRestartInterval = blockRestartInterval;
+        return this;
+    }
+
+    public FilterType filterType() {
+        return filterType;
+    }
+
+    /**
+     * Filter written with new tables, tables keep the one they were written with.
+     * {@link FilterType#XOR8} gives less false positives than a 10 bits per key bloom filter in fewer bits.
+     */
+    public TableOptions filterType(FilterType filterType) {
+        this.filterType = filterType;
+        return this;
+    }
+
+    public int filterBitsPerKey() {
+        return filterBitsPerKey;
+    }
+
+    /**
+     * Size of the blocked bloom filter of each table per key it holds, 10 bits give about 1% of false positives.
+     */
+    public TableOptions filterBitsPerKey(int filterBitsPerKey) {
+        this.filterBitsPerKey = filterBitsPerKey;
+        return this;
+    }
+
+    public PrefixExtractor prefixExtractor() {
+        return prefixExtractor;
+    }
+
+    /**
+     * Extractor of the key prefixes indexed in a second filter of new tables, which lets prefix scans
+     * skip the tables holding none of their keys, null for none.
+     */
+    public TableOptions prefixExtractor(PrefixExtractor prefixExtractor) {
+        this.prefixExtractor = prefixExtractor;
+        return this;
+    }
+
+    /**
+     * @return the codec of the tables written with these options, the one of level 0 unless
+     * resolved for another level by {@link #forLevel(int)}.
+     */
+    public CompressionCodec compression() {
+        return compressionPerLevel[0];
+    }
+
+    /**
+     * Codec compressing the data blocks of the block-based tables of every level.
+     */
+    public TableOptions compression(CompressionCodec compression) {
+        return compressionPerLevel(compression);
+    }
+
+    public CompressionCodec compression(int level) {
+        return compressionPerLevel[Math.min(level, compressionPerLevel.length - 1)];
+    }
+
+    /**
+     * Codec of each level, starting at level 0, the last one applying to all the deeper levels.
+     * E.g. none for the short-lived tables of level 0, lz4 for the middle levels and deflate for the
+     * bottom one holding most of the data.
+     */
+    public TableOptions compressionPerLevel(CompressionCodec... compressionPerLevel) {
+        if(compressionPerLevel.length == 0) {
+            throw new IllegalArgumentException("At least one compression codec is needed");
+        }
+        this.compressionPerLevel = compressionPerLevel.clone();
+        return this;
+    }
+
+    /**
+     * @return a copy of these options writing tables for the level, sharing the same block cache and rate limiter.
+     */
+    public TableOptions forLevel(int level) {
+        TableOptions copy = copy();
+        copy.compressionPerLevel = new CompressionCodec[]{compression(level)};
+        return copy;
+    }
+
+    /**
+     * @return a copy of these options, sharing the same block cache and rate limiter.
+     */
+    public TableOptions copy() {
+        TableOptions copy = new TableOptions();
+        copy.readMode = readMode;
+        copy.format = format;
+        copy.blockSize = blockSize;
+        copy.blockRestartInterval = blockRestartInterval;
+        copy.filterType = filterType;
+        copy.filterBitsPerKey = filterBitsPerKey;
+        copy.prefixExtractor = prefixExtractor;
+        copy.compressionPerLevel = compressionPerLevel;
+        copy.blockCache = blockCache;
+        copy.rateLimiter = rateLimiter;
+        copy.comparator = comparator;
+        return copy;
+    }
+
+    public BlockCache blockCache() {
+        return blockCache;
+    }
+
+    /**
+     * Cache consulted by block-based tables before reading a block, null to disable.
+     * The same instance may be given to several trees.
+     */
+    public TableOptions blockCache(BlockCache blockCache) {
+        this.blockCache = blockCache;
+        return this;
+    }
+
+    public RateLimiter rateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Limiter the bytes written to new tables, and read from the tables merged into them, are
+     * requested from, null for none. Set by the tree on the options of its flushes and compactions.
+     */
+    public TableOptions rateLimiter(RateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+        return this;
+    }
+
+    /**
+     * @return the order of the tables written, {@link KeyComparators#LEXICOGRAPHIC} if none was set.
+     */
+    public KeyComparator comparator() {
+        return comparator != null ? comparator : KeyComparators.LEXICOGRAPHIC;
+    }
+
+    /**
+     * @return the order of the tables opened without a recorded one, the order set in these options,
+     * or the length-first order of the tables written before the order was recorded if none was.
+     */
+    KeyComparator unrecordedComparator() {
+        return comparator != null ? comparator : KeyComparators.LENGTH_FIRST;
+    }
+
+    /**
+     * Order of the keys of the tables written, recorded in the block-based ones. Block-based tables
+     * are read in the order they recorded, length-first if they were written before it was; legacy
+     * tables record none and are read in this one, length-first if it is not set. Set by the tree to
+     * its own order.
+     */
+    public TableOptions comparator(KeyComparator comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+}
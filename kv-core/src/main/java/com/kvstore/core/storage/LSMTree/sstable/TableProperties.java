@@ -0,0 +1,78 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Named metadata stored in the properties block of a block-based table.
+ */
+public class TableProperties {
+
+    public static final String FORMAT_VERSION = "format.version";
+    public static final String NUM_ENTRIES = "num.entries";
+    public static final String NUM_DELETIONS = "num.deletions";
+    public static final String MIN_KEY = "min.key";
+    public static final String MAX_KEY = "max.key";
+    public static final String NUM_DATA_BLOCKS = "num.data.blocks";
+    public static final String RAW_KEY_SIZE = "raw.key.size";
+    public static final String RAW_VALUE_SIZE = "raw.value.size";
+    public static final String DATA_SIZE = "data.size";
+    public static final String UNCOMPRESSED_DATA_SIZE = "uncompressed.data.size";
+    public static final String COMPRESSION = "compression";
+    public static final String NUM_COMPRESSED_BLOCKS = "num.compressed.blocks";
+    public static final String INDEX_SIZE = "index.size";
+    public static final String CREATION_TIME = "creation.time";
+    public static final String FILTER_TYPE = "filter.type";
+    public static final String PREFIX_EXTRACTOR = "prefix.extractor";
+    /**
+     * Name of the {@link com.kvstore.core.storage.LSMTree.comparator.KeyComparator} of the keys,
+     * absent from the tables written in length-first order before it was recorded.
+     */
+    public static final String COMPARATOR = "comparator";
+
+    private final Map<String, byte[]> properties = new TreeMap<>();
+
+    public byte[] get(String name) {
+        return properties.get(name);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        byte[] value = properties.get(name);
+        return value == null ? defaultValue : ByteBuffer.wrap(value).getLong();
+    }
+
+    public String getString(String name, String defaultValue) {
+        byte[] value = properties.get(name);
+        return value == null ? defaultValue : new String(value, StandardCharsets.UTF_8);
+    }
+
+    public void put(String name, byte[] value) {
+        properties.put(name, value);
+    }
+
+    public void putLong(String name, long value) {
+        properties.put(name, ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+    }
+
+    public void putString(String name, String value) {
+        properties.put(name, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    byte[] encode() {
+        BlockBuilder builder = new BlockBuilder(1);
+        properties.forEach((name, value) -> builder.add(name.getBytes(StandardCharsets.UTF_8), value));
+        return builder.finish();
+    }
+
+    static TableProperties decode(Block block) {
+        TableProperties result = new TableProperties();
+        for(ByteArrayPair pair : block) {
+            result.properties.put(new String(pair.key(), StandardCharsets.UTF_8), pair.value());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,28 @@
+package com.kvstore.core.storage.LSMTree.sstable;
+
+/**
+ * Compression figures of a table, see {@link SSTable#stats()}.
+ *
+ * @param compression          name of the codec the table was written with.
+ * @param dataSize             bytes of the data blocks on disk.
+ * @param uncompressedDataSize bytes of the data blocks once decompressed.
+ * @param decompressedBlocks   blocks decompressed since the table was opened.
+ * @param decompressNanos      time spent decompressing them.
+ */
+public record TableStats(String compression, long dataSize, long uncompressedDataSize,
+                         long decompressedBlocks, long decompressNanos) {
+
+    public double compressionRatio() {
+        return dataSize == 0 ? 1 : (double) uncompressedDataSize / dataSize;
+    }
+
+    public double decompressMicrosPerBlock() {
+        return decompressedBlocks == 0 ? 0 : decompressNanos / 1e3 / decompressedBlocks;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s x%.2f, %.1f us/block over %d blocks", compression, compressionRatio(),
+                decompressMicrosPerBlock(), decompressedBlocks);
+    }
+}
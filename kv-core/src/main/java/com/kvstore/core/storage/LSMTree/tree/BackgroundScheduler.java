@@ -0,0 +1,293 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntSupplier;
+
+/**
+ * Runs the background work of an {@link LSMTree} when there is some, instead of polling for it.
+ * <p>
+ * Flushes run on a dedicated thread, so compactions never hold them back: a rotated memtable is
+ * flushed right away whatever the compactions are doing. The collections of the value log run on
+ * the same thread, as they must not run concurrently with a flush. Compactions run on a pool of
+ * compaction threads, as many at a time as the strategy allows; a compaction is looked for when a
+ * table is flushed and when a compaction ends, until the strategy has nothing left to do.
+ * <p>
+ * Requests for a job already queued are merged into it, so a burst of events queues at most one
+ * flush, one collection and one compaction per thread.
+ */
+public class BackgroundScheduler {
+
+    /**
+     * Delay before looking for a compaction again after one failed.
+     */
+    static final long COMPACTION_RETRY_MILLIS = 1000;
+
+    private final Runnable flush;
+    private final Runnable collect;
+    private final BooleanSupplier compact;
+    private final IntSupplier flushQueueDepth;
+    private final int maxCompactions;
+
+    private final ThreadPoolExecutor flushExecutor;
+    private final ThreadPoolExecutor compactionExecutor;
+
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final AtomicBoolean collectScheduled = new AtomicBoolean();
+    private final AtomicBoolean timerScheduled = new AtomicBoolean();
+    /**
+     * Compaction jobs queued or running.
+     */
+    private final AtomicInteger compactionsScheduled = new AtomicInteger();
+    /**
+     * Set by every request for a compaction, cleared by a job before it looks for one, so that a
+     * request dropped while the jobs allowed are scheduled is taken over by the next job to end.
+     */
+    private final AtomicBoolean compactionRequested = new AtomicBoolean();
+    private final AtomicInteger compactionsRunning = new AtomicInteger();
+
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final AtomicLong flushLatencyNanos = new AtomicLong();
+    private final AtomicLong maxFlushLatencyNanos = new AtomicLong();
+    private final AtomicInteger maxFlushQueueDepth = new AtomicInteger();
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong compactionNanos = new AtomicLong();
+
+    /**
+     * @param flush           flushes the immutable memtables.
+     * @param collect         collects the value log.
+     * @param compact         runs one compaction, returning false if there was nothing to compact.
+     * @param flushQueueDepth the number of immutable memtables waiting for their flush.
+     * @param compactionThreads size of the compaction pool.
+     * @param maxCompactions  compactions allowed to run at the same time, at most the size of the pool.
+     */
+    BackgroundScheduler(Runnable flush, Runnable collect, BooleanSupplier compact, IntSupplier flushQueueDepth,
+                        int compactionThreads, int maxCompactions) {
+        this.flush = flush;
+        this.collect = collect;
+        this.compact = compact;
+        this.flushQueueDepth = flushQueueDepth;
+        this.maxCompactions = Math.max(Math.min(maxCompactions, compactionThreads), 1);
+
+        flushExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                threadFactory("lsm-flush", Thread.MAX_PRIORITY));
+        compactionExecutor = new ThreadPoolExecutor(compactionThreads, compactionThreads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), threadFactory("lsm-compaction", Thread.NORM_PRIORITY - 1));
+    }
+
+    private static ThreadFactory threadFactory(String name, int priority) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setPriority(priority);
+            return thread;
+        };
+    }
+
+    /**
+     * Flush the immutable memtables as soon as the flush thread is free.
+     */
+    void scheduleFlush() {
+        maxFlushQueueDepth.accumulateAndGet(flushQueueDepth.getAsInt(), Math::max);
+        if(flushExecutor.isShutdown() || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        execute(flushExecutor, () -> {
+            // cleared first, so that a memtable rotated during the flush schedules another one
+            flushScheduled.set(false);
+            flush.run();
+        });
+    }
+
+    /**
+     * Collect the value log on the flush thread.
+     */
+    void scheduleCollection() {
+        if(flushExecutor.isShutdown() || !collectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        execute(flushExecutor, () -> {
+            collectScheduled.set(false);
+            collect.run();
+        });
+    }
+
+    /**
+     * Look for a compaction to run. If as many compaction jobs as may run together are already
+     * queued or running, the request is left to the first of them to end, which looks again unless
+     * another job looked since the request.
+     */
+    void scheduleCompaction() {
+        if(compactionExecutor.isShutdown()) {
+            return;
+        }
+        compactionRequested.set(true);
+        if(compactionsScheduled.incrementAndGet() > maxCompactions) {
+            compactionsScheduled.decrementAndGet();
+            return;
+        }
+        boolean queued = execute(compactionExecutor, () -> {
+            boolean ran;
+            compactionsRunning.incrementAndGet();
+            long begin = System.nanoTime();
+            try {
+                // cleared first, so that a request made during the compaction schedules another look
+                compactionRequested.set(false);
+                ran = compact.getAsBoolean();
+            } catch(RuntimeException e) {
+                // interrupted by the shutdown
+                if(compactionExecutor.isShutdown()) {
+                    return;
+                }
+                // the failed task deleted its output, nothing else may trigger the next look once writes are stopped
+                scheduleCompaction(COMPACTION_RETRY_MILLIS);
+                throw e;
+            } finally {
+                compactionsRunning.decrementAndGet();
+                compactionsScheduled.decrementAndGet();
+            }
+            if(ran) {
+                compactions.incrementAndGet();
+                compactionNanos.addAndGet(System.nanoTime() - begin);
+                scheduleCompaction();
+            } else if(compactionRequested.get()) {
+                // requested while this job was counted, the request may have been dropped
+                scheduleCompaction();
+            }
+        });
+        if(!queued) {
+            compactionsScheduled.decrementAndGet();
+        }
+    }
+
+    /**
+     * Look for a compaction once the delay is over, unless a delayed look is already pending.
+     */
+    void scheduleCompaction(long delayMillis) {
+        if(compactionExecutor.isShutdown() || !timerScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture.delayedExecutor(delayMillis, TimeUnit.MILLISECONDS).execute(() -> {
+            timerScheduled.set(false);
+            scheduleCompaction();
+        });
+    }
+
+    /**
+     * @return false if the job was rejected, the executor being shut down.
+     */
+    private static boolean execute(ThreadPoolExecutor executor, Runnable job) {
+        try {
+            executor.execute(job);
+            return true;
+        } catch(RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Account for a flushed memtable.
+     *
+     * @param latencyNanos  time since the memtable was rotated.
+     * @param durationNanos time spent writing and installing its table.
+     */
+    void recordFlush(long latencyNanos, long durationNanos) {
+        flushes.incrementAndGet();
+        flushNanos.addAndGet(durationNanos);
+        flushLatencyNanos.addAndGet(latencyNanos);
+        maxFlushLatencyNanos.accumulateAndGet(latencyNanos, Math::max);
+    }
+
+    boolean isShutdown() {
+        return flushExecutor.isShutdown();
+    }
+
+    /**
+     * Let the running flush end and drop the queued jobs, interrupt the compactions.
+     */
+    void shutdown() {
+        flushExecutor.shutdown();
+        flushExecutor.getQueue().clear();
+        compactionExecutor.shutdownNow();
+    }
+
+    /**
+     * Wait for the running jobs to end after {@link #shutdown()}.
+     */
+    void awaitTermination() throws InterruptedException {
+        flushExecutor.awaitTermination(1, TimeUnit.MINUTES);
+        compactionExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    public long flushes() {
+        return flushes.get();
+    }
+
+    /**
+     * @return the mean time from the rotation of a memtable to the installation of its table.
+     */
+    public double meanFlushLatencyMillis() {
+        long count = flushes.get();
+        return count == 0 ? 0 : flushLatencyNanos.get() / 1e6 / count;
+    }
+
+    public double maxFlushLatencyMillis() {
+        return maxFlushLatencyNanos.get() / 1e6;
+    }
+
+    /**
+     * @return the mean time spent writing and installing the table of a memtable.
+     */
+    public double meanFlushMillis() {
+        long count = flushes.get();
+        return count == 0 ? 0 : flushNanos.get() / 1e6 / count;
+    }
+
+    /**
+     * @return the number of immutable memtables waiting for their flush.
+     */
+    public int flushQueueDepth() {
+        return flushQueueDepth.getAsInt();
+    }
+
+    public int maxFlushQueueDepth() {
+        return maxFlushQueueDepth.get();
+    }
+
+    public long compactions() {
+        return compactions.get();
+    }
+
+    public double meanCompactionMillis() {
+        long count = compactions.get();
+        return count == 0 ? 0 : compactionNanos.get() / 1e6 / count;
+    }
+
+    public int runningCompactions() {
+        return compactionsRunning.get();
+    }
+
+    /**
+     * @return the number of compaction jobs waiting for a compaction thread.
+     */
+    public int compactionQueueDepth() {
+        return Math.max(compactionsScheduled.get() - compactionsRunning.get(), 0);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d flushes, latency %.1f ms mean / %.1f ms max, %.1f ms mean duration, queue %d (max %d); "
+                        + "%d compactions, %.1f ms mean, %d running, %d queued",
+                flushes(), meanFlushLatencyMillis(), maxFlushLatencyMillis(), meanFlushMillis(), flushQueueDepth(),
+                maxFlushQueueDepth(), compactions(), meanCompactionMillis(), runningCompactions(), compactionQueueDepth());
+    }
+}
@@ -0,0 +1,149 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * Per-level flush and compaction counters, used to report write amplification.
+ * <p>
+ * For every output level we track how many bytes were read from the input level, read from the
+ * output level itself (the overlapping tables being rewritten) and written. The write amplification
+ * of a level is the bytes it wrote divided by the bytes it received from the level above; the write
+ * amplification of the tree is every byte written to disk divided by the bytes flushed from memtables.
+ * <p>
+ * With key-value separation, the values moved to the value log by flushes count as flushed bytes
+ * and the values its garbage collection rewrites as written ones.
+ */
+public class CompactionStats {
+
+    private final LongArrayList compactions = new LongArrayList();
+    private final LongArrayList trivialMoves = new LongArrayList();
+    private final LongArrayList bytesReadInput = new LongArrayList();
+    private final LongArrayList bytesReadOutput = new LongArrayList();
+    private final LongArrayList bytesWritten = new LongArrayList();
+    private final LongArrayList bytesMoved = new LongArrayList();
+    private long tablesDropped;
+    private long bytesDropped;
+    private long valueLogBytesSeparated;
+    private long valueLogBytesRelocated;
+
+    synchronized void recordFlush(long bytes) {
+        ensureLevel(0);
+        compactions.set(0, compactions.getLong(0) + 1);
+        bytesWritten.set(0, bytesWritten.getLong(0) + bytes);
+    }
+
+    synchronized void recordCompaction(int outputLevel, long readInput, long readOutput, long written) {
+        ensureLevel(outputLevel);
+        compactions.set(outputLevel, compactions.getLong(outputLevel) + 1);
+        bytesReadInput.set(outputLevel, bytesReadInput.getLong(outputLevel) + readInput);
+        bytesReadOutput.set(outputLevel, bytesReadOutput.getLong(outputLevel) + readOutput);
+        bytesWritten.set(outputLevel, bytesWritten.getLong(outputLevel) + written);
+    }
+
+    synchronized void recordValueSeparation(long bytes) {
+        valueLogBytesSeparated += bytes;
+    }
+
+    synchronized void recordValueRelocation(long bytes) {
+        valueLogBytesRelocated += bytes;
+    }
+
+    synchronized void recordTrivialMove(int outputLevel, long bytes) {
+        ensureLevel(outputLevel);
+        trivialMoves.set(outputLevel, trivialMoves.getLong(outputLevel) + 1);
+        bytesMoved.set(outputLevel, bytesMoved.getLong(outputLevel) + bytes);
+    }
+
+    synchronized void recordDrop(long bytes) {
+        tablesDropped++;
+        bytesDropped += bytes;
+    }
+
+    public synchronized long flushedBytes() {
+        return bytesWritten.isEmpty() ? 0 : bytesWritten.getLong(0);
+    }
+
+    public synchronized long writtenBytes(int level) {
+        return level < bytesWritten.size() ? bytesWritten.getLong(level) : 0;
+    }
+
+    /**
+     * @return bytes of the values moved to the value log by flushes.
+     */
+    public synchronized long separatedBytes() {
+        return valueLogBytesSeparated;
+    }
+
+    /**
+     * @return bytes of the values rewritten by the garbage collection of the value log.
+     */
+    public synchronized long relocatedBytes() {
+        return valueLogBytesRelocated;
+    }
+
+    /**
+     * @return bytes of tables dropped without being compacted, e.g. expired by FIFO compaction.
+     */
+    public synchronized long droppedBytes() {
+        return bytesDropped;
+    }
+
+    /**
+     * @return bytes written by compactions into the level per byte read from the level above.
+     */
+    public synchronized double writeAmplification(int level) {
+        if(level == 0) {
+            return flushedBytes() == 0 ? 0.0 : 1.0;
+        }
+        long input = level < bytesReadInput.size() ? bytesReadInput.getLong(level) : 0;
+        return input == 0 ? 0.0 : (double) writtenBytes(level) / input;
+    }
+
+    /**
+     * @return all bytes written by flushes and compactions per byte flushed from memtables.
+     */
+    public synchronized double writeAmplification() {
+        long flushed = flushedBytes() + valueLogBytesSeparated;
+        if(flushed == 0) {
+            return 0.0;
+        }
+        long total = valueLogBytesSeparated + valueLogBytesRelocated;
+        for(int i = 0; i < bytesWritten.size(); i++) {
+            total += bytesWritten.getLong(i);
+        }
+        return (double) total / flushed;
+    }
+
+    private void ensureLevel(int level) {
+        while(bytesWritten.size() <= level) {
+            compactions.add(0);
+            trivialMoves.add(0);
+            bytesReadInput.add(0);
+            bytesReadOutput.add(0);
+            bytesWritten.add(0);
+            bytesMoved.add(0);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        var s = new StringBuilder();
+        s.append("level | jobs | moves | read n-1 (mb) | read n (mb) | written (mb) | moved (mb) | w-amp\n");
+        for(int i = 0; i < bytesWritten.size(); i++) {
+            s.append(String.format("%5d | %4d | %5d | %13.1f | %11.1f | %12.1f | %10.1f | %5.2f%n",
+                    i, compactions.getLong(i), trivialMoves.getLong(i),
+                    bytesReadInput.getLong(i) / 1024.0 / 1024.0, bytesReadOutput.getLong(i) / 1024.0 / 1024.0,
+                    bytesWritten.getLong(i) / 1024.0 / 1024.0, bytesMoved.getLong(i) / 1024.0 / 1024.0,
+                    writeAmplification(i)));
+        }
+        if(tablesDropped > 0) {
+            s.append(String.format("dropped: %d tables, %.1f mb%n", tablesDropped, bytesDropped / 1024.0 / 1024.0));
+        }
+        if(valueLogBytesSeparated > 0) {
+            s.append(String.format("value log: %.1f mb separated, %.1f mb relocated%n",
+                    valueLogBytesSeparated / 1024.0 / 1024.0, valueLogBytesRelocated / 1024.0 / 1024.0));
+        }
+        s.append(String.format("total write amplification: %.2f%n", writeAmplification()));
+        return s.toString();
+    }
+}
@@ -1,192 +1,884 @@
 package com.kvstore.core.storage.LSMTree.tree;
 
+import com.kvstore.core.cache.wal.OperationType;
+import com.kvstore.core.cache.wal.WALEntry;
+import com.kvstore.core.cache.wal.WriteAheadLog;
+import com.kvstore.core.storage.Storage;
+import com.kvstore.core.storage.StorageEngine;
+import com.kvstore.core.storage.StorageStats;
+import com.kvstore.core.storage.WriteBatch;
+import com.kvstore.core.storage.LSMTree.compaction.CompactionStrategy;
+import com.kvstore.core.storage.LSMTree.compaction.CompactionTask;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.io.RateLimiter;
 import com.kvstore.core.storage.LSMTree.memtable.Memtable;
+import com.kvstore.core.storage.LSMTree.memtable.MemtableRep;
 import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.sstable.TableFormat;
+import com.kvstore.core.storage.LSMTree.sstable.TableOptions;
+import com.kvstore.core.storage.LSMTree.sstable.TableStats;
 import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+import com.kvstore.core.storage.LSMTree.vlog.ValueLog;
+import com.kvstore.core.storage.LSMTree.vlog.ValuePointer;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectImmutableList;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.LinkedList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class LSMTree {
+public class LSMTree implements Storage {
 
     static final long DEFAULT_MEMTABLE_MAX_BYTE_SIZE = 1024 * 1024 * 32;
     static final int DEFAULT_LEVEL_ZERO_MAX_SIZE = 2;
-    static final double LEVEL_INCR_FACTOR = 1.75;
 
     static final String DEFAULT_DATA_DIRECTORY = "LSM-data";
 
-    final Object mutableMemtableLock = new Object();
+    /**
+     * Writers share the read side while they insert into the mutable memtable, the
+     * write side is only taken to rotate it, so concurrent puts never serialize.
+     */
+    final ReadWriteLock mutableMemtableLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes the changes of the {@link #immutableMemtables}, which are read without it.
+     */
     final Object immutableMemtableLock = new Object();
+    /**
+     * Guards the levels and the compactions picked from them, the point reads search the
+     * published {@link #version} instead.
+     */
     final Object tableLock = new Object();
 
     final Long mutableMemtableMaxSize;
-    final int maxLevelZeroSstNumber;
-    final long maxLevelZeroSstByteSize;
+    final MemtableRep.Factory memtableRep;
     final String dataDir;
+    /**
+     * Order of the keys, the one recorded in the manifest of an existing tree.
+     */
+    final KeyComparator comparator;
+    /**
+     * Table options of the tree, ordering keys by its comparator.
+     */
+    final TableOptions tableOptions;
 
-    Memtable mutableMemtable;
-    LinkedList<Memtable> immutableMemtables;
+    volatile Memtable mutableMemtable;
+    /**
+     * Memtables waiting for their flush, newest first. The list is never modified but replaced by a
+     * copy under the immutable memtable lock, so that the point reads search it without the lock.
+     */
+    volatile ObjectImmutableList<ImmutableMemtable> immutableMemtables = ObjectImmutableList.of();
+    final WriteAheadLog wal;
+    /**
+     * Sequence number of the last write when the log is disabled, the log numbers writes otherwise.
+     */
+    final AtomicLong sequence;
+    final Manifest manifest;
     ObjectArrayList<ObjectArrayList<SSTable>> levels;
+    /**
+     * Tables of the levels as of the last edit, searched by the point reads without the table lock.
+     */
+    volatile Version version;
+    /**
+     * Tables the running compactions read, left out of the tasks picked meanwhile. Guarded by the table lock.
+     */
+    final ReferenceOpenHashSet<SSTable> compactingTables = new ReferenceOpenHashSet<>();
 
-    ScheduledExecutorService memtableFlusher;
-    ScheduledExecutorService tableCompactor;
+    final CompactionStrategy compactionStrategy;
+    final int maxSubcompactions;
+    final ForkJoinPool compactionPool;
+    final boolean ownsCompactionPool;
+    final CompactionStats compactionStats;
+    /**
+     * Bound the disk bandwidth of flushes and compactions, null for no limit.
+     */
+    final RateLimiter flushRateLimiter;
+    final RateLimiter compactionRateLimiter;
+    /**
+     * Limiter fed the latency of the point reads, null if none is auto-tuned.
+     */
+    final RateLimiter tunedRateLimiter;
+    /**
+     * Bytes of the keys and values written by the user.
+     */
+    final AtomicLong bytesWritten = new AtomicLong();
+    /**
+     * Delays and stops the writes when flushes or compactions fall behind, see {@link WriteController}.
+     */
+    final WriteController writeController;
+
+    /**
+     * Holds the values separated from their keys, see {@link LSMTreeOptions#valueSeparationThreshold(int)}.
+     * Always opened, so that the values of a tree reopened without separation stay readable.
+     */
+    final ValueLog valueLog;
+    final int valueSeparationThreshold;
+    final double valueLogGcRatio;
+    /**
+     * Set when a compaction drops a separated value, cleared when a collection is scheduled.
+     */
+    volatile boolean valueLogGarbage;
+
+    /**
+     * Runs the flushes, compactions and value log collections, see {@link BackgroundScheduler}.
+     */
+    final BackgroundScheduler scheduler;
 
     public LSMTree() {
-        this(DEFAULT_MEMTABLE_MAX_BYTE_SIZE, DEFAULT_LEVEL_ZERO_MAX_SIZE, DEFAULT_DATA_DIRECTORY);
+        this(LSMTreeOptions.defaults());
     }
 
     public LSMTree(long mutableMemtableMaxByteSize, int maxLevelZeroSstNumber, String dataDir) {
-        this.mutableMemtableMaxSize = mutableMemtableMaxByteSize;
-        this.maxLevelZeroSstNumber = maxLevelZeroSstNumber;
-        this.maxLevelZeroSstByteSize = mutableMemtableMaxByteSize * 2;
-        this.dataDir = dataDir;
+        this(mutableMemtableMaxByteSize, maxLevelZeroSstNumber, dataDir, TableOptions.defaults());
+    }
+
+    public LSMTree(long mutableMemtableMaxByteSize, int maxLevelZeroSstNumber, String dataDir, TableOptions tableOptions) {
+        this(LSMTreeOptions.defaults()
+                .memtableMaxByteSize(mutableMemtableMaxByteSize)
+                .maxLevelZeroSstNumber(maxLevelZeroSstNumber)
+                .dataDir(dataDir)
+                .tableOptions(tableOptions));
+    }
+
+    public LSMTree(LSMTreeOptions options) {
+        this.mutableMemtableMaxSize = options.memtableMaxByteSize();
+        this.memtableRep = options.memtableRep();
+        this.dataDir = options.dataDir();
+        this.compactionStrategy = options.compactionStrategy().create(options);
+        this.maxSubcompactions = Math.max(options.maxSubcompactions(), 1);
+        this.ownsCompactionPool = options.compactionPool() == null && maxSubcompactions > 1;
+        this.compactionPool = ownsCompactionPool ? new ForkJoinPool(maxSubcompactions) : options.compactionPool();
+        this.flushRateLimiter = options.flushRateLimiter();
+        this.compactionRateLimiter = options.compactionRateLimiter();
+        this.tunedRateLimiter = compactionRateLimiter != null && compactionRateLimiter.isAutoTuned() ? compactionRateLimiter
+                : flushRateLimiter != null && flushRateLimiter.isAutoTuned() ? flushRateLimiter : null;
+        this.valueSeparationThreshold = options.valueSeparationThreshold();
+        this.valueLogGcRatio = options.valueLogGcRatio();
+        if(valueSeparationThreshold > 0 && options.tableOptions().format() != TableFormat.BLOCK_BASED) {
+            throw new IllegalArgumentException("Key-value separation requires block-based tables");
+        }
         createDataDir();
+        valueLog = new ValueLog(dataDir, options.valueLogFileSize());
 
-        mutableMemtable = new Memtable();
-        immutableMemtables = new LinkedList<>();
-        levels = new ObjectArrayList<>();
-        levels.add(new ObjectArrayList<>());
+        compactionStats = new CompactionStats();
+        writeController = new WriteController(options);
+        sequence = new AtomicLong(-1);
 
-        memtableFlusher = Executors.newSingleThreadScheduledExecutor();
-        memtableFlusher.scheduleAtFixedRate(this::flushMemtable, 50, 50, TimeUnit.MILLISECONDS);
+        manifest = new Manifest(dataDir);
+        levels = manifest.recover(options.tableOptions().copy().comparator(options.comparator()));
+        comparator = manifest.comparator;
+        version = new Version(levels);
+        tableOptions = options.tableOptions().copy().comparator(comparator);
+        mutableMemtable = newMemtable();
+        SSTable.advanceFileNumber(manifest.nextFileNumber);
+        deleteObsoleteFiles();
+        sequence.set(manifest.lastSequence);
 
-        tableCompactor = Executors.newSingleThreadScheduledExecutor();
-        tableCompactor.scheduleAtFixedRate(this::levelCompaction, 200, 200, TimeUnit.MILLISECONDS);
+        if(options.walEnabled()) {
+            wal = new WriteAheadLog(dataDir, options.walSyncMode(), options.walSyncIntervalMillis(), options.walRecycledSegments());
+            wal.advanceSequence(manifest.lastSequence + 1);
+            recoverMemtables();
+        } else {
+            wal = null;
+        }
+
+        int maxBackgroundCompactions = compactionStrategy.supportsConcurrentCompactions()
+                ? Math.max(options.maxBackgroundCompactions(), 1)
+                : 1;
+        // collections run on the flush thread, they must not see the values of a flush before its table is installed
+        scheduler = new BackgroundScheduler(this::flushMemtables, this::collectValueLog, this::compact,
+                this::immutableMemtableCount, maxBackgroundCompactions, maxBackgroundCompactions);
+        updateWriteController();
+
+        // the work left behind by the previous instance
+        if(immutableMemtableCount() > 0) {
+            scheduler.scheduleFlush();
+        }
+        scheduler.scheduleCompaction();
+        if(valueLog.fileCount() >= 2) {
+            scheduler.scheduleCollection();
+        }
     }
 
     public void add(ByteArrayPair pair) {
-        synchronized(mutableMemtableLock) {
-            mutableMemtable.put(pair);
-            checkMemtableSize();
+        writeController.beforeWrite(pair.size());
+        Lock lock = mutableMemtableLock.readLock();
+        lock.lock();
+        try {
+            long sequence = wal != null ? wal.append(OperationType.PUT, pair.key(), pair.value()) : this.sequence.incrementAndGet();
+            mutableMemtable.put(pair, sequence);
+        } finally {
+            lock.unlock();
         }
+        bytesWritten.addAndGet(pair.size());
+        checkMemtableSize();
     }
 
     public void add(byte[] key, byte[] value) {
         this.add(new ByteArrayPair(key, value));
     }
 
+    @Override
+    public void put(byte[] key, byte[] value) {
+        add(key, value);
+    }
+
+    @Override
     public void delete(byte[] key) {
-        synchronized(mutableMemtableLock) {
-            mutableMemtable.delete(key);
-            checkMemtableSize();
+        writeController.beforeWrite(key.length);
+        Lock lock = mutableMemtableLock.readLock();
+        lock.lock();
+        try {
+            long sequence = wal != null ? wal.append(OperationType.DELETE, key, new byte[]{}) : this.sequence.incrementAndGet();
+            mutableMemtable.delete(key, sequence);
+        } finally {
+            lock.unlock();
         }
+        bytesWritten.addAndGet(key.length);
+        checkMemtableSize();
     }
 
+    /**
+     * Apply the writes of a batch atomically. They get consecutive sequence numbers and are logged as
+     * one record, so recovery replays all of them or none, then inserted under a single acquisition
+     * of the memtable lock, so scans see all of them or none.
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if(batch.isEmpty()) {
+            return;
+        }
+
+        writeController.beforeWrite(batch.byteSize());
+        Lock lock = mutableMemtableLock.readLock();
+        lock.lock();
+        try {
+            long sequence = wal != null
+                    ? wal.append(logEntries(batch))
+                    : this.sequence.addAndGet(batch.size()) - batch.size() + 1;
+            for(ByteArrayPair pair : batch.writes()) {
+                mutableMemtable.put(pair, sequence++);
+            }
+        } finally {
+            lock.unlock();
+        }
+        bytesWritten.addAndGet(batch.byteSize());
+        checkMemtableSize();
+    }
 
+    /**
+     * @return the writes of a batch as log entries, numbered by the log when appended.
+     */
+    private static ObjectArrayList<WALEntry> logEntries(WriteBatch batch) {
+        ObjectArrayList<WALEntry> entries = new ObjectArrayList<>(batch.size());
+        for(ByteArrayPair pair : batch.writes()) {
+            OperationType type = pair.isTombstone() ? OperationType.DELETE : OperationType.PUT;
+            entries.add(new WALEntry(-1, type, pair.key(), pair.value()));
+        }
+        return entries;
+    }
+
+
+    /**
+     * @return the value of the key, null if it is absent or was deleted.
+     */
+    @Override
     public byte[] get(byte[] key) {
-        byte[] result;
+        if(tunedRateLimiter == null) {
+            return read(key);
+        }
+        long begin = System.nanoTime();
+        byte[] value = read(key);
+        tunedRateLimiter.recordForegroundLatency(System.nanoTime() - begin);
+        return value;
+    }
+
+    private byte[] read(byte[] key) {
+        while(true) {
+            long collected = valueLog.filesCollected();
+            ByteArrayPair entry = find(key);
+            if(entry == null || entry.isTombstone()) {
+                return null;
+            }
+            if(entry.type() != ValueType.VALUE_POINTER) {
+                return entry.value();
+            }
+
+            ValuePointer pointer = ValuePointer.decode(entry.value());
+            byte[] value = valueLog.read(pointer);
+            if(value != null) {
+                return value;
+            }
+            // the file was collected since the lookup, the key now points at the relocated value
+            if(valueLog.filesCollected() == collected) {
+                throw new IllegalStateException("Value log file not found: " + pointer);
+            }
+        }
+    }
+
+    /**
+     * @return the newest entry of the key, which may be a tombstone, null if no source holds the key.
+     */
+    private ByteArrayPair find(byte[] key) {
+        ByteArrayPair result;
 
-        synchronized(mutableMemtableLock) {
-            if((result = mutableMemtable.get(key)) != null) {
+        if((result = mutableMemtable.get(key)) != null) {
+            return result;
+        }
+
+        for(ImmutableMemtable immutable : immutableMemtables) {
+            if((result = immutable.memtable().get(key)) != null) {
                 return result;
             }
         }
 
-        synchronized(immutableMemtableLock) {
-            for(Memtable memtable : immutableMemtables) {
-                if((result = memtable.get(key)) != null) {
+        Version current = acquireVersion();
+        try {
+            for(SSTable table : current.tables) {
+                if((result = table.get(key)) != null) {
                     return result;
                 }
             }
+        } finally {
+            current.unref();
         }
+        return null;
+    }
 
-        synchronized(tableLock) {
-            for(ObjectArrayList<SSTable> level : levels) {
-                for(SSTable table : level) {
-                    if((result = table.get(key)) != null) {
-                        return result;
-                    }
-                }
+    /**
+     * @return the current version, referenced until the caller releases it.
+     */
+    private Version acquireVersion() {
+        while(true) {
+            Version current = version;
+            // released if replaced meanwhile, the next read sees its successor
+            if(current.tryRef()) {
+                return current;
             }
         }
-        return null;
     }
 
+    /**
+     * Iterate over every key of the tree, see {@link #scan(ScanOptions)}.
+     */
+    @Override
+    public LSMTreeIterator scan() {
+        return scan(ScanOptions.defaults());
+    }
+
+    /**
+     * Iterate over the keys in [from, to), see {@link #scan(ScanOptions)}.
+     */
+    @Override
+    public LSMTreeIterator scan(byte[] from, byte[] to) {
+        return scan(ScanOptions.defaults().from(from).to(to));
+    }
+
+    /**
+     * Open an iterator over a snapshot of the tree, which sees every write completed before the
+     * call and none of the later ones.
+     * <p>
+     * Writers are held off while the memtables and tables are captured, which only takes references
+     * to them; entries are read lazily as the iterator advances. The iterator must be closed, the
+     * tables and value log files it reads from are kept on disk until then, even if compacted or
+     * collected away meanwhile.
+     */
+    public LSMTreeIterator scan(ScanOptions options) {
+        ObjectArrayList<Memtable> memtables = new ObjectArrayList<>();
+        ObjectArrayList<SSTable> tables = new ObjectArrayList<>();
+        ValueLog.Reader values;
+        long snapshot;
+
+        Lock lock = mutableMemtableLock.writeLock();
+        lock.lock();
+        try {
+            snapshot = lastSequence();
+            memtables.add(mutableMemtable);
+            immutableMemtables.forEach(immutable -> memtables.add(immutable.memtable()));
+            synchronized(tableLock) {
+                levels.forEach(tables::addAll);
+                tables.forEach(SSTable::ref);
+            }
+            values = valueLog.reader();
+        } finally {
+            lock.unlock();
+        }
+        return new LSMTreeIterator(memtables, tables, values, snapshot, options, comparator, tableOptions.prefixExtractor());
+    }
+
+    /**
+     * @return the sequence number of the last write.
+     */
+    private long lastSequence() {
+        return wal != null ? wal.lastSequence() : sequence.get();
+    }
+
+    /**
+     * Let the running flush end and interrupt the compactions, then close the files of the tree.
+     * Immutable memtables left unflushed are replayed from the log when the tree is reopened.
+     */
     public void stop() {
-        memtableFlusher.shutdown();
-        tableCompactor.shutdownNow();
+        writeController.close();
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(wal != null) {
+            wal.close();
+        }
+        manifest.close();
+        valueLog.close();
+        if(ownsCompactionPool) {
+            compactionPool.shutdown();
+        }
+    }
+
+    /**
+     * Same as {@link #stop()}.
+     */
+    @Override
+    public void close() {
+        stop();
     }
 
     private void createDataDir() {
         try {
-            Files.createDirectory(Path.of(dataDir));
+            Files.createDirectories(Path.of(dataDir));
         } catch(IOException e) {
             throw new RuntimeException("Could not create data directory", e);
         }
     }
 
+    /**
+     * Delete the table files no version references: outputs of compactions interrupted before being
+     * logged, and inputs whose deletion was interrupted after. Table files are left alone in a
+     * directory without manifest, only later file numbers are reserved.
+     */
+    private void deleteObsoleteFiles() {
+        LongOpenHashSet live = new LongOpenHashSet();
+        levels.forEach(level -> level.forEach(table -> live.add(SSTable.fileNumber(table.filename))));
+
+        File[] files = new File(dataDir).listFiles();
+        if(files == null) {
+            return;
+        }
+        for(File file : files) {
+            long number = SSTable.fileNumber(file.getName());
+            if(number < 0) {
+                continue;
+            }
+            SSTable.advanceFileNumber(number + 1);
+            if(manifest.recovered && !live.contains(number)) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the memtables lost by the previous instance from their log segments, each one becoming
+     * an immutable memtable queued for flushing. Segments the manifest reports as flushed are dropped.
+     */
+    private void recoverMemtables() {
+        for(long segment : wal.recoveredSegments()) {
+            if(segment < manifest.logNumber) {
+                wal.release(segment);
+                continue;
+            }
+
+            Memtable memtable = newMemtable();
+            wal.replay(segment, entry -> {
+                switch(entry.getType()) {
+                    case PUT -> memtable.put(new ByteArrayPair(entry.getKey(), entry.getValue()), entry.getSequenceNumber());
+                    case DELETE -> memtable.delete(entry.getKey(), entry.getSequenceNumber());
+                    case PUT_VALUE_POINTER -> memtable.put(new ByteArrayPair(entry.getKey(), entry.getValue(), ValueType.VALUE_POINTER),
+                            entry.getSequenceNumber());
+                }
+            });
+
+            if(memtable.byteSize() == 0) {
+                wal.release(segment);
+                continue;
+            }
+            synchronized(immutableMemtableLock) {
+                pushImmutableMemtable(new ImmutableMemtable(memtable, segment, System.nanoTime()));
+            }
+        }
+    }
+
+    /**
+     * Flush the immutable memtables until none is left, then look for a compaction.
+     */
+    private void flushMemtables() {
+        boolean pending = true;
+        while(pending && !scheduler.isShutdown()) {
+            flushMemtable();
+            pending = !immutableMemtables.isEmpty();
+        }
+        scheduler.scheduleCompaction();
+    }
+
+    private int immutableMemtableCount() {
+        return immutableMemtables.size();
+    }
+
+    /**
+     * Publish a memtable rotated out, as the newest immutable one, must be called holding the immutable memtable lock.
+     */
+    private void pushImmutableMemtable(ImmutableMemtable immutable) {
+        ObjectArrayList<ImmutableMemtable> next = new ObjectArrayList<>(immutableMemtables.size() + 1);
+        next.add(immutable);
+        next.addAll(immutableMemtables);
+        immutableMemtables = new ObjectImmutableList<>(next);
+    }
+
     private void flushMemtable() {
-        Memtable memtableToFlush;
+        ObjectImmutableList<ImmutableMemtable> immutables = immutableMemtables;
+        if(immutables.isEmpty()) {
+            return;
+        }
+        ImmutableMemtable flushed = immutables.get(immutables.size() - 1);
+        Memtable memtableToFlush = flushed.memtable();
+
+        long begin = System.nanoTime();
+        Iterator<ByteArrayPair> entries = memtableToFlush.iterator();
+        long separated = valueLog.bytesWritten();
+        if(valueSeparationThreshold > 0) {
+            entries = valueLog.separate(entries, valueSeparationThreshold);
+        }
+        // a memtable may hold more than its limit, e.g. a large write batch, the table takes all of it
+        SSTable table = new SSTable(dataDir, entries, Long.MAX_VALUE, tableOptions.forLevel(0).rateLimiter(flushRateLimiter));
+        if(valueSeparationThreshold > 0) {
+            // the values must be durable before the table pointing at them
+            valueLog.sync();
+            compactionStats.recordValueSeparation(valueLog.bytesWritten() - separated);
+        }
+        // the log segment is released once the table is logged, the table is then all that holds the writes
+        table.sync();
+
+        Long segment = flushed.segment();
+        VersionEdit edit = new VersionEdit().addTable(0, 0, table);
+        if(segment != null) {
+            edit.logNumber = segment + 1;
+        }
+        edit.lastSequence = lastSequence();
+        synchronized(tableLock) {
+            logAndApply(edit);
+        }
+        compactionStats.recordFlush(table.byteSize);
+
+        // published after the table, a point read missing the memtable finds the table
         synchronized(immutableMemtableLock) {
-            if(immutableMemtables.isEmpty()) {
-                return;
+            ObjectArrayList<ImmutableMemtable> next = new ObjectArrayList<>(immutableMemtables);
+            next.remove(flushed);
+            immutableMemtables = new ObjectImmutableList<>(next);
+        }
+        long end = System.nanoTime();
+        scheduler.recordFlush(end - flushed.rotatedAt(), end - begin);
+        updateWriteController();
+
+        if(wal != null && segment != null) {
+            wal.release(segment);
+        }
+    }
+
+    /**
+     * Run one task picked by the compaction strategy among the tables no running compaction reads.
+     *
+     * @return false if the strategy had nothing to do.
+     */
+    private boolean compact() {
+        if(Thread.currentThread().isInterrupted()) {
+            return false;
+        }
+
+        CompactionTask task;
+        synchronized(tableLock) {
+            task = compactionStrategy.pick(levels, compactingTables);
+            if(task == null) {
+                long delay = compactionStrategy.millisToNextCompaction(levels);
+                if(delay >= 0) {
+                    scheduler.scheduleCompaction(delay);
+                }
+                return false;
+            }
+            compactingTables.addAll(task.inputs());
+            compactingTables.addAll(task.overlapping());
+        }
+        // another compaction thread may find work among the tables left
+        if(compactionStrategy.supportsConcurrentCompactions()) {
+            scheduler.scheduleCompaction();
+        }
+
+        try {
+            switch(task.kind()) {
+                case MERGE -> runMerge(task);
+                case MOVE -> runMove(task);
+                case DELETE -> runDelete(task);
             }
+        } finally {
+            synchronized(tableLock) {
+                task.inputs().forEach(compactingTables::remove);
+                task.overlapping().forEach(compactingTables::remove);
+            }
+        }
+        updateWriteController();
+        if(valueLogGarbage) {
+            valueLogGarbage = false;
+            scheduler.scheduleCollection();
+        }
+        return true;
+    }
 
-            memtableToFlush = immutableMemtables.getLast();
+    /**
+     * Report the immutable memtables, level 0 tables and pending compaction bytes to the write
+     * controller, must be called holding none of the locks of the tree.
+     */
+    private void updateWriteController() {
+        synchronized(writeController) {
+            int immutables = immutableMemtables.size();
+            int levelZero;
+            long pending;
+            synchronized(tableLock) {
+                levelZero = levels.get(0).size();
+                pending = compactionStrategy.pendingCompactionBytes(levels);
+            }
+            writeController.update(immutables, levelZero, pending);
         }
+    }
 
-        SSTable table = new SSTable(dataDir, memtableToFlush.iterator(), mutableMemtableMaxSize * 2);
+    private void runMerge(CompactionTask task) {
+        ObjectArrayList<SSTable> merge = new ObjectArrayList<>();
+        merge.addAll(task.inputs());
+        merge.addAll(task.overlapping());
 
+        boolean dropTombstones;
         synchronized(tableLock) {
-            levels.get(0).add(0, table);
+            dropTombstones = isBottommost(task);
         }
 
-        synchronized(immutableMemtableLock) {
-            immutableMemtables.removeLast();
+        var sortedRun = SSTable.sortedRun(dataDir, task.targetFileSize(), tableOptions.forLevel(task.outputLevel()).rateLimiter(compactionRateLimiter),
+                compactionPool, compactionPool == null ? 1 : maxSubcompactions, dropTombstones, this::discardValue,
+                merge.toArray(SSTable[]::new));
+        // the inputs are deleted once the output is logged, the output must not be lost in a crash
+        try {
+            sortedRun.forEach(SSTable::sync);
+        } catch(RuntimeException e) {
+            sortedRun.forEach(SSTable::closeAndDelete);
+            throw e;
+        }
+
+        synchronized(tableLock) {
+            install(task, sortedRun);
         }
+
+        merge.forEach(SSTable::unref);
+
+        compactionStats.recordCompaction(task.outputLevel(), CompactionStrategy.totalByteSize(task.inputs()),
+                CompactionStrategy.totalByteSize(task.overlapping()), CompactionStrategy.totalByteSize(sortedRun));
     }
 
-    private void levelCompaction() {
+    /**
+     * Report the value of an entry dropped by a compaction as garbage of the value log.
+     */
+    private void discardValue(ByteArrayPair pair) {
+        if(pair.type() == ValueType.VALUE_POINTER) {
+            valueLog.discard(pair.key(), ValuePointer.decode(pair.value()));
+            valueLogGarbage = true;
+        }
+    }
+
+    /**
+     * Collect the value log files holding enough garbage, see {@link ValueLog#collect}.
+     */
+    private void collectValueLog() {
+        boolean collected = true;
+        // the head file is never collected
+        while(collected && valueLog.fileCount() >= 2 && !scheduler.isShutdown()) {
+            long relocated = valueLog.bytesRelocated();
+            collected = valueLog.collect(new ValueLogIndex(), valueLogGcRatio);
+            compactionStats.recordValueRelocation(valueLog.bytesRelocated() - relocated);
+        }
+    }
+
+    /**
+     * Tell whether no table left out of a task may hold older entries of its keys, in which case the
+     * tombstones it merges have nothing left to hide: the levels below its output are empty and, if
+     * it takes tables from level 0, the oldest one is among them. Must be called holding the table lock.
+     * <p>
+     * Open scans are not affected by dropped tombstones, they keep reading the tables they captured.
+     */
+    private boolean isBottommost(CompactionTask task) {
+        // an inserted output level pushes the existing one down
+        int below = task.newOutputLevel() ? task.outputLevel() : task.outputLevel() + 1;
+        for(int level = below; level < levels.size(); level++) {
+            if(!levels.get(level).isEmpty()) {
+                return false;
+            }
+        }
+
+        ObjectArrayList<SSTable> levelZero = levels.get(0);
+        boolean fromLevelZero = task.inputs().stream().anyMatch(levelZero::contains)
+                || task.overlapping().stream().anyMatch(levelZero::contains);
+        if(!fromLevelZero) {
+            return true;
+        }
+        SSTable oldest = levelZero.get(levelZero.size() - 1);
+        return task.inputs().contains(oldest) || task.overlapping().contains(oldest);
+    }
+
+    private void runMove(CompactionTask task) {
         synchronized(tableLock) {
-            int n = levels.size();
+            install(task, task.inputs());
+        }
+        compactionStats.recordTrivialMove(task.outputLevel(), CompactionStrategy.totalByteSize(task.inputs()));
+    }
 
-            int maxLevelSize = maxLevelZeroSstNumber;
-            long sstMaxSize = maxLevelZeroSstByteSize;
+    private void runDelete(CompactionTask task) {
+        VersionEdit edit = new VersionEdit();
+        task.inputs().forEach(edit::deleteTable);
+        synchronized(tableLock) {
+            logAndApply(edit);
+        }
 
-            for(int i = 0; i < n; i++) {
-                ObjectArrayList<SSTable> level = levels.get(i);
+        task.inputs().forEach(SSTable::unref);
 
-                if(levels.size() > maxLevelSize) {
-                    if(i == n - 1) {
-                        levels.add(new ObjectArrayList<>());
-                    }
+        compactionStats.recordDrop(CompactionStrategy.totalByteSize(task.inputs()));
+    }
 
-                    ObjectArrayList<SSTable> nextLevel = levels.get(i + 1);
-                    ObjectArrayList<SSTable> merge = new ObjectArrayList<>();
-                    merge.addAll(level);
-                    merge.addAll(nextLevel);
+    /**
+     * Replace the inputs and overlapping tables of a task by its output, must be called holding the table lock.
+     * <p>
+     * Output to level 0 takes the place of the newest input, so that it stays older than the tables
+     * flushed while the task was running; deeper levels are kept sorted by key.
+     */
+    private void install(CompactionTask task, ObjectArrayList<SSTable> output) {
+        int outputLevel = task.outputLevel();
+        int position = Math.max(levels.get(0).indexOf(task.inputs().get(0)), 0);
 
-                    var sortedRun = SSTable.sortedRun(dataDir, sstMaxSize, merge.toArray(SSTable[]::new));
+        VersionEdit edit = new VersionEdit();
+        task.inputs().forEach(edit::deleteTable);
+        task.overlapping().forEach(edit::deleteTable);
+        if(task.newOutputLevel()) {
+            edit.insertLevel(outputLevel);
+        }
+        for(int i = 0; i < output.size(); i++) {
+            edit.addTable(outputLevel, outputLevel == 0 ? position + i : -1, output.get(i));
+        }
+        logAndApply(edit);
+    }
 
-                    level.forEach(SSTable::closeAndDelete);
-                    level.clear();
-                    nextLevel.forEach(SSTable::closeAndDelete);
-                    nextLevel.clear();
+    /**
+     * Log the edit to the manifest, apply it to the levels and publish their new version to the point
+     * reads, must be called holding the table lock.
+     */
+    private void logAndApply(VersionEdit edit) {
+        manifest.append(edit);
+        edit.apply(levels);
+        Version previous = version;
+        version = new Version(levels);
+        previous.unref();
+    }
 
-                    nextLevel.addAll(sortedRun);
-                }
+    public CompactionStats compactionStats() {
+        return compactionStats;
+    }
+
+    public WriteController writeController() {
+        return writeController;
+    }
+
+    public BackgroundScheduler scheduler() {
+        return scheduler;
+    }
 
-                maxLevelSize = (int)(maxLevelSize * LEVEL_INCR_FACTOR);
-                sstMaxSize = (int) (sstMaxSize * LEVEL_INCR_FACTOR);
+    /**
+     * @return the order of the keys of the tree, the order of its scans.
+     */
+    public KeyComparator comparator() {
+        return comparator;
+    }
+
+    /**
+     * @return the limiter of the flushes, null if they are not limited; its rate may be changed at any time.
+     */
+    public RateLimiter flushRateLimiter() {
+        return flushRateLimiter;
+    }
+
+    /**
+     * @return the limiter of the compactions, null if they are not limited; its rate may be changed at any time.
+     */
+    public RateLimiter compactionRateLimiter() {
+        return compactionRateLimiter;
+    }
+
+    /**
+     * The disk figures count the tables and the value log, the memory ones the memory held by the memtables.
+     */
+    @Override
+    public StorageStats stats() {
+        long memoryBytes = mutableMemtable.memoryUsage();
+        for(ImmutableMemtable immutable : immutableMemtables) {
+            memoryBytes += immutable.memtable().memoryUsage();
+        }
+        long diskBytes = valueLog.byteSize();
+        synchronized(tableLock) {
+            for(ObjectArrayList<SSTable> level : levels) {
+                for(SSTable table : level) {
+                    diskBytes += table.byteSize;
+                }
             }
         }
+        return new StorageStats(StorageEngine.LSM, diskBytes, memoryBytes, bytesWritten.get(), compactionStats.writeAmplification());
+    }
+
+    private Memtable newMemtable() {
+        return new Memtable(memtableRep.create(comparator));
     }
 
     private void checkMemtableSize() {
         if(mutableMemtable.byteSize() <= mutableMemtableMaxSize) {
             return;
         }
+        rotateMemtable(mutableMemtableMaxSize);
+    }
 
-        synchronized(immutableMemtableLock) {
-            immutableMemtables.addFirst(mutableMemtable);
-            mutableMemtable = new Memtable();
+    /**
+     * Freeze the mutable memtable and queue it for flushing if it holds more than {@code maxByteSize} bytes.
+     */
+    private void rotateMemtable(long maxByteSize) {
+        Lock lock = mutableMemtableLock.writeLock();
+        lock.lock();
+        try {
+            // another writer may have rotated while we were waiting for the lock
+            if(mutableMemtable.byteSize() <= maxByteSize) {
+                return;
+            }
+
+            // the writes are held off, the rolled segment holds exactly those of the memtable
+            Long segment = wal != null ? wal.roll() : null;
+            synchronized(immutableMemtableLock) {
+                // published before the new memtable, a point read missing the new one finds the old one
+                pushImmutableMemtable(new ImmutableMemtable(mutableMemtable, segment, System.nanoTime()));
+            }
+            mutableMemtable = newMemtable();
+        } finally {
+            lock.unlock();
         }
+        updateWriteController();
+        scheduler.scheduleFlush();
     }
 
 
@@ -199,37 +891,196 @@ public class LSMTree {
         s.append(mutableMemtable.byteSize() / 1024.0 / 1024.0);
         s.append(" mb\n");
         s.append("\timmutable memtables: ");
-        s.append(immutableMemtables);
+        s.append(immutableMemtables.stream().map(ImmutableMemtable::memtable).toList());
+        if(wal != null) {
+            s.append("\n\twal: ");
+            s.append(wal);
+        }
+        s.append("\n\twrites: ");
+        s.append(writeController);
+        s.append("\n\tbackground: ");
+        s.append(scheduler);
+        if(flushRateLimiter != null) {
+            s.append("\n\tflush rate limit: ");
+            s.append(flushRateLimiter);
+        }
+        if(compactionRateLimiter != null) {
+            s.append("\n\tcompaction rate limit: ");
+            s.append(compactionRateLimiter);
+        }
+        s.append("\n\tvalue log: ");
+        s.append(valueLog);
         s.append("\n\tsst levels:\n");
 
         int i = 0;
         for (var level : levels) {
             s.append(String.format("\t\t- %d: ", i));
             level.stream()
-                    .map(st -> String.format("[ %s, size: %d ] ", st.filename, st.size))
+                    .map(st -> String.format("[ %s, size: %d, bytes: %d ] ", st.filename, st.size, st.byteSize))
                     .forEach(s::append);
+            if(!level.isEmpty()) {
+                s.append("\n\t\t  compression: ");
+                s.append(levelStats(level));
+            }
             s.append("\n");
             i += 1;
         }
 
         s.append("}\n\n");
 
+        s.append("Compactions:\n");
+        s.append(compactionStats);
+        s.append("\n");
+
         s.append("Mutable memtable:\n");
         s.append(mutableMemtable);
         return s.toString();
     }
 
+    /**
+     * @return the compression figures of the tables of a level added up, with the codec of its first table.
+     */
+    private static TableStats levelStats(ObjectArrayList<SSTable> level) {
+        long dataSize = 0;
+        long uncompressedDataSize = 0;
+        long decompressedBlocks = 0;
+        long decompressNanos = 0;
+        for(SSTable table : level) {
+            TableStats stats = table.stats();
+            dataSize += stats.dataSize();
+            uncompressedDataSize += stats.uncompressedDataSize();
+            decompressedBlocks += stats.decompressedBlocks();
+            decompressNanos += stats.decompressNanos();
+        }
+        return new TableStats(level.get(0).stats().compression(), dataSize, uncompressedDataSize, decompressedBlocks, decompressNanos);
+    }
+
+    @Override
     public void clear() {
-        synchronized(tableLock) {
-            levels.forEach(ObjectArrayList::clear);
+        Lock lock = mutableMemtableLock.writeLock();
+        lock.lock();
+        try {
+            VersionEdit edit = new VersionEdit();
+            ObjectImmutableList<ImmutableMemtable> immutables;
+            synchronized(immutableMemtableLock) {
+                immutables = immutableMemtables;
+                immutableMemtables = ObjectImmutableList.of();
+            }
+            if(wal != null) {
+                immutables.forEach(immutable -> wal.release(immutable.segment()));
+                wal.release(wal.roll());
+                edit.logNumber = wal.currentSegment();
+            }
+            // open scans keep reading the old memtable
+            mutableMemtable = newMemtable();
+
+            ObjectArrayList<SSTable> dropped = new ObjectArrayList<>();
+            synchronized(tableLock) {
+                levels.forEach(dropped::addAll);
+                dropped.forEach(edit::deleteTable);
+                logAndApply(edit);
+            }
+            dropped.forEach(SSTable::unref);
+            valueLog.resetGarbage();
+        } finally {
+            lock.unlock();
         }
+        updateWriteController();
+        scheduler.scheduleCollection();
+    }
 
-        synchronized(immutableMemtableLock) {
-            immutableMemtables.clear();
+    /**
+     * A memtable rotated out, waiting for its flush.
+     *
+     * @param segment   log segment holding its writes, released once it is flushed, null without log.
+     * @param rotatedAt time it was rotated at, for the flush latency.
+     */
+    record ImmutableMemtable(Memtable memtable, Long segment, long rotatedAt) {
+    }
+
+    /**
+     * Looks the values of the value log up in the tree for its garbage collection.
+     */
+    private class ValueLogIndex implements ValueLog.Index {
+
+        @Override
+        public boolean isLive(byte[] key, ValuePointer pointer) {
+            ByteArrayPair entry = find(key);
+            return entry != null && entry.type() == ValueType.VALUE_POINTER && ValuePointer.decode(entry.value()).equals(pointer);
         }
 
-        synchronized(mutableMemtableLock) {
-            mutableMemtable.clear();
+        /**
+         * The relocations are applied in chunks of at most a memtable worth of pointers, the memtable
+         * being rotated in between as writes would. Writers are held off while the keys of a chunk are
+         * checked and pointed at their relocated values, logged as one record.
+         * <p>
+         * Every pointer is durable on return, the collected file being deleted next: the log is synced,
+         * or without log the memtables holding them are flushed right away, the old pointers being all
+         * that would survive a crash otherwise.
+         */
+        @Override
+        public List<ValueLog.Relocation> relocate(List<ValueLog.Relocation> relocations) {
+            ObjectArrayList<ValueLog.Relocation> skipped = new ObjectArrayList<>();
+            int next = 0;
+            while(next < relocations.size()) {
+                next = relocate(relocations, next, skipped);
+                checkMemtableSize();
+            }
+
+            if(wal != null) {
+                wal.sync();
+            } else {
+                rotateMemtable(0);
+                boolean pending = true;
+                while(pending) {
+                    flushMemtable();
+                    pending = !immutableMemtables.isEmpty();
+                }
+            }
+            return skipped;
+        }
+
+        /**
+         * Point the keys of the relocations from {@code from} at their relocated values, up to a
+         * memtable worth of pointers.
+         *
+         * @return the index of the first relocation left.
+         */
+        private int relocate(List<ValueLog.Relocation> relocations, int from, List<ValueLog.Relocation> skipped) {
+            ObjectArrayList<ByteArrayPair> pointers = new ObjectArrayList<>();
+            long bytes = 0;
+            int next = from;
+
+            Lock lock = mutableMemtableLock.writeLock();
+            lock.lock();
+            try {
+                for(; next < relocations.size() && bytes < mutableMemtableMaxSize; next++) {
+                    ValueLog.Relocation relocation = relocations.get(next);
+                    if(isLive(relocation.key(), relocation.from())) {
+                        ByteArrayPair pointer = new ByteArrayPair(relocation.key(), relocation.to().encode(), ValueType.VALUE_POINTER);
+                        pointers.add(pointer);
+                        bytes += pointer.size();
+                    } else {
+                        skipped.add(relocation);
+                    }
+                }
+                if(!pointers.isEmpty()) {
+                    long sequence;
+                    if(wal != null) {
+                        ObjectArrayList<WALEntry> entries = new ObjectArrayList<>(pointers.size());
+                        pointers.forEach(pair -> entries.add(new WALEntry(-1, OperationType.PUT_VALUE_POINTER, pair.key(), pair.value())));
+                        sequence = wal.append(entries);
+                    } else {
+                        sequence = LSMTree.this.sequence.addAndGet(pointers.size()) - pointers.size() + 1;
+                    }
+                    for(ByteArrayPair pair : pointers) {
+                        mutableMemtable.put(pair, sequence++);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+            return next;
         }
     }
 }
@@ -0,0 +1,272 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import com.kvstore.core.iterator.CloseableIterator;
+import com.kvstore.core.storage.LSMTree.bloom.PrefixExtractor;
+import com.kvstore.core.model.KVEntry;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.memtable.Memtable;
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+import com.kvstore.core.storage.LSMTree.utils.IteratorMerger;
+import com.kvstore.core.storage.LSMTree.utils.UniqueSortedIterator;
+import com.kvstore.core.storage.LSMTree.vlog.ValueLog;
+import com.kvstore.core.storage.LSMTree.vlog.ValuePointer;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+
+/**
+ * Iterator over a snapshot of an {@link LSMTree}, opened by {@link LSMTree#scan(ScanOptions)}.
+ * <p>
+ * The memtables and tables captured by the scan are merged newest first, so that the newest
+ * version of a key wins, and deleted keys are skipped. Memtables are read as of the sequence
+ * number of the snapshot, and the captured tables are referenced until the iterator is closed,
+ * so that writes and compactions running meanwhile change nothing to what it returns. Values
+ * separated from their keys are read from the value log files referenced along with the tables.
+ * <p>
+ * Only the sources whose key range intersects the range being read are opened, each one with its
+ * own cursor seeked to the start of the range. Prefix scans also leave out the tables whose prefix
+ * filter tells they hold no key with the prefix.
+ */
+public class LSMTreeIterator implements CloseableIterator<KVEntry> {
+
+    private final ObjectArrayList<Memtable> memtables;
+    private final ObjectArrayList<SSTable> tables;
+    /**
+     * Tables that may hold keys of the scan, all of them but those ruled out by their prefix filter.
+     */
+    private final ObjectArrayList<SSTable> candidates;
+    private final ValueLog.Reader values;
+    private final KeyComparator comparator;
+    private final long snapshot;
+    private final boolean reverse;
+    /**
+     * Disjoint key ranges {from, to} to read, in iteration order.
+     */
+    private final ObjectArrayList<byte[][]> ranges;
+
+    private int range;
+    private final ObjectArrayList<Iterator<ByteArrayPair>> sources;
+    private Iterator<ByteArrayPair> current;
+    private KVEntry next;
+    /**
+     * False until the first read or seek, which open the sources.
+     */
+    private boolean positioned;
+    private boolean closed;
+    private int tablesRead;
+
+    /**
+     * @param memtables  memtables of the snapshot, newest first.
+     * @param tables     tables of the snapshot, newest first, already referenced for the iterator.
+     * @param values     reader of the value log files of the snapshot, closed with the iterator.
+     * @param snapshot   sequence number of the last write visible in the memtables.
+     * @param comparator order of the keys of the tree.
+     * @param extractor  prefix extractor of the tree, null if none.
+     */
+    LSMTreeIterator(ObjectArrayList<Memtable> memtables, ObjectArrayList<SSTable> tables, ValueLog.Reader values,
+                    long snapshot, ScanOptions options, KeyComparator comparator, PrefixExtractor extractor) {
+        this.memtables = memtables;
+        this.comparator = comparator;
+        this.tables = tables;
+        this.values = values;
+        if(options.prefix != null && extractor != null) {
+            this.candidates = new ObjectArrayList<>();
+            for(SSTable table : tables) {
+                if(table.mightContainPrefix(options.prefix, extractor)) {
+                    candidates.add(table);
+                }
+            }
+        } else {
+            this.candidates = tables;
+        }
+        this.snapshot = snapshot;
+        this.reverse = options.reverse;
+        this.ranges = ranges(options);
+        this.sources = new ObjectArrayList<>();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(!positioned) {
+            positioned = true;
+            open(0, null);
+            advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public KVEntry next() {
+        if(!hasNext()) {
+            return null;
+        }
+        KVEntry entry = next;
+        advance();
+        return entry;
+    }
+
+    /**
+     * Move to the first key not before the target in the iteration order: the first key greater or
+     * equal to it, or the last key lower or equal to it when iterating in reverse. The range of the
+     * scan is kept, the target may be before or after the current position.
+     */
+    public void seek(byte[] target) {
+        int index = 0;
+        while(index < ranges.size() && !reaches(ranges.get(index), target)) {
+            index++;
+        }
+        positioned = true;
+        open(index, target);
+        advance();
+    }
+
+    /**
+     * @return the number of table cursors opened so far, a table being read once per range and seek.
+     */
+    public int tablesRead() {
+        return tablesRead;
+    }
+
+    @Override
+    public void close() {
+        if(closed) {
+            return;
+        }
+        closed = true;
+        closeSources();
+        current = null;
+        next = null;
+        tables.forEach(SSTable::unref);
+        values.close();
+    }
+
+    /**
+     * @return true if the range holds keys at or after the target in the iteration order.
+     */
+    private boolean reaches(byte[][] bounds, byte[] target) {
+        if(reverse) {
+            return bounds[0] == null || comparator.compare(bounds[0], target) <= 0;
+        }
+        return bounds[1] == null || comparator.compare(target, bounds[1]) < 0;
+    }
+
+    private void advance() {
+        next = null;
+        while(current != null) {
+            while(current.hasNext()) {
+                ByteArrayPair pair = current.next();
+                if(!pair.isTombstone()) {
+                    byte[] value = pair.type() == ValueType.VALUE_POINTER
+                            ? values.read(ValuePointer.decode(pair.value()))
+                            : pair.value();
+                    next = new KVEntry(pair.key(), value);
+                    return;
+                }
+            }
+            open(range + 1, null);
+        }
+    }
+
+    /**
+     * Open the sources of a range, starting at the target if any.
+     */
+    private void open(int index, byte[] target) {
+        closeSources();
+        range = index;
+        current = null;
+        if(closed || index >= ranges.size()) {
+            return;
+        }
+
+        byte[] from = ranges.get(index)[0];
+        byte[] to = ranges.get(index)[1];
+        if(target != null && !reverse && (from == null || comparator.compare(target, from) > 0)) {
+            from = target;
+        }
+        if(target != null && reverse) {
+            byte[] bound = comparator.successor(target);
+            if(to == null || comparator.compare(bound, to) < 0) {
+                to = bound;
+            }
+        }
+
+        for(Memtable memtable : memtables) {
+            sources.add(memtable.iterator(from, to, snapshot, reverse));
+        }
+        for(SSTable table : candidates) {
+            if(to != null && comparator.compare(table.minKey(), to) >= 0
+                    || from != null && comparator.compare(table.maxKey(), from) < 0) {
+                continue;
+            }
+            sources.add(reverse ? table.reverseIterator(from, to) : table.iterator(from, to));
+            tablesRead++;
+        }
+
+        @SuppressWarnings("unchecked")
+        Iterator<ByteArrayPair>[] itArray = sources.toArray(Iterator[]::new);
+        Comparator<ByteArrayPair> order = Comparator.comparing(ByteArrayPair::key, comparator);
+        if(reverse) {
+            order = order.reversed();
+        }
+        current = new UniqueSortedIterator<>(new IteratorMerger<>(order, itArray));
+    }
+
+    private void closeSources() {
+        for(Iterator<ByteArrayPair> source : sources) {
+            if(source instanceof CloseableIterator<?> closeable) {
+                try {
+                    closeable.close();
+                } catch(IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        sources.clear();
+    }
+
+    /**
+     * Split the scan in the ranges to read: the range of the options, or with a prefix, the ranges
+     * of the comparator holding the keys starting with the prefix, clipped to the range of the options.
+     */
+    private ObjectArrayList<byte[][]> ranges(ScanOptions options) {
+        ObjectArrayList<byte[][]> result = new ObjectArrayList<>();
+        if(options.prefix == null) {
+            result.add(new byte[][]{options.from, options.to});
+        } else {
+            int maxKeyLength = -1;
+            for(Memtable memtable : memtables) {
+                byte[] lastKey = memtable.lastKey();
+                if(lastKey != null) {
+                    maxKeyLength = Math.max(maxKeyLength, lastKey.length);
+                }
+            }
+            for(SSTable table : candidates) {
+                maxKeyLength = Math.max(maxKeyLength, table.maxKey().length);
+            }
+
+            for(byte[][] range : comparator.prefixRanges(options.prefix, maxKeyLength)) {
+                byte[] from = range[0];
+                byte[] to = range[1];
+                if(options.from != null && (from == null || comparator.compare(options.from, from) > 0)) {
+                    from = options.from;
+                }
+                if(options.to != null && (to == null || comparator.compare(options.to, to) < 0)) {
+                    to = options.to;
+                }
+                if(from == null || to == null || comparator.compare(from, to) < 0) {
+                    result.add(new byte[][]{from, to});
+                }
+            }
+        }
+
+        if(options.reverse) {
+            Collections.reverse(result);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,381 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import com.kvstore.core.cache.wal.WALSyncMode;
+import com.kvstore.core.storage.LSMTree.compaction.CompactionStrategy;
+import com.kvstore.core.storage.LSMTree.compaction.FifoCompactionStrategy;
+import com.kvstore.core.storage.LSMTree.compaction.LeveledCompactionStrategy;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.io.RateLimiter;
+import com.kvstore.core.storage.LSMTree.memtable.ConcurrentSkipList;
+import com.kvstore.core.storage.LSMTree.memtable.MemtableRep;
+import com.kvstore.core.storage.LSMTree.sstable.TableOptions;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Settings of an {@link LSMTree} instance.
+ */
+public class LSMTreeOptions {
+
+    long memtableMaxByteSize = LSMTree.DEFAULT_MEMTABLE_MAX_BYTE_SIZE;
+    MemtableRep.Factory memtableRep = ConcurrentSkipList::new;
+    KeyComparator comparator = KeyComparators.LEXICOGRAPHIC;
+    int maxLevelZeroSstNumber = LSMTree.DEFAULT_LEVEL_ZERO_MAX_SIZE;
+    String dataDir = LSMTree.DEFAULT_DATA_DIRECTORY;
+    TableOptions tableOptions = TableOptions.defaults();
+    CompactionStrategy.Factory compactionStrategy = LeveledCompactionStrategy::new;
+    long fifoMaxTableFilesSize = FifoCompactionStrategy.DEFAULT_MAX_TABLE_FILES_SIZE;
+    long fifoTtlMillis;
+    int maxBackgroundCompactions = 1;
+    int maxSubcompactions = 1;
+    ForkJoinPool compactionPool;
+    RateLimiter flushRateLimiter;
+    RateLimiter compactionRateLimiter;
+    boolean walEnabled = true;
+    WALSyncMode walSyncMode = WALSyncMode.NONE;
+    long walSyncIntervalMillis = 1000;
+    int walRecycledSegments = 2;
+    int valueSeparationThreshold;
+    long valueLogFileSize = 1024 * 1024 * 64;
+    double valueLogGcRatio = 0.5;
+    int maxImmutableMemtables = 4;
+    int levelZeroSlowdownTrigger = 20;
+    int levelZeroStopTrigger = 36;
+    long softPendingCompactionBytesLimit = 64L * 1024 * 1024 * 1024;
+    long hardPendingCompactionBytesLimit = 256L * 1024 * 1024 * 1024;
+    long delayedWriteRate = 16 * 1024 * 1024;
+
+    public static LSMTreeOptions defaults() {
+        return new LSMTreeOptions();
+    }
+
+    public long memtableMaxByteSize() {
+        return memtableMaxByteSize;
+    }
+
+    /**
+     * Size above which the mutable memtable is frozen and queued for flushing.
+     */
+    public LSMTreeOptions memtableMaxByteSize(long memtableMaxByteSize) {
+        this.memtableMaxByteSize = memtableMaxByteSize;
+        return this;
+    }
+
+    public MemtableRep.Factory memtableRep() {
+        return memtableRep;
+    }
+
+    /**
+     * Representation of the memtables, a skip list of heap objects by default. An
+     * {@link com.kvstore.core.storage.LSMTree.memtable.ArenaSkipList arena skip list} keeps the
+     * entries in a few large segments, e.g. {@code ArenaSkipList.factory(4 << 20, true)} off heap.
+     */
+    public LSMTreeOptions memtableRep(MemtableRep.Factory memtableRep) {
+        this.memtableRep = memtableRep;
+        return this;
+    }
+
+    public KeyComparator comparator() {
+        return comparator;
+    }
+
+    /**
+     * Order of the keys of a new tree, unsigned lexicographic by default, set on its table options.
+     * An existing tree keeps the order recorded in its manifest, length-first for the trees created
+     * before it was recorded; a custom comparator must be given again to reopen the tree it ordered.
+     */
+    public LSMTreeOptions comparator(KeyComparator comparator) {
+        this.comparator = comparator;
+        return this;
+    }
+
+    public int maxLevelZeroSstNumber() {
+        return maxLevelZeroSstNumber;
+    }
+
+    /**
+     * Number of flushed tables level 0 may hold before strategies start compacting it.
+     */
+    public LSMTreeOptions maxLevelZeroSstNumber(int maxLevelZeroSstNumber) {
+        this.maxLevelZeroSstNumber = maxLevelZeroSstNumber;
+        return this;
+    }
+
+    public String dataDir() {
+        return dataDir;
+    }
+
+    public LSMTreeOptions dataDir(String dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public TableOptions tableOptions() {
+        return tableOptions;
+    }
+
+    public LSMTreeOptions tableOptions(TableOptions tableOptions) {
+        this.tableOptions = tableOptions;
+        return this;
+    }
+
+    public CompactionStrategy.Factory compactionStrategy() {
+        return compactionStrategy;
+    }
+
+    /**
+     * Policy deciding when and how tables are compacted, leveled by default.
+     * The factory is called once per tree, e.g. {@code FifoCompactionStrategy::new}.
+     */
+    public LSMTreeOptions compactionStrategy(CompactionStrategy.Factory compactionStrategy) {
+        this.compactionStrategy = compactionStrategy;
+        return this;
+    }
+
+    public long fifoMaxTableFilesSize() {
+        return fifoMaxTableFilesSize;
+    }
+
+    /**
+     * Total size of the tables above which a {@link FifoCompactionStrategy} drops the oldest ones, 1 gb by default.
+     */
+    public LSMTreeOptions fifoMaxTableFilesSize(long fifoMaxTableFilesSize) {
+        this.fifoMaxTableFilesSize = fifoMaxTableFilesSize;
+        return this;
+    }
+
+    public long fifoTtlMillis() {
+        return fifoTtlMillis;
+    }
+
+    /**
+     * Age after which a {@link FifoCompactionStrategy} drops a table, 0 by default to keep tables regardless of age.
+     */
+    public LSMTreeOptions fifoTtlMillis(long fifoTtlMillis) {
+        this.fifoTtlMillis = fifoTtlMillis;
+        return this;
+    }
+
+    public int maxBackgroundCompactions() {
+        return maxBackgroundCompactions;
+    }
+
+    /**
+     * Number of compactions running at the same time on their own threads, each one on tables none of
+     * the others touches. Only strategies supporting concurrent compactions run more than one.
+     */
+    public LSMTreeOptions maxBackgroundCompactions(int maxBackgroundCompactions) {
+        this.maxBackgroundCompactions = maxBackgroundCompactions;
+        return this;
+    }
+
+    public int maxSubcompactions() {
+        return maxSubcompactions;
+    }
+
+    /**
+     * Number of disjoint key ranges a compaction is split in, each one merged in parallel into its
+     * own tables. 1 merges every compaction on the compaction thread.
+     */
+    public LSMTreeOptions maxSubcompactions(int maxSubcompactions) {
+        this.maxSubcompactions = maxSubcompactions;
+        return this;
+    }
+
+    public ForkJoinPool compactionPool() {
+        return compactionPool;
+    }
+
+    /**
+     * Pool running the subcompactions, may be shared by several trees and is not shut down with them.
+     * When null, a tree splitting compactions creates its own pool of maxSubcompactions threads.
+     */
+    public LSMTreeOptions compactionPool(ForkJoinPool compactionPool) {
+        this.compactionPool = compactionPool;
+        return this;
+    }
+
+    public RateLimiter flushRateLimiter() {
+        return flushRateLimiter;
+    }
+
+    /**
+     * Limiter the bytes written by flushes are requested from, null for none. Throttling flushes
+     * piles memtables up, which stalls the writes past {@link #maxImmutableMemtables(int)}.
+     */
+    public LSMTreeOptions flushRateLimiter(RateLimiter flushRateLimiter) {
+        this.flushRateLimiter = flushRateLimiter;
+        return this;
+    }
+
+    public RateLimiter compactionRateLimiter() {
+        return compactionRateLimiter;
+    }
+
+    /**
+     * Limiter the bytes read and written by compactions are requested from, null for none. The tree
+     * feeds the latency of its point reads to an {@link RateLimiter#autoTuned auto-tuned} one.
+     */
+    public LSMTreeOptions compactionRateLimiter(RateLimiter compactionRateLimiter) {
+        this.compactionRateLimiter = compactionRateLimiter;
+        return this;
+    }
+
+    public boolean walEnabled() {
+        return walEnabled;
+    }
+
+    /**
+     * Log writes ahead of the memtable so that they survive a crash, replaying the log when the tree is reopened.
+     */
+    public LSMTreeOptions walEnabled(boolean walEnabled) {
+        this.walEnabled = walEnabled;
+        return this;
+    }
+
+    public WALSyncMode walSyncMode() {
+        return walSyncMode;
+    }
+
+    public LSMTreeOptions walSyncMode(WALSyncMode walSyncMode) {
+        this.walSyncMode = walSyncMode;
+        return this;
+    }
+
+    public long walSyncIntervalMillis() {
+        return walSyncIntervalMillis;
+    }
+
+    /**
+     * Interval of the background syncs of the {@link WALSyncMode#PERIODIC} mode.
+     */
+    public LSMTreeOptions walSyncIntervalMillis(long walSyncIntervalMillis) {
+        this.walSyncIntervalMillis = walSyncIntervalMillis;
+        return this;
+    }
+
+    public int walRecycledSegments() {
+        return walRecycledSegments;
+    }
+
+    /**
+     * Number of log segment files of flushed memtables kept for reuse instead of being deleted.
+     */
+    public LSMTreeOptions walRecycledSegments(int walRecycledSegments) {
+        this.walRecycledSegments = walRecycledSegments;
+        return this;
+    }
+
+    public int valueSeparationThreshold() {
+        return valueSeparationThreshold;
+    }
+
+    /**
+     * Size from which values are moved to the value log when their memtable is flushed, the tables
+     * only storing a pointer to them. 0 disables key-value separation, which requires block-based tables.
+     */
+    public LSMTreeOptions valueSeparationThreshold(int valueSeparationThreshold) {
+        this.valueSeparationThreshold = valueSeparationThreshold;
+        return this;
+    }
+
+    public long valueLogFileSize() {
+        return valueLogFileSize;
+    }
+
+    /**
+     * Size above which the head file of the value log is rolled.
+     */
+    public LSMTreeOptions valueLogFileSize(long valueLogFileSize) {
+        this.valueLogFileSize = valueLogFileSize;
+        return this;
+    }
+
+    public double valueLogGcRatio() {
+        return valueLogGcRatio;
+    }
+
+    /**
+     * Share of garbage from which a value log file is collected, its live values being rewritten.
+     */
+    public LSMTreeOptions valueLogGcRatio(double valueLogGcRatio) {
+        this.valueLogGcRatio = valueLogGcRatio;
+        return this;
+    }
+
+    public int maxImmutableMemtables() {
+        return maxImmutableMemtables;
+    }
+
+    /**
+     * Number of immutable memtables waiting for their flush from which writes stop until one is
+     * flushed, writes being delayed from one less when it is at least 2. 0 for no limit.
+     */
+    public LSMTreeOptions maxImmutableMemtables(int maxImmutableMemtables) {
+        this.maxImmutableMemtables = maxImmutableMemtables;
+        return this;
+    }
+
+    public int levelZeroSlowdownTrigger() {
+        return levelZeroSlowdownTrigger;
+    }
+
+    /**
+     * Number of level 0 tables from which writes are delayed, 0 to never delay them for level 0.
+     */
+    public LSMTreeOptions levelZeroSlowdownTrigger(int levelZeroSlowdownTrigger) {
+        this.levelZeroSlowdownTrigger = levelZeroSlowdownTrigger;
+        return this;
+    }
+
+    public int levelZeroStopTrigger() {
+        return levelZeroStopTrigger;
+    }
+
+    /**
+     * Number of level 0 tables from which writes stop until compactions bring it back below, 0 to
+     * never stop them for level 0.
+     */
+    public LSMTreeOptions levelZeroStopTrigger(int levelZeroStopTrigger) {
+        this.levelZeroStopTrigger = levelZeroStopTrigger;
+        return this;
+    }
+
+    public long softPendingCompactionBytesLimit() {
+        return softPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Bytes the compaction strategy estimates it has to rewrite from which writes are delayed, 0 for no limit.
+     */
+    public LSMTreeOptions softPendingCompactionBytesLimit(long softPendingCompactionBytesLimit) {
+        this.softPendingCompactionBytesLimit = softPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long hardPendingCompactionBytesLimit() {
+        return hardPendingCompactionBytesLimit;
+    }
+
+    /**
+     * Bytes the compaction strategy estimates it has to rewrite from which writes stop, 0 for no limit.
+     */
+    public LSMTreeOptions hardPendingCompactionBytesLimit(long hardPendingCompactionBytesLimit) {
+        this.hardPendingCompactionBytesLimit = hardPendingCompactionBytesLimit;
+        return this;
+    }
+
+    public long delayedWriteRate() {
+        return delayedWriteRate;
+    }
+
+    /**
+     * Bytes per second delayed writes are let through at when a slowdown starts, the rate going down
+     * to a tenth of it as the tree gets closer to a stop.
+     */
+    public LSMTreeOptions delayedWriteRate(long delayedWriteRate) {
+        this.delayedWriteRate = delayedWriteRate;
+        return this;
+    }
+}
@@ -0,0 +1,210 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.sstable.TableOptions;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * Log of the {@link VersionEdit}s of a tree, from which its levels are rebuilt on restart without
+ * reading any table.
+ * <p>
+ * The log lives in a {@code MANIFEST-n} file named by the {@code CURRENT} file. Every time the tree
+ * is opened, the replayed state is written as a single edit to a new manifest, which then becomes
+ * current, so the log never grows beyond the edits of one run. Each record is framed as
+ * {@code checksum (4) | length (4) | edit}, a torn record at the end of the log is ignored.
+ * <p>
+ * The first record of a manifest only holds the name of the key comparator of the tree, so that
+ * the tables of the next records are opened and sorted in their order. A manifest starting without
+ * one belongs to a tree written in length-first order before the order was recorded.
+ */
+class Manifest implements Closeable {
+
+    static final String CURRENT_FILE = "CURRENT";
+    static final String MANIFEST_PREFIX = "MANIFEST-";
+
+    private static final int HEADER_SIZE = Integer.BYTES * 2;
+
+    private final Path directory;
+    private final String dataDir;
+    private FileChannel channel;
+    private long number;
+
+    /**
+     * True when the directory had a manifest to recover from.
+     */
+    boolean recovered;
+    long logNumber;
+    long nextFileNumber;
+    long lastSequence = -1;
+    /**
+     * Order of the keys of the tree: the recorded one, or the one of the options for a new tree.
+     */
+    KeyComparator comparator;
+
+    Manifest(String dataDir) {
+        this.dataDir = dataDir;
+        this.directory = Path.of(dataDir);
+    }
+
+    /**
+     * Replay the current manifest, if any, and start a new one holding the recovered state.
+     *
+     * @param options options to open the tables with, whose comparator is the one of a new tree.
+     * @return the recovered levels, at least level 0.
+     */
+    ObjectArrayList<ObjectArrayList<SSTable>> recover(TableOptions options) {
+        ObjectArrayList<ObjectArrayList<SSTable>> levels = new ObjectArrayList<>();
+        levels.add(new ObjectArrayList<>());
+        comparator = options.comparator();
+
+        Path current = directory.resolve(CURRENT_FILE);
+        Path previous = null;
+        try {
+            if(Files.exists(current)) {
+                String name = Files.readString(current, StandardCharsets.UTF_8).trim();
+                number = Long.parseLong(name.substring(MANIFEST_PREFIX.length()));
+                previous = directory.resolve(name);
+                recovered = true;
+                comparator = KeyComparators.LENGTH_FIRST;
+                replay(ByteBuffer.wrap(Files.readAllBytes(previous)), levels, options);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read the manifest", e);
+        }
+
+        VersionEdit snapshot = new VersionEdit();
+        for(int level = 0; level < levels.size(); level++) {
+            for(int i = 0; i < levels.get(level).size(); i++) {
+                snapshot.addTable(level, level == 0 ? i : -1, levels.get(level).get(i));
+            }
+        }
+        snapshot.logNumber = logNumber;
+        snapshot.nextFileNumber = nextFileNumber;
+        snapshot.lastSequence = lastSequence;
+
+        number++;
+        Path next = directory.resolve(MANIFEST_PREFIX + number);
+        try {
+            channel = FileChannel.open(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            VersionEdit order = new VersionEdit();
+            order.comparator = comparator.name();
+            write(order);
+            write(snapshot);
+
+            Path tmp = directory.resolve(CURRENT_FILE + ".tmp");
+            Files.writeString(tmp, MANIFEST_PREFIX + number + "\n", StandardCharsets.UTF_8);
+            try(FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                tmpChannel.force(true);
+            }
+            Files.move(tmp, current, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            // the rename must be durable before the manifest it replaced is gone
+            syncDirectory();
+
+            if(previous != null) {
+                Files.deleteIfExists(previous);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not create the manifest", e);
+        }
+        return levels;
+    }
+
+    /**
+     * Durably log an edit. Its counters not set yet are filled with the current values. The files
+     * of the tables it adds must have been synced, see {@link SSTable#sync()}.
+     */
+    void append(VersionEdit edit) {
+        if(edit.logNumber >= 0) {
+            logNumber = edit.logNumber;
+        }
+        edit.nextFileNumber = nextFileNumber = Math.max(nextFileNumber, SSTable.nextFileNumber());
+        if(edit.lastSequence >= 0) {
+            lastSequence = edit.lastSequence;
+        }
+        if(edit.addsTables()) {
+            // the entries of the new table files, whose contents the caller synced
+            syncDirectory();
+        }
+        write(edit);
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void replay(ByteBuffer in, ObjectArrayList<ObjectArrayList<SSTable>> levels, TableOptions options) {
+        TableOptions tableOptions = options.copy().comparator(comparator);
+        while(in.remaining() >= HEADER_SIZE) {
+            int checksum = in.getInt(in.position());
+            int length = in.getInt(in.position() + Integer.BYTES);
+            if(length < 0 || length > in.remaining() - HEADER_SIZE) {
+                return;
+            }
+
+            ByteBuffer payload = in.duplicate().position(in.position() + HEADER_SIZE);
+            payload.limit(payload.position() + length);
+            CRC32C crc = new CRC32C();
+            crc.update(payload.duplicate());
+            if((int) crc.getValue() != checksum) {
+                return;
+            }
+            in.position(payload.limit());
+
+            VersionEdit edit = VersionEdit.decode(payload, dataDir, tableOptions);
+            if(edit.comparator != null) {
+                comparator = KeyComparators.resolve(edit.comparator, options.comparator());
+                tableOptions = options.copy().comparator(comparator);
+            }
+            edit.apply(levels);
+            logNumber = Math.max(logNumber, edit.logNumber);
+            nextFileNumber = Math.max(nextFileNumber, edit.nextFileNumber);
+            lastSequence = Math.max(lastSequence, edit.lastSequence);
+        }
+    }
+
+    /**
+     * Force the entries of the data directory, i.e. the files created, renamed or deleted in it.
+     */
+    private void syncDirectory() {
+        try(FileChannel directoryChannel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not sync the data directory", e);
+        }
+    }
+
+    private void write(VersionEdit edit) {
+        byte[] payload = edit.encode();
+        CRC32C crc = new CRC32C();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt((int) crc.getValue()).putInt(payload.length).put(payload).flip();
+        try {
+            while(record.hasRemaining()) {
+                channel.write(record);
+            }
+            channel.force(false);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write to the manifest", e);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+/**
+ * Key range and direction of a {@link LSMTree#scan(ScanOptions)}, every key in increasing order by default.
+ */
+public class ScanOptions {
+
+    byte[] from;
+    byte[] to;
+    byte[] prefix;
+    boolean reverse;
+
+    public static ScanOptions defaults() {
+        return new ScanOptions();
+    }
+
+    public byte[] from() {
+        return from;
+    }
+
+    /**
+     * First key of the range, inclusive, null for no lower bound.
+     */
+    public ScanOptions from(byte[] from) {
+        this.from = from;
+        return this;
+    }
+
+    public byte[] to() {
+        return to;
+    }
+
+    /**
+     * Last key of the range, exclusive, null for no upper bound.
+     */
+    public ScanOptions to(byte[] to) {
+        this.to = to;
+        return this;
+    }
+
+    public byte[] prefix() {
+        return prefix;
+    }
+
+    /**
+     * Only return the keys starting with these bytes, within the range if one is set as well.
+     * In lexicographic order the matching keys form a single range; in the length-first order of
+     * older trees they are not contiguous, and the scan reads one range per key length, up to the
+     * longest key of the tree.
+     */
+    public ScanOptions prefix(byte[] prefix) {
+        this.prefix = prefix;
+        return this;
+    }
+
+    public boolean reverse() {
+        return reverse;
+    }
+
+    /**
+     * Iterate in decreasing key order.
+     */
+    public ScanOptions reverse(boolean reverse) {
+        this.reverse = reverse;
+        return this;
+    }
+}
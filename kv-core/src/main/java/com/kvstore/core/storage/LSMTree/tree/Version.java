@@ -0,0 +1,57 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Immutable list of the tables of a tree at one point, in lookup order: level 0 from the newest
+ * table, then the deeper levels. The point reads search the current version without taking the
+ * table lock, so they neither serialize nor wait for the manifest writes of flushes and compactions.
+ * <p>
+ * A version references its tables, which stay readable until it is released: the tree holds a
+ * reference on its current version until the next one replaces it, and each reader one while it
+ * searches it.
+ */
+final class Version {
+
+    final SSTable[] tables;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    Version(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        ObjectArrayList<SSTable> all = new ObjectArrayList<>();
+        levels.forEach(all::addAll);
+        tables = all.toArray(SSTable[]::new);
+        for(SSTable table : tables) {
+            table.ref();
+        }
+    }
+
+    /**
+     * Take a reference on the version, unless its last one was already dropped.
+     *
+     * @return false if the version was released, a newer one being current.
+     */
+    boolean tryRef() {
+        int count;
+        do {
+            count = refs.get();
+            if(count == 0) {
+                return false;
+            }
+        } while(!refs.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    /**
+     * Drop a reference, the last one releasing the tables.
+     */
+    void unref() {
+        if(refs.decrementAndGet() == 0) {
+            for(SSTable table : tables) {
+                table.unref();
+            }
+        }
+    }
+}
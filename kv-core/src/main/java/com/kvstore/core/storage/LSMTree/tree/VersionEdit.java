@@ -0,0 +1,236 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import com.kvstore.core.storage.LSMTree.io.VByte;
+import com.kvstore.core.storage.LSMTree.sstable.SSTable;
+import com.kvstore.core.storage.LSMTree.sstable.TableOptions;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * A change of the set of tables of the tree, as logged in the {@link Manifest}.
+ * <p>
+ * Table changes are applied in the order they were recorded, so replaying the edits of the
+ * manifest rebuilds every level exactly, including the order of the tables of level 0. The edit
+ * also carries the counters that must survive a restart, each one only when it is set.
+ * <p>
+ * Encoding, every field prefixed by its tag:
+ * <pre>
+ *     COMPARATOR       | name length (vbyte) | name, alone in the first record of a manifest
+ *     LOG_NUMBER       | segment (vbyte)
+ *     NEXT_FILE_NUMBER | file number (vbyte)
+ *     LAST_SEQUENCE    | sequence number (vbyte)
+ *     INSERT_LEVEL     | level (vbyte)
+ *     ADD_TABLE        | level (vbyte) | position + 1 (vbyte) | file number (vbyte) | entries (vbyte) | bytes (vbyte)
+ *                      | creation time (vbyte) | min key length (vbyte) | min key | max key length (vbyte) | max key
+ *     DELETE_TABLE     | file number (vbyte)
+ *     TABLE_TOMBSTONES | file number (vbyte) | tombstones (vbyte), follows the ADD_TABLE of a table holding tombstones
+ * </pre>
+ */
+class VersionEdit {
+
+    static final int LOG_NUMBER = 1;
+    static final int NEXT_FILE_NUMBER = 2;
+    static final int LAST_SEQUENCE = 3;
+    static final int INSERT_LEVEL = 4;
+    static final int ADD_TABLE = 5;
+    static final int DELETE_TABLE = 6;
+    static final int TABLE_TOMBSTONES = 7;
+    static final int COMPARATOR = 8;
+
+    /**
+     * Log segments numbered below are flushed to tables and need no replay, -1 if unchanged.
+     */
+    long logNumber = -1;
+    long nextFileNumber = -1;
+    long lastSequence = -1;
+    /**
+     * Name of the key comparator of the tree, null if unchanged.
+     */
+    String comparator;
+    final ObjectArrayList<Change> changes = new ObjectArrayList<>();
+
+    /**
+     * @param position index of the table in its level, -1 to keep the level sorted by key.
+     */
+    VersionEdit addTable(int level, int position, SSTable table) {
+        changes.add(new Change(ADD_TABLE, level, position, table, SSTable.fileNumber(table.filename)));
+        return this;
+    }
+
+    VersionEdit deleteTable(SSTable table) {
+        changes.add(new Change(DELETE_TABLE, -1, -1, null, SSTable.fileNumber(table.filename)));
+        return this;
+    }
+
+    /**
+     * Insert an empty level, shifting the deeper ones down by one.
+     */
+    VersionEdit insertLevel(int level) {
+        changes.add(new Change(INSERT_LEVEL, level, -1, null, -1));
+        return this;
+    }
+
+    /**
+     * @return true if the edit adds a table to a level.
+     */
+    boolean addsTables() {
+        for(Change change : changes) {
+            if(change.tag() == ADD_TABLE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    void apply(ObjectArrayList<ObjectArrayList<SSTable>> levels) {
+        for(Change change : changes) {
+            switch(change.tag()) {
+                case INSERT_LEVEL -> {
+                    ensureLevel(levels, change.level() - 1);
+                    levels.add(change.level(), new ObjectArrayList<>());
+                }
+                case ADD_TABLE -> {
+                    ensureLevel(levels, change.level());
+                    ObjectArrayList<SSTable> level = levels.get(change.level());
+                    if(change.position() >= 0) {
+                        level.add(Math.min(change.position(), level.size()), change.table());
+                    } else {
+                        addSorted(level, change.table());
+                    }
+                }
+                case DELETE_TABLE -> {
+                    for(ObjectArrayList<SSTable> level : levels) {
+                        level.removeIf(table -> SSTable.fileNumber(table.filename) == change.fileNumber());
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown version edit change: " + change.tag());
+            }
+        }
+    }
+
+    byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] scratch = new byte[10];
+
+        if(comparator != null) {
+            putVByte(out, scratch, COMPARATOR);
+            putBytes(out, scratch, comparator.getBytes(StandardCharsets.UTF_8));
+        }
+        if(logNumber >= 0) {
+            putVByte(out, scratch, LOG_NUMBER);
+            putVByte(out, scratch, logNumber);
+        }
+        if(nextFileNumber >= 0) {
+            putVByte(out, scratch, NEXT_FILE_NUMBER);
+            putVByte(out, scratch, nextFileNumber);
+        }
+        if(lastSequence >= 0) {
+            putVByte(out, scratch, LAST_SEQUENCE);
+            putVByte(out, scratch, lastSequence);
+        }
+
+        for(Change change : changes) {
+            putVByte(out, scratch, change.tag());
+            switch(change.tag()) {
+                case INSERT_LEVEL -> putVByte(out, scratch, change.level());
+                case ADD_TABLE -> {
+                    SSTable table = change.table();
+                    putVByte(out, scratch, change.level());
+                    putVByte(out, scratch, change.position() + 1);
+                    putVByte(out, scratch, change.fileNumber());
+                    putVByte(out, scratch, table.size);
+                    putVByte(out, scratch, table.byteSize);
+                    putVByte(out, scratch, table.creationTime());
+                    putBytes(out, scratch, table.minKey());
+                    putBytes(out, scratch, table.maxKey());
+                    if(table.tombstones > 0) {
+                        putVByte(out, scratch, TABLE_TOMBSTONES);
+                        putVByte(out, scratch, change.fileNumber());
+                        putVByte(out, scratch, table.tombstones);
+                    }
+                }
+                case DELETE_TABLE -> putVByte(out, scratch, change.fileNumber());
+                default -> throw new IllegalStateException("Unknown version edit change: " + change.tag());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decode an edit, added tables are opened lazily from the data directory.
+     */
+    static VersionEdit decode(ByteBuffer in, String dataDir, TableOptions options) {
+        VersionEdit edit = new VersionEdit();
+        while(in.hasRemaining()) {
+            int tag = (int) VByte.read(in);
+            switch(tag) {
+                case COMPARATOR -> edit.comparator = new String(getBytes(in), StandardCharsets.UTF_8);
+                case LOG_NUMBER -> edit.logNumber = VByte.read(in);
+                case NEXT_FILE_NUMBER -> edit.nextFileNumber = VByte.read(in);
+                case LAST_SEQUENCE -> edit.lastSequence = VByte.read(in);
+                case INSERT_LEVEL -> edit.insertLevel((int) VByte.read(in));
+                case ADD_TABLE -> {
+                    int level = (int) VByte.read(in);
+                    int position = (int) VByte.read(in) - 1;
+                    long fileNumber = VByte.read(in);
+                    int size = (int) VByte.read(in);
+                    long byteSize = VByte.read(in);
+                    long creationTime = VByte.read(in);
+                    byte[] minKey = getBytes(in);
+                    byte[] maxKey = getBytes(in);
+                    edit.addTable(level, position, SSTable.lazy(SSTable.fileName(dataDir, fileNumber), options,
+                            size, 0, byteSize, minKey, maxKey, creationTime));
+                }
+                case TABLE_TOMBSTONES -> {
+                    long fileNumber = VByte.read(in);
+                    int tombstones = (int) VByte.read(in);
+                    for(Change change : edit.changes) {
+                        if(change.tag() == ADD_TABLE && change.fileNumber() == fileNumber) {
+                            change.table().tombstones = tombstones;
+                        }
+                    }
+                }
+                case DELETE_TABLE -> edit.changes.add(new Change(DELETE_TABLE, -1, -1, null, VByte.read(in)));
+                default -> throw new IllegalStateException("Unknown version edit tag: " + tag);
+            }
+        }
+        return edit;
+    }
+
+    /**
+     * Insert a table at its place in a level sorted by key, replaying a manifest adds every table this way.
+     */
+    static void addSorted(ObjectArrayList<SSTable> level, SSTable table) {
+        int position = Collections.binarySearch(level, table, Comparator.comparing(SSTable::minKey, table.comparator()));
+        level.add(position >= 0 ? position + 1 : -position - 1, table);
+    }
+
+    private static void ensureLevel(ObjectArrayList<ObjectArrayList<SSTable>> levels, int level) {
+        while(levels.size() <= level) {
+            levels.add(new ObjectArrayList<>());
+        }
+    }
+
+    private static void putVByte(ByteArrayOutputStream out, byte[] scratch, long n) {
+        out.write(scratch, 0, VByte.write(n, scratch, 0));
+    }
+
+    private static void putBytes(ByteArrayOutputStream out, byte[] scratch, byte[] bytes) {
+        putVByte(out, scratch, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] getBytes(ByteBuffer in) {
+        byte[] bytes = new byte[(int) VByte.read(in)];
+        in.get(bytes);
+        return bytes;
+    }
+
+    record Change(int tag, int level, int position, SSTable table, long fileNumber) {
+    }
+}
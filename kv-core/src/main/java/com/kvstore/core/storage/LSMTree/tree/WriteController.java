@@ -0,0 +1,185 @@
+package com.kvstore.core.storage.LSMTree.tree;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backpressure of the writes of an {@link LSMTree} when flushes or compactions fall behind.
+ * <p>
+ * The tree reports its immutable memtables, level 0 tables and pending compaction bytes whenever
+ * they change. Past a slowdown trigger, writes are delayed so that they go through at the delayed
+ * write rate, lowered down to a tenth of it as the pressure gets closer to the stop trigger; past a
+ * stop trigger, writes wait until the background work brings the tree back below it. A write never
+ * waits holding a lock of the tree.
+ */
+public class WriteController {
+
+    public enum State {
+        NORMAL,
+        DELAYED,
+        STOPPED
+    }
+
+    private static final long STOP_CHECK_MILLIS = 100;
+
+    private final int maxImmutableMemtables;
+    private final int levelZeroSlowdownTrigger;
+    private final int levelZeroStopTrigger;
+    private final long softPendingCompactionBytesLimit;
+    private final long hardPendingCompactionBytesLimit;
+    private final long delayedWriteRate;
+
+    private volatile State state = State.NORMAL;
+    private volatile boolean closed;
+    /**
+     * Bytes per second let through while writes are delayed.
+     */
+    private double rate;
+    /**
+     * Time from which the next delayed write may go through, each one pushing it by its bytes at the rate.
+     */
+    private long nextWriteNanos;
+
+    private final AtomicLong delayedWrites = new AtomicLong();
+    private final AtomicLong delayedNanos = new AtomicLong();
+    private final AtomicLong stoppedWrites = new AtomicLong();
+    private final AtomicLong stoppedNanos = new AtomicLong();
+
+    WriteController(LSMTreeOptions options) {
+        this.maxImmutableMemtables = options.maxImmutableMemtables();
+        this.levelZeroSlowdownTrigger = options.levelZeroSlowdownTrigger();
+        this.levelZeroStopTrigger = options.levelZeroStopTrigger();
+        this.softPendingCompactionBytesLimit = options.softPendingCompactionBytesLimit();
+        this.hardPendingCompactionBytesLimit = options.hardPendingCompactionBytesLimit();
+        this.delayedWriteRate = Math.max(options.delayedWriteRate(), 1);
+    }
+
+    /**
+     * Recompute the state of the writes from the current figures of the tree.
+     */
+    synchronized void update(int immutableMemtables, int levelZeroTables, long pendingCompactionBytes) {
+        State previous = state;
+        if(maxImmutableMemtables > 0 && immutableMemtables >= maxImmutableMemtables
+                || levelZeroStopTrigger > 0 && levelZeroTables >= levelZeroStopTrigger
+                || hardPendingCompactionBytesLimit > 0 && pendingCompactionBytes >= hardPendingCompactionBytesLimit) {
+            state = State.STOPPED;
+        } else {
+            double pressure = -1;
+            if(maxImmutableMemtables > 1 && immutableMemtables >= maxImmutableMemtables - 1) {
+                pressure = 0;
+            }
+            pressure = Math.max(pressure, pressure(levelZeroTables, levelZeroSlowdownTrigger, levelZeroStopTrigger));
+            pressure = Math.max(pressure, pressure(pendingCompactionBytes, softPendingCompactionBytesLimit, hardPendingCompactionBytesLimit));
+            if(pressure >= 0) {
+                rate = delayedWriteRate * (1 - 0.9 * pressure);
+                state = State.DELAYED;
+            } else {
+                state = State.NORMAL;
+            }
+        }
+        if(state != previous) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return how far a figure is from its slowdown trigger to its stop trigger, between 0 and 1,
+     * -1 if it is below the slowdown trigger.
+     */
+    private static double pressure(long value, long slowdown, long stop) {
+        if(slowdown <= 0 || value < slowdown) {
+            return -1;
+        }
+        if(stop <= slowdown) {
+            return 0;
+        }
+        return Math.min((double) (value - slowdown) / (stop - slowdown), 1);
+    }
+
+    /**
+     * Wait as long as the state of the writes requires before writing that many bytes.
+     */
+    void beforeWrite(long bytes) {
+        if(state == State.NORMAL) {
+            return;
+        }
+
+        long begin = System.nanoTime();
+        if(state == State.STOPPED) {
+            synchronized(this) {
+                while(state == State.STOPPED && !closed) {
+                    try {
+                        wait(STOP_CHECK_MILLIS);
+                    } catch(InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+            stoppedWrites.incrementAndGet();
+            stoppedNanos.addAndGet(System.nanoTime() - begin);
+            begin = System.nanoTime();
+        }
+
+        long delay;
+        synchronized(this) {
+            if(state != State.DELAYED) {
+                return;
+            }
+            long now = System.nanoTime();
+            long slot = Math.max(nextWriteNanos, now);
+            nextWriteNanos = slot + (long) (bytes * 1e9 / rate);
+            delay = slot - now;
+        }
+        if(delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        delayedWrites.incrementAndGet();
+        delayedNanos.addAndGet(System.nanoTime() - begin);
+    }
+
+    /**
+     * Let every waiting write through, the tree being stopped.
+     */
+    synchronized void close() {
+        closed = true;
+        state = State.NORMAL;
+        notifyAll();
+    }
+
+    public State state() {
+        return state;
+    }
+
+    /**
+     * @return the number of writes delayed to the delayed write rate.
+     */
+    public long delayedWrites() {
+        return delayedWrites.get();
+    }
+
+    public long delayedNanos() {
+        return delayedNanos.get();
+    }
+
+    /**
+     * @return the number of writes that waited for a stop to end.
+     */
+    public long stoppedWrites() {
+        return stoppedWrites.get();
+    }
+
+    public long stoppedNanos() {
+        return stoppedNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s, %d delayed writes for %.1f s, %d stopped writes for %.1f s",
+                state, delayedWrites(), delayedNanos() / 1e9, stoppedWrites(), stoppedNanos() / 1e9);
+    }
+}
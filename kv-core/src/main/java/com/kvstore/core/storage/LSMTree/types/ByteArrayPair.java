@@ -1,10 +1,27 @@
 package com.kvstore.core.storage.LSMTree.types;
 
-import com.kvstore.core.storage.LSMTree.comparator.ByteArrayComparator;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
 
 import java.util.Arrays;
 
-public record ByteArrayPair(byte[] key, byte[] value) implements Comparable<ByteArrayPair> {
+public record ByteArrayPair(byte[] key, byte[] value, ValueType type) implements Comparable<ByteArrayPair> {
+
+    private static final byte[] EMPTY = new byte[0];
+
+    public ByteArrayPair(byte[] key, byte[] value) {
+        this(key, value, ValueType.PUT);
+    }
+
+    /**
+     * @return a tombstone marking the deletion of the key, with an empty value.
+     */
+    public static ByteArrayPair tombstone(byte[] key) {
+        return new ByteArrayPair(key, EMPTY, ValueType.DELETE);
+    }
+
+    public boolean isTombstone() {
+        return type == ValueType.DELETE;
+    }
 
     public int size() {
         return key.length + value.length;
@@ -15,9 +32,13 @@ public record ByteArrayPair(byte[] key, byte[] value) implements Comparable<Byte
         return Arrays.hashCode(key);
     }
 
+    /**
+     * Order of the keys by the default {@link KeyComparators#LEXICOGRAPHIC} comparator, the data of
+     * a tree is merged in the order of its own comparator.
+     */
     @Override
     public int compareTo(ByteArrayPair obj) {
-        return ByteArrayComparator.compare(key, obj.key);
+        return KeyComparators.LEXICOGRAPHIC.compare(key, obj.key);
     }
 
     @Override
@@ -28,6 +49,9 @@ public record ByteArrayPair(byte[] key, byte[] value) implements Comparable<Byte
             sb.append(b);
         }
         sb.append(", ");
+        if(isTombstone()) {
+            sb.append("<deleted>");
+        }
         for(byte b : value) {
             sb.append(b);
         }
@@ -0,0 +1,45 @@
+package com.kvstore.core.storage.LSMTree.types;
+
+/**
+ * Kind of an entry of the tree.
+ */
+public enum ValueType {
+    /**
+     * The key is mapped to the value of the entry.
+     */
+    PUT(0),
+
+    /**
+     * Tombstone: the key was deleted, older entries of the key must be ignored. Tombstones are kept
+     * until a compaction reaches the last level, below which nothing is left for them to hide.
+     */
+    DELETE(1),
+
+    /**
+     * The key is mapped to a value stored in the value log, the value of the entry being its
+     * encoded {@link com.kvstore.core.storage.LSMTree.vlog.ValuePointer}.
+     */
+    VALUE_POINTER(2);
+
+    private final int code;
+
+    ValueType(int code) {
+        this.code = code;
+    }
+
+    /**
+     * @return the code of the type as stored in tables.
+     */
+    public int code() {
+        return code;
+    }
+
+    public static ValueType fromCode(int code) {
+        return switch(code) {
+            case 0 -> PUT;
+            case 1 -> DELETE;
+            case 2 -> VALUE_POINTER;
+            default -> throw new IllegalArgumentException("Unknown value type: " + code);
+        };
+    }
+}
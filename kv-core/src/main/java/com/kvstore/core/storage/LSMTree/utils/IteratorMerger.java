@@ -5,20 +5,33 @@ import java.util.Iterator;
 import java.util.PriorityQueue;
 
 import it.unimi.dsi.fastutil.Pair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import it.unimi.dsi.fastutil.objects.ObjectHeapPriorityQueue;
 import it.unimi.dsi.fastutil.objects.ObjectIntMutablePair;
 
 
 public class IteratorMerger<T extends Comparable<T>> implements Iterator<T> {
 
-    Iterator<T>[] iterators;
+    ObjectArrayList<Iterator<T>> iterators;
     ObjectHeapPriorityQueue<Pair<T, Integer>> queue;
 
     @SafeVarargs
     public IteratorMerger(Iterator<T>... iterators) {
-        this.iterators = iterators;
+        this(Comparator.naturalOrder(), iterators);
+    }
+
+    /**
+     * Merge iterators sorted by the given order, e.g. the reversed natural order for descending iterators.
+     */
+    @SafeVarargs
+    public IteratorMerger(Comparator<? super T> comparator, Iterator<T>... iterators) {
+        // copied element by element, so that the varargs array never escapes
+        this.iterators = new ObjectArrayList<>(iterators.length);
+        for (Iterator<T> iterator : iterators) {
+            this.iterators.add(iterator);
+        }
         queue = new ObjectHeapPriorityQueue<>(
-                Comparator.comparing((Pair<T, Integer> a) -> a.first())
+                Comparator.comparing((Pair<T, Integer> a) -> a.first(), comparator)
                         .thenComparingInt(Pair::second)
         );
 
@@ -45,14 +58,12 @@ public class IteratorMerger<T extends Comparable<T>> implements Iterator<T> {
         T result = top.first();
         int index = top.second();
 
-        if (index == -1) {
-            return result;
+        // the pair keeps its iterator index even for the last element, so that ties are
+        // always won by the iterator given first
+        if (iterators.get(index).hasNext()) {
+            queue.enqueue(top.first(iterators.get(index).next()));
         }
 
-        T next = iterators[index].next();
-        int newIndex = iterators[index].hasNext() ? index : -1;
-        queue.enqueue(top.first(next).second(newIndex));
-
         return result;
     }
 }
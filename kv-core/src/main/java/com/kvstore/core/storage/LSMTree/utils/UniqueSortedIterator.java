@@ -1,14 +1,24 @@
 package com.kvstore.core.storage.LSMTree.utils;
 
 import java.util.Iterator;
+import java.util.function.Consumer;
 
 public class UniqueSortedIterator<T extends Comparable<T>> implements Iterator<T> {
 
     Iterator<T> iterator;
     private T last;
+    /**
+     * Receives the elements skipped as duplicates of the previous one, null to ignore them.
+     */
+    private final Consumer<T> dropped;
 
     public UniqueSortedIterator(Iterator<T> iterator) {
+        this(iterator, null);
+    }
+
+    public UniqueSortedIterator(Iterator<T> iterator, Consumer<T> dropped) {
         this.iterator = iterator;
+        this.dropped = dropped;
         this.last = iterator.next();
     }
 
@@ -21,6 +31,9 @@ public class UniqueSortedIterator<T extends Comparable<T>> implements Iterator<T
     public T next() {
         T next = iterator.next();
         while(next != null && last.compareTo(next) == 0) {
+            if(dropped != null) {
+                dropped.accept(next);
+            }
             next = iterator.next();
         }
         T res = last;
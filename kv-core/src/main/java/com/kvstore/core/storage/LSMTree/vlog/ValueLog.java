@@ -0,0 +1,326 @@
+package com.kvstore.core.storage.LSMTree.vlog;
+
+import com.google.common.collect.Iterators;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.LSMTree.types.ValueType;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.io.Closeable;
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Append-only files holding the large values of a tree, whose entries store a {@link ValuePointer}
+ * instead (key-value separation).
+ * <p>
+ * Values are moved to the log when their memtable is flushed, so compactions only rewrite the
+ * small pointers and large values are written once instead of once per level. The values of
+ * overwritten and deleted keys stay in the log as garbage: compactions report the pointers they drop
+ * with {@link #discard}, and {@link #collect} rewrites the live values of a file whose share of
+ * garbage got high enough at the head of the log, then deletes the file.
+ * <p>
+ * Records are only appended to the head file, rolled once it reaches the maximum file size. Files
+ * found when the log is opened are never appended to; their garbage is unknown until measured by a
+ * collection, which looks every record up in the tree.
+ */
+public class ValueLog implements Closeable {
+
+    public static final String FILE_PREFIX = "vlog_";
+    public static final String FILE_EXTENSION = ".blob";
+
+    private final String directory;
+    private final long maxFileSize;
+    private final ConcurrentSkipListMap<Long, ValueLogFile> files = new ConcurrentSkipListMap<>();
+    private final AtomicLong nextFileNumber = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesRelocated = new AtomicLong();
+    private final AtomicLong filesCollected = new AtomicLong();
+
+    private ValueLogFile head;
+
+    /**
+     * Tree side of the garbage collection of the log.
+     */
+    public interface Index {
+
+        /**
+         * @return true if the newest entry of the key points at the value.
+         */
+        boolean isLive(byte[] key, ValuePointer pointer);
+
+        /**
+         * Point the keys at their relocated values, atomically with respect to the writes of the
+         * tree and durably, skipping the keys overwritten since they were found live.
+         *
+         * @return the skipped relocations.
+         */
+        List<Relocation> relocate(List<Relocation> relocations);
+    }
+
+    /**
+     * A live value copied from a collected file to the head of the log.
+     */
+    public record Relocation(byte[] key, ValuePointer from, ValuePointer to) {
+    }
+
+    public ValueLog(String directory, long maxFileSize) {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+
+        File[] existing = new File(directory).listFiles();
+        if(existing != null) {
+            for(File file : existing) {
+                long number = fileNumber(file.getName());
+                if(number >= 0) {
+                    files.put(number, new ValueLogFile(number, file.toPath(), false));
+                    nextFileNumber.accumulateAndGet(number + 1, Math::max);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of a value log file name, -1 if it is not one.
+     */
+    static long fileNumber(String name) {
+        if(!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_EXTENSION)) {
+            return -1;
+        }
+        String number = name.substring(FILE_PREFIX.length(), name.length() - FILE_EXTENSION.length());
+        if(number.isEmpty() || !number.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Long.parseLong(number);
+    }
+
+    /**
+     * Move the values of at least {@code threshold} bytes of the entries to the log as they are
+     * iterated, replacing them by pointers. The log must be synced before the entries are published.
+     */
+    public Iterator<ByteArrayPair> separate(Iterator<ByteArrayPair> entries, int threshold) {
+        return Iterators.transform(entries, pair -> {
+            if(pair == null || pair.type() != ValueType.PUT || pair.value().length < threshold) {
+                return pair;
+            }
+            return new ByteArrayPair(pair.key(), append(pair.key(), pair.value()).encode(), ValueType.VALUE_POINTER);
+        });
+    }
+
+    /**
+     * Append a value at the head of the log, rolling it first if full.
+     */
+    public synchronized ValuePointer append(byte[] key, byte[] value) {
+        if(head == null || head.size() >= maxFileSize) {
+            if(head != null) {
+                head.force();
+            }
+            long number = nextFileNumber.getAndIncrement();
+            head = new ValueLogFile(number, Path.of(directory, FILE_PREFIX + number + FILE_EXTENSION), true);
+            files.put(number, head);
+        }
+        bytesWritten.addAndGet(ValueLogFile.recordSize(key.length, value.length));
+        return head.append(key, value);
+    }
+
+    /**
+     * Make the appended values durable.
+     */
+    public synchronized void sync() {
+        if(head != null) {
+            head.force();
+        }
+    }
+
+    /**
+     * Read a value, the file it points at being referenced meanwhile.
+     *
+     * @return the value, null if its file was collected, its value having been relocated.
+     */
+    public byte[] read(ValuePointer pointer) {
+        ValueLogFile file = files.get(pointer.fileNumber());
+        if(file == null || !file.tryRef()) {
+            return null;
+        }
+        try {
+            return file.read(pointer);
+        } finally {
+            file.unref();
+        }
+    }
+
+    /**
+     * Reference the current files, so that the pointers of a snapshot of the tree stay readable until
+     * the reader is closed, even if their files are collected meanwhile.
+     */
+    public Reader reader() {
+        Long2ObjectOpenHashMap<ValueLogFile> pinned = new Long2ObjectOpenHashMap<>();
+        for(ValueLogFile file : files.values()) {
+            if(file.tryRef()) {
+                pinned.put(file.number, file);
+            }
+        }
+        return new Reader(pinned);
+    }
+
+    /**
+     * Account for a value no entry of the tree points at anymore, dropped by a compaction.
+     */
+    public void discard(byte[] key, ValuePointer pointer) {
+        ValueLogFile file = files.get(pointer.fileNumber());
+        if(file != null) {
+            file.addGarbage(ValueLogFile.recordSize(key.length, pointer.length()));
+        }
+    }
+
+    /**
+     * Forget the garbage estimates, the next collections measuring every file again.
+     */
+    public void resetGarbage() {
+        files.values().forEach(file -> file.measured = false);
+    }
+
+    /**
+     * Collect the oldest file whose share of garbage is at least {@code ratio}: its live values are
+     * appended at the head of the log and the keys pointed at them, then the file is deleted once the
+     * readers referencing it are closed. The head file is never collected.
+     * <p>
+     * Must not run concurrently with the flushes separating values, whose pointers are only published
+     * when their table is installed and would look like garbage until then.
+     *
+     * @return true if a file was collected.
+     */
+    public boolean collect(Index index, double ratio) {
+        ValueLogFile current;
+        synchronized(this) {
+            current = head;
+        }
+
+        for(ValueLogFile file : files.values()) {
+            if(file == current) {
+                continue;
+            }
+            if(!file.measured) {
+                measure(file, index);
+            }
+            if(file.size() > 0 && (double) file.garbage() / file.size() >= ratio) {
+                collect(file, index);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void measure(ValueLogFile file, Index index) {
+        long live = 0;
+        for(Iterator<ValueLogFile.Record> it = file.records(); it.hasNext(); ) {
+            ValueLogFile.Record record = it.next();
+            if(index.isLive(record.key(), record.pointer())) {
+                live += record.size();
+            }
+        }
+        file.setGarbage(file.size() - live);
+        file.measured = true;
+    }
+
+    private void collect(ValueLogFile file, Index index) {
+        ObjectArrayList<Relocation> relocations = new ObjectArrayList<>();
+        for(Iterator<ValueLogFile.Record> it = file.records(); it.hasNext(); ) {
+            ValueLogFile.Record record = it.next();
+            if(index.isLive(record.key(), record.pointer())) {
+                ValuePointer to = append(record.key(), record.value());
+                relocations.add(new Relocation(record.key(), record.pointer(), to));
+                bytesRelocated.addAndGet(record.size());
+            }
+        }
+
+        if(!relocations.isEmpty()) {
+            sync();
+            for(Relocation skipped : index.relocate(relocations)) {
+                discard(skipped.key(), skipped.to());
+            }
+        }
+
+        files.remove(file.number);
+        file.unref();
+        filesCollected.incrementAndGet();
+    }
+
+    /**
+     * @return bytes of the records appended to the log, relocated ones included.
+     */
+    public long bytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return bytes of the records rewritten by collections.
+     */
+    public long bytesRelocated() {
+        return bytesRelocated.get();
+    }
+
+    public long filesCollected() {
+        return filesCollected.get();
+    }
+
+    /**
+     * @return bytes of the files of the log.
+     */
+    public long byteSize() {
+        return files.values().stream().mapToLong(ValueLogFile::size).sum();
+    }
+
+    /**
+     * @return estimated bytes of garbage of the files of the log.
+     */
+    public long garbage() {
+        return files.values().stream().mapToLong(ValueLogFile::garbage).sum();
+    }
+
+    public int fileCount() {
+        return files.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        files.values().forEach(ValueLogFile::close);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d files, %.1f mb, %.1f mb garbage, %d collected, %.1f mb relocated",
+                fileCount(), byteSize() / 1024.0 / 1024.0, garbage() / 1024.0 / 1024.0,
+                filesCollected(), bytesRelocated() / 1024.0 / 1024.0);
+    }
+
+    /**
+     * Reader of the values of a snapshot, see {@link #reader()}.
+     */
+    public static class Reader implements Closeable {
+
+        private final Long2ObjectOpenHashMap<ValueLogFile> files;
+
+        private Reader(Long2ObjectOpenHashMap<ValueLogFile> files) {
+            this.files = files;
+        }
+
+        public byte[] read(ValuePointer pointer) {
+            ValueLogFile file = files.get(pointer.fileNumber());
+            if(file == null) {
+                throw new IllegalStateException("Value log file of the snapshot not found: " + pointer);
+            }
+            return file.read(pointer);
+        }
+
+        @Override
+        public void close() {
+            files.values().forEach(ValueLogFile::unref);
+            files.clear();
+        }
+    }
+}
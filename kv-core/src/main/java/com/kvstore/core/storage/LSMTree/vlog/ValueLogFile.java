@@ -0,0 +1,239 @@
+package com.kvstore.core.storage.LSMTree.vlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32C;
+
+/**
+ * A file of the {@link ValueLog}, a sequence of records:
+ * <tt>|checksum (4)|key length (4)|value length (4)|key|value|</tt>
+ * <p>
+ * The checksum is the CRC32C of the key and the value. Records are appended by a single writer at
+ * a time and read with positional reads, so readers never wait for it.
+ */
+class ValueLogFile {
+
+    static final int HEADER_SIZE = 12;
+
+    final long number;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong size;
+    /**
+     * Estimated bytes of the records no entry of the tree points at anymore.
+     */
+    private final AtomicLong garbage = new AtomicLong();
+    /**
+     * False until the garbage of the file is known, for the files found when the log is opened.
+     */
+    volatile boolean measured;
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    ValueLogFile(long number, Path path, boolean create) {
+        this.number = number;
+        this.path = path;
+        try {
+            this.channel = create
+                    ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            this.size = new AtomicLong(channel.size());
+        } catch(IOException e) {
+            throw new RuntimeException("Could not open value log file " + path, e);
+        }
+        this.measured = create;
+    }
+
+    long size() {
+        return size.get();
+    }
+
+    long garbage() {
+        return garbage.get();
+    }
+
+    void addGarbage(long bytes) {
+        garbage.addAndGet(bytes);
+    }
+
+    void setGarbage(long bytes) {
+        garbage.set(bytes);
+    }
+
+    /**
+     * Append a record, only one thread may append at a time.
+     *
+     * @return the pointer to the value of the record.
+     */
+    ValuePointer append(byte[] key, byte[] value) {
+        CRC32C crc = new CRC32C();
+        crc.update(key);
+        crc.update(value);
+
+        ByteBuffer record = ByteBuffer.allocate(recordSize(key.length, value.length));
+        record.putInt((int) crc.getValue()).putInt(key.length).putInt(value.length).put(key).put(value).flip();
+
+        long offset = size.get();
+        try {
+            long position = offset;
+            while(record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not append to value log file " + path, e);
+        }
+        size.set(offset + record.limit());
+        return new ValuePointer(number, offset + HEADER_SIZE + key.length, value.length);
+    }
+
+    void force() {
+        try {
+            channel.force(false);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not sync value log file " + path, e);
+        }
+    }
+
+    byte[] read(ValuePointer pointer) {
+        ByteBuffer value = ByteBuffer.allocate(pointer.length());
+        try {
+            long position = pointer.offset();
+            while(value.hasRemaining()) {
+                int read = channel.read(value, position);
+                if(read < 0) {
+                    throw new IllegalStateException("Value pointer past the end of value log file " + path + ": " + pointer);
+                }
+                position += read;
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read value log file " + path, e);
+        }
+        return value.array();
+    }
+
+    /**
+     * Iterate over the records of the file, up to the first incomplete or corrupted one.
+     */
+    Iterator<Record> records() {
+        return new Iterator<>() {
+
+            private long position;
+            private Record next = read();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                Record record = next;
+                if(record != null) {
+                    next = read();
+                }
+                return record;
+            }
+
+            private Record read() {
+                long end = size.get();
+                if(end - position < HEADER_SIZE) {
+                    return null;
+                }
+                ByteBuffer header = readFully(position, HEADER_SIZE);
+                int checksum = header.getInt();
+                int keyLength = header.getInt();
+                int valueLength = header.getInt();
+                if(keyLength < 0 || valueLength < 0 || end - position - HEADER_SIZE < (long) keyLength + valueLength) {
+                    return null;
+                }
+
+                ByteBuffer body = readFully(position + HEADER_SIZE, keyLength + valueLength);
+                CRC32C crc = new CRC32C();
+                crc.update(body.duplicate());
+                if((int) crc.getValue() != checksum) {
+                    return null;
+                }
+
+                byte[] key = new byte[keyLength];
+                byte[] value = new byte[valueLength];
+                body.get(key).get(value);
+                Record record = new Record(key, value, new ValuePointer(number, position + HEADER_SIZE + keyLength, valueLength));
+                position += recordSize(keyLength, valueLength);
+                return record;
+            }
+        };
+    }
+
+    private ByteBuffer readFully(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while(buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if(read < 0) {
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read value log file " + path, e);
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Take a reference on the file unless it was already released by its last reference.
+     *
+     * @return false if the file is deleted or about to be.
+     */
+    boolean tryRef() {
+        int current;
+        do {
+            current = refs.get();
+            if(current == 0) {
+                return false;
+            }
+        } while(!refs.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Drop a reference, the last one closes and deletes the file.
+     */
+    void unref() {
+        if(refs.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+            } catch(IOException e) {
+                throw new RuntimeException("Could not delete value log file " + path, e);
+            }
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int recordSize(int keyLength, int valueLength) {
+        return HEADER_SIZE + keyLength + valueLength;
+    }
+
+    /**
+     * A record of the file with the pointer to its value.
+     */
+    record Record(byte[] key, byte[] value, ValuePointer pointer) {
+
+        int size() {
+            return recordSize(key.length, value.length);
+        }
+    }
+}
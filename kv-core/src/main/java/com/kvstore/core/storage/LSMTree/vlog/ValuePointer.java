@@ -0,0 +1,31 @@
+package com.kvstore.core.storage.LSMTree.vlog;
+
+import com.kvstore.core.storage.LSMTree.io.VByte;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Location of a value in the {@link ValueLog}, stored by the tree in place of the value.
+ * <p>
+ * Encoding: <tt>|file number (vbyte)|offset (vbyte)|length (vbyte)|</tt>
+ *
+ * @param fileNumber number of the value log file.
+ * @param offset     position of the value in the file.
+ * @param length     length of the value.
+ */
+public record ValuePointer(long fileNumber, long offset, int length) {
+
+    public byte[] encode() {
+        byte[] scratch = new byte[30];
+        int position = VByte.write(fileNumber, scratch, 0);
+        position = VByte.write(offset, scratch, position);
+        position = VByte.write(length, scratch, position);
+        return Arrays.copyOf(scratch, position);
+    }
+
+    public static ValuePointer decode(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        return new ValuePointer(VByte.read(in), VByte.read(in), (int) VByte.read(in));
+    }
+}
@@ -5,10 +5,50 @@ import com.kvstore.core.model.KVEntry;
 
 import java.io.IOException;
 
+/**
+ * A storage engine, opened by configuration with {@link #open(StorageOptions)}.
+ * <p>
+ * Engines are thread-safe. Scans iterate in unsigned lexicographic key order, see
+ * {@link com.kvstore.core.storage.LSMTree.comparator.KeyComparators#LEXICOGRAPHIC}, but in the order an
+ * {@link com.kvstore.core.storage.LSMTree.tree.LSMTree} was created with, skip deleted keys and must be closed.
+ */
 public interface Storage {
+
+    /**
+     * Open the engine selected by the options.
+     */
+    static Storage open(StorageOptions options) {
+        return options.engine().open(options);
+    }
+
     void put (byte[] key, byte[] value) throws IOException;
+
+    /**
+     * @return the value of the key, null if it is absent or was deleted.
+     */
     byte[] get(byte[] key) throws IOException;
+
     void delete(byte[] key) throws IOException;
-    //CloseableIterator<KVEntry> scan() throws IOException;
+
+    /**
+     * Apply the writes of a batch together, in order. What readers may see of a batch being applied
+     * depends on the engine, see its documentation.
+     */
+    void write(WriteBatch batch) throws IOException;
+
+    CloseableIterator<KVEntry> scan() throws IOException;
+
+    /**
+     * Iterate over the keys in [from, to), a null bound leaving the range open on its side.
+     */
+    CloseableIterator<KVEntry> scan(byte[] from, byte[] to) throws IOException;
+
+    /**
+     * Delete every key.
+     */
+    void clear() throws IOException;
+
+    StorageStats stats();
+
     void close() throws IOException;
 }
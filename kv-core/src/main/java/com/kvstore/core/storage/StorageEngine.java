@@ -0,0 +1,53 @@
+package com.kvstore.core.storage;
+
+import com.kvstore.core.storage.LSMTree.tree.LSMTree;
+import com.kvstore.core.storage.bitcask.BitcaskStorage;
+import com.kvstore.core.storage.memory.MemoryStorage;
+
+import java.util.Locale;
+
+/**
+ * The storage engines a {@link Storage} may be opened with, named in configurations by their lower-case name.
+ */
+public enum StorageEngine {
+    /**
+     * Log-structured merge tree, see {@link LSMTree}: ordered keys, cheap writes and scans.
+     */
+    LSM,
+    /**
+     * Hash-indexed append-only files, see {@link BitcaskStorage}: single-seek reads, every key held in memory.
+     */
+    BITCASK,
+    /**
+     * Sorted map on the heap, see {@link MemoryStorage}: nothing survives a restart.
+     */
+    MEMORY;
+
+    public static StorageEngine fromName(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown storage engine: " + name, e);
+        }
+    }
+
+    /**
+     * Open an engine of this kind, in the data directory of the options if set.
+     */
+    Storage open(StorageOptions options) {
+        return switch(this) {
+            case LSM -> new LSMTree(options.dataDir() != null
+                    ? options.lsmTreeOptions().dataDir(options.dataDir())
+                    : options.lsmTreeOptions());
+            case BITCASK -> new BitcaskStorage(options.dataDir() != null
+                    ? options.bitcaskOptions().dataDir(options.dataDir())
+                    : options.bitcaskOptions());
+            case MEMORY -> new MemoryStorage();
+        };
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
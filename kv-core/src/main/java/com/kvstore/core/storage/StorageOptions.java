@@ -0,0 +1,83 @@
+package com.kvstore.core.storage;
+
+import com.kvstore.core.storage.LSMTree.tree.LSMTreeOptions;
+import com.kvstore.core.storage.bitcask.BitcaskOptions;
+
+import java.util.Properties;
+
+/**
+ * Settings of a {@link Storage}: the engine to open and the options of each engine, only those of the
+ * selected one being used.
+ */
+public class StorageOptions {
+
+    /**
+     * Property naming the engine, see {@link StorageEngine#fromName(String)}.
+     */
+    public static final String ENGINE_PROPERTY = "kv.storage.engine";
+    /**
+     * Property naming the data directory.
+     */
+    public static final String DATA_DIR_PROPERTY = "kv.storage.dir";
+
+    StorageEngine engine = StorageEngine.LSM;
+    String dataDir;
+    LSMTreeOptions lsmTreeOptions = LSMTreeOptions.defaults();
+    BitcaskOptions bitcaskOptions = BitcaskOptions.defaults();
+
+    public static StorageOptions defaults() {
+        return new StorageOptions();
+    }
+
+    /**
+     * Options read from the {@link #ENGINE_PROPERTY} and {@link #DATA_DIR_PROPERTY} properties, the
+     * defaults being kept for the missing ones.
+     */
+    public static StorageOptions fromProperties(Properties properties) {
+        StorageOptions options = defaults();
+        String engine = properties.getProperty(ENGINE_PROPERTY);
+        if(engine != null) {
+            options.engine(StorageEngine.fromName(engine));
+        }
+        return options.dataDir(properties.getProperty(DATA_DIR_PROPERTY));
+    }
+
+    public StorageEngine engine() {
+        return engine;
+    }
+
+    public StorageOptions engine(StorageEngine engine) {
+        this.engine = engine;
+        return this;
+    }
+
+    public String dataDir() {
+        return dataDir;
+    }
+
+    /**
+     * Data directory of the engine, overriding the one of its options, null to keep it.
+     */
+    public StorageOptions dataDir(String dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public LSMTreeOptions lsmTreeOptions() {
+        return lsmTreeOptions;
+    }
+
+    public StorageOptions lsmTreeOptions(LSMTreeOptions lsmTreeOptions) {
+        this.lsmTreeOptions = lsmTreeOptions;
+        return this;
+    }
+
+    public BitcaskOptions bitcaskOptions() {
+        return bitcaskOptions;
+    }
+
+    public StorageOptions bitcaskOptions(BitcaskOptions bitcaskOptions) {
+        this.bitcaskOptions = bitcaskOptions;
+        return this;
+    }
+}
@@ -0,0 +1,21 @@
+package com.kvstore.core.storage;
+
+/**
+ * Figures of a {@link Storage}, comparable across engines.
+ *
+ * @param engine             the engine.
+ * @param diskBytes          bytes of the files of the engine.
+ * @param memoryBytes        approximate heap bytes of the data held in memory: memtables, key directory, entries.
+ * @param bytesWritten       bytes of the keys and values written by the user.
+ * @param writeAmplification bytes written to disk per byte of data first written there, rewrites by compactions
+ *                           or merges included, 0 if nothing was written to disk yet.
+ */
+public record StorageStats(StorageEngine engine, long diskBytes, long memoryBytes, long bytesWritten, double writeAmplification) {
+
+    @Override
+    public String toString() {
+        return String.format("%s { disk: %.1f mb, memory: %.1f mb, written: %.1f mb, write amplification: %.2f }",
+                engine, diskBytes / 1024.0 / 1024.0, memoryBytes / 1024.0 / 1024.0, bytesWritten / 1024.0 / 1024.0,
+                writeAmplification);
+    }
+}
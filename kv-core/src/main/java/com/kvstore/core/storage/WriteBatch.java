@@ -0,0 +1,60 @@
+package com.kvstore.core.storage;
+
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Puts and deletes applied together by {@link Storage#write(WriteBatch)}, in the order they were
+ * added: a later write of a key in the batch wins over an earlier one.
+ * <p>
+ * A batch is not thread-safe, and may be cleared and reused once written.
+ */
+public class WriteBatch {
+
+    private final ObjectArrayList<ByteArrayPair> writes = new ObjectArrayList<>();
+    private long byteSize;
+
+    public WriteBatch put(byte[] key, byte[] value) {
+        return add(new ByteArrayPair(key, value));
+    }
+
+    public WriteBatch delete(byte[] key) {
+        return add(ByteArrayPair.tombstone(key));
+    }
+
+    /**
+     * @return the writes in the order they were added, deletions being tombstones.
+     */
+    public List<ByteArrayPair> writes() {
+        return Collections.unmodifiableList(writes);
+    }
+
+    public int size() {
+        return writes.size();
+    }
+
+    public boolean isEmpty() {
+        return writes.isEmpty();
+    }
+
+    /**
+     * @return the bytes of the keys and values of the batch.
+     */
+    public long byteSize() {
+        return byteSize;
+    }
+
+    public void clear() {
+        writes.clear();
+        byteSize = 0;
+    }
+
+    private WriteBatch add(ByteArrayPair pair) {
+        writes.add(pair);
+        byteSize += pair.size();
+        return this;
+    }
+}
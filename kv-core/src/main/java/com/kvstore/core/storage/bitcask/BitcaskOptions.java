@@ -0,0 +1,87 @@
+package com.kvstore.core.storage.bitcask;
+
+/**
+ * Settings of a {@link BitcaskStorage} instance.
+ */
+public class BitcaskOptions {
+
+    String dataDir = "bitcask-data";
+    long maxFileSize = 1024 * 1024 * 64;
+    boolean syncWrites;
+    double mergeRatio = 0.5;
+    long mergeIntervalMillis = 10_000;
+    int expectedKeys = 1 << 16;
+
+    public static BitcaskOptions defaults() {
+        return new BitcaskOptions();
+    }
+
+    public String dataDir() {
+        return dataDir;
+    }
+
+    public BitcaskOptions dataDir(String dataDir) {
+        this.dataDir = dataDir;
+        return this;
+    }
+
+    public long maxFileSize() {
+        return maxFileSize;
+    }
+
+    /**
+     * Size above which the active data file is sealed and a new one started.
+     */
+    public BitcaskOptions maxFileSize(long maxFileSize) {
+        this.maxFileSize = maxFileSize;
+        return this;
+    }
+
+    public boolean syncWrites() {
+        return syncWrites;
+    }
+
+    /**
+     * Sync the active data file after every write, so that it survives a crash of the machine.
+     */
+    public BitcaskOptions syncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+        return this;
+    }
+
+    public double mergeRatio() {
+        return mergeRatio;
+    }
+
+    /**
+     * Share of superseded records from which a sealed data file is merged.
+     */
+    public BitcaskOptions mergeRatio(double mergeRatio) {
+        this.mergeRatio = mergeRatio;
+        return this;
+    }
+
+    public long mergeIntervalMillis() {
+        return mergeIntervalMillis;
+    }
+
+    /**
+     * Interval of the background merges, 0 to only merge on {@link BitcaskStorage#merge()} calls.
+     */
+    public BitcaskOptions mergeIntervalMillis(long mergeIntervalMillis) {
+        this.mergeIntervalMillis = mergeIntervalMillis;
+        return this;
+    }
+
+    public int expectedKeys() {
+        return expectedKeys;
+    }
+
+    /**
+     * Number of keys the key directory is first sized for, it grows as needed.
+     */
+    public BitcaskOptions expectedKeys(int expectedKeys) {
+        this.expectedKeys = expectedKeys;
+        return this;
+    }
+}
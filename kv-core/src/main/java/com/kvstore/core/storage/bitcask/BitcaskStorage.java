@@ -1,12 +1,717 @@
 package com.kvstore.core.storage.bitcask;
 
+import com.kvstore.core.iterator.CloseableIterator;
+import com.kvstore.core.model.KVEntry;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
 import com.kvstore.core.storage.Storage;
+import com.kvstore.core.storage.StorageEngine;
+import com.kvstore.core.storage.StorageStats;
+import com.kvstore.core.storage.WriteBatch;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
-public class BitcaskStorage {
+/**
+ * Hash-indexed, log-structured storage engine after Bitcask.
+ * <p>
+ * Writes are appended to the active data file, sealed once it reaches the maximum file size, and the
+ * {@link KeyDir} held in memory maps every key to the file and offset of its latest value, so a read
+ * is a hash lookup and a single positional read. Keys are not ordered: scans collect and sort the
+ * keys of their range, they are meant for occasional use, not for range-heavy workloads.
+ * <p>
+ * Records carry a sequence number, the latest one of a key winning when the key directory is rebuilt
+ * at startup, from the hint file of a data file when there is one or from the data file itself. Sealed
+ * files get their hint file in the background.
+ * <p>
+ * A background merge rewrites the live records of the sealed files whose share of superseded records
+ * reached the merge ratio into new files, then deletes them. Tombstones are dropped once no file left
+ * out of the merge may hold an older record of their key; files mostly made of tombstones are merged
+ * when all of them can be dropped. Reads and scans reference the files they read, so merged files are
+ * only deleted once no reader is left.
+ */
+public class BitcaskStorage implements Storage {
 
+    private static final Logger logger = LoggerFactory.getLogger(BitcaskStorage.class);
 
+    public static final String FILE_PREFIX = "bitcask_";
+
+    private final String dataDir;
+    private final long maxFileSize;
+    private final boolean syncWrites;
+    private final double mergeRatio;
+
+    /**
+     * Guards the key directory and the file map, only taken for memory accesses.
+     */
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    /**
+     * Serializes the appends to the active file and the file rolls.
+     */
+    private final Lock writeLock = new ReentrantLock();
+    /**
+     * Serializes the merges.
+     */
+    private final Object mergeLock = new Object();
+
+    private final KeyDir keyDir;
+    private final Int2ObjectOpenHashMap<DataFile> files = new Int2ObjectOpenHashMap<>();
+    private DataFile active;
+    private final AtomicInteger nextFileId = new AtomicInteger();
+    private long sequence;
+    /**
+     * Lowest id of the files holding appended records whose keys are not pointed at them yet, which
+     * merges must leave alone, {@link Integer#MAX_VALUE} if there is none.
+     */
+    private volatile int unindexedFileId = Integer.MAX_VALUE;
+
+    private final ScheduledExecutorService merger;
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    /**
+     * Bytes of the keys and values written by the user, and bytes of the records appended by the writes
+     * and by the merges.
+     */
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLong bytesAppended = new AtomicLong();
+    private final AtomicLong bytesMerged = new AtomicLong();
+
+    public BitcaskStorage() {
+        this(BitcaskOptions.defaults());
+    }
+
+    public BitcaskStorage(String dataDir) {
+        this(BitcaskOptions.defaults().dataDir(dataDir));
+    }
+
+    public BitcaskStorage(BitcaskOptions options) {
+        this.dataDir = options.dataDir();
+        this.maxFileSize = options.maxFileSize();
+        this.syncWrites = options.syncWrites();
+        this.mergeRatio = options.mergeRatio();
+        this.keyDir = new KeyDir(options.expectedKeys());
+
+        try {
+            Files.createDirectories(Path.of(dataDir));
+        } catch(IOException e) {
+            throw new RuntimeException("Could not create data directory", e);
+        }
+
+        merger = Executors.newSingleThreadScheduledExecutor();
+        load();
+        active = createFile();
+        if(options.mergeIntervalMillis() > 0) {
+            merger.scheduleWithFixedDelay(this::merge, options.mergeIntervalMillis(), options.mergeIntervalMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        append(List.of(new ByteArrayPair(key, value)));
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        while(true) {
+            DataFile file;
+            long offset;
+            int length;
+
+            Lock lock = indexLock.readLock();
+            lock.lock();
+            try {
+                int slot = keyDir.find(key);
+                if(slot < 0 || keyDir.valueLength(slot) == KeyDir.TOMBSTONE) {
+                    return null;
+                }
+                file = files.get(keyDir.fileId(slot));
+                offset = keyDir.valueOffset(slot);
+                length = keyDir.valueLength(slot);
+                if(file == null || !file.tryRef()) {
+                    // merged meanwhile, the key points at the new file once the lock is released
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                return file.read(offset, length);
+            } finally {
+                file.unref();
+            }
+        }
+    }
+
+    /**
+     * Delete a key, appending a tombstone only if the key is present.
+     */
+    @Override
+    public void delete(byte[] key) {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            int slot = keyDir.find(key);
+            if(slot < 0 || keyDir.valueLength(slot) == KeyDir.TOMBSTONE) {
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        append(List.of(ByteArrayPair.tombstone(key)));
+    }
+
+    /**
+     * Append the writes of a batch one after the other, then point their keys at them under a single
+     * acquisition of the index lock, so readers see all of them or none. The records are not marked
+     * as a batch on disk: a crash in the middle of the appends leaves the writes before it.
+     */
+    @Override
+    public void write(WriteBatch batch) {
+        if(!batch.isEmpty()) {
+            append(batch.writes());
+        }
+    }
+
+    @Override
+    public CloseableIterator<KVEntry> scan() {
+        return scan(null, null);
+    }
+
+    /**
+     * Iterate over the keys in [from, to) in {@link KeyComparators#LEXICOGRAPHIC} order, as of the call. The
+     * keys of the range are collected and sorted upfront, values are read as the iterator advances.
+     */
+    @Override
+    public CloseableIterator<KVEntry> scan(byte[] from, byte[] to) {
+        ObjectArrayList<Location> locations = new ObjectArrayList<>();
+        Int2ObjectOpenHashMap<DataFile> pinned = new Int2ObjectOpenHashMap<>();
+
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            for(int slot = 0; slot < keyDir.capacity(); slot++) {
+                if(!keyDir.isUsed(slot) || keyDir.valueLength(slot) == KeyDir.TOMBSTONE) {
+                    continue;
+                }
+                byte[] key = keyDir.key(slot);
+                if(from != null && KeyComparators.LEXICOGRAPHIC.compare(key, from) < 0
+                        || to != null && KeyComparators.LEXICOGRAPHIC.compare(key, to) >= 0) {
+                    continue;
+                }
+                locations.add(new Location(key, keyDir.fileId(slot), keyDir.valueOffset(slot), keyDir.valueLength(slot)));
+            }
+            // files are only removed under the write lock, every one of them can be referenced
+            for(DataFile file : files.values()) {
+                file.tryRef();
+                pinned.put(file.id, file);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        locations.sort(Comparator.comparing(Location::key, KeyComparators.LEXICOGRAPHIC));
+        return new BitcaskIterator(locations, pinned);
+    }
+
+    /**
+     * Merge the sealed files holding enough superseded records, see the class documentation.
+     * Runs in the background every merge interval, may also be called directly.
+     */
+    public void merge() {
+        synchronized(mergeLock) {
+            ObjectArrayList<DataFile> inputs = new ObjectArrayList<>();
+            ObjectArrayList<DataFile> leftOut = new ObjectArrayList<>();
+
+            int unindexed;
+            Lock lock = indexLock.readLock();
+            lock.lock();
+            try {
+                unindexed = unindexedFileId;
+                for(DataFile file : files.values()) {
+                    if(file != active && file.id < unindexed && file.size() > 0 && (double) file.deadBytes() / file.size() >= mergeRatio) {
+                        inputs.add(file);
+                    } else {
+                        leftOut.add(file);
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            // a file of tombstones is only worth merging if they can all be dropped
+            leftOut.sort(Comparator.comparingLong(DataFile::minSequence));
+            for(int i = 0; i < leftOut.size(); i++) {
+                DataFile file = leftOut.get(i);
+                long reclaimable = file.deadBytes() + file.tombstoneBytes();
+                if(file == active || file.id >= unindexed || file.size() == 0 || (double) reclaimable / file.size() < mergeRatio) {
+                    continue;
+                }
+                long minOthers = Long.MAX_VALUE;
+                for(DataFile other : leftOut) {
+                    if(other != file) {
+                        minOthers = Math.min(minOthers, other.minSequence());
+                    }
+                }
+                if(file.maxSequence() < minOthers) {
+                    inputs.add(leftOut.remove(i--));
+                }
+            }
+            if(inputs.isEmpty()) {
+                return;
+            }
+            long minLeftOutSequence = leftOut.stream().mapToLong(DataFile::minSequence).min().orElse(Long.MAX_VALUE);
+            inputs.sort(Comparator.comparingInt(file -> file.id));
+
+            ObjectArrayList<DataFile> outputs = new ObjectArrayList<>();
+            ObjectArrayList<Move> moves = new ObjectArrayList<>();
+            ObjectArrayList<Move> dropped = new ObjectArrayList<>();
+            DataFile output = null;
+            for(DataFile input : inputs) {
+                for(Iterator<DataFile.Record> it = input.records(); it.hasNext(); ) {
+                    DataFile.Record record = it.next();
+                    if(!isLive(record, input)) {
+                        continue;
+                    }
+                    if(record.isTombstone() && record.sequence() < minLeftOutSequence) {
+                        dropped.add(new Move(record, input.id, -1, -1));
+                        continue;
+                    }
+                    if(output == null || output.size() >= maxFileSize) {
+                        output = createFile();
+                        outputs.add(output);
+                    }
+                    long offset = output.append(record.sequence(), record.key(), record.value());
+                    bytesMerged.addAndGet(record.size());
+                    moves.add(new Move(record, input.id, output.id, offset));
+                }
+            }
+            for(DataFile file : outputs) {
+                file.force();
+                file.writeHint();
+            }
+
+            Lock write = indexLock.writeLock();
+            write.lock();
+            try {
+                for(Move move : moves) {
+                    int slot = keyDir.find(move.record().key());
+                    if(slot >= 0 && pointsAt(slot, move.fromFile(), move.record().valueOffset())) {
+                        keyDir.put(move.record().key(), move.toFile(), move.toOffset(), move.record().valueLength(), move.record().sequence());
+                        if(move.record().isTombstone()) {
+                            files.get(move.toFile()).addTombstoneBytes(move.record().size());
+                        }
+                    } else {
+                        // written again during the merge
+                        files.get(move.toFile()).addDeadBytes(move.record().size());
+                    }
+                }
+                for(Move drop : dropped) {
+                    int slot = keyDir.find(drop.record().key());
+                    if(slot >= 0 && pointsAt(slot, drop.fromFile(), drop.record().valueOffset())) {
+                        keyDir.remove(slot);
+                    }
+                }
+                for(DataFile input : inputs) {
+                    files.remove(input.id);
+                }
+            } finally {
+                write.unlock();
+            }
+
+            long reclaimed = 0;
+            for(DataFile input : inputs) {
+                reclaimed += input.size();
+                input.unref();
+            }
+            for(DataFile file : outputs) {
+                reclaimed -= file.size();
+            }
+            merges.incrementAndGet();
+            bytesReclaimed.addAndGet(reclaimed);
+            logger.debug("Merged {} files into {}, {} bytes reclaimed", inputs.size(), outputs.size(), reclaimed);
+        }
+    }
+
+    /**
+     * @return the number of keys, deleted ones whose tombstone is not merged yet excluded.
+     */
+    public int size() {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            return keyDir.size() - keyDir.tombstones();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Delete every key, appending nothing: the data files are dropped, deleted once the scans reading
+     * them are closed, and writes start over in a new file.
+     */
+    @Override
+    public void clear() {
+        synchronized(mergeLock) {
+            writeLock.lock();
+            try {
+                ObjectArrayList<DataFile> dropped;
+                Lock lock = indexLock.writeLock();
+                lock.lock();
+                try {
+                    dropped = new ObjectArrayList<>(files.values());
+                    files.clear();
+                    keyDir.clear();
+                } finally {
+                    lock.unlock();
+                }
+                dropped.forEach(DataFile::unref);
+                active = createFile();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+    }
+
+    public long merges() {
+        return merges.get();
+    }
+
+    public long bytesReclaimed() {
+        return bytesReclaimed.get();
+    }
+
+    /**
+     * @return the bytes of the data files.
+     */
+    public long byteSize() {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            return files.values().stream().mapToLong(DataFile::size).sum();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The disk figures count the data files, the memory ones the key directory.
+     */
+    @Override
+    public StorageStats stats() {
+        long memoryBytes;
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            memoryBytes = keyDir.memoryUsage();
+        } finally {
+            lock.unlock();
+        }
+        long appended = bytesAppended.get();
+        double writeAmplification = appended == 0 ? 0.0 : (double) (appended + bytesMerged.get()) / appended;
+        return new StorageStats(StorageEngine.BITCASK, byteSize(), memoryBytes, bytesWritten.get(), writeAmplification);
+    }
+
+    @Override
+    public void close() {
+        merger.shutdown();
+        try {
+            merger.awaitTermination(1, TimeUnit.MINUTES);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        writeLock.lock();
+        try {
+            if(active.size() == 0) {
+                files.remove(active.id);
+                active.unref();
+            } else {
+                active.force();
+                active.writeHint();
+            }
+            files.values().forEach(DataFile::close);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            long size = files.values().stream().mapToLong(DataFile::size).sum();
+            long dead = files.values().stream().mapToLong(DataFile::deadBytes).sum();
+            return String.format("Bitcask { keys: %d, tombstones: %d, key directory: %.1f mb, files: %d, data: %.1f mb, "
+                            + "dead: %.1f mb, merges: %d, reclaimed: %.1f mb }",
+                    keyDir.size() - keyDir.tombstones(), keyDir.tombstones(), keyDir.memoryUsage() / 1024.0 / 1024.0,
+                    files.size(), size / 1024.0 / 1024.0, dead / 1024.0 / 1024.0, merges.get(), bytesReclaimed.get() / 1024.0 / 1024.0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Append writes to the active file and point their keys at them.
+     */
+    private void append(List<ByteArrayPair> writes) {
+        writeLock.lock();
+        try {
+            long[] offsets = new long[writes.size()];
+            int[] fileIds = new int[writes.size()];
+            long firstSequence = sequence + 1;
+            long user = 0;
+            long appended = 0;
+            // a batch may seal files before it is indexed
+            unindexedFileId = active.id;
+            for(int i = 0; i < writes.size(); i++) {
+                ByteArrayPair pair = writes.get(i);
+                if(active.size() >= maxFileSize) {
+                    roll();
+                }
+                byte[] value = pair.isTombstone() ? null : pair.value();
+                offsets[i] = active.append(++sequence, pair.key(), value);
+                fileIds[i] = active.id;
+                user += pair.size();
+                appended += DataFile.recordSize(pair.key().length, value == null ? KeyDir.TOMBSTONE : value.length);
+            }
+            if(syncWrites) {
+                active.force();
+            }
+            bytesWritten.addAndGet(user);
+            bytesAppended.addAndGet(appended);
+
+            Lock lock = indexLock.writeLock();
+            lock.lock();
+            try {
+                for(int i = 0; i < writes.size(); i++) {
+                    ByteArrayPair pair = writes.get(i);
+                    byte[] key = pair.key();
+                    int slot = keyDir.find(key);
+                    if(slot >= 0) {
+                        markDead(slot, key.length);
+                    }
+                    int valueLength = pair.isTombstone() ? KeyDir.TOMBSTONE : pair.value().length;
+                    keyDir.put(key, fileIds[i], offsets[i], valueLength, firstSequence + i);
+                    if(pair.isTombstone()) {
+                        files.get(fileIds[i]).addTombstoneBytes(DataFile.recordSize(key.length, KeyDir.TOMBSTONE));
+                    }
+                }
+                unindexedFileId = Integer.MAX_VALUE;
+            } finally {
+                lock.unlock();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Seal the active file, its hint file being written in the background, and start a new one.
+     * Must be called holding the write lock.
+     */
+    private void roll() {
+        DataFile sealed = active;
+        sealed.force();
+        active = createFile();
+        merger.execute(() -> writeHint(sealed));
+    }
+
+    /**
+     * Create an empty data file, registered in the file map.
+     */
+    private DataFile createFile() {
+        int id = nextFileId.getAndIncrement();
+        DataFile file = new DataFile(id, Path.of(dataDir, DataFile.name(id)), true);
+        Lock lock = indexLock.writeLock();
+        lock.lock();
+        try {
+            files.put(id, file);
+        } finally {
+            lock.unlock();
+        }
+        return file;
+    }
+
+    private void writeHint(DataFile file) {
+        if(!file.tryRef()) {
+            return;
+        }
+        try {
+            file.writeHint();
+        } finally {
+            file.unref();
+        }
+    }
+
+    private boolean isLive(DataFile.Record record, DataFile file) {
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            int slot = keyDir.find(record.key());
+            return slot >= 0 && pointsAt(slot, file.id, record.valueOffset());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean pointsAt(int slot, int fileId, long valueOffset) {
+        return keyDir.fileId(slot) == fileId && keyDir.valueOffset(slot) == valueOffset;
+    }
+
+    /**
+     * Account for the record a key points at as superseded, must be called holding the index write lock.
+     */
+    private void markDead(int slot, int keyLength) {
+        DataFile file = files.get(keyDir.fileId(slot));
+        if(file != null) {
+            int size = DataFile.recordSize(keyLength, keyDir.valueLength(slot));
+            file.addDeadBytes(size);
+            if(keyDir.valueLength(slot) == KeyDir.TOMBSTONE) {
+                file.addTombstoneBytes(-size);
+            }
+        }
+    }
+
+    /**
+     * Rebuild the key directory from the data files, oldest first, from their hint file when they have
+     * a valid one.
+     */
+    private void load() {
+        File[] existing = new File(dataDir).listFiles();
+        if(existing == null) {
+            return;
+        }
+
+        ObjectArrayList<DataFile> found = new ObjectArrayList<>();
+        for(File file : existing) {
+            String name = file.getName();
+            if(name.endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            int id = fileId(name);
+            if(id >= 0 && file.length() == 0) {
+                file.delete();
+            } else if(id >= 0) {
+                found.add(new DataFile(id, file.toPath(), false));
+                nextFileId.accumulateAndGet(id + 1, Math::max);
+            }
+        }
+        found.sort(Comparator.comparingInt(file -> file.id));
+
+        for(DataFile file : found) {
+            files.put(file.id, file);
+            if(file.hasHint() && file.readHint(record -> load(file, record))) {
+                continue;
+            }
+            if(file.hasHint()) {
+                logger.warn("Ignoring the incomplete or corrupted hint file of data file {}", file.id);
+            }
+            for(Iterator<DataFile.Record> it = file.records(); it.hasNext(); ) {
+                load(file, it.next());
+            }
+            merger.execute(() -> writeHint(file));
+        }
+        logger.debug("Loaded {} keys from {} files", keyDir.size(), found.size());
+    }
+
+    private void load(DataFile file, DataFile.Record record) {
+        file.observeSequence(record.sequence());
+        sequence = Math.max(sequence, record.sequence());
+
+        int slot = keyDir.find(record.key());
+        if(slot >= 0 && keyDir.sequence(slot) >= record.sequence()) {
+            file.addDeadBytes(record.size());
+            return;
+        }
+        if(slot >= 0) {
+            markDead(slot, record.key().length);
+        }
+        keyDir.put(record.key(), file.id, record.valueOffset(), record.valueLength(), record.sequence());
+        if(record.isTombstone()) {
+            file.addTombstoneBytes(record.size());
+        }
+    }
+
+    /**
+     * @return the id of a data file name, -1 if it is not one.
+     */
+    static int fileId(String name) {
+        if(!name.startsWith(FILE_PREFIX) || !name.endsWith(DataFile.DATA_EXTENSION)) {
+            return -1;
+        }
+        String id = name.substring(FILE_PREFIX.length(), name.length() - DataFile.DATA_EXTENSION.length());
+        if(id.isEmpty() || !id.chars().allMatch(Character::isDigit)) {
+            return -1;
+        }
+        return Integer.parseInt(id);
+    }
+
+    private record Location(byte[] key, int fileId, long offset, int length) {
+    }
+
+    /**
+     * A live record copied by a merge, dropped if its target file is -1.
+     */
+    private record Move(DataFile.Record record, int fromFile, int toFile, long toOffset) {
+    }
+
+    /**
+     * Iterator over the sorted locations of a scan, reading from the files pinned by the scan.
+     */
+    private static class BitcaskIterator implements CloseableIterator<KVEntry> {
+
+        private final ObjectArrayList<Location> locations;
+        private final Int2ObjectOpenHashMap<DataFile> pinned;
+        private int position;
+        private boolean closed;
+
+        BitcaskIterator(ObjectArrayList<Location> locations, Int2ObjectOpenHashMap<DataFile> pinned) {
+            this.locations = locations;
+            this.pinned = pinned;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !closed && position < locations.size();
+        }
+
+        @Override
+        public KVEntry next() {
+            if(!hasNext()) {
+                return null;
+            }
+            Location location = locations.get(position++);
+            return new KVEntry(location.key(), pinned.get(location.fileId()).read(location.offset(), location.length()));
+        }
+
+        @Override
+        public void close() {
+            if(closed) {
+                return;
+            }
+            closed = true;
+            pinned.values().forEach(DataFile::unref);
+        }
+    }
 }
@@ -0,0 +1,382 @@
+package com.kvstore.core.storage.bitcask;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * An append-only data file of a {@link BitcaskStorage}, a sequence of records:
+ * <tt>|checksum (4)|sequence (8)|key length (4)|value length (4)|key|value|</tt>
+ * <p>
+ * The checksum is the CRC32C of the rest of the record, a value length of -1 marks a deletion.
+ * Records are appended by a single writer at a time and read with positional reads.
+ * <p>
+ * A sealed file may have a hint file listing its records without their values,
+ * <tt>|sequence (8)|key length (4)|value length (4)|value offset (8)|key|</tt>, read instead of the
+ * data file to rebuild the key directory. The records are followed by a trailer,
+ * <tt>|record count (8)|checksum (4)|</tt>, the checksum being the CRC32C of the rest of the file;
+ * a hint file failing to match it is ignored, the data file being read instead.
+ */
+class DataFile {
+
+    static final String DATA_EXTENSION = ".data";
+    static final String HINT_EXTENSION = ".hint";
+    static final int HEADER_SIZE = 20;
+    static final int HINT_TRAILER_SIZE = 12;
+
+    final int id;
+    private final Path path;
+    private final FileChannel channel;
+    private final AtomicLong size;
+    /**
+     * Bytes of the records superseded by a later write of their key.
+     */
+    private final AtomicLong deadBytes = new AtomicLong();
+    /**
+     * Bytes of the tombstones the key directory points at, reclaimed once a merge drops them.
+     */
+    private final AtomicLong tombstoneBytes = new AtomicLong();
+    /**
+     * Lowest and highest sequence numbers of the records of the file, tombstones of a merge may only
+     * be dropped if every file left out starts after them.
+     */
+    private final AtomicLong minSequence = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong maxSequence = new AtomicLong(-1);
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    DataFile(int id, Path path, boolean create) {
+        this.id = id;
+        this.path = path;
+        try {
+            this.channel = create
+                    ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                    : FileChannel.open(path, StandardOpenOption.READ);
+            this.size = new AtomicLong(channel.size());
+        } catch(IOException e) {
+            throw new RuntimeException("Could not open data file " + path, e);
+        }
+    }
+
+    static String name(int id) {
+        return BitcaskStorage.FILE_PREFIX + id + DATA_EXTENSION;
+    }
+
+    long size() {
+        return size.get();
+    }
+
+    long deadBytes() {
+        return deadBytes.get();
+    }
+
+    void addDeadBytes(long bytes) {
+        deadBytes.addAndGet(bytes);
+    }
+
+    long tombstoneBytes() {
+        return tombstoneBytes.get();
+    }
+
+    void addTombstoneBytes(long bytes) {
+        tombstoneBytes.addAndGet(bytes);
+    }
+
+    long minSequence() {
+        return minSequence.get();
+    }
+
+    long maxSequence() {
+        return maxSequence.get();
+    }
+
+    void observeSequence(long sequence) {
+        minSequence.accumulateAndGet(sequence, Math::min);
+        maxSequence.accumulateAndGet(sequence, Math::max);
+    }
+
+    /**
+     * Append a record, only one thread may append at a time.
+     *
+     * @param value the value, null for a deletion.
+     * @return the offset of the value in the file.
+     */
+    long append(long sequence, byte[] key, byte[] value) {
+        int valueLength = value == null ? KeyDir.TOMBSTONE : value.length;
+        ByteBuffer record = ByteBuffer.allocate(recordSize(key.length, valueLength));
+        record.position(Integer.BYTES);
+        record.putLong(sequence).putInt(key.length).putInt(valueLength).put(key);
+        if(value != null) {
+            record.put(value);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), Integer.BYTES, record.capacity() - Integer.BYTES);
+        record.putInt(0, (int) crc.getValue()).flip();
+
+        long offset = size.get();
+        try {
+            long position = offset;
+            while(record.hasRemaining()) {
+                position += channel.write(record, position);
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not append to data file " + path, e);
+        }
+        size.set(offset + record.limit());
+        observeSequence(sequence);
+        return offset + HEADER_SIZE + key.length;
+    }
+
+    void force() {
+        try {
+            channel.force(false);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not sync data file " + path, e);
+        }
+    }
+
+    byte[] read(long offset, int length) {
+        ByteBuffer value = readFully(offset, length);
+        if(value.remaining() < length) {
+            throw new IllegalStateException("Value past the end of data file " + path + " at " + offset);
+        }
+        return value.array();
+    }
+
+    /**
+     * Iterate over the records of the file, up to the first incomplete or corrupted one.
+     */
+    Iterator<Record> records() {
+        return new Iterator<>() {
+
+            private long position;
+            private Record next = read();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                Record record = next;
+                if(record != null) {
+                    next = read();
+                }
+                return record;
+            }
+
+            private Record read() {
+                long end = size.get();
+                if(end - position < HEADER_SIZE) {
+                    return null;
+                }
+                ByteBuffer header = readFully(position, HEADER_SIZE);
+                int checksum = header.getInt();
+                long sequence = header.getLong();
+                int keyLength = header.getInt();
+                int valueLength = header.getInt();
+                int bodyLength = keyLength + Math.max(valueLength, 0);
+                if(keyLength < 0 || valueLength < KeyDir.TOMBSTONE || end - position - HEADER_SIZE < bodyLength) {
+                    return null;
+                }
+
+                ByteBuffer body = readFully(position + HEADER_SIZE, bodyLength);
+                CRC32C crc = new CRC32C();
+                crc.update(header.array(), Integer.BYTES, HEADER_SIZE - Integer.BYTES);
+                crc.update(body.duplicate());
+                if((int) crc.getValue() != checksum) {
+                    return null;
+                }
+
+                byte[] key = new byte[keyLength];
+                body.get(key);
+                byte[] value = null;
+                if(valueLength != KeyDir.TOMBSTONE) {
+                    value = new byte[valueLength];
+                    body.get(value);
+                }
+                Record record = new Record(sequence, key, value, position + HEADER_SIZE + keyLength);
+                position += recordSize(keyLength, valueLength);
+                return record;
+            }
+        };
+    }
+
+    private ByteBuffer readFully(long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        try {
+            while(buffer.hasRemaining()) {
+                if(channel.read(buffer, position + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read data file " + path, e);
+        }
+        return buffer.flip();
+    }
+
+    Path hintPath() {
+        return path.resolveSibling(BitcaskStorage.FILE_PREFIX + id + HINT_EXTENSION);
+    }
+
+    boolean hasHint() {
+        return Files.exists(hintPath());
+    }
+
+    /**
+     * Write the hint file of the records of the file, synced then atomically renamed in place once complete.
+     */
+    void writeHint() {
+        Path hint = hintPath();
+        Path tmp = Path.of(hint + ".tmp");
+        CRC32C crc = new CRC32C();
+        try(FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(Channels.newOutputStream(tmpChannel), crc)));
+            long count = 0;
+            for(Iterator<Record> it = records(); it.hasNext(); count++) {
+                Record record = it.next();
+                out.writeLong(record.sequence());
+                out.writeInt(record.key().length);
+                out.writeInt(record.valueLength());
+                out.writeLong(record.valueOffset());
+                out.write(record.key());
+            }
+            out.writeLong(count);
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            // the rename may reach the disk before the contents otherwise
+            tmpChannel.force(false);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write hint file " + hint, e);
+        }
+        try {
+            Files.move(tmp, hint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            throw new RuntimeException("Could not write hint file " + hint, e);
+        }
+    }
+
+    /**
+     * Read the hint file, the records being passed without their values. The file is checked against
+     * its trailer first, so that an incomplete or corrupted one passes no record at all.
+     *
+     * @return false if the hint file did not match its trailer, none of its records being passed.
+     */
+    boolean readHint(Consumer<Record> consumer) {
+        Path hint = hintPath();
+        try {
+            long recordsSize = Files.size(hint) - HINT_TRAILER_SIZE;
+            if(recordsSize < 0) {
+                return false;
+            }
+
+            long count;
+            CRC32C crc = new CRC32C();
+            try(DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(hint)), crc))) {
+                in.skipNBytes(recordsSize);
+                count = in.readLong();
+                int checksum = (int) crc.getValue();
+                if(in.readInt() != checksum) {
+                    return false;
+                }
+            }
+
+            try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(hint)))) {
+                for(long i = 0; i < count; i++) {
+                    long sequence = in.readLong();
+                    byte[] key = new byte[in.readInt()];
+                    int valueLength = in.readInt();
+                    long valueOffset = in.readLong();
+                    in.readFully(key);
+                    consumer.accept(new Record(sequence, key, null, valueOffset, valueLength));
+                }
+            }
+            return true;
+        } catch(IOException e) {
+            throw new RuntimeException("Could not read hint file " + hint, e);
+        }
+    }
+
+    /**
+     * Take a reference on the file unless it was already released by its last reference.
+     *
+     * @return false if the file is deleted or about to be.
+     */
+    boolean tryRef() {
+        int current;
+        do {
+            current = refs.get();
+            if(current == 0) {
+                return false;
+            }
+        } while(!refs.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Drop a reference, the last one closes and deletes the file and its hint.
+     */
+    void unref() {
+        if(refs.decrementAndGet() == 0) {
+            try {
+                channel.close();
+                Files.deleteIfExists(path);
+                Files.deleteIfExists(hintPath());
+            } catch(IOException e) {
+                throw new RuntimeException("Could not delete data file " + path, e);
+            }
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch(IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static int recordSize(int keyLength, int valueLength) {
+        return HEADER_SIZE + keyLength + Math.max(valueLength, 0);
+    }
+
+    /**
+     * A record of the file.
+     *
+     * @param value       the value, null for a deletion or when read from a hint file.
+     * @param valueOffset offset of the value in the data file.
+     * @param valueLength length of the value, {@link KeyDir#TOMBSTONE} for a deletion.
+     */
+    record Record(long sequence, byte[] key, byte[] value, long valueOffset, int valueLength) {
+
+        Record(long sequence, byte[] key, byte[] value, long valueOffset) {
+            this(sequence, key, value, valueOffset, value == null ? KeyDir.TOMBSTONE : value.length);
+        }
+
+        boolean isTombstone() {
+            return valueLength == KeyDir.TOMBSTONE;
+        }
+
+        int size() {
+            return recordSize(key.length, valueLength);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.kvstore.core.storage.bitcask;
+
+import com.kvstore.core.storage.LSMTree.bloom.KeyHash;
+
+import java.util.Arrays;
+
+/**
+ * In-memory index of a Bitcask: for every key, the file, offset and length of its latest value.
+ * <p>
+ * An open-addressing hash table with linear probing over parallel primitive arrays, so that millions
+ * of keys cost no object per key. Keys are copied into a single byte arena, each slot recording the
+ * offset of its key; the arena is compacted by a rehash when it is full and half of it is garbage of
+ * removed keys. Removals shift the following slots of the probe sequence back, so no deleted markers are left.
+ * <p>
+ * Deleted keys stay in the index pointing at their tombstone, with a value length of
+ * {@link #TOMBSTONE}, until a merge drops the tombstone. Not thread-safe.
+ */
+final class KeyDir {
+
+    static final int TOMBSTONE = -1;
+
+    private static final float MAX_LOAD = 0.75f;
+
+    private int[] hashes;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private int[] fileIds;
+    private long[] valueOffsets;
+    private int[] valueLengths;
+    private long[] sequences;
+    /**
+     * True for the used slots, hashes may be 0.
+     */
+    private boolean[] used;
+    private int mask;
+    private int size;
+    private int tombstones;
+
+    private byte[] arena;
+    private int arenaSize;
+    private int arenaGarbage;
+
+    KeyDir(int expectedKeys) {
+        allocate(Math.max(16, Integer.highestOneBit((int) (Math.max(expectedKeys, 1) / MAX_LOAD)) << 1));
+        arena = new byte[1024];
+    }
+
+    /**
+     * @return the slot of the key, -1 if absent.
+     */
+    int find(byte[] key) {
+        int hash = (int) KeyHash.hash64(key);
+        for(int slot = hash & mask; used[slot]; slot = (slot + 1) & mask) {
+            if(hashes[slot] == hash && keyEquals(slot, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    int fileId(int slot) {
+        return fileIds[slot];
+    }
+
+    long valueOffset(int slot) {
+        return valueOffsets[slot];
+    }
+
+    /**
+     * @return the length of the value, {@link #TOMBSTONE} if the key is deleted.
+     */
+    int valueLength(int slot) {
+        return valueLengths[slot];
+    }
+
+    long sequence(int slot) {
+        return sequences[slot];
+    }
+
+    byte[] key(int slot) {
+        return Arrays.copyOfRange(arena, keyOffsets[slot], keyOffsets[slot] + keyLengths[slot]);
+    }
+
+    /**
+     * Point a key at a value, inserting the key if absent.
+     *
+     * @param valueLength length of the value, {@link #TOMBSTONE} for a deletion.
+     */
+    void put(byte[] key, int fileId, long valueOffset, int valueLength, long sequence) {
+        int slot = find(key);
+        if(slot < 0) {
+            if(size + 1 > (mask + 1) * MAX_LOAD) {
+                resize((mask + 1) << 1);
+            } else if(arenaSize + key.length > arena.length && arenaGarbage > arenaSize / 2) {
+                // rehash in place to compact the arena rather than growing it
+                resize(mask + 1);
+            }
+            slot = insertSlot((int) KeyHash.hash64(key));
+            keyOffsets[slot] = appendKey(key);
+            keyLengths[slot] = key.length;
+            size++;
+        } else if(valueLengths[slot] == TOMBSTONE) {
+            tombstones--;
+        }
+        fileIds[slot] = fileId;
+        valueOffsets[slot] = valueOffset;
+        valueLengths[slot] = valueLength;
+        sequences[slot] = sequence;
+        if(valueLength == TOMBSTONE) {
+            tombstones++;
+        }
+    }
+
+    void remove(int slot) {
+        if(valueLengths[slot] == TOMBSTONE) {
+            tombstones--;
+        }
+        arenaGarbage += keyLengths[slot];
+        size--;
+
+        // shift back the following entries of the probe sequence that may not be found anymore
+        int hole = slot;
+        int next = (hole + 1) & mask;
+        while(used[next]) {
+            int home = hashes[next] & mask;
+            if(((next - home) & mask) >= ((next - hole) & mask)) {
+                move(next, hole);
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        used[hole] = false;
+    }
+
+    /**
+     * Remove every key, keeping the capacity of the table.
+     */
+    void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+        tombstones = 0;
+        arenaSize = 0;
+        arenaGarbage = 0;
+    }
+
+    /**
+     * @return the number of keys, deleted ones included.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of keys pointing at a tombstone.
+     */
+    int tombstones() {
+        return tombstones;
+    }
+
+    /**
+     * @return the slots past the last one, to iterate with {@link #isUsed(int)}.
+     */
+    int capacity() {
+        return mask + 1;
+    }
+
+    boolean isUsed(int slot) {
+        return used[slot];
+    }
+
+    /**
+     * @return the approximate heap bytes of the index.
+     */
+    long memoryUsage() {
+        return (long) capacity() * (Integer.BYTES * 5 + Long.BYTES * 2 + 1) + arena.length;
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        int offset = keyOffsets[slot];
+        return keyLengths[slot] == key.length && Arrays.equals(arena, offset, offset + key.length, key, 0, key.length);
+    }
+
+    private int insertSlot(int hash) {
+        int slot = hash & mask;
+        while(used[slot]) {
+            slot = (slot + 1) & mask;
+        }
+        used[slot] = true;
+        hashes[slot] = hash;
+        return slot;
+    }
+
+    private int appendKey(byte[] key) {
+        if(arenaSize + key.length > arena.length) {
+            long capacity = Math.max((long) arena.length << 1, arenaSize + key.length);
+            if(capacity > Integer.MAX_VALUE - 8) {
+                throw new IllegalStateException("Key arena full: " + arenaSize + " bytes");
+            }
+            arena = Arrays.copyOf(arena, (int) capacity);
+        }
+        int offset = arenaSize;
+        System.arraycopy(key, 0, arena, offset, key.length);
+        arenaSize += key.length;
+        return offset;
+    }
+
+    private void move(int from, int to) {
+        hashes[to] = hashes[from];
+        keyOffsets[to] = keyOffsets[from];
+        keyLengths[to] = keyLengths[from];
+        fileIds[to] = fileIds[from];
+        valueOffsets[to] = valueOffsets[from];
+        valueLengths[to] = valueLengths[from];
+        sequences[to] = sequences[from];
+        used[to] = true;
+    }
+
+    private void allocate(int capacity) {
+        hashes = new int[capacity];
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        fileIds = new int[capacity];
+        valueOffsets = new long[capacity];
+        valueLengths = new int[capacity];
+        sequences = new long[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+    }
+
+    private void resize(int capacity) {
+        int[] oldHashes = hashes;
+        int[] oldKeyOffsets = keyOffsets;
+        int[] oldKeyLengths = keyLengths;
+        int[] oldFileIds = fileIds;
+        long[] oldValueOffsets = valueOffsets;
+        int[] oldValueLengths = valueLengths;
+        long[] oldSequences = sequences;
+        boolean[] oldUsed = used;
+
+        byte[] oldArena = arena;
+        boolean compact = arenaGarbage > arenaSize / 2;
+        if(compact) {
+            arena = new byte[Math.max(1024, arenaSize - arenaGarbage)];
+            arenaSize = 0;
+            arenaGarbage = 0;
+        }
+
+        allocate(capacity);
+        for(int i = 0; i < oldUsed.length; i++) {
+            if(!oldUsed[i]) {
+                continue;
+            }
+            int slot = insertSlot(oldHashes[i]);
+            if(compact) {
+                keyOffsets[slot] = arenaSize;
+                System.arraycopy(oldArena, oldKeyOffsets[i], arena, arenaSize, oldKeyLengths[i]);
+                arenaSize += oldKeyLengths[i];
+            } else {
+                keyOffsets[slot] = oldKeyOffsets[i];
+            }
+            keyLengths[slot] = oldKeyLengths[i];
+            fileIds[slot] = oldFileIds[i];
+            valueOffsets[slot] = oldValueOffsets[i];
+            valueLengths[slot] = oldValueLengths[i];
+            sequences[slot] = oldSequences[i];
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.kvstore.core.storage.memory;
+
+import com.kvstore.core.iterator.CloseableIterator;
+import com.kvstore.core.model.KVEntry;
+import com.kvstore.core.storage.LSMTree.comparator.KeyComparators;
+import com.kvstore.core.storage.LSMTree.types.ByteArrayPair;
+import com.kvstore.core.storage.Storage;
+import com.kvstore.core.storage.StorageEngine;
+import com.kvstore.core.storage.StorageStats;
+import com.kvstore.core.storage.WriteBatch;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Storage engine keeping its entries in a sorted map on the heap, nothing survives a restart.
+ * <p>
+ * Reads, writes and scans run concurrently. Batches hold off the other writers while they are applied,
+ * but readers may see part of a batch being applied, and scans are weakly consistent: they see
+ * every write completed before they were opened and may see later ones. Meant as the baseline
+ * engines are benchmarked against and for nodes whose state is rebuilt from elsewhere.
+ */
+public class MemoryStorage implements Storage {
+
+    private final ConcurrentSkipListMap<byte[], byte[]> entries = new ConcurrentSkipListMap<>(KeyComparators.LEXICOGRAPHIC);
+    /**
+     * Writers share the read side, batches and clears take the write side.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicLong byteSize = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    @Override
+    public void put(byte[] key, byte[] value) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            apply(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] get(byte[] key) {
+        return entries.get(key);
+    }
+
+    @Override
+    public void delete(byte[] key) {
+        Lock lock = this.lock.readLock();
+        lock.lock();
+        try {
+            apply(key, null);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void write(WriteBatch batch) {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            for(ByteArrayPair pair : batch.writes()) {
+                apply(pair.key(), pair.isTombstone() ? null : pair.value());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CloseableIterator<KVEntry> scan() {
+        return scan(null, null);
+    }
+
+    @Override
+    public CloseableIterator<KVEntry> scan(byte[] from, byte[] to) {
+        if(from != null && to != null && KeyComparators.LEXICOGRAPHIC.compare(from, to) >= 0) {
+            return new MemoryIterator(Collections.emptyIterator());
+        }
+        NavigableMap<byte[], byte[]> range = entries;
+        if(from != null) {
+            range = range.tailMap(from, true);
+        }
+        if(to != null) {
+            range = range.headMap(to, false);
+        }
+        return new MemoryIterator(range.entrySet().iterator());
+    }
+
+    @Override
+    public void clear() {
+        Lock lock = this.lock.writeLock();
+        lock.lock();
+        try {
+            entries.clear();
+            byteSize.set(0);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of keys.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public StorageStats stats() {
+        return new StorageStats(StorageEngine.MEMORY, 0, byteSize.get(), bytesWritten.get(), 0);
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Memory { keys: %d, data: %.1f mb }", entries.size(), byteSize.get() / 1024.0 / 1024.0);
+    }
+
+    /**
+     * Put or delete a key, must be called holding the lock.
+     *
+     * @param value the value, null for a deletion.
+     */
+    private void apply(byte[] key, byte[] value) {
+        byte[] previous = value != null ? entries.put(key, value) : entries.remove(key);
+        long delta = (value != null ? key.length + value.length : 0) - (previous != null ? key.length + previous.length : 0);
+        byteSize.addAndGet(delta);
+        bytesWritten.addAndGet(key.length + (value != null ? value.length : 0));
+    }
+
+    /**
+     * Iterator over the entries of the range of a scan.
+     */
+    private static class MemoryIterator implements CloseableIterator<KVEntry> {
+
+        private Iterator<Map.Entry<byte[], byte[]>> entries;
+
+        MemoryIterator(Iterator<Map.Entry<byte[], byte[]>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return entries != null && entries.hasNext();
+        }
+
+        @Override
+        public KVEntry next() {
+            if(!hasNext()) {
+                return null;
+            }
+            Map.Entry<byte[], byte[]> entry = entries.next();
+            return new KVEntry(entry.getKey(), entry.getValue());
+        }
+
+        @Override
+        public void close() {
+            entries = null;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.kvstore.raft.common;
+
+import com.kvstore.core.storage.Storage;
+import com.kvstore.core.storage.StorageOptions;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * State machine of a node on top of a {@link Storage}, whose engine is selected by configuration:
+ * the default constructor reads the {@link StorageOptions#ENGINE_PROPERTY} and
+ * {@link StorageOptions#DATA_DIR_PROPERTY} system properties, e.g. {@code -Dkv.storage.engine=bitcask}.
+ */
+public class StorageAdapter implements KVStore {
+    private final Storage storage;
+    private final ReentrantLock lock;
+
+    public StorageAdapter() {
+        this(StorageOptions.fromProperties(System.getProperties()));
+    }
+
+    public StorageAdapter(StorageOptions options) {
+        this(Storage.open(options));
+    }
+
+    public StorageAdapter(Storage storage) {
+        this.storage = storage;
+        this.lock = new ReentrantLock();
+    }
+
+    @Override
+    public String get(String key) {
+        lock.lock();
+        try {
+            byte[] value = storage.get(key.getBytes(StandardCharsets.UTF_8));
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        } catch(IOException e) {
+            throw new RuntimeException("Failed to get " + key, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(String key, String value) {
+        lock.lock();
+        try {
+            storage.put(key.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+        } catch(IOException e) {
+            throw new RuntimeException("Failed to put " + key, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        lock.lock();
+        try {
+            storage.delete(key.getBytes(StandardCharsets.UTF_8));
+        } catch(IOException e) {
+            throw new RuntimeException("Failed to delete " + key, e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            storage.clear();
+        } catch(IOException e) {
+            throw new RuntimeException("Failed to clear the storage", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Storage storage() {
+        return storage;
+    }
+}